@@ -0,0 +1,26 @@
+package cz.net21.ttulka.recexp.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler reporting the allocation rate.
+ * <p>
+ * Accepts the standard JMH command line options, e.g. <code>java -jar target/benchmarks.jar MatchBenchmark -p engine=EARLEY</code>.
+ *
+ * @author ttulka
+ */
+public class BenchmarksRunner {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
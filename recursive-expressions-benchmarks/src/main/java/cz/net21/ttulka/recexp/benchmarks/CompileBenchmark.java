@@ -0,0 +1,42 @@
+package cz.net21.ttulka.recexp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpEngine;
+
+/**
+ * Throughput of compiling the grammars.
+ *
+ * @author ttulka
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+
+    @Param
+    public Grammars grammar;
+
+    @Param
+    public RecexpEngine engine;
+
+    @Benchmark
+    public Recexp compile() {
+        return grammar.compile(engine);
+    }
+}
@@ -0,0 +1,63 @@
+package cz.net21.ttulka.recexp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpEngine;
+
+/**
+ * Throughput of matching inputs of growing lengths by the derivation engine.
+ * <p>
+ * The derivation engine grows exponentially with the input length for some grammars, a match of 16 characters of the same number of 0s and 1s
+ * takes seconds already.
+ *
+ * @author ttulka
+ * @see MatchBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DerivationMatchBenchmark {
+
+    @Param
+    public Grammars grammar;
+
+    @Param({"4", "8", "12", "16"})
+    public int length;
+
+    @Param({"true", "false"})
+    public boolean accepted;
+
+    private Recexp recexp;
+    private String input;
+
+    @Setup
+    public void setup() {
+        recexp = grammar.compile(RecexpEngine.DERIVATION);
+        input = grammar.input(length, accepted);
+
+        if (recexp.matches(input) != accepted) {
+            throw new IllegalStateException("Unexpected result of " + grammar + " for '" + input + "', expected: " + accepted);
+        }
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return recexp.matches(input);
+    }
+}
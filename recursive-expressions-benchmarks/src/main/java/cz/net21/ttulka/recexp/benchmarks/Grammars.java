@@ -0,0 +1,124 @@
+package cz.net21.ttulka.recexp.benchmarks;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpEngine;
+
+/**
+ * Grammars from the README with generators of accepted and rejected inputs.
+ *
+ * @author ttulka
+ */
+public enum Grammars {
+
+    /**
+     * <code>S → 0S0 | 1S1 | 0 | 1 | ε</code>
+     */
+    PALINDROMES {
+        @Override
+        public Recexp compile(RecexpEngine engine) {
+            return Recexp.builder()
+                    .rule("S", "0(@S)0|1(@S)1|0|1|@eps")
+                    .engine(engine)
+                    .build();
+        }
+
+        @Override
+        public String input(int length, boolean accepted) {
+            StringBuilder half = new StringBuilder(length / 2);
+            for (int i = 0; i < length / 2; i++) {
+                half.append(i % 3 == 0 ? '1' : '0');
+            }
+            String input = half.toString() + (length % 2 == 1 ? "0" : "") + half.reverse();
+
+            // the last character differs from the first one
+            return accepted ? input : input.substring(0, length - 1) + '0';
+        }
+    },
+
+    /**
+     * <code>S → 0S1S | 1S0S | ε</code>
+     */
+    SAME_NUMBER_OF_0S_AND_1S {
+        @Override
+        public Recexp compile(RecexpEngine engine) {
+            return Recexp.builder()
+                    .rule("S", "0(@S)1(@S)|1(@S)0(@S)|@eps")
+                    .engine(engine)
+                    .build();
+        }
+
+        @Override
+        public String input(int length, boolean accepted) {
+            StringBuilder sb = new StringBuilder(length);
+            for (int i = 0; i < length / 2; i++) {
+                sb.append(i % 2 == 0 ? "10" : "01");
+            }
+            // one more 0 than 1s
+            return accepted ? sb.toString() : sb.append('0').toString();
+        }
+    },
+
+    /**
+     * <code>E → E±T | T, T → T×F | F, F → (E) | X | Y</code>
+     */
+    ARITHMETIC_EXPRESSIONS {
+        @Override
+        public Recexp compile(RecexpEngine engine) {
+            return Recexp.builder()
+                    .rule("E", "@E±@T|@T")
+                    .rule("T", "@T×@F|@F")
+                    .rule("F", "\\(@E\\)|X|Y")
+                    .engine(engine)
+                    .build();
+        }
+
+        @Override
+        public String input(int length, boolean accepted) {
+            StringBuilder sb = new StringBuilder(length + 1).append('X');
+            while (sb.length() < length) {
+                sb.append(sb.length() % 4 == 1 ? "±Y" : "×X");
+            }
+            // a dangling operator
+            return accepted ? sb.toString() : sb.append('±').toString();
+        }
+    },
+
+    /**
+     * <code>S → aS | b</code>
+     */
+    SELF_REFERENCE {
+        @Override
+        public Recexp compile(RecexpEngine engine) {
+            return Recexp.builder()
+                    .rule("a@this|b")
+                    .engine(engine)
+                    .build();
+        }
+
+        @Override
+        public String input(int length, boolean accepted) {
+            StringBuilder sb = new StringBuilder(length);
+            for (int i = 0; i < length - 1; i++) {
+                sb.append('a');
+            }
+            return sb.append(accepted ? 'b' : 'a').toString();
+        }
+    };
+
+    /**
+     * Compiles the grammar.
+     *
+     * @param engine the parsing engine
+     * @return the compiled grammar
+     */
+    public abstract Recexp compile(RecexpEngine engine);
+
+    /**
+     * Generates an input of about the length.
+     *
+     * @param length   the length of the input
+     * @param accepted whether the input is accepted by the grammar
+     * @return the input
+     */
+    public abstract String input(int length, boolean accepted);
+}
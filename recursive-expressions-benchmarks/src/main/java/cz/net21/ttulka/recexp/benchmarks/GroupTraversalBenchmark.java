@@ -0,0 +1,69 @@
+package cz.net21.ttulka.recexp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpEngine;
+import cz.net21.ttulka.recexp.RecexpGroup;
+import cz.net21.ttulka.recexp.RecexpMatcher;
+
+/**
+ * Throughput of matching an input and traversing all the groups of the result.
+ *
+ * @author ttulka
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupTraversalBenchmark {
+
+    @Param
+    public Grammars grammar;
+
+    @Param
+    public RecexpEngine engine;
+
+    @Param({"4", "8", "16"})
+    public int length;
+
+    private Recexp recexp;
+    private String input;
+
+    @Setup
+    public void setup() {
+        recexp = grammar.compile(engine);
+        input = grammar.input(length, true);
+    }
+
+    @Benchmark
+    public void matchAndTraverse(Blackhole blackhole) {
+        RecexpMatcher matcher = recexp.matcher(input);
+        blackhole.consume(matcher.matches());
+        traverse(matcher, blackhole);
+    }
+
+    private static void traverse(RecexpGroup group, Blackhole blackhole) {
+        blackhole.consume(group.name());
+        blackhole.consume(group.value());
+
+        for (int i = 1; i <= group.groupCount(); i++) {
+            traverse(group.group(i), blackhole);
+        }
+    }
+}
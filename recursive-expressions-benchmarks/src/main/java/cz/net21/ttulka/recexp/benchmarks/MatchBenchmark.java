@@ -0,0 +1,66 @@
+package cz.net21.ttulka.recexp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpEngine;
+
+/**
+ * Throughput of matching inputs of growing lengths by the parsing engines.
+ * <p>
+ * The lengths double, so the throughput shows how the cost scales with the input length. The derivation engine grows exponentially with the
+ * input length for some grammars, it is measured with shorter inputs by {@link DerivationMatchBenchmark}.
+ *
+ * @author ttulka
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatchBenchmark {
+
+    @Param
+    public Grammars grammar;
+
+    @Param({"EARLEY", "GLL", "PACKRAT"})
+    public RecexpEngine engine;
+
+    @Param({"16", "32", "64", "128", "256"})
+    public int length;
+
+    @Param({"true", "false"})
+    public boolean accepted;
+
+    private Recexp recexp;
+    private String input;
+
+    @Setup
+    public void setup() {
+        recexp = grammar.compile(engine);
+        input = grammar.input(length, accepted);
+
+        // the ordered choice of the packrat engine rejects some inputs of the language, e.g. the palindromes
+        if (recexp.matches(input) != accepted && engine != RecexpEngine.PACKRAT) {
+            throw new IllegalStateException("Unexpected result of " + grammar + " for '" + input + "', expected: " + accepted);
+        }
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return recexp.matches(input);
+    }
+}
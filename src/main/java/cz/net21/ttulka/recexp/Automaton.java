@@ -0,0 +1,1334 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Finite automaton of a regular expression of a terminal or a regular rule.
+ * <p>
+ * The expression is compiled into a program of a Thompson NFA. All the match ends are found by a DFA constructed lazily from the NFA, the states
+ * of the DFA are kept in a bounded cache shared by all the matchers, a full cache is flushed. The preferred match of a prefix is found by a
+ * simulation of the NFA with prioritized threads, which gives the same result as the backtracking of {@link Pattern} in linear time.
+ * <p>
+ * Only the regular subset of the syntax is compiled: literals, escapes, predefined and custom character classes, groups, alternations and
+ * greedy or lazy quantifiers. Expressions with backreferences, lookaround, anchors, boundaries, possessive quantifiers, inline flags and other
+ * constructs are not compiled and must be matched by {@link Pattern}, so must be the inputs containing surrogate characters.
+ *
+ * @author ttulka
+ * @see ContextFreeGrammar.Terminal
+ * @see RegularSubgrammar
+ */
+class Automaton {
+
+    static final int MAX_INSTRUCTIONS = 4096;
+    static final int DFA_CACHE_CAPACITY = 1024;
+
+    private static final int SUPPORTED_FLAGS =
+            Pattern.UNIX_LINES | Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL | Pattern.UNICODE_CASE;
+
+    private static final int CHAR = 0;
+    private static final int SPLIT = 1;
+    private static final int JUMP = 2;
+    private static final int MATCH = 3;
+
+    /**
+     * Operations of the instructions.
+     */
+    private final int[] ops;
+    /**
+     * The next instruction of a character or a jump, the preferred next instruction of a split.
+     */
+    private final int[] next;
+    /**
+     * The other next instruction of a split.
+     */
+    private final int[] alternative;
+    private final CharClass[] classes;
+    /**
+     * Bounds of the lengths of the accepted inputs.
+     */
+    private final int minLength;
+    private final int maxLength;
+    private final Literals literals;
+    private final char[] requiredChars;
+    private final Term term;
+
+    private volatile Cache cache;
+
+    private Automaton(Program program, Term term) {
+        this.minLength = term.minLength();
+        this.maxLength = term.maxLength();
+        this.literals = term.literals();
+        this.requiredChars = term.requiredChars();
+        this.term = term;
+        this.ops = Arrays.copyOf(program.ops, program.size);
+        this.next = Arrays.copyOf(program.next, program.size);
+        this.alternative = Arrays.copyOf(program.alternative, program.size);
+        this.classes = Arrays.copyOf(program.classes, program.size);
+        this.cache = new Cache();
+    }
+
+    /**
+     * Compiles the regular expression into an automaton.
+     *
+     * @param regex the regular expression
+     * @param flags the match flags
+     * @return the automaton, or <code>null</code> when the expression is not in the supported subset of the syntax
+     */
+    public static Automaton compile(String regex, int flags) {
+        if ((flags & ~SUPPORTED_FLAGS) != 0) {
+            return null;
+        }
+        try {
+            Program program = new Program();
+            Term term = new Parser(regex, flags).parse();
+            term.emit(program);
+            program.add(MATCH, -1, -1, null);
+            return new Automaton(program, term);
+
+        } catch (UnsupportedSyntax e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of the states in the DFA cache.
+     */
+    int cachedStates() {
+        Cache cache = this.cache;
+        synchronized (cache) {
+            return cache.states.size();
+        }
+    }
+
+    /**
+     * Creates a matcher for the input.
+     *
+     * @param input    the input
+     * @param fallback the pattern of the same expression to match the inputs with surrogate characters
+     * @return the matcher
+     */
+    public ContextFreeGrammar.TerminalMatcher matcher(CharSequence input, Pattern fallback) {
+        return new AutomatonMatcher(input, fallback);
+    }
+
+    /**
+     * Returns true if the automaton accepts the whole input.
+     *
+     * @param input    the input
+     * @param fallback the pattern of the same expression to match the inputs with surrogate characters
+     * @return true if the input is accepted, otherwise false
+     */
+    public boolean matches(CharSequence input, Pattern fallback) {
+        State state = start();
+        for (int position = 0; position < input.length(); position++) {
+            char ch = input.charAt(position);
+            if (isSurrogate(ch)) {
+                return fallback.matcher(input).matches();
+            }
+            state = transition(state, ch);
+            if (state.isDead()) {
+                return false;
+            }
+        }
+        return state.accepting;
+    }
+
+    /**
+     * Returns true if the automaton accepts an empty input.
+     */
+    public boolean matchesEmpty() {
+        return start().accepting;
+    }
+
+    /**
+     * Returns a superset of the characters the accepted inputs start with, the surrogate characters are always included.
+     *
+     * @return the sorted disjoint ranges as pairs of inclusive bounds
+     */
+    public char[] firstChars() {
+        List<char[]> ranges = new ArrayList<char[]>();
+        ranges.add(new char[]{Character.MIN_SURROGATE, Character.MAX_SURROGATE});
+        for (int pc : start().instructions) {
+            if (ops[pc] == CHAR) {
+                ranges.add(classes[pc].superset());
+            }
+        }
+        return CharClass.union(ranges);
+    }
+
+    /**
+     * Returns the minimal length of the accepted inputs.
+     */
+    public int minLength() {
+        return minLength;
+    }
+
+    /**
+     * Returns the maximal length of the accepted inputs, a character matching a supplementary code point counts as two.
+     *
+     * @return the length, or {@link LengthBounds#UNBOUNDED} when not limited
+     */
+    public int maxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Returns the literals of the accepted inputs.
+     */
+    public Literals literals() {
+        return literals;
+    }
+
+    /**
+     * Returns the characters every accepted input contains at least one of, the surrogate characters are always included.
+     *
+     * @return the sorted disjoint ranges as pairs of inclusive bounds, or <code>null</code> when an input can contain no such characters
+     */
+    public char[] requiredChars() {
+        return requiredChars != null ? requiredChars.clone() : null;
+    }
+
+    /**
+     * Returns the counts of the characters in the accepted inputs.
+     *
+     * @param chars the counted characters, sorted
+     * @return the counts, or <code>null</code> when no input is accepted
+     */
+    public CountConstraints.Counts counts(char[] chars) {
+        return term.counts(chars);
+    }
+
+    /**
+     * Returns a superset of the characters the accepted inputs consist of, the surrogate characters are always included.
+     *
+     * @return the sorted disjoint ranges as pairs of inclusive bounds
+     */
+    public char[] alphabet() {
+        List<char[]> ranges = new ArrayList<char[]>();
+        ranges.add(new char[]{Character.MIN_SURROGATE, Character.MAX_SURROGATE});
+        for (int pc = 0; pc < ops.length; pc++) {
+            if (ops[pc] == CHAR) {
+                ranges.add(classes[pc].superset());
+            }
+        }
+        return CharClass.union(ranges);
+    }
+
+    private State start() {
+        return cache.start;
+    }
+
+    private State transition(State state, char ch) {
+        State target;
+        if (ch < state.ascii.length) {
+            // a racy read sees either null or a fully constructed state
+            target = state.ascii[ch];
+            if (target == null) {
+                target = step(state, ch);
+                state.ascii[ch] = target;
+            }
+            return target;
+        }
+        synchronized (state) {
+            if (state.others == null) {
+                state.others = new HashMap<Character, State>();
+            }
+            target = state.others.get(ch);
+            if (target == null) {
+                target = step(state, ch);
+                state.others.put(ch, target);
+            }
+        }
+        return target;
+    }
+
+    private State step(State state, char ch) {
+        boolean[] added = new boolean[ops.length];
+        int[] stack = new int[ops.length * 2];
+        int[] closure = new int[ops.length];
+        int size = 0;
+
+        for (int pc : state.instructions) {
+            if (ops[pc] == CHAR && classes[pc].matches(ch)) {
+                size = closure(next[pc], added, stack, closure, size);
+            }
+        }
+        return intern(Arrays.copyOf(closure, size));
+    }
+
+    /**
+     * Adds the character and match instructions reachable from the instruction.
+     */
+    private int closure(int pc, boolean[] added, int[] stack, int[] closure, int size) {
+        int top = 0;
+        stack[top++] = pc;
+        while (top > 0) {
+            pc = stack[--top];
+            if (added[pc]) {
+                continue;
+            }
+            added[pc] = true;
+            switch (ops[pc]) {
+                case SPLIT:
+                    stack[top++] = alternative[pc];
+                    stack[top++] = next[pc];
+                    break;
+                case JUMP:
+                    stack[top++] = next[pc];
+                    break;
+                default:
+                    closure[size++] = pc;
+            }
+        }
+        return size;
+    }
+
+    private State intern(int[] instructions) {
+        Arrays.sort(instructions);
+        State state = new State(instructions, instructions.length > 0 && ops[instructions[instructions.length - 1]] == MATCH);
+
+        Cache cache = this.cache;
+        synchronized (cache) {
+            State cached = cache.states.get(state);
+            if (cached != null) {
+                return cached;
+            }
+            if (cache.states.size() < DFA_CACHE_CAPACITY) {
+                cache.states.put(state, state);
+                return state;
+            }
+        }
+        // the states in use stay valid, only not shared anymore
+        this.cache = new Cache();
+        return state;
+    }
+
+    /**
+     * Cache of the DFA states.
+     */
+    private class Cache {
+
+        final Map<State, State> states = new HashMap<State, State>();
+        final State start;
+
+        Cache() {
+            int[] closure = new int[ops.length];
+            int size = closure(0, new boolean[ops.length], new int[ops.length * 2], closure, 0);
+            Arrays.sort(closure, 0, size);
+
+            this.start = new State(Arrays.copyOf(closure, size), ops[closure[size - 1]] == MATCH);
+            states.put(start, start);
+        }
+    }
+
+    /**
+     * State of the DFA, a set of NFA instructions.
+     */
+    private static final class State {
+
+        /**
+         * The sorted character and match instructions.
+         */
+        final int[] instructions;
+        final boolean accepting;
+        final int hash;
+
+        /**
+         * Transitions for ASCII characters.
+         */
+        final State[] ascii = new State[128];
+        /**
+         * Transitions for other characters, guarded by the state.
+         */
+        Map<Character, State> others;
+
+        State(int[] instructions, boolean accepting) {
+            this.instructions = instructions;
+            this.accepting = accepting;
+            this.hash = Arrays.hashCode(instructions);
+        }
+
+        boolean isDead() {
+            return instructions.length == 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof State && Arrays.equals(instructions, ((State) o).instructions);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Matcher of the automaton, falls back to the pattern for surrogate characters.
+     */
+    private class AutomatonMatcher extends ContextFreeGrammar.TerminalMatcher {
+
+        private final Pattern fallbackPattern;
+        private ContextFreeGrammar.TerminalMatcher fallback;
+        private boolean fallen;
+
+        private CharSequence input;
+        private boolean hitEnd;
+
+        /**
+         * Thread lists of the NFA simulation.
+         */
+        private int[] current;
+        private int[] following;
+        private int[] stack;
+        private int[] marks;
+        private int mark;
+
+        AutomatonMatcher(CharSequence input, Pattern fallbackPattern) {
+            this.input = input;
+            this.fallbackPattern = fallbackPattern;
+        }
+
+        @Override
+        public void reset(CharSequence input) {
+            this.input = input;
+            if (fallback != null) {
+                fallback.reset(input);
+            }
+        }
+
+        @Override
+        public boolean hitEnd() {
+            return fallen ? fallback.hitEnd() : hitEnd;
+        }
+
+        @Override
+        public int[] matchEnds(int from, int to, int[] buffer) {
+            int[] ends = buffer != null ? buffer : new int[4];
+            int count = 0;
+
+            State state = start();
+            if (state.accepting) {
+                ends = append(ends, ++count, from);
+            }
+            hitEnd = true;
+            for (int position = from; position < to; position++) {
+                char ch = input.charAt(position);
+                if (isSurrogate(ch)) {
+                    return fallback().matchEnds(from, to, buffer);
+                }
+                state = transition(state, ch);
+                if (state.isDead()) {
+                    hitEnd = false;
+                    break;
+                }
+                if (state.accepting) {
+                    ends = append(ends, ++count, position + 1);
+                }
+            }
+            fallen = false;
+            ends[0] = count;
+            return ends;
+        }
+
+        @Override
+        public int matchPrefix(int from, int to) {
+            if (current == null) {
+                current = new int[ops.length + 1];
+                following = new int[ops.length + 1];
+                stack = new int[ops.length * 2];
+                marks = new int[ops.length];
+            }
+            int end = -1;
+            current[0] = 0;
+            mark++;
+            add(current, 0);
+
+            int position = from;
+            while (current[0] > 0) {
+                char ch = 0;
+                if (position < to) {
+                    ch = input.charAt(position);
+                    if (isSurrogate(ch)) {
+                        return fallback().matchPrefix(from, to);
+                    }
+                }
+                following[0] = 0;
+                mark++;
+                for (int i = 1; i <= current[0]; i++) {
+                    int pc = current[i];
+                    if (ops[pc] == MATCH) {
+                        // the threads of a lower priority are cut off
+                        end = position;
+                        break;
+                    }
+                    if (position < to && classes[pc].matches(ch)) {
+                        add(following, next[pc]);
+                    }
+                }
+                if (position == to) {
+                    break;
+                }
+                int[] swap = current;
+                current = following;
+                following = swap;
+                position++;
+            }
+            hitEnd = position == to && current[0] > 0;
+            fallen = false;
+            return end;
+        }
+
+        /**
+         * Adds the threads reachable from the instruction to the list in the order of their priority.
+         */
+        private void add(int[] threads, int pc) {
+            int top = 0;
+            stack[top++] = pc;
+            while (top > 0) {
+                pc = stack[--top];
+                if (marks[pc] == mark) {
+                    continue;
+                }
+                marks[pc] = mark;
+                switch (ops[pc]) {
+                    case SPLIT:
+                        stack[top++] = alternative[pc];
+                        stack[top++] = next[pc];
+                        break;
+                    case JUMP:
+                        stack[top++] = next[pc];
+                        break;
+                    default:
+                        threads[++threads[0]] = pc;
+                }
+            }
+        }
+
+        private ContextFreeGrammar.TerminalMatcher fallback() {
+            if (fallback == null) {
+                fallback = new ContextFreeGrammar.PatternMatcher(fallbackPattern, input);
+            }
+            fallen = true;
+            return fallback;
+        }
+    }
+
+    private static boolean isSurrogate(char ch) {
+        return ch >= Character.MIN_SURROGATE && ch <= Character.MAX_SURROGATE;
+    }
+
+    /**
+     * Program of the NFA being emitted.
+     */
+    private static class Program {
+
+        int[] ops = new int[16];
+        int[] next = new int[16];
+        int[] alternative = new int[16];
+        CharClass[] classes = new CharClass[16];
+        int size;
+
+        int add(int op, int next, int alternative, CharClass chars) {
+            if (size == MAX_INSTRUCTIONS) {
+                throw new UnsupportedSyntax();
+            }
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                this.next = Arrays.copyOf(this.next, size * 2);
+                this.alternative = Arrays.copyOf(this.alternative, size * 2);
+                classes = Arrays.copyOf(classes, size * 2);
+            }
+            ops[size] = op;
+            this.next[size] = next;
+            this.alternative[size] = alternative;
+            classes[size] = chars;
+            return size++;
+        }
+    }
+
+    /**
+     * Term of a parsed regular expression.
+     */
+    private static abstract class Term {
+
+        abstract void emit(Program program);
+
+        abstract int minLength();
+
+        abstract int maxLength();
+
+        abstract Literals literals();
+
+        /**
+         * Returns the characters every matched string contains at least one of, or <code>null</code>.
+         */
+        abstract char[] requiredChars();
+
+        /**
+         * Returns the counts of the characters in the matched strings, or <code>null</code>.
+         */
+        abstract CountConstraints.Counts counts(char[] chars);
+    }
+
+    private static class Chars extends Term {
+
+        final CharClass chars;
+
+        Chars(CharClass chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        void emit(Program program) {
+            program.add(CHAR, program.size + 1, -1, chars);
+        }
+
+        @Override
+        int minLength() {
+            return 1;
+        }
+
+        @Override
+        int maxLength() {
+            // a surrogate pair is matched by the fallback pattern
+            return chars.matchesSurrogates() ? 2 : 1;
+        }
+
+        @Override
+        Literals literals() {
+            int single = chars.singleChar();
+            return single >= 0 && !chars.isFolding((char) single) ? Literals.of(String.valueOf((char) single)) : Literals.NONE;
+        }
+
+        @Override
+        char[] requiredChars() {
+            return CharClass.union(Arrays.asList(chars.superset(), new char[]{Character.MIN_SURROGATE, Character.MAX_SURROGATE}));
+        }
+
+        @Override
+        CountConstraints.Counts counts(char[] counted) {
+            CountConstraints.Counts counts = null;
+            int matched = 0;
+            for (int i = 0; i < counted.length; i++) {
+                if (chars.matches(counted[i])) {
+                    long[] vector = new long[counted.length];
+                    vector[i] = 1;
+                    counts = CountConstraints.Counts.join(counts, CountConstraints.Counts.point(vector));
+                    matched++;
+                }
+            }
+            // a character not counted or a surrogate pair
+            if (CharClass.size(chars.superset()) > matched) {
+                counts = CountConstraints.Counts.join(counts, CountConstraints.Counts.point(new long[counted.length]));
+            }
+            return counts;
+        }
+    }
+
+    private static class Sequence extends Term {
+
+        final List<Term> terms;
+
+        Sequence(List<Term> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        void emit(Program program) {
+            for (Term term : terms) {
+                term.emit(program);
+            }
+        }
+
+        @Override
+        int minLength() {
+            int length = 0;
+            for (Term term : terms) {
+                length = LengthBounds.sum(length, term.minLength());
+            }
+            return length;
+        }
+
+        @Override
+        Literals literals() {
+            Literals literals = Literals.EMPTY;
+            for (Term term : terms) {
+                literals = Literals.concat(literals, term.literals());
+            }
+            return literals;
+        }
+
+        @Override
+        CountConstraints.Counts counts(char[] chars) {
+            CountConstraints.Counts counts = CountConstraints.Counts.point(new long[chars.length]);
+            for (Term term : terms) {
+                counts = CountConstraints.Counts.sum(counts, term.counts(chars));
+            }
+            return counts;
+        }
+
+        /**
+         * The smallest set of the terms.
+         */
+        @Override
+        char[] requiredChars() {
+            char[] required = null;
+            for (Term term : terms) {
+                char[] termRequired = term.requiredChars();
+                if (termRequired != null && (required == null || CharClass.size(termRequired) < CharClass.size(required))) {
+                    required = termRequired;
+                }
+            }
+            return required;
+        }
+
+        @Override
+        int maxLength() {
+            int length = 0;
+            for (Term term : terms) {
+                length = LengthBounds.sum(length, term.maxLength());
+            }
+            return length;
+        }
+    }
+
+    private static class Choice extends Term {
+
+        final List<Term> terms;
+
+        Choice(List<Term> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        void emit(Program program) {
+            int[] jumps = new int[terms.size() - 1];
+            for (int i = 0; i < jumps.length; i++) {
+                int split = program.add(SPLIT, program.size + 1, -1, null);
+                terms.get(i).emit(program);
+                jumps[i] = program.add(JUMP, -1, -1, null);
+                program.alternative[split] = program.size;
+            }
+            terms.get(jumps.length).emit(program);
+
+            for (int jump : jumps) {
+                program.next[jump] = program.size;
+            }
+        }
+
+        @Override
+        int minLength() {
+            int length = LengthBounds.UNBOUNDED;
+            for (Term term : terms) {
+                length = Math.min(length, term.minLength());
+            }
+            return length;
+        }
+
+        @Override
+        Literals literals() {
+            Literals literals = null;
+            for (Term term : terms) {
+                literals = Literals.join(literals, term.literals());
+            }
+            return literals;
+        }
+
+        @Override
+        CountConstraints.Counts counts(char[] chars) {
+            CountConstraints.Counts counts = null;
+            for (Term term : terms) {
+                counts = CountConstraints.Counts.join(counts, term.counts(chars));
+            }
+            return counts;
+        }
+
+        @Override
+        char[] requiredChars() {
+            List<char[]> ranges = new ArrayList<char[]>();
+            for (Term term : terms) {
+                char[] termRequired = term.requiredChars();
+                if (termRequired == null) {
+                    return null;
+                }
+                ranges.add(termRequired);
+            }
+            return CharClass.union(ranges);
+        }
+
+        @Override
+        int maxLength() {
+            int length = 0;
+            for (Term term : terms) {
+                length = Math.max(length, term.maxLength());
+            }
+            return length;
+        }
+    }
+
+    private static class Repetition extends Term {
+
+        final Term term;
+        final int min;
+        final int max;
+        final boolean greedy;
+
+        Repetition(Term term, int min, int max, boolean greedy) {
+            this.term = term;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+        }
+
+        @Override
+        void emit(Program program) {
+            for (int i = 0; i < min; i++) {
+                term.emit(program);
+            }
+            if (max < 0) {
+                int loop = program.add(SPLIT, -1, -1, null);
+                term.emit(program);
+                program.add(JUMP, loop, -1, null);
+                setTargets(program, loop, loop + 1, program.size);
+                return;
+            }
+            int[] splits = new int[max - min];
+            for (int i = 0; i < splits.length; i++) {
+                splits[i] = program.add(SPLIT, -1, -1, null);
+                term.emit(program);
+            }
+            for (int split : splits) {
+                setTargets(program, split, split + 1, program.size);
+            }
+        }
+
+        @Override
+        int minLength() {
+            return LengthBounds.product(min, term.minLength());
+        }
+
+        @Override
+        int maxLength() {
+            return LengthBounds.product(max < 0 ? LengthBounds.UNBOUNDED : max, term.maxLength());
+        }
+
+        /**
+         * The literals of the minimal repetitions, they start, end and are contained in any number of the repetitions.
+         */
+        @Override
+        Literals literals() {
+            if (min == 0) {
+                return max == 0 ? Literals.EMPTY : Literals.NONE;
+            }
+            Literals repeated = term.literals();
+            Literals literals = repeated;
+            // more repetitions than the length of the literals add nothing
+            for (int i = 1; i < min && i <= Literals.MAX_LENGTH; i++) {
+                literals = Literals.concat(literals, repeated);
+            }
+            return min == max || literals == null ? literals : literals.inexact();
+        }
+
+        @Override
+        char[] requiredChars() {
+            return min > 0 ? term.requiredChars() : null;
+        }
+
+        @Override
+        CountConstraints.Counts counts(char[] chars) {
+            CountConstraints.Counts counts = term.counts(chars);
+            if (counts == null) {
+                return min == 0 ? CountConstraints.Counts.point(new long[chars.length]) : null;
+            }
+            return CountConstraints.Counts.repeat(counts, min, max);
+        }
+
+        private void setTargets(Program program, int split, int repeat, int exit) {
+            program.next[split] = greedy ? repeat : exit;
+            program.alternative[split] = greedy ? exit : repeat;
+        }
+    }
+
+    /**
+     * Set of characters, the case folding applies to the single characters and the ranges, not to the predefined classes.
+     */
+    private static final class CharClass {
+
+        static final char[] DIGITS = {'0', '9'};
+        static final char[] WORDS = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+        static final char[] SPACES = {'\t', '\r', ' ', ' '};
+        static final char[] LINE_TERMINATORS = {'\n', '\n', '\r', '\r', '\u0085', '\u0085', '\u2028', '\u2029'};
+        static final char[] UNIX_LINE_TERMINATORS = {'\n', '\n'};
+
+        /**
+         * Sorted disjoint ranges as pairs of inclusive bounds.
+         */
+        final char[] folded;
+        final char[] exact;
+        final boolean negated;
+        final int flags;
+
+        CharClass(char[] folded, char[] exact, boolean negated, int flags) {
+            this.folded = folded;
+            this.exact = exact;
+            this.negated = negated;
+            this.flags = flags;
+        }
+
+        static CharClass of(char ch, int flags) {
+            return new CharClass(new char[]{ch, ch}, new char[0], false, flags);
+        }
+
+        static CharClass of(char[] ranges) {
+            return new CharClass(new char[0], ranges, false, 0);
+        }
+
+        boolean matches(char ch) {
+            boolean contains = contains(exact, ch) || contains(folded, ch);
+            if (!contains && (flags & Pattern.CASE_INSENSITIVE) != 0) {
+                if ((flags & Pattern.UNICODE_CASE) != 0) {
+                    contains = contains(folded, Character.toUpperCase(ch)) || contains(folded, Character.toLowerCase(ch));
+                } else if (ch >= 'a' && ch <= 'z') {
+                    contains = contains(folded, (char) (ch - 'a' + 'A'));
+                } else if (ch >= 'A' && ch <= 'Z') {
+                    contains = contains(folded, (char) (ch - 'A' + 'a'));
+                }
+            }
+            return contains != negated;
+        }
+
+        /**
+         * Returns a superset of the matched characters as ranges, the case folding of non-ASCII characters is not resolved.
+         */
+        char[] superset() {
+            List<char[]> ranges = new ArrayList<char[]>();
+            ranges.add(exact);
+            ranges.add(folded);
+            if (negated) {
+                // the complement of a subset of the contained characters
+                return complement(union(ranges));
+            }
+            if ((flags & Pattern.CASE_INSENSITIVE) != 0) {
+                ranges.add(swapCase(folded));
+                if ((flags & Pattern.UNICODE_CASE) != 0) {
+                    ranges.add(new char[]{'\u0080', Character.MAX_VALUE});
+                }
+            }
+            return union(ranges);
+        }
+
+        /**
+         * Returns true if the character can match another one, when folded or as a part of a surrogate pair.
+         */
+        boolean isFolding(char ch) {
+            if (isSurrogate(ch)) {
+                return true;
+            }
+            return (flags & Pattern.CASE_INSENSITIVE) != 0
+                   && (ch >= '\u0080' || Character.toUpperCase(ch) != ch || Character.toLowerCase(ch) != ch);
+        }
+
+        /**
+         * Returns true if the class can match a surrogate character.
+         */
+        boolean matchesSurrogates() {
+            char[] superset = superset();
+            for (int i = 0; i < superset.length; i += 2) {
+                if (superset[i] <= Character.MAX_SURROGATE && superset[i + 1] >= Character.MIN_SURROGATE) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the ASCII letters of the ranges in the other case.
+         */
+        private static char[] swapCase(char[] ranges) {
+            List<Character> swapped = new ArrayList<Character>();
+            for (int i = 0; i < ranges.length; i += 2) {
+                addShifted(swapped, ranges[i], ranges[i + 1], 'a', 'z', 'A' - 'a');
+                addShifted(swapped, ranges[i], ranges[i + 1], 'A', 'Z', 'a' - 'A');
+            }
+            return toArray(swapped);
+        }
+
+        private static void addShifted(List<Character> ranges, char lower, char upper, char from, char to, int shift) {
+            int low = Math.max(lower, from);
+            int high = Math.min(upper, to);
+            if (low <= high) {
+                ranges.add((char) (low + shift));
+                ranges.add((char) (high + shift));
+            }
+        }
+
+        /**
+         * Returns the single character of a class of one character, otherwise <code>-1</code>.
+         */
+        int singleChar() {
+            return !negated && exact.length == 0 && folded.length == 2 && folded[0] == folded[1] ? folded[0] : -1;
+        }
+
+        private static boolean contains(char[] ranges, char ch) {
+            int low = 0;
+            int high = ranges.length / 2 - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (ch < ranges[middle * 2]) {
+                    high = middle - 1;
+                } else if (ch > ranges[middle * 2 + 1]) {
+                    low = middle + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        static char[] complement(char[] ranges) {
+            List<Character> complement = new ArrayList<Character>();
+            int lower = Character.MIN_VALUE;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > lower) {
+                    complement.add((char) lower);
+                    complement.add((char) (ranges[i] - 1));
+                }
+                lower = ranges[i + 1] + 1;
+            }
+            if (lower <= Character.MAX_VALUE) {
+                complement.add((char) lower);
+                complement.add(Character.MAX_VALUE);
+            }
+            return toArray(complement);
+        }
+
+        /**
+         * Returns the count of the characters in the ranges.
+         */
+        static int size(char[] ranges) {
+            int size = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                size += ranges[i + 1] - ranges[i] + 1;
+            }
+            return size;
+        }
+
+        /**
+         * Sorts and merges the ranges.
+         */
+        static char[] union(List<char[]> ranges) {
+            List<char[]> pairs = new ArrayList<char[]>();
+            for (char[] range : ranges) {
+                for (int i = 0; i < range.length; i += 2) {
+                    pairs.add(new char[]{range[i], range[i + 1]});
+                }
+            }
+            Collections.sort(pairs, new Comparator<char[]>() {
+                @Override
+                public int compare(char[] o1, char[] o2) {
+                    return o1[0] - o2[0];
+                }
+            });
+            List<Character> union = new ArrayList<Character>();
+            for (char[] pair : pairs) {
+                int last = union.size() - 1;
+                if (last > 0 && pair[0] <= union.get(last) + 1) {
+                    if (pair[1] > union.get(last)) {
+                        union.set(last, pair[1]);
+                    }
+                } else {
+                    union.add(pair[0]);
+                    union.add(pair[1]);
+                }
+            }
+            return toArray(union);
+        }
+
+        private static char[] toArray(List<Character> list) {
+            char[] array = new char[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Recursive descent parser of the supported subset of the syntax.
+     */
+    private static class Parser {
+
+        private final String regex;
+        private final int flags;
+        private int index;
+
+        Parser(String regex, int flags) {
+            this.regex = regex;
+            this.flags = flags;
+        }
+
+        Term parse() {
+            Term term = choice();
+            if (index < regex.length()) {
+                throw new UnsupportedSyntax();
+            }
+            return term;
+        }
+
+        private Term choice() {
+            List<Term> terms = new ArrayList<Term>();
+            terms.add(sequence());
+            while (peek() == '|') {
+                index++;
+                terms.add(sequence());
+            }
+            return terms.size() == 1 ? terms.get(0) : new Choice(terms);
+        }
+
+        private Term sequence() {
+            List<Term> terms = new ArrayList<Term>();
+            while (index < regex.length() && peek() != '|' && peek() != ')') {
+                terms.add(quantified(atom()));
+            }
+            return terms.size() == 1 ? terms.get(0) : new Sequence(terms);
+        }
+
+        private Term atom() {
+            char ch = regex.charAt(index++);
+            switch (ch) {
+                case '(':
+                    if (peek() == '?') {
+                        if (!regex.startsWith("?:", index)) {
+                            throw new UnsupportedSyntax();
+                        }
+                        index += 2;
+                    }
+                    Term term = choice();
+                    if (peek() != ')') {
+                        throw new UnsupportedSyntax();
+                    }
+                    index++;
+                    return term;
+                case '[':
+                    return new Chars(charClass());
+                case '.':
+                    char[] terminators = (flags & Pattern.UNIX_LINES) != 0 ? CharClass.UNIX_LINE_TERMINATORS : CharClass.LINE_TERMINATORS;
+                    return new Chars(CharClass.of((flags & Pattern.DOTALL) != 0 ? new char[]{Character.MIN_VALUE, Character.MAX_VALUE}
+                                                                                   : CharClass.complement(terminators)));
+                case '\\':
+                    return new Chars(escape());
+                case '^':
+                case '$':
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new UnsupportedSyntax();
+                default:
+                    return new Chars(literal(ch));
+            }
+        }
+
+        private Term quantified(Term term) {
+            while (true) {
+                int min;
+                int max;
+                switch (peek()) {
+                    case '?':
+                        min = 0;
+                        max = 1;
+                        break;
+                    case '*':
+                        min = 0;
+                        max = -1;
+                        break;
+                    case '+':
+                        min = 1;
+                        max = -1;
+                        break;
+                    case '{':
+                        int end = regex.indexOf('}', index);
+                        if (end < 0) {
+                            throw new UnsupportedSyntax();
+                        }
+                        String[] bounds = regex.substring(index + 1, end).split(",", -1);
+                        min = bound(bounds[0]);
+                        max = bounds.length == 1 ? min : bounds.length == 2 && bounds[1].isEmpty() ? -1 : bound(bounds[1]);
+                        if (bounds.length > 2 || (max >= 0 && max < min)) {
+                            throw new UnsupportedSyntax();
+                        }
+                        index = end;
+                        break;
+                    default:
+                        return term;
+                }
+                index++;
+
+                boolean greedy = true;
+                if (peek() == '?') {
+                    greedy = false;
+                    index++;
+                } else if (peek() == '+') {
+                    // possessive
+                    throw new UnsupportedSyntax();
+                }
+                term = new Repetition(term, min, max, greedy);
+            }
+        }
+
+        private int bound(String bound) {
+            if (bound.isEmpty() || bound.length() > 4) {
+                throw new UnsupportedSyntax();
+            }
+            for (int i = 0; i < bound.length(); i++) {
+                if (!Character.isDigit(bound.charAt(i))) {
+                    throw new UnsupportedSyntax();
+                }
+            }
+            return Integer.parseInt(bound);
+        }
+
+        private CharClass charClass() {
+            boolean negated = false;
+            if (peek() == '^') {
+                negated = true;
+                index++;
+            }
+            if (peek() == ']') {
+                throw new UnsupportedSyntax();
+            }
+            List<char[]> folded = new ArrayList<char[]>();
+            List<char[]> exact = new ArrayList<char[]>();
+            while (true) {
+                if (index >= regex.length()) {
+                    throw new UnsupportedSyntax();
+                }
+                char ch = regex.charAt(index++);
+                if (ch == ']') {
+                    break;
+                }
+                if (ch == '[' || (ch == '&' && peek() == '&')) {
+                    throw new UnsupportedSyntax();
+                }
+                CharClass item = ch == '\\' ? escape() : literal(ch);
+                int lower = item.singleChar();
+
+                if (lower >= 0 && peek() == '-' && index + 1 < regex.length() && regex.charAt(index + 1) != ']') {
+                    index++;
+                    ch = regex.charAt(index++);
+                    if (ch == '[') {
+                        throw new UnsupportedSyntax();
+                    }
+                    int upper = (ch == '\\' ? escape() : literal(ch)).singleChar();
+                    if (upper < lower) {
+                        throw new UnsupportedSyntax();
+                    }
+                    folded.add(new char[]{(char) lower, (char) upper});
+                } else {
+                    folded.add(item.folded);
+                    exact.add(item.exact);
+                }
+            }
+            return new CharClass(CharClass.union(folded), CharClass.union(exact), negated, flags);
+        }
+
+        private CharClass escape() {
+            if (index >= regex.length()) {
+                throw new UnsupportedSyntax();
+            }
+            char ch = regex.charAt(index++);
+            switch (ch) {
+                case 'd':
+                    return CharClass.of(CharClass.DIGITS);
+                case 'D':
+                    return CharClass.of(CharClass.complement(CharClass.DIGITS));
+                case 'w':
+                    return CharClass.of(CharClass.WORDS);
+                case 'W':
+                    return CharClass.of(CharClass.complement(CharClass.WORDS));
+                case 's':
+                    return CharClass.of(CharClass.SPACES);
+                case 'S':
+                    return CharClass.of(CharClass.complement(CharClass.SPACES));
+                case 't':
+                    return literal('\t');
+                case 'n':
+                    return literal('\n');
+                case 'r':
+                    return literal('\r');
+                case 'f':
+                    return literal('\f');
+                case 'a':
+                    return literal('\u0007');
+                case 'e':
+                    return literal('\u001B');
+                case 'x':
+                    return literal((char) hex(2));
+                case 'u':
+                    return literal((char) hex(4));
+                case '0':
+                    return literal(octal());
+                default:
+                    if (Character.isLetterOrDigit(ch)) {
+                        // backreferences, boundaries, properties, quotations...
+                        throw new UnsupportedSyntax();
+                    }
+                    return literal(ch);
+            }
+        }
+
+        private int hex(int digits) {
+            if (index + digits > regex.length()) {
+                throw new UnsupportedSyntax();
+            }
+            int value = 0;
+            for (int i = 0; i < digits; i++) {
+                int digit = Character.digit(regex.charAt(index++), 16);
+                if (digit < 0) {
+                    throw new UnsupportedSyntax();
+                }
+                value = value * 16 + digit;
+            }
+            return value;
+        }
+
+        private char octal() {
+            int value = 0;
+            int digits = 0;
+            while (digits < 3 && index < regex.length() && regex.charAt(index) >= '0' && regex.charAt(index) <= '7'
+                   && value * 8 + regex.charAt(index) - '0' <= 0377) {
+                value = value * 8 + regex.charAt(index++) - '0';
+                digits++;
+            }
+            if (digits == 0) {
+                throw new UnsupportedSyntax();
+            }
+            return (char) value;
+        }
+
+        private CharClass literal(char ch) {
+            if (isSurrogate(ch)) {
+                throw new UnsupportedSyntax();
+            }
+            return CharClass.of(ch, flags);
+        }
+
+        private char peek() {
+            return index < regex.length() ? regex.charAt(index) : 0;
+        }
+    }
+
+    /**
+     * Construct out of the supported subset of the syntax.
+     */
+    private static class UnsupportedSyntax extends RuntimeException {
+    }
+}
@@ -0,0 +1,67 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget of a single match limited by {@link RecexpMatchOptions match options}.
+ * <p>
+ * A budget is shared by all the branches of a parallel match. The clock is read only every few steps.
+ *
+ * @author ttulka
+ */
+class Budget {
+
+    private static final int CLOCK_INTERVAL = 64;
+
+    private final RecexpMatchOptions options;
+    private final long deadline;
+    private final AtomicLong steps = new AtomicLong();
+
+    /**
+     * Starts the clock of the match.
+     */
+    public Budget(RecexpMatchOptions options) {
+        this.options = options;
+        this.deadline = options.getTimeoutNanos() >= 0 ? System.nanoTime() + options.getTimeoutNanos() : 0;
+    }
+
+    /**
+     * Counts a step.
+     *
+     * @throws RecexpBudgetExceededException when a limit is exceeded
+     */
+    public void step() {
+        long count = steps.incrementAndGet();
+
+        if (options.getMaxSteps() >= 0 && count > options.getMaxSteps()) {
+            throw new RecexpBudgetExceededException(
+                    RecexpBudgetExceededException.Limit.STEPS, "Maximum steps exceeded: " + options.getMaxSteps());
+        }
+        if (options.getCancellation() != null && options.getCancellation().isCancelled()) {
+            throw new RecexpBudgetExceededException(RecexpBudgetExceededException.Limit.CANCELLED, "Match cancelled.");
+        }
+        if (options.getTimeoutNanos() >= 0 && count % CLOCK_INTERVAL == 1 && System.nanoTime() - deadline > 0) {
+            throw new RecexpBudgetExceededException(
+                    RecexpBudgetExceededException.Limit.TIMEOUT, "Timeout elapsed: " + options.getTimeoutNanos() + " ns");
+        }
+    }
+
+    /**
+     * Checks the depth.
+     *
+     * @throws RecexpBudgetExceededException when the maximum depth is exceeded
+     */
+    public void depth(int depth) {
+        if (options.getMaxDepth() >= 0 && depth > options.getMaxDepth()) {
+            throw new RecexpBudgetExceededException(
+                    RecexpBudgetExceededException.Limit.DEPTH, "Maximum depth exceeded: " + options.getMaxDepth());
+        }
+    }
+
+    /**
+     * Reports an overflow of the stack as the exceeded depth.
+     */
+    public RecexpBudgetExceededException overflow() {
+        return new RecexpBudgetExceededException(RecexpBudgetExceededException.Limit.DEPTH, "Stack overflow.");
+    }
+}
@@ -0,0 +1,135 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of characters as sorted disjoint ranges.
+ *
+ * @author ttulka
+ * @see GrammarAnalysis
+ */
+final class CharRanges {
+
+    static final CharRanges EMPTY = new CharRanges(new char[0]);
+    static final CharRanges ALL = new CharRanges(new char[]{Character.MIN_VALUE, Character.MAX_VALUE});
+
+    /**
+     * Sorted disjoint ranges as pairs of inclusive bounds.
+     */
+    private final char[] ranges;
+
+    private CharRanges(char[] ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * @param ranges the sorted disjoint ranges as pairs of inclusive bounds
+     */
+    static CharRanges of(char[] ranges) {
+        if (ranges.length == 0) {
+            return EMPTY;
+        }
+        return new CharRanges(ranges.clone());
+    }
+
+    public boolean contains(char ch) {
+        int low = 0;
+        int high = ranges.length / 2 - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (ch < ranges[middle * 2]) {
+                high = middle - 1;
+            } else if (ch > ranges[middle * 2 + 1]) {
+                low = middle + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    /**
+     * Returns the count of the characters in the set.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            size += ranges[i + 1] - ranges[i] + 1;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the union of the sets, this set when it already contains the other one.
+     */
+    public CharRanges union(CharRanges other) {
+        if (other.ranges.length == 0 || this == other) {
+            return this;
+        }
+        if (ranges.length == 0) {
+            return other;
+        }
+        char[] union = new char[ranges.length + other.ranges.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ranges.length || j < other.ranges.length) {
+            char[] next;
+            int index;
+            if (j >= other.ranges.length || i < ranges.length && ranges[i] <= other.ranges[j]) {
+                next = ranges;
+                index = i;
+                i += 2;
+            } else {
+                next = other.ranges;
+                index = j;
+                j += 2;
+            }
+            if (size > 0 && next[index] <= union[size - 1] + 1) {
+                if (next[index + 1] > union[size - 1]) {
+                    union[size - 1] = next[index + 1];
+                }
+            } else {
+                union[size++] = next[index];
+                union[size++] = next[index + 1];
+            }
+        }
+        if (size == ranges.length && Arrays.equals(ranges, Arrays.copyOf(union, size))) {
+            return this;
+        }
+        return new CharRanges(Arrays.copyOf(union, size));
+    }
+
+    /**
+     * Returns the ranges as pairs of inclusive bounds.
+     */
+    public char[] toArray() {
+        return ranges.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof CharRanges && Arrays.equals(ranges, ((CharRanges) o).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < ranges.length; i += 2) {
+            sb.append(ranges[i]);
+            if (ranges[i + 1] != ranges[i]) {
+                sb.append('-').append(ranges[i + 1]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
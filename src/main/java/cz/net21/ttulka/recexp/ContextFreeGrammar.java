@@ -0,0 +1,615 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Context-free grammar compiled from the expression trees of rules.
+ * <p>
+ * Every node of an expression tree becomes a nonterminal, leaves without references become terminals matched by regular expressions, quantifiers
+ * are expanded into repetition productions and references into the alternatives of the referenced rules.
+ *
+ * @author ttulka
+ * @see EarleyParser
+ * @see Derivation
+ */
+class ContextFreeGrammar {
+
+    private final int flags;
+
+    private final Map<Rule, Nonterminal> ruleSymbols = new LinkedHashMap<Rule, Nonterminal>();
+    private final Map<String, Nonterminal> referenceSymbols = new HashMap<String, Nonterminal>();
+    // per rule, a node shared by several rules resolves its self references to each of them
+    private final Map<Rule, Map<ExpressionTree.Node, Nonterminal>> nodeSymbols = new HashMap<Rule, Map<ExpressionTree.Node, Nonterminal>>();
+
+    private final List<Nonterminal> nonterminals = new ArrayList<Nonterminal>();
+    private final List<Terminal> terminals = new ArrayList<Terminal>();
+    private int itemsCount = 0;
+
+    private GrammarAnalysis analysis;
+
+    private ContextFreeGrammar(int flags) {
+        this.flags = flags;
+    }
+
+    /**
+     * Compiles the rules into a context-free grammar.
+     *
+     * @param rules the rules including the implicit ones
+     * @param flags the match flags
+     * @return the grammar
+     */
+    public static ContextFreeGrammar compile(Collection<Rule> rules, int flags) {
+        ContextFreeGrammar grammar = new ContextFreeGrammar(flags);
+
+        for (Rule rule : rules) {
+            Nonterminal symbol = grammar.newNonterminal(Nonterminal.Kind.RULE, rule.getExpression().getRoot(), rule, rule.toString());
+            grammar.ruleSymbols.put(rule, symbol);
+        }
+        for (Map.Entry<Rule, Nonterminal> entry : grammar.ruleSymbols.entrySet()) {
+            for (ExpressionTree.Node alternative : alternatives(entry.getKey().getExpression().getRoot())) {
+                grammar.addProduction(entry.getValue(), alternative, grammar.nodeSymbol(alternative, entry.getKey()));
+            }
+        }
+        for (Map.Entry<String, Nonterminal> entry : grammar.referenceSymbols.entrySet()) {
+            String name = entry.getKey();
+            for (Rule rule : rules) {
+                if (rule instanceof NamedRule && rule.getName().equals(name)) {
+                    for (ExpressionTree.Node alternative : alternatives(rule.getExpression().getRoot())) {
+                        if (!alternative.getExpression().isReference() || !alternative.getExpression().getText().equals(name)) {
+                            grammar.addProduction(entry.getValue(), alternative, grammar.nodeSymbol(alternative, rule));
+                        }
+                    }
+                }
+            }
+        }
+        grammar.analysis = new GrammarAnalysis(grammar);
+        return grammar;
+    }
+
+    private static List<ExpressionTree.Node> alternatives(ExpressionTree.Node root) {
+        if (root.isOrNode()) {
+            return root.getSubNodes();
+        }
+        return Collections.singletonList(root);
+    }
+
+    /**
+     * Returns the starting symbol for the rule.
+     */
+    public Nonterminal ruleSymbol(Rule rule) {
+        return ruleSymbols.get(rule);
+    }
+
+    /**
+     * Returns the symbol referencing the rules with the name, <code>null</code> when the name is not referenced.
+     */
+    public Nonterminal referenceSymbol(String name) {
+        return referenceSymbols.get(name);
+    }
+
+    /**
+     * Returns the nullable, FIRST and FOLLOW sets of the grammar, computed on compilation.
+     */
+    public GrammarAnalysis getAnalysis() {
+        return analysis;
+    }
+
+    public List<Nonterminal> getNonterminals() {
+        return nonterminals;
+    }
+
+    public List<Terminal> getTerminals() {
+        return terminals;
+    }
+
+    /**
+     * Returns the number of all the dotted productions (LR(0) items) in the grammar.
+     */
+    public int getItemsCount() {
+        return itemsCount;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    private Nonterminal nodeSymbol(ExpressionTree.Node node, Rule rule) {
+        Map<ExpressionTree.Node, Nonterminal> ruleNodeSymbols = nodeSymbols.get(rule);
+        if (ruleNodeSymbols == null) {
+            ruleNodeSymbols = new IdentityHashMap<ExpressionTree.Node, Nonterminal>();
+            nodeSymbols.put(rule, ruleNodeSymbols);
+        }
+        Nonterminal symbol = ruleNodeSymbols.get(node);
+        if (symbol != null) {
+            return symbol;
+        }
+        Expression expression = node.getExpression();
+
+        if (!expression.isQuantified() || (node.getSubNodes().isEmpty() && !expression.isReference())) {
+            symbol = newNonterminal(Nonterminal.Kind.NODE, node, rule, node.toWord());
+            ruleNodeSymbols.put(node, symbol);
+            addNodeProductions(symbol, node, rule);
+            return symbol;
+        }
+
+        // quantified node: repetitions over the unquantified base
+        Nonterminal unquantified = newNonterminal(Nonterminal.Kind.NODE, node, rule, node.toWord());
+        symbol = unquantified;
+        for (int[] bounds : parseQuantifier(expression.getQuantifier())) {
+            Nonterminal repetition = newNonterminal(Nonterminal.Kind.REPETITION, node, rule, node.toWord());
+            addRepetitionProductions(repetition, symbol, bounds[0], bounds[1]);
+            symbol = repetition;
+        }
+        ruleNodeSymbols.put(node, symbol);
+        addNodeProductions(unquantified, node, rule);
+        return symbol;
+    }
+
+    private void addNodeProductions(Nonterminal symbol, ExpressionTree.Node node, Rule rule) {
+        Expression expression = node.getExpression();
+
+        if (node.getSubNodes().isEmpty()) {
+            if (node.isThisReference()) {
+                addProduction(symbol, null, ruleSymbols.get(rule));
+
+            } else if (expression.isReference()) {
+                addProduction(symbol, null, newReferenceSymbol(expression.getText()));
+
+            } else if (expression.toWord().isEmpty()) {
+                addProduction(symbol, null);
+
+            } else {
+                addProduction(symbol, null, newTerminal(expression.toWord()));
+            }
+        } else if (node.isOrNode()) {
+            for (ExpressionTree.Node sub : node.getSubNodes()) {
+                addProduction(symbol, sub, nodeSymbol(sub, rule));
+            }
+        } else {
+            Symbol[] body = new Symbol[node.getSubNodes().size()];
+            for (int i = 0; i < body.length; i++) {
+                body[i] = nodeSymbol(node.getSubNodes().get(i), rule);
+            }
+            addProduction(symbol, null, body);
+        }
+    }
+
+    /**
+     * Repetition <code>{min,max}</code> of the base: the minimal count of the base followed by a chain of the optional ones when the maximum
+     * is bounded, the recursive production is the last one when the maximum is unbounded. The size of the productions is linear in the bounds.
+     */
+    private void addRepetitionProductions(Nonterminal repetition, Nonterminal base, int min, int max) {
+        repetition.base = base;
+        repetition.min = min;
+        repetition.max = max;
+
+        Nonterminal optional = max > min ? addOptionalRepetitions(repetition, base, max - min) : null;
+
+        Symbol[] body = new Symbol[optional != null ? min + 1 : min];
+        for (int i = 0; i < min; i++) {
+            body[i] = base;
+        }
+        if (optional != null) {
+            body[min] = optional;
+        }
+        addProduction(repetition, null, body);
+
+        if (max < 0) {
+            addProduction(repetition, null, repetition, base);
+        }
+    }
+
+    /**
+     * Chain of up to <code>count</code> optional bases, every link is empty or the base followed by the next link.
+     */
+    private Nonterminal addOptionalRepetitions(Nonterminal repetition, Nonterminal base, int count) {
+        Nonterminal next = null;
+        for (int i = 1; i <= count; i++) {
+            Nonterminal optional = newNonterminal(Nonterminal.Kind.REPETITION, repetition.getNode(), repetition.getRule(), repetition.getName());
+            optional.base = base;
+            optional.min = 0;
+            optional.max = i;
+
+            addProduction(optional, null);
+            if (next != null) {
+                addProduction(optional, null, base, next);
+            } else {
+                addProduction(optional, null, base);
+            }
+            next = optional;
+        }
+        return next;
+    }
+
+    private Nonterminal newReferenceSymbol(String name) {
+        Nonterminal symbol = referenceSymbols.get(name);
+        if (symbol == null) {
+            symbol = newNonterminal(Nonterminal.Kind.REFERENCE, null, null, Expression.REFERENCE_PREFIX + name);
+            referenceSymbols.put(name, symbol);
+        }
+        return symbol;
+    }
+
+    private Nonterminal newNonterminal(Nonterminal.Kind kind, ExpressionTree.Node node, Rule rule, String name) {
+        Nonterminal symbol = new Nonterminal(nonterminals.size(), kind, node, rule, name);
+        nonterminals.add(symbol);
+        return symbol;
+    }
+
+    private Terminal newTerminal(String regex) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex, flags);
+
+        } catch (PatternSyntaxException rethrow) {
+            throw new RecexpSyntaxException(rethrow.getMessage());
+        }
+        Terminal terminal = new Terminal(terminals.size(), regex, pattern, Automaton.compile(regex, flags));
+        terminals.add(terminal);
+        return terminal;
+    }
+
+    private void addProduction(Nonterminal head, ExpressionTree.Node alternative, Symbol... body) {
+        Production production = new Production(head, head.getProductions().size(), alternative, body, itemsCount);
+        head.getProductions().add(production);
+        itemsCount += body.length + 1;
+    }
+
+    /**
+     * Parses a quantifier into a list of bounds <code>{min, max}</code>, the maximum <code>-1</code> means unbounded.
+     * <p>
+     * Lazy and possessive modifiers don't change the language and are ignored.
+     */
+    static List<int[]> parseQuantifier(String quantifier) {
+        List<int[]> bounds = new ArrayList<int[]>();
+        int index = 0;
+        while (index < quantifier.length()) {
+            char ch = quantifier.charAt(index);
+            if (ch == '?') {
+                bounds.add(new int[]{0, 1});
+                index++;
+            } else if (ch == '*') {
+                bounds.add(new int[]{0, -1});
+                index++;
+            } else if (ch == '+') {
+                bounds.add(new int[]{1, -1});
+                index++;
+            } else if (ch == '{') {
+                int end = quantifier.indexOf('}', index);
+                String[] range = quantifier.substring(index + 1, end).split(",", -1);
+                int min = Integer.parseInt(range[0]);
+                int max = range.length == 1 ? min : range[1].isEmpty() ? -1 : Integer.parseInt(range[1]);
+                bounds.add(new int[]{min, max});
+                index = end + 1;
+            } else {
+                throw new RecexpSyntaxException("Illegal quantifier: " + quantifier);
+            }
+            // lazy or possessive modifier
+            if (index < quantifier.length() && (quantifier.charAt(index) == '?' || quantifier.charAt(index) == '+')) {
+                index++;
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Grammar symbol.
+     */
+    static abstract class Symbol {
+
+        private final int id;
+        private final String name;
+
+        Symbol(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        /**
+         * Returns the index of the symbol among the symbols of the same type.
+         */
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Terminal symbol defined by a regular expression.
+     * <p>
+     * Expressions in the regular subset of the syntax are matched by an automaton, the others by a pattern.
+     */
+    static class Terminal extends Symbol {
+
+        private final Pattern pattern;
+        private final Automaton automaton;
+
+        Terminal(int id, String regex, Pattern pattern, Automaton automaton) {
+            super(id, regex);
+            this.pattern = pattern;
+            this.automaton = automaton;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Returns the automaton of the expression, <code>null</code> when matched by the pattern.
+         */
+        public Automaton getAutomaton() {
+            return automaton;
+        }
+
+        /**
+         * Creates a matcher for the input.
+         */
+        public TerminalMatcher matcher(CharSequence input) {
+            return automaton != null ? automaton.matcher(input, pattern) : new PatternMatcher(pattern, input);
+        }
+    }
+
+    /**
+     * Matcher of a terminal, reusable for other inputs.
+     */
+    static abstract class TerminalMatcher {
+
+        /**
+         * Resets the matcher for another input.
+         */
+        public abstract void reset(CharSequence input);
+
+        /**
+         * Finds all the end positions of matches starting at the position.
+         *
+         * @param from   the starting position
+         * @param to     the length of the input
+         * @param buffer the buffer to reuse, can be <code>null</code>
+         * @return the ascending end positions, the first element is the count of positions
+         */
+        public abstract int[] matchEnds(int from, int to, int[] buffer);
+
+        /**
+         * Finds the end position of the preferred match starting at the position.
+         *
+         * @param from the starting position
+         * @param to   the length of the input
+         * @return the end position, or <code>-1</code> when there is no match
+         */
+        public abstract int matchPrefix(int from, int to);
+
+        /**
+         * Whether the last match hit the end of the input, a longer input could change the result then.
+         */
+        public abstract boolean hitEnd();
+
+        /**
+         * Sets the end position at the index of the buffer, the buffer is enlarged when needed.
+         */
+        static int[] append(int[] ends, int index, int end) {
+            if (index >= ends.length) {
+                int[] bigger = new int[ends.length * 2];
+                System.arraycopy(ends, 0, bigger, 0, ends.length);
+                ends = bigger;
+            }
+            ends[index] = end;
+            return ends;
+        }
+    }
+
+    /**
+     * Matcher of a terminal by a pattern.
+     */
+    static class PatternMatcher extends TerminalMatcher {
+
+        private final Matcher matcher;
+
+        PatternMatcher(Pattern pattern, CharSequence input) {
+            this.matcher = pattern.matcher(input);
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+        }
+
+        @Override
+        public void reset(CharSequence input) {
+            matcher.reset(input);
+        }
+
+        @Override
+        public int[] matchEnds(int from, int to, int[] buffer) {
+            int[] ends = buffer != null ? buffer : new int[4];
+            int count = 0;
+
+            for (int end = from; end <= to; end++) {
+                matcher.region(from, end);
+                if (matcher.matches()) {
+                    ends = append(ends, ++count, end);
+                }
+                // no longer input can change the result
+                if (!matcher.hitEnd()) {
+                    break;
+                }
+            }
+            ends[0] = count;
+            return ends;
+        }
+
+        @Override
+        public int matchPrefix(int from, int to) {
+            matcher.region(from, to);
+            return matcher.lookingAt() ? matcher.end() : -1;
+        }
+
+        @Override
+        public boolean hitEnd() {
+            return matcher.hitEnd();
+        }
+    }
+
+    /**
+     * Nonterminal symbol.
+     */
+    static class Nonterminal extends Symbol {
+
+        enum Kind {
+            /**
+             * Starting symbol of a rule, <code>@this</code> references this symbol too.
+             */
+            RULE,
+            /**
+             * Named reference to all the rules with the name.
+             */
+            REFERENCE,
+            /**
+             * Node of an expression tree.
+             */
+            NODE,
+            /**
+             * Quantified node of an expression tree.
+             */
+            REPETITION
+        }
+
+        private final Kind kind;
+        private final ExpressionTree.Node node;
+        private final Rule rule;
+        private final List<Production> productions = new ArrayList<Production>();
+        private Nonterminal base;
+        private int min;
+        private int max;
+
+        Nonterminal(int id, Kind kind, ExpressionTree.Node node, Rule rule, String name) {
+            super(id, name);
+            this.kind = kind;
+            this.node = node;
+            this.rule = rule;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the expression node of the symbol, the rule root for the rule symbols, <code>null</code> for the references.
+         */
+        public ExpressionTree.Node getNode() {
+            return node;
+        }
+
+        public Rule getRule() {
+            return rule;
+        }
+
+        public List<Production> getProductions() {
+            return productions;
+        }
+
+        /**
+         * Returns the repeated symbol of a repetition, otherwise <code>null</code>.
+         */
+        public Nonterminal getBase() {
+            return base;
+        }
+
+        /**
+         * Returns the minimal count of the base of a repetition.
+         */
+        public int getMin() {
+            return min;
+        }
+
+        /**
+         * Returns the maximal count of the base of a repetition, <code>-1</code> when unbounded.
+         */
+        public int getMax() {
+            return max;
+        }
+
+        /**
+         * A referenced rule which is not defined.
+         */
+        public boolean isUndefined() {
+            return kind == Kind.REFERENCE && productions.isEmpty();
+        }
+    }
+
+    /**
+     * Grammar production.
+     */
+    static class Production {
+
+        private final Nonterminal head;
+        private final int index;
+        private final ExpressionTree.Node alternative;
+        private final Symbol[] body;
+        private final int firstItem;
+
+        Production(Nonterminal head, int index, ExpressionTree.Node alternative, Symbol[] body, int firstItem) {
+            this.head = head;
+            this.index = index;
+            this.alternative = alternative;
+            this.body = body;
+            this.firstItem = firstItem;
+        }
+
+        public Nonterminal getHead() {
+            return head;
+        }
+
+        /**
+         * Returns the index of the production among the productions of the head.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the alternative node of a rule or a reference, otherwise <code>null</code>.
+         */
+        public ExpressionTree.Node getAlternative() {
+            return alternative;
+        }
+
+        public Symbol[] getBody() {
+            return body;
+        }
+
+        public int length() {
+            return body.length;
+        }
+
+        /**
+         * Returns the unique number of the dotted production with the dot at the position.
+         */
+        public int item(int dot) {
+            return firstItem + dot;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(head.getName()).append(" ->");
+            for (Symbol symbol : body) {
+                sb.append(' ').append(symbol);
+            }
+            return sb.toString();
+        }
+    }
+}
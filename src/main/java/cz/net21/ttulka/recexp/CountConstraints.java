@@ -0,0 +1,513 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Linear constraints on the counts of characters in the strings derived from the expression trees of a grammar (their Parikh images).
+ * <p>
+ * The counted characters are the characters of the literals of the rules. The vectors of the counts of the strings derived from a node are
+ * approximated by a base vector plus the integer combinations of generator vectors, together with the minimal counts; e.g. the rule
+ * <code>0(@this)1|1(@this)0|@eps</code> derives the multiples of <code>(1, 1)</code> for the characters <code>0</code> and <code>1</code>, so an
+ * input with more zeros than ones cannot be derived. The constraints of the named rules and of the starting rules are computed as fixpoints
+ * like {@link LengthBounds}, the constraints of the candidates of a derivation from the constraints of their nodes. The constraints are
+ * conservative: parts of expressions out of the regular subset of the syntax and undefined references derive any counts.
+ *
+ * @author ttulka
+ * @see Recexp#deriveTree(ExpressionTree.Node, String, java.util.Set)
+ */
+class CountConstraints {
+
+    /**
+     * The maximal number of the counted characters, the first ones found in the literals are counted.
+     */
+    static final int MAX_CHARS = 16;
+
+    private final GrammarModel grammar;
+    private final int flags;
+    /**
+     * The counted characters, sorted.
+     */
+    private final char[] chars;
+
+    private final Map<String, Counts> rules = new HashMap<String, Counts>();
+    private final Map<String, Counts> words = new ConcurrentHashMap<String, Counts>();
+    /**
+     * The constraints of the starting rules, absent for the rules deriving no string.
+     */
+    private final Map<ExpressionTree.Node, Counts> roots = new ConcurrentHashMap<ExpressionTree.Node, Counts>();
+    private final Set<ExpressionTree.Node> emptyRoots = Collections.newSetFromMap(new ConcurrentHashMap<ExpressionTree.Node, Boolean>());
+
+    public CountConstraints(GrammarModel grammar, int flags) {
+        this.grammar = grammar;
+        this.flags = flags;
+        this.chars = countedChars(grammar, flags);
+        computeRules();
+    }
+
+    private static char[] countedChars(GrammarModel grammar, int flags) {
+        Set<Character> chars = new LinkedHashSet<Character>();
+        for (Rule rule : grammar.getRules()) {
+            collectChars(rule.getExpression().getRoot(), flags, chars);
+        }
+        char[] counted = new char[Math.min(chars.size(), MAX_CHARS)];
+        int i = 0;
+        for (Character ch : chars) {
+            if (i == counted.length) {
+                break;
+            }
+            counted[i++] = ch;
+        }
+        Arrays.sort(counted);
+        return counted;
+    }
+
+    private static void collectChars(ExpressionTree.Node node, int flags, Set<Character> chars) {
+        if (node.getSubNodes().isEmpty()) {
+            if (!node.getExpression().isReference()) {
+                Automaton automaton = Automaton.compile(node.toWord(), flags);
+                Literals literals = automaton != null ? automaton.literals() : null;
+                if (literals != null) {
+                    for (String literal : new String[]{literals.prefix, literals.factor, literals.suffix}) {
+                        for (int i = 0; i < literal.length(); i++) {
+                            if (!Character.isHighSurrogate(literal.charAt(i)) && !Character.isLowSurrogate(literal.charAt(i))) {
+                                chars.add(literal.charAt(i));
+                            }
+                        }
+                    }
+                }
+            }
+            return;
+        }
+        for (ExpressionTree.Node sub : node.getSubNodes()) {
+            collectChars(sub, flags, chars);
+        }
+    }
+
+    /**
+     * Computes the constraints of the named rules, the self references are not constrained.
+     */
+    private void computeRules() {
+        Counts any = Counts.any(chars.length);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String name : grammar.getRuleNames()) {
+                Counts counts = rules.get(name);
+                for (Rule rule : grammar.getNamedRules(name)) {
+                    counts = Counts.join(counts, counts(rule.getExpression().getRoot(), any, null));
+                }
+                if (counts != null && !counts.equals(rules.get(name))) {
+                    rules.put(name, counts);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the constraints of the rule with the root, the self references derive the rule itself.
+     *
+     * @return the constraints, or <code>null</code> when the rule derives no string
+     */
+    private Counts rootCounts(ExpressionTree.Node root) {
+        Counts counts = roots.get(root);
+        if (counts == null && !emptyRoots.contains(root)) {
+            boolean changed = true;
+            while (changed) {
+                Counts next = Counts.join(counts, counts(root, counts, null));
+                changed = next != null && !next.equals(counts);
+                counts = next;
+            }
+            if (counts != null) {
+                roots.put(root, counts);
+            } else {
+                emptyRoots.add(root);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the counts of the counted characters in the input.
+     */
+    public int[] count(CharSequence input) {
+        int[] counts = new int[chars.length];
+        if (chars.length == 0) {
+            return counts;
+        }
+        for (int i = 0; i < input.length(); i++) {
+            char ch = input.charAt(i);
+            if (ch >= chars[0] && ch <= chars[chars.length - 1]) {
+                int index = Arrays.binarySearch(chars, ch);
+                if (index >= 0) {
+                    counts[index]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns false if the candidate of the derivation from the root cannot derive a string with the counts.
+     *
+     * @param counts the counts of the input
+     * @param cache  the constraints of the nodes already computed for the root, or <code>null</code>
+     * @see #count(CharSequence)
+     */
+    public boolean admits(ExpressionTree.Node candidate, ExpressionTree.Node root, int[] counts, Map<ExpressionTree.Node, Counts> cache) {
+        Counts self = rootCounts(root);
+        if (self == null) {
+            return false;
+        }
+        Counts candidateCounts = counts(candidate, self, cache);
+        return candidateCounts != null && candidateCounts.contains(counts);
+    }
+
+    /**
+     * Returns the constraints of the node.
+     *
+     * @param self  the constraints of the self references, or <code>null</code> when deriving no string
+     * @param cache the constraints of the nodes already computed, or <code>null</code>
+     * @return the constraints, or <code>null</code> when the node derives no string
+     */
+    private Counts counts(ExpressionTree.Node node, Counts self, Map<ExpressionTree.Node, Counts> cache) {
+        if (cache != null && cache.containsKey(node)) {
+            return cache.get(node);
+        }
+        Expression expression = node.getExpression();
+        Counts counts;
+
+        if (node.getSubNodes().isEmpty()) {
+            if (!expression.isReference()) {
+                counts = wordCounts(node.toWord());
+
+            } else if (node.isThisReference()) {
+                counts = quantified(self, expression);
+
+            } else {
+                Counts referenced = grammar.getRuleNames().contains(expression.getText()) ? rules.get(expression.getText()) : Counts.any(chars.length);
+                counts = quantified(referenced, expression);
+            }
+        } else {
+            counts = node.isOrNode() ? null : Counts.point(new long[chars.length]);
+            for (ExpressionTree.Node sub : node.getSubNodes()) {
+                Counts subCounts = counts(sub, self, cache);
+                counts = node.isOrNode() ? Counts.join(counts, subCounts) : Counts.sum(counts, subCounts);
+            }
+            counts = quantified(counts, expression);
+        }
+        if (cache != null) {
+            cache.put(node, counts);
+        }
+        return counts;
+    }
+
+    private Counts wordCounts(String word) {
+        Counts counts = words.get(word);
+        if (counts == null) {
+            Automaton automaton = Automaton.compile(word, flags);
+            counts = automaton != null ? automaton.counts(chars) : Counts.any(chars.length);
+            // a word deriving no string is not cached
+            if (counts != null) {
+                words.put(word, counts);
+            }
+        }
+        return counts;
+    }
+
+    private Counts quantified(Counts counts, Expression expression) {
+        if (!expression.isQuantified()) {
+            return counts;
+        }
+        for (int[] quantifier : ContextFreeGrammar.parseQuantifier(expression.getQuantifier())) {
+            if (counts != null) {
+                counts = Counts.repeat(counts, quantifier[0], quantifier[1]);
+            } else if (quantifier[0] == 0) {
+                // only the empty string derived
+                counts = Counts.point(new long[chars.length]);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Vectors of counts of characters: a base vector plus the integer combinations of the rows of a lattice, no count less than the minimal
+     * count. The rows are in the Hermite normal form, so equal sets of the vectors have equal rows.
+     */
+    static final class Counts {
+
+        /**
+         * The maximal absolute value of the vectors, larger vectors are not constrained.
+         */
+        private static final long LIMIT = 1L << 20;
+
+        final long[] base;
+        final long[][] lattice;
+        final long[] min;
+
+        private Counts(long[] base, long[][] lattice, long[] min) {
+            this.base = base;
+            this.lattice = lattice;
+            this.min = min;
+        }
+
+        static Counts point(long[] vector) {
+            return of(vector, new ArrayList<long[]>(), vector.clone());
+        }
+
+        /**
+         * Any counts.
+         */
+        static Counts any(int size) {
+            return new Counts(new long[size], identity(size), new long[size]);
+        }
+
+        private static Counts of(long[] base, List<long[]> vectors, long[] min) {
+            for (int i = 0; i < min.length; i++) {
+                min[i] = Math.min(min[i], LIMIT);
+            }
+            if (exceeds(base)) {
+                return new Counts(new long[base.length], identity(base.length), min);
+            }
+            return new Counts(base, normalize(vectors, base.length), min);
+        }
+
+        /**
+         * Returns the counts of the strings derived from the first node followed by the second one.
+         */
+        static Counts sum(Counts first, Counts second) {
+            if (first == null || second == null) {
+                return null;
+            }
+            long[] base = new long[first.base.length];
+            long[] min = new long[first.base.length];
+            for (int i = 0; i < base.length; i++) {
+                base[i] = first.base[i] + second.base[i];
+                min[i] = first.min[i] + second.min[i];
+            }
+            List<long[]> vectors = new ArrayList<long[]>(Arrays.asList(first.lattice));
+            vectors.addAll(Arrays.asList(second.lattice));
+            return of(base, vectors, min);
+        }
+
+        /**
+         * Returns the counts of the strings derived from the first or the second node.
+         */
+        static Counts join(Counts first, Counts second) {
+            if (first == null) {
+                return second;
+            }
+            if (second == null) {
+                return first;
+            }
+            long[] difference = new long[first.base.length];
+            long[] min = new long[first.base.length];
+            for (int i = 0; i < difference.length; i++) {
+                difference[i] = second.base[i] - first.base[i];
+                min[i] = Math.min(first.min[i], second.min[i]);
+            }
+            List<long[]> vectors = new ArrayList<long[]>(Arrays.asList(first.lattice));
+            vectors.addAll(Arrays.asList(second.lattice));
+            vectors.add(difference);
+            return of(first.base.clone(), vectors, min);
+        }
+
+        /**
+         * Returns the counts of the strings derived from the node repeated from the minimal to the maximal count of times.
+         *
+         * @param max the maximal count, <code>-1</code> when not limited
+         */
+        static Counts repeat(Counts counts, int min, int max) {
+            if (max == 0) {
+                return point(new long[counts.base.length]);
+            }
+            long[] base = new long[counts.base.length];
+            long[] minCounts = new long[counts.base.length];
+            for (int i = 0; i < base.length; i++) {
+                base[i] = min * counts.base[i];
+                minCounts[i] = min * counts.min[i];
+            }
+            List<long[]> vectors = new ArrayList<long[]>(Arrays.asList(counts.lattice));
+            if (max != min) {
+                vectors.add(counts.base);
+            }
+            return of(base, vectors, minCounts);
+        }
+
+        /**
+         * Returns true if the vector is in the set.
+         */
+        boolean contains(int[] counts) {
+            long[] residual = new long[base.length];
+            for (int i = 0; i < residual.length; i++) {
+                if (counts[i] < min[i]) {
+                    return false;
+                }
+                residual[i] = counts[i] - base[i];
+            }
+            for (long[] row : lattice) {
+                int pivot = pivot(row);
+                if (residual[pivot] % row[pivot] != 0) {
+                    return false;
+                }
+                subtract(residual, row, residual[pivot] / row[pivot]);
+            }
+            for (long value : residual) {
+                if (value != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the rows of the lattice generated by the vectors in the Hermite normal form, the whole space when the values exceed the
+         * limit.
+         */
+        private static long[][] normalize(List<long[]> vectors, int size) {
+            List<long[]> rows = new ArrayList<long[]>();
+            for (long[] vector : vectors) {
+                if (exceeds(vector)) {
+                    return identity(size);
+                }
+                if (!isZero(vector)) {
+                    rows.add(vector.clone());
+                }
+            }
+            List<long[]> normalized = new ArrayList<long[]>();
+            for (int column = 0; column < size && !rows.isEmpty(); column++) {
+                while (true) {
+                    long[] pivot = null;
+                    for (long[] row : rows) {
+                        if (row[column] != 0 && (pivot == null || Math.abs(row[column]) < Math.abs(pivot[column]))) {
+                            pivot = row;
+                        }
+                    }
+                    if (pivot == null) {
+                        break;
+                    }
+                    // the Euclidean algorithm on the column
+                    boolean reduced = true;
+                    for (long[] row : rows) {
+                        if (row != pivot && row[column] != 0) {
+                            subtract(row, pivot, row[column] / pivot[column]);
+                            if (exceeds(row)) {
+                                return identity(size);
+                            }
+                            reduced = false;
+                        }
+                    }
+                    if (reduced) {
+                        rows.remove(pivot);
+                        if (pivot[column] < 0) {
+                            for (int i = 0; i < size; i++) {
+                                pivot[i] = -pivot[i];
+                            }
+                        }
+                        normalized.add(pivot);
+                        break;
+                    }
+                    for (int i = rows.size() - 1; i >= 0; i--) {
+                        if (isZero(rows.get(i))) {
+                            rows.remove(i);
+                        }
+                    }
+                }
+            }
+            // the entries above the pivots are reduced modulo the pivots
+            for (int i = 0; i < normalized.size(); i++) {
+                long[] row = normalized.get(i);
+                int pivot = pivot(row);
+                for (int j = 0; j < i; j++) {
+                    long[] upper = normalized.get(j);
+                    subtract(upper, row, floorDiv(upper[pivot], row[pivot]));
+                    if (exceeds(upper)) {
+                        return identity(size);
+                    }
+                }
+            }
+            return normalized.toArray(new long[normalized.size()][]);
+        }
+
+        private static long[][] identity(int size) {
+            long[][] identity = new long[size][size];
+            for (int i = 0; i < size; i++) {
+                identity[i][i] = 1;
+            }
+            return identity;
+        }
+
+        private static void subtract(long[] vector, long[] row, long multiple) {
+            if (multiple != 0) {
+                for (int i = 0; i < vector.length; i++) {
+                    vector[i] -= multiple * row[i];
+                }
+            }
+        }
+
+        private static int pivot(long[] row) {
+            int pivot = 0;
+            while (row[pivot] == 0) {
+                pivot++;
+            }
+            return pivot;
+        }
+
+        private static long floorDiv(long dividend, long divisor) {
+            long quotient = dividend / divisor;
+            return (dividend % divisor != 0 && (dividend < 0) != (divisor < 0)) ? quotient - 1 : quotient;
+        }
+
+        private static boolean isZero(long[] vector) {
+            for (long value : vector) {
+                if (value != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean exceeds(long[] vector) {
+            for (long value : vector) {
+                if (Math.abs(value) > LIMIT) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Counts counts = (Counts) o;
+            return Arrays.equals(base, counts.base) && Arrays.deepEquals(lattice, counts.lattice) && Arrays.equals(min, counts.min);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Arrays.hashCode(base) + Arrays.deepHashCode(lattice)) + Arrays.hashCode(min);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(Arrays.toString(base));
+            for (long[] row : lattice) {
+                sb.append(" + Z").append(Arrays.toString(row));
+            }
+            return sb.append(" >= ").append(Arrays.toString(min)).toString();
+        }
+    }
+}
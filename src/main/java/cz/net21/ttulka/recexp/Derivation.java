@@ -0,0 +1,151 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Derivation (parse) tree over a {@link ContextFreeGrammar context-free grammar}.
+ * <p>
+ * A derivation can be converted to a tree of {@link RecexpGroup groups} with the same structure as the derivation engine produces.
+ *
+ * @author ttulka
+ * @see ContextFreeGrammar
+ * @see RecexpGroup
+ */
+class Derivation {
+
+    private final ContextFreeGrammar.Symbol symbol;
+    private final ContextFreeGrammar.Production production;
+    private final int start;
+    private final int end;
+    private final Derivation[] children;
+
+    /**
+     * @param symbol     the derived symbol
+     * @param production the used production, <code>null</code> for a terminal
+     * @param start      the start position in the input (inclusive)
+     * @param end        the end position in the input (exclusive)
+     * @param children   the derivations of the production body symbols
+     */
+    public Derivation(ContextFreeGrammar.Symbol symbol, ContextFreeGrammar.Production production, int start, int end, Derivation[] children) {
+        this.symbol = symbol;
+        this.production = production;
+        this.start = start;
+        this.end = end;
+        this.children = children;
+    }
+
+    public ContextFreeGrammar.Symbol getSymbol() {
+        return symbol;
+    }
+
+    public ContextFreeGrammar.Production getProduction() {
+        return production;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public Derivation[] getChildren() {
+        return children;
+    }
+
+    /**
+     * Returns the expression node of the derived symbol, <code>null</code> for terminals and references.
+     */
+    public ExpressionTree.Node getNode() {
+        return symbol instanceof ContextFreeGrammar.Nonterminal ? ((ContextFreeGrammar.Nonterminal) symbol).getNode() : null;
+    }
+
+    /**
+     * Converts a derivation of a rule symbol into a matcher.
+     */
+    public RecexpMatcher toMatcher(CharSequence input) {
+        Derivation alternative = children[0];
+        RecexpGroup group = toGroup(alternative, production.getAlternative().toWord(), input);
+        return RecexpMatcher.matcher(symbol.getName(), input, start, end, group.groups());
+    }
+
+    /**
+     * Converts a derivation of a node symbol into a group.
+     */
+    private static RecexpGroup toGroup(Derivation derivation, String name, CharSequence input) {
+        if (derivation.start == derivation.end) {
+            return new RecexpGroup(name, input, derivation.start, derivation.end, new RecexpGroup[0]);
+        }
+
+        ExpressionTree.Node node = derivation.getNode();
+
+        List<Derivation> iterations = new ArrayList<Derivation>();
+        collectIterations(derivation, iterations);
+
+        if (node.isOrNode() && iterations.size() == 1) {
+            // OR nodes are transparent
+            Derivation alternative = iterations.get(0).children[0];
+            return toGroup(alternative, alternative.getNode().toWord(), input);
+        }
+
+        List<RecexpGroup> groups = new ArrayList<RecexpGroup>();
+        for (Derivation iteration : iterations) {
+            if (node.getExpression().isReference()) {
+                groups.add(toReferenceGroup(iteration.children[0], node.getExpression().getQuantifier(), input));
+
+            } else if (node.isOrNode()) {
+                Derivation alternative = iteration.children[0];
+                groups.add(toGroup(alternative, alternative.getNode().toWord(), input));
+
+            } else if (!node.getSubNodes().isEmpty()) {
+                for (Derivation sub : iteration.children) {
+                    if (sub.start == derivation.end) {
+                        // the input is consumed before all the sub-nodes are reduced
+                        groups.clear();
+                        break;
+                    }
+                    groups.add(toGroup(sub, sub.getNode().toWord(), input));
+                }
+            }
+        }
+        return new RecexpGroup(name, input, derivation.start, derivation.end, groups.toArray(new RecexpGroup[groups.size()]));
+    }
+
+    /**
+     * Converts a derivation of a rule or a reference symbol into a group of the substituted alternative.
+     */
+    private static RecexpGroup toReferenceGroup(Derivation derivation, String quantifier, CharSequence input) {
+        Derivation alternative = derivation.children[0];
+        ExpressionTree.Node node = derivation.production.getAlternative();
+
+        // a quantified self-reference of a rule with alternatives substitutes the whole rule
+        boolean thisWithAlternatives = derivation.getNode() != null && derivation.getNode().isOrNode();
+
+        if (quantifier == null || quantifier.isEmpty() || node.isOrNode() || thisWithAlternatives) {
+            return toGroup(alternative, node.toWord(), input);
+        }
+        if (node.getExpression().isReference() && !node.getExpression().isQuantified()) {
+            String name = Expression.REFERENCE_PREFIX + node.getExpression().getText() + quantifier;
+            RecexpGroup group = toReferenceGroup(alternative.children[0], quantifier, input);
+            return new RecexpGroup(name, input, group.start(), group.end(), new RecexpGroup[]{group});
+        }
+        return toGroup(alternative, "(" + node.toWord() + ")" + quantifier, input);
+    }
+
+    /**
+     * Collects derivations of the unquantified node, a derivation of an unquantified node is the only iteration.
+     */
+    private static void collectIterations(Derivation derivation, List<Derivation> iterations) {
+        ContextFreeGrammar.Nonterminal nonterminal = (ContextFreeGrammar.Nonterminal) derivation.symbol;
+
+        if (nonterminal.getKind() != ContextFreeGrammar.Nonterminal.Kind.REPETITION) {
+            iterations.add(derivation);
+            return;
+        }
+        for (Derivation child : derivation.children) {
+            collectIterations(child, iterations);
+        }
+    }
+}
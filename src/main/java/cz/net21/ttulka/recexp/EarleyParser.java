@@ -0,0 +1,502 @@
+package cz.net21.ttulka.recexp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Earley chart parser over a {@link ContextFreeGrammar context-free grammar}.
+ * <p>
+ * Terminals are regular expressions possibly matching several substrings starting at the same position, all of them are scanned. Nullable symbols
+ * are completed on the fly when predicted after their empty completion. Items are nodes of a {@link ParseForest shared packed parse forest}, so
+ * a derivation tree can be reconstructed without any further search.
+ * <p>
+ * Finding predicts the starting symbol at every position until a completion of it is found, all the completions of the starting symbol are
+ * derived substrings. The parsing continues only while there are items ahead.
+ * <p>
+ * Recognizing builds no parse forest, the chart of a recognizer is reused for all its inputs. Recognizing a stream reads it incrementally, item
+ * sets no item ahead can return to are dropped together with the input before the current position, so only the live part of the chart is kept
+ * in memory.
+ *
+ * @author ttulka
+ * @see ContextFreeGrammar
+ * @see ParseForest
+ */
+class EarleyParser implements GrammarParser {
+
+    private final ContextFreeGrammar grammar;
+
+    public EarleyParser(ContextFreeGrammar grammar) {
+        this.grammar = grammar;
+    }
+
+    @Override
+    public ContextFreeGrammar getGrammar() {
+        return grammar;
+    }
+
+    @Override
+    public Derivation parse(ContextFreeGrammar.Nonterminal start, CharSequence input) {
+        return parse(start, input, null);
+    }
+
+    @Override
+    public Derivation parse(ContextFreeGrammar.Nonterminal start, CharSequence input, Budget budget) {
+        Chart chart = new Chart(input);
+        chart.budget = budget;
+        chart.set(0).predict(start);
+
+        for (int position = 0; position <= input.length(); position++) {
+            ItemSet set = chart.sets[position];
+            if (set != null) {
+                chart.process(set);
+            }
+        }
+
+        ItemSet last = chart.sets[input.length()];
+        ParseForest.SymbolNode accepted = last != null ? last.symbols.get(last.key(start.getId(), 0)) : null;
+
+        return accepted != null ? new ParseForest.DerivationBuilder().build(accepted) : null;
+    }
+
+    @Override
+    public Finder finder(final ContextFreeGrammar.Nonterminal start, CharSequence input) {
+        final Chart chart = new Chart(input);
+        chart.target = start;
+
+        return new Finder() {
+            @Override
+            public Derivation find(int from) {
+                chart.clear(from);
+
+                for (int position = from; position <= chart.input.length(); position++) {
+                    if (chart.found == null) {
+                        chart.set(position).predict(start);
+                    }
+                    ItemSet set = chart.sets[position];
+                    if (set != null) {
+                        chart.process(set);
+                    }
+                    if (chart.found != null && chart.last <= position) {
+                        break;
+                    }
+                }
+                return chart.found != null ? new ParseForest.DerivationBuilder().build(chart.found) : null;
+            }
+        };
+    }
+
+    @Override
+    public Recognizer recognizer(final List<ContextFreeGrammar.Nonterminal> starts) {
+        final Chart chart = new Chart("", true);
+
+        return new Recognizer() {
+            @Override
+            public boolean recognize(CharSequence input) {
+                chart.reset(input);
+                for (ContextFreeGrammar.Nonterminal start : starts) {
+                    chart.set(0).predict(start);
+                }
+                for (int position = 0; position <= input.length(); position++) {
+                    ItemSet set = chart.sets[position];
+                    if (set != null) {
+                        chart.process(set);
+
+                    } else if (chart.last < position) {
+                        // no item left ahead
+                        return false;
+                    }
+                }
+                ItemSet last = chart.sets[input.length()];
+                for (ContextFreeGrammar.Nonterminal start : starts) {
+                    if (last != null && last.symbols.containsKey(last.key(start.getId(), 0))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Recognizes an input read incrementally from the reader.
+     * <p>
+     * The input is read only as far as the terminals need, the reading stops as soon as no item is left ahead. Lookbehinds cannot see the
+     * characters before the position being scanned.
+     *
+     * @param starts   the starting symbols
+     * @param reader   the reader of the input
+     * @param listener the listener of an early rejection, can be <code>null</code>
+     * @return true if the whole input is derived from a starting symbol
+     * @throws IOException                 when the reading fails
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public boolean recognize(Collection<ContextFreeGrammar.Nonterminal> starts, Reader reader, RecexpRejectionListener listener)
+            throws IOException {
+        StreamInput input = new StreamInput(reader);
+        Chart chart = new Chart(input);
+        for (ContextFreeGrammar.Nonterminal start : starts) {
+            chart.set(0).predict(start);
+        }
+        try {
+            for (int position = 0; ; position++) {
+                ItemSet set = chart.get(position);
+                if (set != null) {
+                    chart.process(set);
+                }
+                input.discard(position);
+
+                if (!input.has(position)) {
+                    for (ContextFreeGrammar.Nonterminal start : starts) {
+                        if (set != null && set.symbols.containsKey(set.key(start.getId(), 0))) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                if (chart.last <= position) {
+                    if (listener != null) {
+                        listener.rejected(position);
+                    }
+                    return false;
+                }
+                chart.collect(position);
+            }
+        } catch (ReadingFailure e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Failure of reading a stream while scanning.
+     */
+    private static class ReadingFailure extends RuntimeException {
+
+        ReadingFailure(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Set of items ending at the same position.
+     */
+    private class ItemSet {
+
+        final Chart chart;
+        final int position;
+        final List<ParseForest.ItemNode> items = new ArrayList<ParseForest.ItemNode>();
+        final Map<Long, ParseForest.ItemNode> index = new HashMap<Long, ParseForest.ItemNode>();
+        final Map<Long, ParseForest.SymbolNode> symbols = new HashMap<Long, ParseForest.SymbolNode>();
+        final Map<ContextFreeGrammar.Nonterminal, List<ParseForest.ItemNode>> waiting =
+                new HashMap<ContextFreeGrammar.Nonterminal, List<ParseForest.ItemNode>>();
+        final Set<ContextFreeGrammar.Nonterminal> predicted = new HashSet<ContextFreeGrammar.Nonterminal>();
+
+        ItemSet(Chart chart, int position) {
+            this.chart = chart;
+            this.position = position;
+        }
+
+        void add(ParseForest.ItemNode item) {
+            Long key = key(item.production.item(item.dot), item.start);
+            ParseForest.ItemNode existing = index.get(key);
+            if (existing == null) {
+                index.put(key, item);
+                items.add(item);
+            } else {
+                existing.addDerivation(item.previous, item.child);
+            }
+        }
+
+        void predict(ContextFreeGrammar.Nonterminal symbol) {
+            if (predicted.add(symbol)) {
+                if (symbol.isUndefined()) {
+                    throw new RecexpRuleNotFoundException(symbol.getName().substring(1));
+                }
+                for (ContextFreeGrammar.Production production : symbol.getProductions()) {
+                    if (chart.canStart(production, position)) {
+                        add(new ParseForest.ItemNode(production, 0, position, position, null, null));
+                    }
+                }
+            }
+        }
+
+        ParseForest.SymbolNode symbol(ContextFreeGrammar.Nonterminal nonterminal, int origin) {
+            Long key = key(nonterminal.getId(), origin);
+            ParseForest.SymbolNode symbol = symbols.get(key);
+            if (symbol == null) {
+                symbol = new ParseForest.SymbolNode(nonterminal, origin, position);
+                symbols.put(key, symbol);
+            }
+            return symbol;
+        }
+
+        List<ParseForest.ItemNode> waiting(ContextFreeGrammar.Nonterminal symbol) {
+            List<ParseForest.ItemNode> items = waiting.get(symbol);
+            if (items == null) {
+                items = new ArrayList<ParseForest.ItemNode>();
+                waiting.put(symbol, items);
+            }
+            return items;
+        }
+
+        Long key(int id, int origin) {
+            return ((long) id << 32) | origin;
+        }
+    }
+
+    /**
+     * Chart of item sets for an input.
+     */
+    private class Chart {
+
+        CharSequence input;
+        ItemSet[] sets;
+        final ContextFreeGrammar.TerminalMatcher[] matchers;
+
+        /**
+         * Whether only recognizing, no parse forest is built then.
+         */
+        final boolean recognizing;
+
+        /**
+         * Item sets of a stream by position, <code>null</code> for an input in memory.
+         */
+        final Map<Integer, ItemSet> live;
+        /**
+         * Number of the live item sets after the last collection.
+         */
+        int collected;
+
+        /**
+         * The first and the last position with an item set.
+         */
+        int first;
+        int last;
+
+        /**
+         * The symbol to be found, <code>null</code> when parsing.
+         */
+        ContextFreeGrammar.Nonterminal target;
+        /**
+         * The leftmost longest completion of the target symbol.
+         */
+        ParseForest.SymbolNode found;
+
+        /**
+         * The budget of the parsing, <code>null</code> when not limited.
+         */
+        Budget budget;
+
+        Chart(CharSequence input) {
+            this(input, false);
+        }
+
+        /**
+         * @param input       the input, a stream is always only recognized
+         * @param recognizing whether only recognizing
+         */
+        Chart(CharSequence input, boolean recognizing) {
+            boolean stream = input instanceof StreamInput;
+
+            this.input = input;
+            this.sets = stream ? null : new ItemSet[input.length() + 1];
+            this.live = stream ? new HashMap<Integer, ItemSet>() : null;
+            this.matchers = new ContextFreeGrammar.TerminalMatcher[grammar.getTerminals().size()];
+            this.recognizing = recognizing || stream;
+        }
+
+        /**
+         * Resets the chart for another input in memory, the item sets array and the matchers are reused.
+         */
+        void reset(CharSequence input) {
+            clear(0);
+            if (sets.length <= input.length()) {
+                sets = new ItemSet[Math.max(input.length() + 1, sets.length * 2)];
+            }
+            for (ContextFreeGrammar.TerminalMatcher matcher : matchers) {
+                if (matcher != null) {
+                    matcher.reset(input);
+                }
+            }
+            this.input = input;
+        }
+
+        ItemSet get(int position) {
+            return live != null ? live.get(position) : sets[position];
+        }
+
+        ItemSet set(int position) {
+            ItemSet set = get(position);
+            if (set == null) {
+                set = new ItemSet(this, position);
+                if (live != null) {
+                    live.put(position, set);
+                } else {
+                    sets[position] = set;
+                }
+                first = Math.min(first, position);
+                last = Math.max(last, position);
+            }
+            return set;
+        }
+
+        /**
+         * Drops the item sets before the position no item ahead can return to, when the number of the item sets has doubled.
+         */
+        void collect(int position) {
+            if (live.size() < Math.max(64, 2 * collected)) {
+                return;
+            }
+            Set<Integer> reachable = new HashSet<Integer>();
+            LinkedList<Integer> origins = new LinkedList<Integer>();
+
+            for (ItemSet set : live.values()) {
+                if (set.position > position) {
+                    for (ParseForest.ItemNode item : set.items) {
+                        origins.add(item.start);
+                    }
+                }
+            }
+            while (!origins.isEmpty()) {
+                Integer origin = origins.removeFirst();
+                ItemSet set = live.get(origin);
+                if (set != null && reachable.add(origin)) {
+                    for (List<ParseForest.ItemNode> waiting : set.waiting.values()) {
+                        for (ParseForest.ItemNode item : waiting) {
+                            origins.add(item.start);
+                        }
+                    }
+                }
+            }
+            for (Iterator<ItemSet> sets = live.values().iterator(); sets.hasNext(); ) {
+                ItemSet set = sets.next();
+                if (set.position <= position && !reachable.contains(set.position)) {
+                    sets.remove();
+                }
+            }
+            collected = live.size();
+        }
+
+        /**
+         * Clears the chart for finding from the position, only the used part of the chart is touched.
+         */
+        void clear(int from) {
+            for (int position = first; position <= last; position++) {
+                sets[position] = null;
+            }
+            first = from;
+            last = from;
+            found = null;
+        }
+
+        /**
+         * Returns false if the symbol cannot derive a string starting at the position, a stream is not looked ahead.
+         */
+        boolean canStart(ContextFreeGrammar.Nonterminal symbol, int position) {
+            return live != null || grammar.getAnalysis().canStart(symbol, input, position);
+        }
+
+        /**
+         * Returns false if the production cannot derive a string starting at the position, a stream is not looked ahead.
+         */
+        boolean canStart(ContextFreeGrammar.Production production, int position) {
+            return live != null || grammar.getAnalysis().canStart(production, input, position);
+        }
+
+        void process(ItemSet set) {
+            Map<ContextFreeGrammar.Terminal, int[]> scanned = new HashMap<ContextFreeGrammar.Terminal, int[]>();
+
+            for (int i = 0; i < set.items.size(); i++) {
+                if (budget != null) {
+                    budget.step();
+                }
+                ParseForest.ItemNode item = set.items.get(i);
+                ContextFreeGrammar.Symbol next = item.next();
+
+                if (next == null) {
+                    complete(set, item);
+
+                } else if (next instanceof ContextFreeGrammar.Terminal) {
+                    ContextFreeGrammar.Terminal terminal = (ContextFreeGrammar.Terminal) next;
+                    int[] ends = scanned.get(terminal);
+                    if (ends == null) {
+                        ends = scan(terminal, set.position);
+                        scanned.put(terminal, ends);
+                    }
+                    for (int e = 1; e <= ends[0]; e++) {
+                        set(ends[e]).add(advance(item, ends[e], null));
+                    }
+                } else {
+                    ContextFreeGrammar.Nonterminal nonterminal = (ContextFreeGrammar.Nonterminal) next;
+                    if (!canStart(nonterminal, set.position)) {
+                        continue;
+                    }
+                    set.waiting(nonterminal).add(item);
+                    set.predict(nonterminal);
+
+                    ParseForest.SymbolNode empty = set.symbols.get(set.key(nonterminal.getId(), set.position));
+                    if (empty != null) {
+                        set.add(advance(item, set.position, empty));
+                    }
+                }
+            }
+        }
+
+        private void complete(ItemSet set, ParseForest.ItemNode completed) {
+            ContextFreeGrammar.Nonterminal head = completed.production.getHead();
+
+            ParseForest.SymbolNode symbol = set.symbol(head, completed.start);
+            symbol.addAlternative(completed);
+
+            if (head == target && (found == null || symbol.start < found.start || symbol.start == found.start && symbol.end > found.end)) {
+                found = symbol;
+            }
+
+            List<ParseForest.ItemNode> waiting = get(completed.start).waiting(head);
+            for (int i = 0; i < waiting.size(); i++) {
+                set.add(advance(waiting.get(i), set.position, symbol));
+            }
+        }
+
+        private ParseForest.ItemNode advance(ParseForest.ItemNode item, int end, ParseForest.SymbolNode child) {
+            if (recognizing) {
+                return new ParseForest.ItemNode(item.production, item.dot + 1, item.start, end, null, null);
+            }
+            return new ParseForest.ItemNode(item.production, item.dot + 1, item.start, end, item, child);
+        }
+
+        private int[] scan(ContextFreeGrammar.Terminal terminal, int position) {
+            ContextFreeGrammar.TerminalMatcher matcher = matchers[terminal.getId()];
+            if (matcher == null) {
+                matcher = terminal.matcher(input);
+                matchers[terminal.getId()] = matcher;
+            }
+            int[] ends = matcher.matchEnds(position, input.length(), null);
+
+            if (input instanceof StreamInput) {
+                try {
+                    // a longer input could change the result
+                    while (matcher.hitEnd() && ((StreamInput) input).fill()) {
+                        ends = matcher.matchEnds(position, input.length(), ends);
+                    }
+                } catch (IOException e) {
+                    throw new ReadingFailure(e);
+                }
+            }
+            return ends;
+        }
+    }
+}
@@ -14,17 +14,44 @@ class Expression {
 
     public static final Expression EPSILON = new Expression("", null, false);
 
-    private final String text;
+    /**
+     * The text or the expression containing the text.
+     */
+    private final String source;
+    private final int start;
+    private final int end;
+    private final int textHash;
     private final String quantifier;
     private final boolean reference;
 
+    private String text;
+    private String word;
+
     public Expression(String text, String quantifier, boolean reference) {
+        this(text, 0, text.length(), text.hashCode(), quantifier, reference);
         this.text = text;
+    }
+
+    /**
+     * Creates an expression of the part of the source between the start (inclusive) and the end (exclusive), the text is copied when needed.
+     *
+     * @param textHash the hash of the text, equal to {@link String#hashCode()} of the text
+     */
+    Expression(String source, int start, int end, int textHash, String quantifier, boolean reference) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.textHash = textHash;
         this.quantifier = quantifier;
         this.reference = reference;
     }
 
     public String getText() {
+        String text = this.text;
+        if (text == null) {
+            text = source.substring(start, end);
+            this.text = text;
+        }
         return text;
     }
 
@@ -41,10 +68,19 @@ class Expression {
     }
 
     public boolean isEpsilon() {
-        return EPSILON.getText().equals(this.getText());
+        return start == end;
     }
 
     public String toWord() {
+        String word = this.word;
+        if (word == null) {
+            word = buildWord();
+            this.word = word;
+        }
+        return word;
+    }
+
+    private String buildWord() {
         if (isEpsilon()) {
             return "";
         }
@@ -84,7 +120,8 @@ class Expression {
         if (reference != that.reference) {
             return false;
         }
-        if (!text.equals(that.text)) {
+        if (textHash != that.textHash || end - start != that.end - that.start
+            || !source.regionMatches(start, that.source, that.start, end - start)) {
             return false;
         }
         return quantifier != null ? quantifier.equals(that.quantifier) : that.quantifier == null;
@@ -92,7 +129,7 @@ class Expression {
 
     @Override
     public int hashCode() {
-        int result = text.hashCode();
+        int result = textHash;
         result = 31 * result + (quantifier != null ? quantifier.hashCode() : 0);
         result = 31 * result + (reference ? 1 : 0);
         return result;
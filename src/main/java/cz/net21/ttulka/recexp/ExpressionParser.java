@@ -0,0 +1,454 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static cz.net21.ttulka.recexp.Expression.REFERENCE_PREFIX;
+
+/**
+ * Parser of recursive expressions into expression trees.
+ * <p>
+ * The brackets and the character classes are matched in one scan of the expression, the nodes are then built from the ranges of the
+ * expression without copying or rescanning the parts. The texts of the nodes are copied only when needed, their hashes are computed from the
+ * prefix hashes of the expression. The lexical helpers recognize quantifiers and references without regular expressions.
+ * <p>
+ * The syntax of the whole expression is checked once by {@link Pattern}. The parts never split a character class or a group, so the parts
+ * of a valid expression are valid on their own.
+ *
+ * @author ttulka
+ * @see ExpressionTree.Node#parseNode(String)
+ */
+class ExpressionParser {
+
+    private final String expression;
+    /**
+     * Index of the matching bracket for every unescaped bracket and the end of the character class for its opening bracket, otherwise -1.
+     */
+    private final int[] brackets;
+    /**
+     * Hashes of the prefixes of the expression, computed as {@link String#hashCode()}, by the length of the prefix.
+     */
+    private int[] hashes;
+    /**
+     * Powers of 31 by the exponent.
+     */
+    private int[] powers;
+
+    private ExpressionParser(String expression) {
+        this.expression = expression;
+        this.brackets = matchBrackets(expression);
+    }
+
+    /**
+     * Parses the expression into a tree.
+     *
+     * @param expression the expression
+     * @return the root node
+     * @throws RecexpSyntaxException when the expression is not valid
+     */
+    public static ExpressionTree.Node parse(String expression) {
+        validate(expression);
+        ExpressionParser parser = new ExpressionParser(expression);
+        parser.hashPrefixes();
+        return parser.parse(0, expression.length());
+    }
+
+    /**
+     * Splits the expression by the top-level alternatives.
+     */
+    public static List<String> splitORs(String expression) {
+        if (expression.length() < 3) {  // must be at least x|y
+            return Collections.singletonList(expression);
+        }
+        ExpressionParser parser = new ExpressionParser(expression);
+        return parser.substrings(parser.splitORs(0, expression.length()));
+    }
+
+    /**
+     * Splits the expression by the top-level groups and references.
+     */
+    public static List<String> splitANDs(String expression) {
+        ExpressionParser parser = new ExpressionParser(expression);
+        return parser.substrings(parser.splitANDs(0, expression.length()));
+    }
+
+    private List<String> substrings(List<int[]> parts) {
+        List<String> substrings = new ArrayList<String>(parts.size());
+        for (int[] part : parts) {
+            substrings.add(expression.substring(part[0], part[1]));
+        }
+        return substrings;
+    }
+
+    private static int[] matchBrackets(String expression) {
+        int[] brackets = new int[expression.length()];
+        int[] opening = new int[expression.length()];
+        int level = 0;
+        int lastOpeningBracketIndex = -1;
+
+        for (int i = 0; i < expression.length(); i++) {
+            brackets[i] = -1;
+            char ch = expression.charAt(i);
+            if (ch == '[' && !isEscaped(expression, i)) {
+                int classEnd = characterClassEnd(expression, i);
+                if (classEnd > i) {
+                    // the brackets in the class are literals
+                    brackets[i] = classEnd;
+                    for (int j = i + 1; j <= classEnd; j++) {
+                        brackets[j] = -1;
+                    }
+                    i = classEnd;
+                }
+
+            } else if (ch == '(' && !isEscaped(expression, i)) {
+                opening[level++] = i;
+                lastOpeningBracketIndex = i;
+
+            } else if (ch == ')' && !isEscaped(expression, i)) {
+                if (level == 0) {
+                    throw new RecexpSyntaxException("Unmatched closing ')' near index " + i + "\n" + expression);
+                }
+                int open = opening[--level];
+                brackets[open] = i;
+                brackets[i] = open;
+            }
+        }
+        if (level > 0) {
+            throw new RecexpSyntaxException("Unmatched opening '(' near index " + lastOpeningBracketIndex + "\n" + expression);
+        }
+        return brackets;
+    }
+
+    /**
+     * Returns the index of the bracket closing the character class opened at the index, or -1 when the class is not closed.
+     */
+    private static int characterClassEnd(String expression, int index) {
+        int i = index + 1;
+        if (i < expression.length() && expression.charAt(i) == '^') {
+            i++;
+        }
+        if (i < expression.length() && expression.charAt(i) == ']') {  // a leading bracket is a literal
+            i++;
+        }
+        int level = 1;
+        for (; i < expression.length(); i++) {
+            char ch = expression.charAt(i);
+            if (ch == '\\') {
+                i++;
+
+            } else if (ch == '[') {
+                level++;
+
+            } else if (ch == ']' && --level == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void validate(String expression) {
+        try {
+            Pattern.compile(expression);
+
+        } catch (PatternSyntaxException rethrow) {
+            throw new RecexpSyntaxException(rethrow.getMessage());
+        }
+    }
+
+    private void hashPrefixes() {
+        hashes = new int[expression.length() + 1];
+        powers = new int[expression.length() + 1];
+        powers[0] = 1;
+        for (int i = 0; i < expression.length(); i++) {
+            hashes[i + 1] = 31 * hashes[i] + expression.charAt(i);
+            powers[i + 1] = 31 * powers[i];
+        }
+    }
+
+    /**
+     * Creates the expression of the part between the start (inclusive) and the end (exclusive), the text is not copied.
+     */
+    private Expression expression(int start, int end, String quantifier, boolean isReference) {
+        int hash = hashes[end] - hashes[start] * powers[end - start];
+        return new Expression(expression, start, end, hash, quantifier, isReference);
+    }
+
+    /**
+     * Parses the part of the expression between the start (inclusive) and the end (exclusive).
+     */
+    private ExpressionTree.Node parse(int start, int end) {
+        int from = start;
+        int to = end;
+        String quantifier = null;
+
+        int quantifierStart = quantifierStart(expression, from, to);
+        int groupEnd = quantifierStart >= 0 ? quantifierStart : to;
+        if (isGroup(from, groupEnd)) {
+            if (quantifierStart >= 0) {
+                quantifier = expression.substring(quantifierStart, to);
+            }
+            from++;
+            to = groupEnd - 1;
+        }
+
+        boolean isReference = isReference(expression, from, to);
+        if (isReference) {
+            from++;
+
+            if (quantifier == null) {
+                quantifierStart = quantifierStart(expression, from, to);
+                if (quantifierStart >= 0) {
+                    quantifier = expression.substring(quantifierStart, to);
+                    to = quantifierStart;
+                }
+            }
+        }
+
+        List<int[]> orParts = splitORs(from, to);
+        if (orParts.size() > 1) {
+            return new ExpressionTree.Node(
+                    expression(from, to, quantifier, isReference),
+                    ExpressionTree.Node.SubNodesConnectionType.OR,
+                    parseParts(orParts));
+        }
+
+        List<int[]> andParts = splitANDs(from, to);
+        if (andParts.size() > 1) {
+            return new ExpressionTree.Node(
+                    expression(from, to, quantifier, isReference),
+                    ExpressionTree.Node.SubNodesConnectionType.AND,
+                    parseParts(andParts));
+        }
+
+        quantifierStart = quantifierStart(expression, from, to);
+        if (isGroup(from, quantifierStart >= 0 ? quantifierStart : to)) {
+            List<ExpressionTree.Node> subNodes = new ArrayList<ExpressionTree.Node>();
+            subNodes.add(parse(from, to));
+
+            return new ExpressionTree.Node(
+                    expression(from, to, quantifier, isReference),
+                    ExpressionTree.Node.SubNodesConnectionType.SINGLE,
+                    subNodes);
+        }
+
+        return new ExpressionTree.Node(
+                expression(from, to, quantifier, isReference),
+                ExpressionTree.Node.SubNodesConnectionType.SINGLE);
+    }
+
+    private List<ExpressionTree.Node> parseParts(List<int[]> parts) {
+        List<ExpressionTree.Node> subNodes = new ArrayList<ExpressionTree.Node>(parts.size());
+        for (int[] part : parts) {
+            subNodes.add(parse(part[0], part[1]));
+        }
+        return subNodes;
+    }
+
+    private boolean isGroup(int start, int end) {
+        return end - start >= 2 && brackets[start] == end - 1 && expression.charAt(start) == '(';
+    }
+
+    private List<int[]> splitORs(int start, int end) {
+        List<int[]> parts = new ArrayList<int[]>();
+        if (end - start < 3) {  // must be at least x|y
+            parts.add(new int[]{start, end});
+            return parts;
+        }
+        int partStart = start;
+        for (int i = start; i < end; i++) {
+            char ch = expression.charAt(i);
+            if ((ch == '(' || ch == '[') && brackets[i] > i) {
+                i = brackets[i];
+
+            } else if (ch == '|') {
+                parts.add(new int[]{partStart, i});
+                partStart = i + 1;
+            }
+        }
+        if (partStart < end) {
+            parts.add(new int[]{partStart, end});
+        }
+        return parts;
+    }
+
+    private List<int[]> splitANDs(int start, int end) {
+        List<int[]> parts = new ArrayList<int[]>();
+        int textStart = start;
+        int i = start;
+        while (i < end) {
+            if (expression.charAt(i) == '(' && brackets[i] > i) {
+                if (i > textStart) {
+                    splitReferences(textStart, i, parts);
+                }
+                int groupEnd = brackets[i] + 1;
+                int quantifierEnd = quantifierEnd(expression, groupEnd, end);
+                if (quantifierEnd >= 0) {
+                    groupEnd = quantifierEnd;
+                }
+                parts.add(new int[]{i, groupEnd});
+                textStart = i = groupEnd;
+            } else {
+                i++;
+            }
+        }
+        if (textStart < end || start == end) {
+            splitReferences(textStart, end, parts);
+        }
+        return parts;
+    }
+
+    private void splitReferences(int start, int end, List<int[]> parts) {
+        int textStart = start;
+        int i = start;
+        while (i < end) {
+            if (expression.charAt(i) == '[' && brackets[i] > i) {
+                i = brackets[i] + 1;
+                continue;
+            }
+            int nameEnd = referenceEnd(expression, i, end);
+            if (nameEnd < 0) {
+                i++;
+                continue;
+            }
+            if (i > textStart) {
+                parts.add(new int[]{textStart, i});
+            }
+            int quantifierEnd = quantifierEnd(expression, nameEnd, end);
+            int referenceEnd = quantifierEnd >= 0 ? quantifierEnd : nameEnd;
+            parts.add(new int[]{i, referenceEnd});
+            textStart = i = referenceEnd;
+        }
+        if (textStart < end || start == end) {
+            parts.add(new int[]{textStart, end});
+        }
+    }
+
+    /**
+     * Whether the character at the index is escaped by a backslash.
+     */
+    static boolean isEscaped(CharSequence expression, int index) {
+        return index > 0 && expression.charAt(index - 1) == '\\';
+    }
+
+    static boolean isWordCharacter(char ch) {
+        return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' || ch == '_';
+    }
+
+    /**
+     * Returns the end of the unescaped reference (without a quantifier) starting at the index, or -1 when there is no reference.
+     */
+    static int referenceEnd(CharSequence expression, int index, int end) {
+        if (expression.charAt(index) != REFERENCE_PREFIX || isEscaped(expression, index)) {
+            return -1;
+        }
+        int i = index + 1;
+        while (i < end && isWordCharacter(expression.charAt(i))) {
+            i++;
+        }
+        return i > index + 1 ? i : -1;
+    }
+
+    /**
+     * Whether the part is exactly a reference with an optional quantifier.
+     */
+    static boolean isReference(CharSequence expression, int start, int end) {
+        if (start >= end || expression.charAt(start) != REFERENCE_PREFIX) {
+            return false;
+        }
+        int i = start + 1;
+        while (i < end && isWordCharacter(expression.charAt(i))) {
+            i++;
+        }
+        return i > start + 1 && (i == end || quantifierEnd(expression, i, end) == end);
+    }
+
+    /**
+     * Returns the end of the quantifier (with an optional lazy or possessive modifier) starting at the index, or -1 when there is no quantifier.
+     */
+    static int quantifierEnd(CharSequence expression, int index, int end) {
+        if (index >= end) {
+            return -1;
+        }
+        char ch = expression.charAt(index);
+        int i;
+        if (ch == '?' || ch == '*' || ch == '+') {
+            i = index + 1;
+
+        } else if (ch == '{') {
+            i = skipDigits(expression, index + 1, end);
+            if (i == index + 1) {
+                return -1;
+            }
+            if (i < end && expression.charAt(i) == ',') {
+                i = skipDigits(expression, i + 1, end);
+            }
+            if (i >= end || expression.charAt(i) != '}') {
+                return -1;
+            }
+            i++;
+
+        } else {
+            return -1;
+        }
+        if (i < end && (expression.charAt(i) == '?' || expression.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipDigits(CharSequence expression, int index, int end) {
+        while (index < end && isDigit(expression.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the start of the (possibly stacked) quantifiers at the end of the part, or -1 when the part is not quantified.
+     * A quantifier cannot be the whole part.
+     */
+    static int quantifierStart(CharSequence expression, int start, int end) {
+        int quantifierStart = -1;
+        int length;
+        while ((length = lastQuantifierLength(expression, start, end)) > 0 && end - length > start) {
+            end -= length;
+            quantifierStart = end;
+        }
+        return quantifierStart;
+    }
+
+    private static int lastQuantifierLength(CharSequence expression, int start, int end) {
+        if (end <= start) {
+            return 0;
+        }
+        char last = expression.charAt(end - 1);
+        if (last == '?' || last == '*' || last == '+') {
+            return 1;
+        }
+        if (last != '}') {
+            return 0;
+        }
+        int i = end - 1;
+        int digitsEnd = i;
+        while (i > start && isDigit(expression.charAt(i - 1))) {
+            i--;
+        }
+        if (i > start && expression.charAt(i - 1) == ',') {
+            digitsEnd = --i;
+            while (i > start && isDigit(expression.charAt(i - 1))) {
+                i--;
+            }
+        }
+        if (i == digitsEnd || i == start || expression.charAt(i - 1) != '{') {
+            return 0;
+        }
+        return end - i + 1;
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+}
@@ -1,9 +1,8 @@
 package cz.net21.ttulka.recexp;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 /**
  * Tree representation of a parsed recursive expression.
@@ -39,6 +38,9 @@ class ExpressionTree {
 
     /**
      * Node in the expression tree.
+     * <p>
+     * Nodes are immutable and equal when they are structurally equal, so equal subtrees can be shared by many trees. The hash is computed on
+     * construction, the sentence and the nullability are computed once when needed.
      */
     static class Node {
 
@@ -46,9 +48,15 @@ class ExpressionTree {
             SINGLE, AND, OR
         }
 
+        static final Node EPSILON = new Node(Expression.EPSILON);
+
         private final Expression expression;
         private final SubNodesConnectionType subNodesConnectionType;
         private final List<Node> subNodes;
+        private final int hash;
+
+        private String sentence;
+        private Boolean nullable;
 
         public Node(Expression expression) {
             this(expression, SubNodesConnectionType.SINGLE);
@@ -61,82 +69,12 @@ class ExpressionTree {
         public Node(Expression expression, SubNodesConnectionType subNodesConnectionType, List<Node> subNodes) {
             this.expression = expression;
             this.subNodesConnectionType = subNodesConnectionType;
-            this.subNodes = new ArrayList<Node>(subNodes);
+            this.subNodes = Collections.unmodifiableList(new ArrayList<Node>(subNodes));
+            this.hash = 31 * (31 * expression.hashCode() + subNodesConnectionType.ordinal()) + this.subNodes.hashCode();
         }
 
         public static ExpressionTree.Node parseNode(String expression) {
-            try {
-                Pattern.compile(expression);
-
-            } catch (PatternSyntaxException rethrow) {
-                throw new RecexpSyntaxException(rethrow.getMessage());
-            }
-
-            String quantifier = null;
-
-            boolean isClosedInBrackets = ExpressionUtils.isClosedInBrackets(expression, true);
-            if (isClosedInBrackets) {
-                quantifier = ExpressionUtils.getQuantifier(expression);
-                if (quantifier != null && !quantifier.isEmpty()) {
-                    expression = expression.substring(0, expression.length() - quantifier.length());
-                }
-                expression = ExpressionUtils.removeClosingBrackets(expression);
-            }
-
-            boolean isReference = ExpressionUtils.isReference(expression);
-            if (isReference) {
-                expression = ExpressionUtils.removeReferencePrefix(expression);
-
-                if (quantifier == null) {
-                    quantifier = ExpressionUtils.getQuantifier(expression);
-                    if (quantifier != null && !quantifier.isEmpty()) {
-                        expression = expression.substring(0, expression.length() - quantifier.length());
-                    }
-                }
-            }
-
-            List<String> orParts = ExpressionUtils.splitORs(expression);
-
-            if (orParts.size() > 1) {
-                List<Node> subNodes = new ArrayList<Node>();
-                for (String part : orParts) {
-                    subNodes.add(parseNode(part));
-                }
-
-                return new ExpressionTree.Node(
-                        new Expression(expression, quantifier, isReference),
-                        SubNodesConnectionType.OR,
-                        subNodes);
-            }
-
-            List<String> andParts = ExpressionUtils.splitANDs(expression);
-
-            if (andParts.size() > 1) {
-                List<Node> subNodes = new ArrayList<Node>();
-                for (String part : andParts) {
-                    subNodes.add(parseNode(part));
-                }
-
-                return new ExpressionTree.Node(
-                        new Expression(expression, quantifier, isReference),
-                        SubNodesConnectionType.AND,
-                        subNodes);
-
-            }
-
-            if (ExpressionUtils.isClosedInBrackets(expression, true)) {
-                List<Node> subNodes = new ArrayList<Node>();
-                subNodes.add(parseNode(expression));
-
-                return new ExpressionTree.Node(
-                        new Expression(expression, quantifier, isReference),
-                        SubNodesConnectionType.SINGLE,
-                        subNodes);
-            }
-
-            return new ExpressionTree.Node(
-                    new Expression(expression, quantifier, isReference),
-                    SubNodesConnectionType.SINGLE);
+            return ExpressionParser.parse(expression);
         }
 
         public Expression getExpression() {
@@ -156,62 +94,122 @@ class ExpressionTree {
         }
 
         public String getSentence() {
-            return getSentence(this, false).toString();
+            String sentence = this.sentence;
+            if (sentence == null) {
+                sentence = buildSentence();
+                this.sentence = sentence;
+            }
+            return sentence;
         }
 
-        private StringBuilder getSentence(Node node, boolean inBrackets) {
-            StringBuilder sb = new StringBuilder();
+        /**
+         * Returns the sentence to be concatenated with other sentences, an alternation is closed into brackets.
+         */
+        String getConcatenatedSentence() {
+            return getSentence(isAlternation());
+        }
 
-            if (node.getSubNodes().isEmpty()) {
-                if (inBrackets) {
-                    sb.append("(");
-                }
-                sb.append(node.toWord());
+        private String getSentence(boolean inBrackets) {
+            if (inBrackets && (subNodes.isEmpty() || !expression.isQuantified())) {
+                return "(" + getSentence() + ")";
+            }
+            return getSentence();
+        }
 
-                if (inBrackets) {
-                    sb.append(")");
-                }
-                return sb;
+        private String buildSentence() {
+            if (subNodes.isEmpty()) {
+                return toWord();
             }
+            StringBuilder sb = new StringBuilder();
 
-            if (inBrackets || node.getExpression().isQuantified()) {
+            if (expression.isQuantified()) {
                 sb.append("(");
             }
 
             int nodeIndex = 0;
-            for (Node subNode : node.getSubNodes()) {
+            for (Node subNode : subNodes) {
                 nodeIndex++;
-                Node nextNode = nodeIndex < node.getSubNodes().size() ? node.getSubNodes().get(nodeIndex) : null;
+                Node nextNode = nodeIndex < subNodes.size() ? subNodes.get(nodeIndex) : null;
 
                 boolean closeNodeIntoBrackets = nextNode != null && !nextNode.toWord().isEmpty() &&
                                                 subNode.getExpression().isReference() && !subNode.getExpression().isQuantified() &&
-                                                Pattern.matches("\\w", String.valueOf(nextNode.toWord().charAt(0)));
+                                                ExpressionParser.isWordCharacter(nextNode.toWord().charAt(0));
+
+                // a substituted alternation keeps its brackets, e.g. (a|b)c
+                if (SubNodesConnectionType.OR != subNodesConnectionType && subNode.isAlternation()) {
+                    closeNodeIntoBrackets = true;
+                }
 
-                if (SubNodesConnectionType.OR == node.subNodesConnectionType && nodeIndex > 1) {
+                if (SubNodesConnectionType.OR == subNodesConnectionType && nodeIndex > 1) {
                     sb.append("|");
                 }
 
-                sb.append(getSentence(subNode, closeNodeIntoBrackets));
+                sb.append(subNode.getSentence(closeNodeIntoBrackets));
             }
 
-            if (inBrackets || node.getExpression().isQuantified()) {
+            if (expression.isQuantified()) {
                 sb.append(")");
+                sb.append(expression.getQuantifier());
             }
+            return sb.toString();
+        }
 
-            if (node.getExpression().isQuantified()) {
-                sb.append(node.getExpression().getQuantifier());
+        /**
+         * Returns true if the expression of the node matches an empty string when the references are substituted.
+         */
+        boolean isNullable() {
+            Boolean nullable = this.nullable;
+            if (nullable == null) {
+                nullable = ExpressionUtils.matchesEpsilon(toWord());
+                this.nullable = nullable;
             }
-            return sb;
+            return nullable;
+        }
+
+        /**
+         * Sets the nullability computed ahead of time, e.g. restored from a snapshot.
+         */
+        void cacheNullable(boolean nullable) {
+            this.nullable = nullable;
         }
 
         boolean isOrNode() {
             return ExpressionTree.Node.SubNodesConnectionType.OR == subNodesConnectionType;
         }
 
+        private boolean isAlternation() {
+            return isOrNode() && subNodes.size() > 1 && !expression.isQuantified();
+        }
+
         boolean isThisReference() {
             return expression.isReference() && Expression.THIS_REFERENCE_NAME.equals(expression.getText());
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Node node = (Node) o;
+
+            if (hash != node.hash || subNodesConnectionType != node.subNodesConnectionType) {
+                return false;
+            }
+            if (!expression.equals(node.expression)) {
+                return false;
+            }
+            return subNodes.equals(node.subNodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
         @Override
         public String toString() {
             return expression.toString();
@@ -1,10 +1,9 @@
 package cz.net21.ttulka.recexp;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
 
 import static cz.net21.ttulka.recexp.Expression.REFERENCE_PREFIX;
 
@@ -15,8 +14,10 @@ import static cz.net21.ttulka.recexp.Expression.REFERENCE_PREFIX;
  */
 class ExpressionUtils {
 
-    private static final String REGEXP_REFERENCE = REFERENCE_PREFIX + "((\\w)+)";
-    private static final String REGEXP_QUANTIFIER = "(([?*+]|\\{\\d+,?\\d*})[?+]?)";
+    /**
+     * Compiled patterns of hydrated expressions.
+     */
+    static final PatternCache PATTERNS = new PatternCache(PatternCache.DEFAULT_CAPACITY);
 
     private ExpressionUtils() {
         throw new IllegalStateException("Cannot create an instance of this class.");
@@ -30,165 +31,56 @@ class ExpressionUtils {
     }
 
     public static String hydrateExpression(String expression, String replacement) {
-        return resetEscapedReference(
-                replaceEscapedReference(expression).replaceAll(REGEXP_REFERENCE, replacement)
-        );
+        return replaceReferences(expression, null, replacement);
     }
 
-    private static String replaceEscapedReference(String expression) {
-        return expression.replaceAll("\\\\" + REGEXP_REFERENCE, "\\\\__RecexpRefPrefix__$1");
-    }
-
-    private static String resetEscapedReference(String expression) {
-        return expression.replaceAll("\\\\__RecexpRefPrefix__", "\\\\" + REFERENCE_PREFIX);
+    /**
+     * Replaces references with the replacements by the names of the references, references without a replacement are kept.
+     */
+    public static String inlineReferences(String expression, Map<String, String> replacements) {
+        return replaceReferences(expression, replacements, null);
     }
 
-    public static List<String> splitORs(String expression) {
-        if (expression.length() < 3) {  // must be at least x|y
-            return Collections.singletonList(expression);
+    private static String replaceReferences(String expression, Map<String, String> replacements, String replacement) {
+        if (expression.indexOf(REFERENCE_PREFIX) < 0) {
+            return expression;
         }
-
-        List<String> parts = new ArrayList<String>();
-
         StringBuilder sb = new StringBuilder(expression.length());
-        char previous = '\0';
-        int bracketsLevel = 0;
-        int lastOpeningBracketIndex = -1;
-
-        int index = 0;
-        while (index < expression.length()) {
-            char ch = expression.charAt(index);
-            sb.append(ch);
-
-            if (ch == '|' && bracketsLevel == 0) {
-                parts.add(sb.toString().substring(0, sb.length() - 1));
-                sb = new StringBuilder(expression.length() - index);
-            } else if (ch == '(' && previous != '\\') {
-                bracketsLevel++;
-                lastOpeningBracketIndex = index;
-
-            } else if (ch == ')' && previous != '\\') {
-                if (bracketsLevel > 0) {
-                    bracketsLevel--;
-                } else {
-                    throw new RecexpSyntaxException("Unmatched closing ')' near index " + index + "\n" + expression);
-                }
+        int restStarts = 0;
+        for (int i = expression.indexOf(REFERENCE_PREFIX); i >= 0; i = expression.indexOf(REFERENCE_PREFIX, i + 1)) {
+            int end = ExpressionParser.referenceEnd(expression, i, expression.length());
+            if (end < 0) {
+                continue;
             }
-
-            previous = ch;
-            index++;
-        }
-
-        if (bracketsLevel > 0) {
-            throw new RecexpSyntaxException("Unmatched opening '(' near index " + lastOpeningBracketIndex + "\n" + expression);
-        }
-
-        if (sb.length() > 0 || index == 0) {
-            parts.add(sb.toString());
+            String inlined = replacements != null ? replacements.get(expression.substring(i + 1, end)) : replacement;
+            sb.append(expression, restStarts, i).append(inlined != null ? inlined : expression.substring(i, end));
+            restStarts = end;
+            i = end - 1;
         }
-        return parts;
+        return sb.append(expression, restStarts, expression.length()).toString();
     }
 
-    public static List<String> splitANDs(String expression) {
-        List<String> parts = new ArrayList<String>();
-
-        // ANDs => bracket groups + references
-        for (String bracketGroup : getExpressionPartsCutByBrackets(expression)) {
-            parts.addAll(getExpressionPartsCutByReferences(bracketGroup));
-        }
-        return parts;
-    }
-
-    private static List<String> getExpressionPartsCutByBrackets(String expression) {
-        List<String> parts = new ArrayList<String>();
-
-        StringBuilder sb = new StringBuilder(expression.length());
-        char previous = '\0';
-        int bracketsLevel = 0;
-        int lastOpeningBracketIndex = -1;
-
-        int index = 0;
-        while (index < expression.length()) {
-            char ch = expression.charAt(index);
-            sb.append(ch);
-
-            if (ch == '(' && previous != '\\') {
-                if (sb.length() > 1 && bracketsLevel == 0) {
-                    parts.add(sb.toString().substring(0, sb.length() - 1));
-                    sb = new StringBuilder(expression.length() - index).append('(');
-                }
-
-                bracketsLevel++;
-                lastOpeningBracketIndex = index;
-
-            } else if (ch == ')' && previous != '\\') {
-                if (bracketsLevel > 0) {
-                    bracketsLevel--;
-
-                    if (bracketsLevel == 0) {
-                        String exp = sb.toString();
-
-                        // has this part a quantifier?
-                        String rest = expression.substring(index + 1);
-                        Matcher matcher = Pattern.compile(REGEXP_QUANTIFIER + "(.*)").matcher(rest);
-                        if (matcher.matches()) {
-                            exp += matcher.group(1);
-                            index += matcher.group(1).length();
-                        }
-
-                        parts.add(exp);
-                        sb = new StringBuilder(expression.length() - index);
-                    }
-
-                } else {
-                    throw new RecexpSyntaxException("Unmatched closing ')' near index " + index + "\n" + expression);
-                }
+    /**
+     * Returns the names of the references in the expression.
+     */
+    public static Set<String> getReferenceNames(String expression) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (int i = expression.indexOf(REFERENCE_PREFIX); i >= 0; i = expression.indexOf(REFERENCE_PREFIX, i + 1)) {
+            int end = ExpressionParser.referenceEnd(expression, i, expression.length());
+            if (end >= 0) {
+                names.add(expression.substring(i + 1, end));
+                i = end - 1;
             }
-
-            previous = ch;
-            index++;
-        }
-
-        if (bracketsLevel > 0) {
-            throw new RecexpSyntaxException("Unmatched opening '(' near index " + lastOpeningBracketIndex + "\n" + expression);
         }
-
-        if (sb.length() > 0 || index == 0) {
-            parts.add(sb.toString());
-        }
-        return parts;
+        return names;
     }
 
-    private static List<String> getExpressionPartsCutByReferences(String expression) {
-        if (isClosedInBrackets(expression, true)) {
-            return Collections.singletonList(expression);
-        }
-
-        Matcher matcher = Pattern.compile(REGEXP_REFERENCE + REGEXP_QUANTIFIER + "?").matcher(expression);
-
-        List<String> parts = new ArrayList<String>();
-
-        expression = replaceEscapedReference(expression);
-
-        int restStarts = 0;
+    public static List<String> splitORs(String expression) {
+        return ExpressionParser.splitORs(expression);
+    }
 
-        while (matcher.find()) {
-            if (matcher.start() > restStarts) {
-                parts.add(resetEscapedReference(
-                        expression.substring(restStarts, matcher.start())
-                ));
-            }
-            restStarts = matcher.end();
-            parts.add(resetEscapedReference(
-                    expression.substring(matcher.start(), matcher.end())
-            ));
-        }
-        if (restStarts < expression.length() || expression.isEmpty()) {
-            parts.add(resetEscapedReference(
-                    expression.substring(restStarts)
-            ));
-        }
-        return parts;
+    public static List<String> splitANDs(String expression) {
+        return ExpressionParser.splitANDs(expression);
     }
 
     public static boolean isClosedInBrackets(String expression, boolean acceptQuantified) {
@@ -227,7 +119,7 @@ class ExpressionUtils {
     }
 
     public static boolean isReference(String expression) {
-        return Pattern.matches(REGEXP_REFERENCE + "(" + REGEXP_QUANTIFIER + ")?", expression);
+        return ExpressionParser.isReference(expression, 0, expression.length());
     }
 
     public static String removeReferencePrefix(String expression) {
@@ -238,32 +130,47 @@ class ExpressionUtils {
     }
 
     public static boolean isQuantified(String expression) {
-        return Pattern.matches("(.+)" + REGEXP_QUANTIFIER, expression);
+        return ExpressionParser.quantifierStart(expression, 0, expression.length()) >= 0;
     }
 
     public static String getQuantifier(String expression) {
-        Matcher matcher = Pattern.compile("(.+)" + REGEXP_QUANTIFIER).matcher(expression);
-        if (matcher.matches()) {
-            String quantifier = getQuantifier(matcher.group(1));
-            return (quantifier != null ? quantifier : "") + matcher.group(2);
-        }
-        return null;
+        int quantifierStart = ExpressionParser.quantifierStart(expression, 0, expression.length());
+        return quantifierStart >= 0 ? expression.substring(quantifierStart) : null;
     }
 
     public static boolean matchesEpsilon(String expression) {
-        return Pattern.matches(hydrateExpression(expression, "X"), "");
+        return PATTERNS.compile(expression, "X", 0).matcher("").matches();
     }
 
     public static boolean matchesIgnoreReferences(String expression, String input, int flags) {
-        return Pattern.compile(hydrateExpression(expression), flags).matcher(input).matches();
+        return PATTERNS.compile(expression, "(.*)", flags).matcher(input).matches();
     }
 
     public static boolean matches(String expression, String input, int flags) {
-        if (expression.equals(input)) {
+        return matches(expression, input, 0, input.length(), flags);
+    }
+
+    /**
+     * Matches the input between the start (inclusive) and the end (exclusive).
+     */
+    public static boolean matches(String expression, CharSequence input, int start, int end, int flags) {
+        if (equals(expression, input, start, end)) {
             return true;
         }
         // when matches for a substitution with X and Y too, it's obviously expendable
-        return Pattern.compile(hydrateExpression(expression, "X"), flags).matcher(input).matches() &&
-               Pattern.compile(hydrateExpression(expression, "Y"), flags).matcher(input).matches();
+        return PATTERNS.compile(expression, "X", flags).matcher(input).region(start, end).matches() &&
+               PATTERNS.compile(expression, "Y", flags).matcher(input).region(start, end).matches();
+    }
+
+    private static boolean equals(String expression, CharSequence input, int start, int end) {
+        if (expression.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < expression.length(); i++) {
+            if (expression.charAt(i) != input.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,258 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recognizer specialized for a grammar by generated bytecode.
+ * <p>
+ * Every nonterminal is recognized by its own generated method returning the ascending end positions of its derivations from a position
+ * (set-based recursive descent): rules are dispatched by direct calls and literal terminals are compared char by char. The ends are memoized
+ * per nonterminal and position, so an input is recognized in polynomial time. Repetitions and the other terminals are recognized by the helper
+ * methods of this class, which are called by the generated code.
+ * <p>
+ * A generated instance is a prototype of recognizers, a recognizer reuses its scratch state for all the inputs and is not safe for use by
+ * multiple concurrent threads.
+ *
+ * @author ttulka
+ * @see RecognizerGenerator
+ */
+abstract class GeneratedRecognizer implements GrammarParser.Recognizer {
+
+    static final int[] EMPTY = new int[0];
+
+    private ContextFreeGrammar grammar;
+    private int[] starts;
+
+    /**
+     * Characters of the input, called by the generated code.
+     */
+    char[] input = new char[0];
+    int length;
+
+    private CharSequence sequence;
+    private int[][][] memo;
+    private ContextFreeGrammar.TerminalMatcher[] matchers;
+
+    /**
+     * Creates a new instance of the generated class.
+     */
+    abstract GeneratedRecognizer create();
+
+    /**
+     * Returns the ends of the nonterminal derived from the position, dispatched by the id of the nonterminal.
+     */
+    abstract int[] call(int nonterminal, int position);
+
+    /**
+     * Initializes the prototype.
+     */
+    void init(ContextFreeGrammar grammar) {
+        this.grammar = grammar;
+    }
+
+    public ContextFreeGrammar getGrammar() {
+        return grammar;
+    }
+
+    /**
+     * Creates a recognizer of inputs derived from any of the starting symbols.
+     *
+     * @param starts the starting symbols
+     * @return the recognizer
+     */
+    public GrammarParser.Recognizer recognizer(List<ContextFreeGrammar.Nonterminal> starts) {
+        GeneratedRecognizer recognizer = create();
+        recognizer.grammar = grammar;
+        recognizer.starts = new int[starts.size()];
+        for (int i = 0; i < starts.size(); i++) {
+            recognizer.starts[i] = starts.get(i).getId();
+        }
+        recognizer.memo = new int[grammar.getNonterminals().size()][][];
+        recognizer.matchers = new ContextFreeGrammar.TerminalMatcher[grammar.getTerminals().size()];
+        return recognizer;
+    }
+
+    /**
+     * @throws StackOverflowError when the input is nested too deep for the generated code
+     */
+    @Override
+    public boolean recognize(CharSequence input) {
+        reset(input);
+
+        for (int start : starts) {
+            ContextFreeGrammar.Nonterminal symbol = grammar.getNonterminals().get(start);
+            if (symbol.isUndefined()) {
+                throw new RecexpRuleNotFoundException(symbol.getName().substring(1));
+            }
+            int[] ends = call(start, 0);
+            if (ends.length > 0 && ends[ends.length - 1] == length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void reset(CharSequence input) {
+        int previous = length;
+        this.sequence = input;
+        this.length = input.length();
+
+        if (this.input.length < length) {
+            this.input = new char[Math.max(length, this.input.length * 2)];
+        }
+        if (input instanceof String) {
+            ((String) input).getChars(0, length, this.input, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                this.input[i] = input.charAt(i);
+            }
+        }
+        for (int i = 0; i < memo.length; i++) {
+            if (memo[i] != null) {
+                if (memo[i].length > length) {
+                    Arrays.fill(memo[i], 0, Math.min(previous + 1, memo[i].length), null);
+                } else {
+                    memo[i] = null;
+                }
+            }
+        }
+        for (ContextFreeGrammar.TerminalMatcher matcher : matchers) {
+            if (matcher != null) {
+                matcher.reset(input);
+            }
+        }
+    }
+
+    /**
+     * Returns the memoized ends of the nonterminal, <code>null</code> when not recognized yet.
+     */
+    final int[] memo(int nonterminal, int position) {
+        int[][] table = memo[nonterminal];
+        return table != null ? table[position] : null;
+    }
+
+    /**
+     * Memoizes the ends of the nonterminal.
+     */
+    final int[] store(int nonterminal, int position, int[] ends) {
+        int[][] table = memo[nonterminal];
+        if (table == null) {
+            table = new int[length + 1][];
+            memo[nonterminal] = table;
+        }
+        table[position] = ends;
+        return ends;
+    }
+
+    final int[] single(int position) {
+        return new int[]{position};
+    }
+
+    /**
+     * Merges two ascending sets of ends.
+     */
+    final int[] union(int[] ends1, int[] ends2) {
+        if (ends1.length == 0) {
+            return ends2;
+        }
+        if (ends2.length == 0) {
+            return ends1;
+        }
+        int[] union = new int[ends1.length + ends2.length];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < ends1.length || j < ends2.length) {
+            int end;
+            if (j == ends2.length || (i < ends1.length && ends1[i] < ends2[j])) {
+                end = ends1[i++];
+            } else if (i == ends1.length || ends2[j] < ends1[i]) {
+                end = ends2[j++];
+            } else {
+                end = ends1[i++];
+                j++;
+            }
+            union[size++] = end;
+        }
+        return size == union.length ? union : Arrays.copyOf(union, size);
+    }
+
+    /**
+     * Adds an end to an ascending set of ends.
+     */
+    final int[] add(int[] ends, int end) {
+        int index = Arrays.binarySearch(ends, end);
+        if (index >= 0) {
+            return ends;
+        }
+        index = -index - 1;
+        int[] added = new int[ends.length + 1];
+        System.arraycopy(ends, 0, added, 0, index);
+        added[index] = end;
+        System.arraycopy(ends, index, added, index + 1, ends.length - index);
+        return added;
+    }
+
+    /**
+     * Returns the ends of the terminal matched from the position.
+     */
+    final int[] terminal(int terminal, int position) {
+        ContextFreeGrammar.TerminalMatcher matcher = matchers[terminal];
+        if (matcher == null) {
+            matcher = grammar.getTerminals().get(terminal).matcher(sequence);
+            matchers[terminal] = matcher;
+        }
+        int[] ends = matcher.matchEnds(position, length, null);
+        return ends[0] == 0 ? EMPTY : Arrays.copyOfRange(ends, 1, ends[0] + 1);
+    }
+
+    /**
+     * Returns the ends of the repetition <code>{min,max}</code> of the base, the maximum <code>-1</code> means unbounded.
+     */
+    final int[] repetition(int nonterminal, int base, int position, int min, int max) {
+        int[] ends = memo(nonterminal, position);
+        if (ends != null) {
+            return ends;
+        }
+        int[] current = single(position);
+        int[] accepted = min == 0 ? current : EMPTY;
+
+        // exact counts of iterations below the minimum or up to the maximum
+        for (int count = 1; current.length > 0 && count <= (max < 0 ? min : max); count++) {
+            current = step(base, current);
+            if (count >= min) {
+                accepted = union(accepted, current);
+            }
+        }
+        if (max < 0) {
+            // from the minimum on only new positions can lead to new ends
+            while (current.length > 0) {
+                int[] next = step(base, current);
+                current = EMPTY;
+                for (int end : next) {
+                    if (Arrays.binarySearch(accepted, end) < 0) {
+                        current = add(current, end);
+                    }
+                }
+                accepted = union(accepted, current);
+            }
+        }
+        return store(nonterminal, position, accepted);
+    }
+
+    private int[] step(int base, int[] positions) {
+        int[] ends = EMPTY;
+        for (int position : positions) {
+            ends = union(ends, call(base, position));
+        }
+        return ends;
+    }
+
+    /**
+     * Called by the generated dispatch for a nonterminal without a method.
+     */
+    final int[] unknown(int nonterminal, int position) {
+        throw new IllegalStateException("No generated method for the nonterminal " + nonterminal + " at " + position);
+    }
+}
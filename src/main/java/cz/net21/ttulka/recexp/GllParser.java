@@ -0,0 +1,487 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generalized LL parser over a {@link ContextFreeGrammar context-free grammar}.
+ * <p>
+ * Parsing processes descriptors (a grammar slot, a stack node, an input position and a forest node) position by position. The call stacks of all
+ * the parallel derivations are merged into a graph-structured stack, results of the nonterminals are shared in a {@link ParseForest shared packed
+ * parse forest}. Left recursion and ambiguity are handled in <code>O(n^3)</code> time in the worst case.
+ * <p>
+ * Finding calls the starting symbol from a new stack root at every position until a result of a root is found. The parsing continues only while
+ * there are descriptors ahead.
+ *
+ * @author ttulka
+ * @see ContextFreeGrammar
+ * @see ParseForest
+ */
+class GllParser implements GrammarParser {
+
+    private final ContextFreeGrammar grammar;
+
+    public GllParser(ContextFreeGrammar grammar) {
+        this.grammar = grammar;
+    }
+
+    @Override
+    public ContextFreeGrammar getGrammar() {
+        return grammar;
+    }
+
+    @Override
+    public Derivation parse(ContextFreeGrammar.Nonterminal start, CharSequence input) {
+        return parse(start, input, null);
+    }
+
+    @Override
+    public Derivation parse(ContextFreeGrammar.Nonterminal start, CharSequence input, Budget budget) {
+        Parsing parsing = new Parsing(input);
+        parsing.budget = budget;
+        ParseForest.SymbolNode accepted = parsing.run(start);
+
+        return accepted != null ? new ParseForest.DerivationBuilder().build(accepted) : null;
+    }
+
+    @Override
+    public Finder finder(final ContextFreeGrammar.Nonterminal start, CharSequence input) {
+        final Parsing parsing = new Parsing(input);
+
+        return new Finder() {
+            @Override
+            public Derivation find(int from) {
+                ParseForest.SymbolNode found = parsing.find(start, from);
+
+                return found != null ? new ParseForest.DerivationBuilder().build(found) : null;
+            }
+        };
+    }
+
+    @Override
+    public Recognizer recognizer(final List<ContextFreeGrammar.Nonterminal> starts) {
+        final Parsing parsing = new Parsing("");
+
+        return new Recognizer() {
+            @Override
+            public boolean recognize(CharSequence input) {
+                parsing.reset(input);
+                return parsing.recognize(starts);
+            }
+        };
+    }
+
+    /**
+     * Node of the graph-structured stack - a return slot and the position the nonterminal was called at.
+     */
+    static class StackNode {
+
+        /**
+         * The production to return to, <code>null</code> for the root.
+         */
+        final ContextFreeGrammar.Production production;
+        /**
+         * The dot to return to.
+         */
+        final int dot;
+        final int position;
+
+        final List<StackEdge> edges = new ArrayList<StackEdge>();
+        final Set<StackEdge> edgesIndex = new HashSet<StackEdge>();
+        final Set<ParseForest.SymbolNode> popped = new LinkedHashSet<ParseForest.SymbolNode>();
+
+        StackNode(ContextFreeGrammar.Production production, int dot, int position) {
+            this.production = production;
+            this.dot = dot;
+            this.position = position;
+        }
+
+        boolean addEdge(StackEdge edge) {
+            if (edgesIndex.add(edge)) {
+                edges.add(edge);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Edge of the graph-structured stack labelled with the forest node derived before the call.
+     */
+    static class StackEdge {
+
+        final StackNode target;
+        final ParseForest.ItemNode node;
+
+        StackEdge(StackNode target, ParseForest.ItemNode node) {
+            this.target = target;
+            this.node = node;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            StackEdge edge = (StackEdge) o;
+            return target == edge.target && node == edge.node;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(target) + System.identityHashCode(node);
+        }
+    }
+
+    /**
+     * Descriptor - a parsing process to be continued.
+     */
+    static class Descriptor {
+
+        final ContextFreeGrammar.Production production;
+        final int dot;
+        final StackNode stack;
+        final int position;
+        /**
+         * The forest node derived so far, <code>null</code> at the beginning of the production.
+         */
+        final ParseForest.ItemNode node;
+
+        Descriptor(ContextFreeGrammar.Production production, int dot, StackNode stack, int position, ParseForest.ItemNode node) {
+            this.production = production;
+            this.dot = dot;
+            this.stack = stack;
+            this.position = position;
+            this.node = node;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Descriptor descriptor = (Descriptor) o;
+            return production == descriptor.production && dot == descriptor.dot && stack == descriptor.stack
+                   && position == descriptor.position && node == descriptor.node;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = production.item(dot);
+            result = 31 * result + System.identityHashCode(stack);
+            result = 31 * result + position;
+            result = 31 * result + System.identityHashCode(node);
+            return result;
+        }
+    }
+
+    /**
+     * State of parsing an input.
+     */
+    private class Parsing {
+
+        CharSequence input;
+
+        List<Descriptor>[] pending;
+        Set<Descriptor> descriptors = new HashSet<Descriptor>();
+
+        Map<Long, StackNode> stackNodes = new HashMap<Long, StackNode>();
+        Map<Long, ParseForest.ItemNode>[] itemNodes;
+        Map<Long, ParseForest.SymbolNode>[] symbolNodes;
+
+        final ContextFreeGrammar.TerminalMatcher[] matchers;
+        final int[][] scanned;
+
+        ParseForest.SymbolNode accepted;
+
+        /**
+         * The first and the last position with pending descriptors.
+         */
+        int first;
+        int last;
+
+        boolean finding;
+        /**
+         * The leftmost longest result of a root.
+         */
+        ParseForest.SymbolNode found;
+
+        /**
+         * The budget of the parsing, <code>null</code> when not limited.
+         */
+        Budget budget;
+
+        @SuppressWarnings("unchecked")
+        Parsing(CharSequence input) {
+            this.input = input;
+            this.pending = new List[input.length() + 1];
+            this.itemNodes = new Map[input.length() + 1];
+            this.symbolNodes = new Map[input.length() + 1];
+            this.matchers = new ContextFreeGrammar.TerminalMatcher[grammar.getTerminals().size()];
+            this.scanned = new int[grammar.getTerminals().size()][];
+        }
+
+        /**
+         * Resets the state for another input, the arrays and the matchers are reused.
+         */
+        @SuppressWarnings("unchecked")
+        void reset(CharSequence input) {
+            clear(0);
+            if (pending.length <= input.length()) {
+                int length = Math.max(input.length() + 1, pending.length * 2);
+                pending = new List[length];
+                itemNodes = new Map[length];
+                symbolNodes = new Map[length];
+            }
+            for (ContextFreeGrammar.TerminalMatcher matcher : matchers) {
+                if (matcher != null) {
+                    matcher.reset(input);
+                }
+            }
+            this.input = input;
+            accepted = null;
+        }
+
+        boolean recognize(List<ContextFreeGrammar.Nonterminal> starts) {
+            for (ContextFreeGrammar.Nonterminal start : starts) {
+                callRoot(start, 0);
+            }
+            for (int position = 0; position <= input.length(); position++) {
+                if (last < position) {
+                    // no descriptor left ahead
+                    return false;
+                }
+                step(position);
+            }
+            return accepted != null;
+        }
+
+        ParseForest.SymbolNode run(ContextFreeGrammar.Nonterminal start) {
+            callRoot(start, 0);
+            for (int position = 0; position <= input.length(); position++) {
+                step(position);
+            }
+            return accepted;
+        }
+
+        ParseForest.SymbolNode find(ContextFreeGrammar.Nonterminal start, int from) {
+            clear(from);
+            finding = true;
+
+            for (int position = from; position <= input.length(); position++) {
+                if (found == null) {
+                    callRoot(start, position);
+                }
+                step(position);
+
+                if (found != null && last <= position) {
+                    break;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Calls the starting symbol from a new stack root.
+         */
+        private void callRoot(ContextFreeGrammar.Nonterminal start, int position) {
+            StackNode root = new StackNode(null, 0, position);
+            for (ContextFreeGrammar.Production production : start.getProductions()) {
+                if (grammar.getAnalysis().canStart(production, input, position)) {
+                    add(production, 0, root, position, null);
+                }
+            }
+        }
+
+        /**
+         * Processes the descriptors at the position.
+         */
+        private void step(int position) {
+            List<Descriptor> descriptors = pending[position];
+            if (descriptors == null) {
+                return;
+            }
+            for (int i = 0; i < scanned.length; i++) {
+                scanned[i] = null;
+            }
+            for (int i = 0; i < descriptors.size(); i++) {
+                if (budget != null) {
+                    budget.step();
+                }
+                process(descriptors.get(i));
+            }
+            // no descriptor is added to a processed position
+            for (Descriptor descriptor : descriptors) {
+                this.descriptors.remove(descriptor);
+            }
+            pending[position] = null;
+        }
+
+        /**
+         * Clears the state for finding from the position, only the used part of the state is touched.
+         */
+        private void clear(int from) {
+            for (int position = first; position <= last; position++) {
+                pending[position] = null;
+                itemNodes[position] = null;
+                symbolNodes[position] = null;
+            }
+            if (!descriptors.isEmpty()) {
+                descriptors = new HashSet<Descriptor>();
+            }
+            if (!stackNodes.isEmpty()) {
+                stackNodes = new HashMap<Long, StackNode>();
+            }
+            first = from;
+            last = from;
+            found = null;
+        }
+
+        private void process(Descriptor descriptor) {
+            ContextFreeGrammar.Production production = descriptor.production;
+            int position = descriptor.position;
+            int start = descriptor.node != null ? descriptor.node.start : position;
+
+            if (descriptor.dot == production.length()) {
+                ParseForest.ItemNode completed = descriptor.node != null
+                                                 ? descriptor.node
+                                                 : itemNode(production, 0, position, position, null, null);
+                pop(descriptor.stack, position, symbolNode(production.getHead(), completed.start, position));
+                return;
+            }
+            ContextFreeGrammar.Symbol next = production.getBody()[descriptor.dot];
+
+            if (next instanceof ContextFreeGrammar.Terminal) {
+                int[] ends = scan((ContextFreeGrammar.Terminal) next, position);
+                for (int e = 1; e <= ends[0]; e++) {
+                    ParseForest.ItemNode node = itemNode(production, descriptor.dot + 1, start, ends[e], descriptor.node, null);
+                    add(production, descriptor.dot + 1, descriptor.stack, ends[e], node);
+                }
+            } else if (grammar.getAnalysis().canStart(next, input, position)) {
+                call((ContextFreeGrammar.Nonterminal) next, descriptor);
+            }
+        }
+
+        private void call(ContextFreeGrammar.Nonterminal nonterminal, Descriptor descriptor) {
+            ContextFreeGrammar.Production production = descriptor.production;
+            int dot = descriptor.dot + 1;
+            int position = descriptor.position;
+
+            Long key = ((long) production.item(dot) << 32) | position;
+            StackNode stack = stackNodes.get(key);
+            boolean created = stack == null;
+            if (created) {
+                stack = new StackNode(production, dot, position);
+                stackNodes.put(key, stack);
+            }
+            if (stack.addEdge(new StackEdge(descriptor.stack, descriptor.node))) {
+                int start = descriptor.node != null ? descriptor.node.start : position;
+                for (ParseForest.SymbolNode result : new ArrayList<ParseForest.SymbolNode>(stack.popped)) {
+                    ParseForest.ItemNode node = itemNode(production, dot, start, result.end, descriptor.node, result);
+                    add(production, dot, descriptor.stack, result.end, node);
+                }
+            }
+            if (created) {
+                if (nonterminal.isUndefined()) {
+                    throw new RecexpRuleNotFoundException(nonterminal.getName().substring(1));
+                }
+                for (ContextFreeGrammar.Production called : nonterminal.getProductions()) {
+                    if (grammar.getAnalysis().canStart(called, input, position)) {
+                        add(called, 0, stack, position, null);
+                    }
+                }
+            }
+        }
+
+        private void pop(StackNode stack, int position, ParseForest.SymbolNode result) {
+            if (stack.production == null) {
+                if (finding) {
+                    if (found == null || result.start < found.start || result.start == found.start && result.end > found.end) {
+                        found = result;
+                    }
+                } else if (position == input.length()) {
+                    accepted = result;
+                }
+                return;
+            }
+            if (!stack.popped.add(result)) {
+                return;
+            }
+            for (int i = 0; i < stack.edges.size(); i++) {
+                StackEdge edge = stack.edges.get(i);
+                int start = edge.node != null ? edge.node.start : stack.position;
+                ParseForest.ItemNode node = itemNode(stack.production, stack.dot, start, position, edge.node, result);
+                add(stack.production, stack.dot, edge.target, position, node);
+            }
+        }
+
+        private void add(ContextFreeGrammar.Production production, int dot, StackNode stack, int position, ParseForest.ItemNode node) {
+            Descriptor descriptor = new Descriptor(production, dot, stack, position, node);
+            if (descriptors.add(descriptor)) {
+                if (pending[position] == null) {
+                    pending[position] = new ArrayList<Descriptor>();
+                    first = Math.min(first, position);
+                    last = Math.max(last, position);
+                }
+                pending[position].add(descriptor);
+            }
+        }
+
+        private ParseForest.ItemNode itemNode(ContextFreeGrammar.Production production, int dot, int start, int end,
+                                              ParseForest.ItemNode previous, ParseForest.SymbolNode child) {
+            if (itemNodes[end] == null) {
+                itemNodes[end] = new HashMap<Long, ParseForest.ItemNode>();
+            }
+            Long key = ((long) production.item(dot) << 32) | start;
+            ParseForest.ItemNode node = itemNodes[end].get(key);
+            if (node == null) {
+                node = new ParseForest.ItemNode(production, dot, start, end, previous, child);
+                itemNodes[end].put(key, node);
+                if (node.isCompleted()) {
+                    symbolNode(production.getHead(), start, end).addAlternative(node);
+                }
+            } else {
+                node.addDerivation(previous, child);
+            }
+            return node;
+        }
+
+        private ParseForest.SymbolNode symbolNode(ContextFreeGrammar.Nonterminal nonterminal, int start, int end) {
+            if (symbolNodes[end] == null) {
+                symbolNodes[end] = new HashMap<Long, ParseForest.SymbolNode>();
+            }
+            Long key = ((long) nonterminal.getId() << 32) | start;
+            ParseForest.SymbolNode node = symbolNodes[end].get(key);
+            if (node == null) {
+                node = new ParseForest.SymbolNode(nonterminal, start, end);
+                symbolNodes[end].put(key, node);
+            }
+            return node;
+        }
+
+        private int[] scan(ContextFreeGrammar.Terminal terminal, int position) {
+            int[] ends = scanned[terminal.getId()];
+            if (ends == null) {
+                ContextFreeGrammar.TerminalMatcher matcher = matchers[terminal.getId()];
+                if (matcher == null) {
+                    matcher = terminal.matcher(input);
+                    matchers[terminal.getId()] = matcher;
+                }
+                ends = matcher.matchEnds(position, input.length(), null);
+                scanned[terminal.getId()] = ends;
+            }
+            return ends;
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Nullable, FIRST and FOLLOW sets and bounds of the derived lengths of the symbols and productions of a
+ * {@link ContextFreeGrammar context-free grammar}.
+ * <p>
+ * The sets are computed once for the grammar as fixpoints over the productions. The FIRST sets and the lengths of the terminals are read from
+ * their automata, terminals matched by patterns and undefined references are nullable, can start with any character and have unbounded
+ * lengths. The sets are conservative: a symbol not nullable derives no empty string, a symbol derives no string starting with a character out
+ * of its FIRST set and no string shorter than its minimal length, so the parsers can skip the symbols and productions which cannot start at the
+ * current position of the input. The end of the input is not in the FOLLOW sets.
+ * <p>
+ * The {@link Literals literals}, the characters every derived string contains at least one of and the alphabet of the derived strings are
+ * computed for the symbols too, so an input can be {@link #excludes(ContextFreeGrammar.Symbol, CharSequence) excluded} by a single scan before
+ * any parsing.
+ *
+ * @author ttulka
+ * @see ContextFreeGrammar#getAnalysis()
+ */
+class GrammarAnalysis {
+
+    private final boolean[] nullable;
+    private final CharRanges[] first;
+    private final CharRanges[] follow;
+    private final int[] minLength;
+    private final int[] maxLength;
+    private final Literals[] literals;
+    private final CharRanges[] requiredChars;
+    private final CharRanges[] alphabet;
+
+    private final boolean[] terminalsNullable;
+    private final CharRanges[] terminalsFirst;
+    private final int[] terminalsMinLength;
+    private final int[] terminalsMaxLength;
+    private final Literals[] terminalsLiterals;
+    private final CharRanges[] terminalsRequiredChars;
+    private final CharRanges[] terminalsAlphabet;
+
+    /**
+     * Sets of the bodies of the productions by their first item.
+     */
+    private final boolean[] productionsNullable;
+    private final CharRanges[] productionsFirst;
+    private final int[] productionsMinLength;
+    private final int[] productionsMaxLength;
+
+    public GrammarAnalysis(ContextFreeGrammar grammar) {
+        int terminalsCount = grammar.getTerminals().size();
+        terminalsNullable = new boolean[terminalsCount];
+        terminalsFirst = new CharRanges[terminalsCount];
+        terminalsMinLength = new int[terminalsCount];
+        terminalsMaxLength = new int[terminalsCount];
+        terminalsLiterals = new Literals[terminalsCount];
+        terminalsRequiredChars = new CharRanges[terminalsCount];
+        terminalsAlphabet = new CharRanges[terminalsCount];
+        for (ContextFreeGrammar.Terminal terminal : grammar.getTerminals()) {
+            Automaton automaton = terminal.getAutomaton();
+            terminalsNullable[terminal.getId()] = automaton == null || automaton.matchesEmpty();
+            terminalsFirst[terminal.getId()] = automaton != null ? CharRanges.of(automaton.firstChars()) : CharRanges.ALL;
+            terminalsMinLength[terminal.getId()] = automaton != null ? automaton.minLength() : 0;
+            terminalsMaxLength[terminal.getId()] = automaton != null ? automaton.maxLength() : LengthBounds.UNBOUNDED;
+            terminalsLiterals[terminal.getId()] = automaton != null ? automaton.literals() : Literals.NONE;
+            char[] required = automaton != null ? automaton.requiredChars() : null;
+            terminalsRequiredChars[terminal.getId()] = required != null ? CharRanges.of(required) : null;
+            terminalsAlphabet[terminal.getId()] = automaton != null ? CharRanges.of(automaton.alphabet()) : CharRanges.ALL;
+        }
+
+        int nonterminalsCount = grammar.getNonterminals().size();
+        nullable = new boolean[nonterminalsCount];
+        first = new CharRanges[nonterminalsCount];
+        follow = new CharRanges[nonterminalsCount];
+        minLength = new int[nonterminalsCount];
+        maxLength = new int[nonterminalsCount];
+        literals = new Literals[nonterminalsCount];
+        requiredChars = new CharRanges[nonterminalsCount];
+        alphabet = new CharRanges[nonterminalsCount];
+        for (ContextFreeGrammar.Nonterminal nonterminal : grammar.getNonterminals()) {
+            boolean undefined = nonterminal.isUndefined();
+            nullable[nonterminal.getId()] = undefined;
+            first[nonterminal.getId()] = undefined ? CharRanges.ALL : CharRanges.EMPTY;
+            follow[nonterminal.getId()] = CharRanges.EMPTY;
+            minLength[nonterminal.getId()] = undefined ? 0 : LengthBounds.UNBOUNDED;
+            maxLength[nonterminal.getId()] = undefined ? LengthBounds.UNBOUNDED : 0;
+            literals[nonterminal.getId()] = undefined ? Literals.NONE : null;
+            requiredChars[nonterminal.getId()] = undefined ? null : CharRanges.EMPTY;
+            alphabet[nonterminal.getId()] = undefined ? CharRanges.ALL : CharRanges.EMPTY;
+        }
+        productionsNullable = new boolean[grammar.getItemsCount()];
+        productionsFirst = new CharRanges[grammar.getItemsCount()];
+        productionsMinLength = new int[grammar.getItemsCount()];
+        productionsMaxLength = new int[grammar.getItemsCount()];
+
+        computeFirst(grammar);
+        computeFollow(grammar);
+        computeLengths(grammar);
+        computeContents(grammar);
+    }
+
+    private void computeFirst(ContextFreeGrammar grammar) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (ContextFreeGrammar.Nonterminal head : grammar.getNonterminals()) {
+                for (ContextFreeGrammar.Production production : head.getProductions()) {
+                    CharRanges bodyFirst = first(production.getBody());
+                    boolean bodyNullable = isNullable(production.getBody());
+
+                    CharRanges headFirst = first[head.getId()].union(bodyFirst);
+                    if (headFirst != first[head.getId()] || bodyNullable && !nullable[head.getId()]) {
+                        first[head.getId()] = headFirst;
+                        nullable[head.getId()] |= bodyNullable;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for (ContextFreeGrammar.Nonterminal head : grammar.getNonterminals()) {
+            for (ContextFreeGrammar.Production production : head.getProductions()) {
+                productionsFirst[production.item(0)] = first(production.getBody());
+                productionsNullable[production.item(0)] = isNullable(production.getBody());
+            }
+        }
+    }
+
+    private void computeFollow(ContextFreeGrammar grammar) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (ContextFreeGrammar.Nonterminal head : grammar.getNonterminals()) {
+                for (ContextFreeGrammar.Production production : head.getProductions()) {
+                    ContextFreeGrammar.Symbol[] body = production.getBody();
+                    CharRanges trailer = follow[head.getId()];
+
+                    for (int i = body.length - 1; i >= 0; i--) {
+                        if (body[i] instanceof ContextFreeGrammar.Nonterminal) {
+                            int id = body[i].getId();
+                            CharRanges union = follow[id].union(trailer);
+                            if (union != follow[id]) {
+                                follow[id] = union;
+                                changed = true;
+                            }
+                        }
+                        trailer = isNullable(body[i]) ? trailer.union(first(body[i])) : first(body[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the minimal and maximal lengths, the maximal lengths still growing after a round for each nonterminal are unbounded.
+     */
+    private void computeLengths(ContextFreeGrammar grammar) {
+        boolean changed = true;
+        for (int round = 0; changed; round++) {
+            changed = false;
+            for (ContextFreeGrammar.Nonterminal head : grammar.getNonterminals()) {
+                for (ContextFreeGrammar.Production production : head.getProductions()) {
+                    int bodyMinLength = minLength(production.getBody());
+                    int bodyMaxLength = maxLength(production.getBody());
+
+                    if (bodyMinLength < minLength[head.getId()]) {
+                        minLength[head.getId()] = bodyMinLength;
+                        changed = true;
+                    }
+                    if (bodyMaxLength > maxLength[head.getId()]) {
+                        // growing after the rounds means a recursion
+                        maxLength[head.getId()] = round > minLength.length ? LengthBounds.UNBOUNDED : bodyMaxLength;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for (ContextFreeGrammar.Nonterminal head : grammar.getNonterminals()) {
+            for (ContextFreeGrammar.Production production : head.getProductions()) {
+                productionsMinLength[production.item(0)] = minLength(production.getBody());
+                productionsMaxLength[production.item(0)] = maxLength(production.getBody());
+            }
+        }
+    }
+
+    /**
+     * Computes the literals, the required characters and the alphabets, the values of the nonterminals are only weakened by the productions.
+     */
+    private void computeContents(ContextFreeGrammar grammar) {
+        int[] components = components(grammar);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (ContextFreeGrammar.Nonterminal head : grammar.getNonterminals()) {
+                for (ContextFreeGrammar.Production production : head.getProductions()) {
+                    Literals headLiterals = Literals.join(literals[head.getId()], literals(production.getBody()));
+                    CharRanges bodyRequired = requiredChars(production.getBody(), head, components);
+                    CharRanges headRequired = requiredChars[head.getId()] != null && bodyRequired != null
+                                              ? requiredChars[head.getId()].union(bodyRequired) : null;
+                    CharRanges headAlphabet = alphabet[head.getId()].union(alphabet(production.getBody()));
+
+                    if (headLiterals != null && !headLiterals.equals(literals[head.getId()])
+                        || headRequired != requiredChars[head.getId()] || headAlphabet != alphabet[head.getId()]) {
+                        literals[head.getId()] = headLiterals;
+                        requiredChars[head.getId()] = headRequired;
+                        alphabet[head.getId()] = headAlphabet;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private Literals literals(ContextFreeGrammar.Symbol[] body) {
+        Literals literals = Literals.EMPTY;
+        for (ContextFreeGrammar.Symbol symbol : body) {
+            literals = Literals.concat(literals, literals(symbol));
+        }
+        return literals;
+    }
+
+    /**
+     * Returns the smallest set of the symbols of the body, the sets of the symbols recursive with the head are preferred as they carry the
+     * characters of the strings the recursion ends with, e.g. the set of <code>@E</code> in <code>\\(@E\\)</code>.
+     *
+     * @param components the strongly connected components of the nonterminals
+     */
+    private CharRanges requiredChars(ContextFreeGrammar.Symbol[] body, ContextFreeGrammar.Nonterminal head, int[] components) {
+        CharRanges required = null;
+        boolean recursive = false;
+        for (ContextFreeGrammar.Symbol symbol : body) {
+            CharRanges symbolRequired = requiredChars(symbol);
+            if (symbolRequired == null) {
+                continue;
+            }
+            if (symbolRequired.isEmpty()) {
+                // no string derived
+                return symbolRequired;
+            }
+            boolean symbolRecursive = symbol instanceof ContextFreeGrammar.Nonterminal && components[symbol.getId()] == components[head.getId()];
+            if (required == null || symbolRecursive && !recursive
+                || symbolRecursive == recursive && symbolRequired.size() < required.size()) {
+                required = symbolRequired;
+                recursive = symbolRecursive;
+            }
+        }
+        return required;
+    }
+
+    /**
+     * Returns the strongly connected components of the nonterminals by their references by the Tarjan's algorithm, iterated not to overflow
+     * the stack.
+     */
+    private static int[] components(ContextFreeGrammar grammar) {
+        int count = grammar.getNonterminals().size();
+        int[][] successors = new int[count][];
+        for (ContextFreeGrammar.Nonterminal nonterminal : grammar.getNonterminals()) {
+            List<Integer> referenced = new ArrayList<Integer>();
+            for (ContextFreeGrammar.Production production : nonterminal.getProductions()) {
+                for (ContextFreeGrammar.Symbol symbol : production.getBody()) {
+                    if (symbol instanceof ContextFreeGrammar.Nonterminal) {
+                        referenced.add(symbol.getId());
+                    }
+                }
+            }
+            successors[nonterminal.getId()] = new int[referenced.size()];
+            for (int i = 0; i < referenced.size(); i++) {
+                successors[nonterminal.getId()][i] = referenced.get(i);
+            }
+        }
+        int[] index = new int[count];
+        int[] low = new int[count];
+        int[] components = new int[count];
+        boolean[] stacked = new boolean[count];
+        Arrays.fill(index, -1);
+
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        Deque<int[]> frames = new ArrayDeque<int[]>();
+        int visited = 0;
+        int component = 0;
+        for (int root = 0; root < count; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            frames.push(new int[]{root, 0});
+            index[root] = low[root] = visited++;
+            stack.push(root);
+            stacked[root] = true;
+
+            while (!frames.isEmpty()) {
+                int[] frame = frames.peek();
+                int node = frame[0];
+                if (frame[1] < successors[node].length) {
+                    int successor = successors[node][frame[1]++];
+                    if (index[successor] < 0) {
+                        frames.push(new int[]{successor, 0});
+                        index[successor] = low[successor] = visited++;
+                        stack.push(successor);
+                        stacked[successor] = true;
+
+                    } else if (stacked[successor]) {
+                        low[node] = Math.min(low[node], index[successor]);
+                    }
+                    continue;
+                }
+                frames.pop();
+                if (!frames.isEmpty()) {
+                    int parent = frames.peek()[0];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+                if (low[node] == index[node]) {
+                    int member;
+                    do {
+                        member = stack.pop();
+                        stacked[member] = false;
+                        components[member] = component;
+                    } while (member != node);
+                    component++;
+                }
+            }
+        }
+        return components;
+    }
+
+    private CharRanges alphabet(ContextFreeGrammar.Symbol[] body) {
+        CharRanges alphabet = CharRanges.EMPTY;
+        for (ContextFreeGrammar.Symbol symbol : body) {
+            alphabet = alphabet.union(alphabet(symbol));
+        }
+        return alphabet;
+    }
+
+    private int minLength(ContextFreeGrammar.Symbol[] body) {
+        int length = 0;
+        for (ContextFreeGrammar.Symbol symbol : body) {
+            length = LengthBounds.sum(length, minLength(symbol));
+        }
+        return length;
+    }
+
+    private int maxLength(ContextFreeGrammar.Symbol[] body) {
+        int length = 0;
+        for (ContextFreeGrammar.Symbol symbol : body) {
+            length = LengthBounds.sum(length, maxLength(symbol));
+        }
+        return length;
+    }
+
+    private CharRanges first(ContextFreeGrammar.Symbol[] body) {
+        CharRanges first = CharRanges.EMPTY;
+        for (ContextFreeGrammar.Symbol symbol : body) {
+            first = first.union(first(symbol));
+            if (!isNullable(symbol)) {
+                break;
+            }
+        }
+        return first;
+    }
+
+    private boolean isNullable(ContextFreeGrammar.Symbol[] body) {
+        for (ContextFreeGrammar.Symbol symbol : body) {
+            if (!isNullable(symbol)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the symbol can derive an empty string.
+     */
+    public boolean isNullable(ContextFreeGrammar.Symbol symbol) {
+        return symbol instanceof ContextFreeGrammar.Terminal ? terminalsNullable[symbol.getId()] : nullable[symbol.getId()];
+    }
+
+    /**
+     * Returns the characters the strings derived from the symbol can start with.
+     */
+    public CharRanges first(ContextFreeGrammar.Symbol symbol) {
+        return symbol instanceof ContextFreeGrammar.Terminal ? terminalsFirst[symbol.getId()] : first[symbol.getId()];
+    }
+
+    /**
+     * Returns the characters which can follow the nonterminal.
+     */
+    public CharRanges follow(ContextFreeGrammar.Nonterminal nonterminal) {
+        return follow[nonterminal.getId()];
+    }
+
+    /**
+     * Returns the minimal length of the strings derived from the symbol, {@link LengthBounds#UNBOUNDED} when it derives no string.
+     */
+    public int minLength(ContextFreeGrammar.Symbol symbol) {
+        return symbol instanceof ContextFreeGrammar.Terminal ? terminalsMinLength[symbol.getId()] : minLength[symbol.getId()];
+    }
+
+    /**
+     * Returns the maximal length of the strings derived from the symbol, {@link LengthBounds#UNBOUNDED} when not limited.
+     */
+    public int maxLength(ContextFreeGrammar.Symbol symbol) {
+        return symbol instanceof ContextFreeGrammar.Terminal ? terminalsMaxLength[symbol.getId()] : maxLength[symbol.getId()];
+    }
+
+    /**
+     * Returns the literals of the strings derived from the symbol, <code>null</code> when it derives no string.
+     */
+    public Literals literals(ContextFreeGrammar.Symbol symbol) {
+        return symbol instanceof ContextFreeGrammar.Terminal ? terminalsLiterals[symbol.getId()] : literals[symbol.getId()];
+    }
+
+    /**
+     * Returns the characters every string derived from the symbol contains at least one of, <code>null</code> when a derived string can contain
+     * no such characters.
+     */
+    public CharRanges requiredChars(ContextFreeGrammar.Symbol symbol) {
+        return symbol instanceof ContextFreeGrammar.Terminal ? terminalsRequiredChars[symbol.getId()] : requiredChars[symbol.getId()];
+    }
+
+    /**
+     * Returns the characters the strings derived from the symbol consist of.
+     */
+    public CharRanges alphabet(ContextFreeGrammar.Symbol symbol) {
+        return symbol instanceof ContextFreeGrammar.Terminal ? terminalsAlphabet[symbol.getId()] : alphabet[symbol.getId()];
+    }
+
+    /**
+     * Returns true if the body of the production can derive an empty string.
+     */
+    public boolean isNullable(ContextFreeGrammar.Production production) {
+        return productionsNullable[production.item(0)];
+    }
+
+    /**
+     * Returns the characters the strings derived from the body of the production can start with.
+     */
+    public CharRanges first(ContextFreeGrammar.Production production) {
+        return productionsFirst[production.item(0)];
+    }
+
+    /**
+     * Returns the minimal length of the strings derived from the body of the production.
+     */
+    public int minLength(ContextFreeGrammar.Production production) {
+        return productionsMinLength[production.item(0)];
+    }
+
+    /**
+     * Returns the maximal length of the strings derived from the body of the production.
+     */
+    public int maxLength(ContextFreeGrammar.Production production) {
+        return productionsMaxLength[production.item(0)];
+    }
+
+    /**
+     * Returns false if the symbol cannot derive a string starting at the position of the input, because of its first character or its
+     * minimal length exceeding the rest of the input.
+     */
+    public boolean canStart(ContextFreeGrammar.Symbol symbol, CharSequence input, int position) {
+        return minLength(symbol) <= input.length() - position
+               && (isNullable(symbol) || position < input.length() && first(symbol).contains(input.charAt(position)));
+    }
+
+    /**
+     * Returns false if the body of the production cannot derive a string starting at the position of the input, because of its first character
+     * or its minimal length exceeding the rest of the input.
+     */
+    public boolean canStart(ContextFreeGrammar.Production production, CharSequence input, int position) {
+        return minLength(production) <= input.length() - position
+               && (isNullable(production) || position < input.length() && first(production).contains(input.charAt(position)));
+    }
+
+    /**
+     * Returns true if the symbol cannot derive the input, because of its first character, its length, its literals or its characters. The
+     * literals are searched by the Boyer-Moore-Horspool algorithm and the characters are checked in a single scan of the input.
+     */
+    public boolean excludes(ContextFreeGrammar.Symbol symbol, CharSequence input) {
+        if (!canStart(symbol, input, 0) || input.length() > maxLength(symbol)) {
+            return true;
+        }
+        Literals literals = literals(symbol);
+        if (literals == null || literals.excludes(input)) {
+            return true;
+        }
+        CharRanges required = requiredChars(symbol);
+        CharRanges alphabet = alphabet(symbol);
+        boolean any = alphabet.equals(CharRanges.ALL);
+        if (required == null && any) {
+            return false;
+        }
+        boolean found = required == null;
+        for (int i = 0; i < input.length(); i++) {
+            char ch = input.charAt(i);
+            if (!any && !alphabet.contains(ch)) {
+                return true;
+            }
+            if (!found && required.contains(ch)) {
+                found = true;
+                if (any) {
+                    break;
+                }
+            }
+        }
+        return !found;
+    }
+}
@@ -0,0 +1,105 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable model of a grammar precomputed from its rules.
+ * <p>
+ * Indexes the rules by name and separates the explicit rules from the implicit ones. The nullable flags are not precomputed, every expression
+ * node computes its flag by the first use and caches it.
+ *
+ * @author ttulka
+ * @see Recexp
+ */
+class GrammarModel {
+
+    private final Set<Rule> rules;
+    private final Set<Rule> explicitRules;
+    private final Map<String, Set<Rule>> namedRules;
+    private final Map<String, Integer> explicitRulesCounts;
+
+    /**
+     * @param rules the rules including the implicit rules
+     */
+    public GrammarModel(Collection<? extends Rule> rules) {
+        Set<Rule> explicitRules = new LinkedHashSet<Rule>();
+        Map<String, Set<Rule>> namedRules = new HashMap<String, Set<Rule>>();
+        Map<String, Integer> explicitRulesCounts = new HashMap<String, Integer>();
+
+        for (Rule rule : rules) {
+            if (!(rule instanceof ImplicitRule)) {
+                explicitRules.add(rule);
+
+                Integer count = explicitRulesCounts.get(rule.getName());
+                explicitRulesCounts.put(rule.getName(), count != null ? count + 1 : 1);
+            }
+            if (rule instanceof NamedRule) {
+                Set<Rule> named = namedRules.get(rule.getName());
+                if (named == null) {
+                    named = new LinkedHashSet<Rule>();
+                    namedRules.put(rule.getName(), named);
+                }
+                named.add(rule);
+            }
+        }
+        for (Map.Entry<String, Set<Rule>> named : namedRules.entrySet()) {
+            named.setValue(Collections.unmodifiableSet(named.getValue()));
+        }
+
+        this.rules = Collections.unmodifiableSet(new LinkedHashSet<Rule>(rules));
+        this.explicitRules = Collections.unmodifiableSet(explicitRules);
+        this.namedRules = namedRules;
+        this.explicitRulesCounts = explicitRulesCounts;
+    }
+
+    public Set<Rule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Returns the rules defined by the user.
+     */
+    public Set<Rule> getExplicitRules() {
+        return explicitRules;
+    }
+
+    /**
+     * Returns the named rules with the name.
+     *
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public Set<Rule> getNamedRules(String name) {
+        Set<Rule> named = namedRules.get(name);
+        if (named == null) {
+            throw new RecexpRuleNotFoundException(name);
+        }
+        return named;
+    }
+
+    /**
+     * Returns the names of all the named rules.
+     */
+    public Set<String> getRuleNames() {
+        return Collections.unmodifiableSet(namedRules.keySet());
+    }
+
+    /**
+     * Returns the number of explicit rules with the name.
+     */
+    public int explicitRulesCount(String name) {
+        Integer count = explicitRulesCounts.get(name);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Returns true if the expression of the node matches an empty string when the references are substituted, cached by the node.
+     */
+    public boolean isNullable(ExpressionTree.Node node) {
+        return node.isNullable();
+    }
+}
@@ -0,0 +1,77 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options of a grammar set by the builder.
+ * <p>
+ * The grammar reads the options when constructed and doesn't keep them, so the builder can change its options for the next grammar.
+ *
+ * @author ttulka
+ * @see Recexp.RecexpBuilder
+ */
+class GrammarOptions {
+
+    private int flags;
+    private RecexpEngine engine = RecexpEngine.DERIVATION;
+    private Executor explorer;
+    private boolean bytecode;
+    private boolean countConstraints;
+
+    /**
+     * @param flags the match flags, a bit mask that may include the flags from {@link java.util.regex.Pattern}
+     */
+    public GrammarOptions flags(int flags) {
+        this.flags = flags;
+        return this;
+    }
+
+    public GrammarOptions engine(RecexpEngine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    /**
+     * @param explorer the executor exploring the starting rules and the alternatives in parallel, or <code>null</code>
+     */
+    public GrammarOptions explorer(Executor explorer) {
+        this.explorer = explorer;
+        return this;
+    }
+
+    /**
+     * @param bytecode whether to generate a bytecode recognizer for the grammar
+     */
+    public GrammarOptions bytecode(boolean bytecode) {
+        this.bytecode = bytecode;
+        return this;
+    }
+
+    /**
+     * @param countConstraints whether to reject the inputs and prune the derivations by the counts of characters
+     */
+    public GrammarOptions countConstraints(boolean countConstraints) {
+        this.countConstraints = countConstraints;
+        return this;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public RecexpEngine getEngine() {
+        return engine;
+    }
+
+    public Executor getExplorer() {
+        return explorer;
+    }
+
+    public boolean isBytecode() {
+        return bytecode;
+    }
+
+    public boolean isCountConstraints() {
+        return countConstraints;
+    }
+}
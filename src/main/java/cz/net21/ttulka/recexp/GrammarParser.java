@@ -0,0 +1,89 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.List;
+
+/**
+ * Parser of inputs over a {@link ContextFreeGrammar context-free grammar}.
+ *
+ * @author ttulka
+ * @see EarleyParser
+ * @see GllParser
+ * @see PackratParser
+ */
+interface GrammarParser {
+
+    ContextFreeGrammar getGrammar();
+
+    /**
+     * Parses the whole input from the starting symbol.
+     *
+     * @param start the starting symbol
+     * @param input the input
+     * @return the derivation of the input, or <code>null</code> if the input is not accepted
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    Derivation parse(ContextFreeGrammar.Nonterminal start, CharSequence input);
+
+    /**
+     * Parses the whole input from the starting symbol within the budget.
+     *
+     * @param start  the starting symbol
+     * @param input  the input
+     * @param budget the budget, or <code>null</code> when not limited
+     * @return the derivation of the input, or <code>null</code> if the input is not accepted
+     * @throws RecexpRuleNotFoundException   when a rule is referenced but not defined
+     * @throws RecexpBudgetExceededException when the budget is exceeded
+     */
+    Derivation parse(ContextFreeGrammar.Nonterminal start, CharSequence input, Budget budget);
+
+    /**
+     * Creates a finder of substrings of the input derived from the starting symbol.
+     *
+     * @param start the starting symbol
+     * @param input the input
+     * @return the finder
+     */
+    Finder finder(ContextFreeGrammar.Nonterminal start, CharSequence input);
+
+    /**
+     * Finder of derived substrings of an input.
+     * <p>
+     * A finder keeps the parsing state between calls, it is not safe for use by multiple concurrent threads.
+     */
+    interface Finder {
+
+        /**
+         * Finds the leftmost derived substring starting at the position or after it in one left-to-right pass.
+         *
+         * @param from the position to start searching at
+         * @return the derivation of the found substring, or <code>null</code> if there is none
+         * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+         */
+        Derivation find(int from);
+    }
+
+    /**
+     * Creates a recognizer of whole inputs derived from any of the starting symbols.
+     *
+     * @param starts the starting symbols
+     * @return the recognizer
+     */
+    Recognizer recognizer(List<ContextFreeGrammar.Nonterminal> starts);
+
+    /**
+     * Recognizer of many inputs one after another.
+     * <p>
+     * A recognizer reuses its scratch state for all the inputs and builds no derivations, it is not safe for use by multiple concurrent threads.
+     */
+    interface Recognizer {
+
+        /**
+         * Recognizes the whole input.
+         *
+         * @param input the input
+         * @return true if the input is derived from a starting symbol
+         * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+         */
+        boolean recognize(CharSequence input);
+    }
+}
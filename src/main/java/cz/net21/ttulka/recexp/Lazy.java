@@ -0,0 +1,36 @@
+package cz.net21.ttulka.recexp;
+
+/**
+ * Value computed on the first access, once even when accessed by multiple concurrent threads.
+ * <p>
+ * A computation throwing an exception is repeated on the next access.
+ *
+ * @param <T> the type of the value, <code>null</code> is a valid value
+ * @author ttulka
+ */
+abstract class Lazy<T> {
+
+    private volatile boolean computed;
+    private T value;
+
+    public T get() {
+        if (!computed) {
+            synchronized (this) {
+                if (!computed) {
+                    value = compute();
+                    computed = true;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns true if the value has been computed already.
+     */
+    public boolean isComputed() {
+        return computed;
+    }
+
+    protected abstract T compute();
+}
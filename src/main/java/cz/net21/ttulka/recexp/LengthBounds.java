@@ -0,0 +1,181 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal and maximal lengths of the strings derived from the expression trees of a grammar.
+ * <p>
+ * The bounds of the named rules are computed once for the grammar as fixpoints over the rule trees, the bounds of the candidates of a
+ * derivation are computed from the bounds of their nodes. The bounds are conservative: no string derived from a node is shorter than its
+ * minimal or longer than its maximal length, so the derivation can discard the candidates which cannot derive a string of the length of the
+ * input. Parts of expressions out of the regular subset of the syntax and undefined references have the bounds <code>[0, UNBOUNDED]</code>.
+ * <p>
+ * The self reference of a named rule reached from another rule derives the starting rule of the derivation, so it is unbounded in the bounds
+ * of the named rules and resolved only for the starting rule.
+ *
+ * @author ttulka
+ * @see Recexp#deriveTree(ExpressionTree.Node, String, java.util.Set)
+ */
+class LengthBounds {
+
+    /**
+     * The length of strings not limited, also the minimal length of a node deriving no string at all.
+     */
+    static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private static final int[] ANY = {0, UNBOUNDED};
+
+    private final GrammarModel grammar;
+    private final int flags;
+
+    private final Map<String, int[]> rules = new HashMap<String, int[]>();
+    private final Map<String, int[]> words = new ConcurrentHashMap<String, int[]>();
+    private final Map<ExpressionTree.Node, int[]> roots = new ConcurrentHashMap<ExpressionTree.Node, int[]>();
+
+    public LengthBounds(GrammarModel grammar, int flags) {
+        this.grammar = grammar;
+        this.flags = flags;
+        computeRules();
+    }
+
+    /**
+     * Computes the bounds of the named rules, the maximal lengths still growing after a round for each rule are unbounded.
+     */
+    private void computeRules() {
+        for (String name : grammar.getRuleNames()) {
+            rules.put(name, new int[]{UNBOUNDED, 0});
+        }
+        boolean changed = true;
+        for (int round = 0; changed; round++) {
+            changed = false;
+            for (String name : grammar.getRuleNames()) {
+                int[] bounds = rules.get(name);
+                for (Rule rule : grammar.getNamedRules(name)) {
+                    int[] ruleBounds = bounds(rule.getExpression().getRoot(), ANY, null);
+                    if (ruleBounds[0] < bounds[0]) {
+                        bounds[0] = ruleBounds[0];
+                        changed = true;
+                    }
+                    if (ruleBounds[1] > bounds[1]) {
+                        // growing after the rounds means a recursion
+                        bounds[1] = round > rules.size() ? UNBOUNDED : ruleBounds[1];
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the bounds of the rule with the root, the self references derive the rule itself.
+     */
+    private int[] rootBounds(ExpressionTree.Node root) {
+        int[] bounds = roots.get(root);
+        if (bounds == null) {
+            bounds = new int[]{UNBOUNDED, 0};
+            boolean changed = true;
+            for (int round = 0; changed; round++) {
+                int[] next = bounds(root, bounds, null);
+                changed = next[0] < bounds[0] || next[1] > bounds[1];
+                bounds = new int[]{Math.min(next[0], bounds[0]), round > 1 && next[1] > bounds[1] ? UNBOUNDED : Math.max(next[1], bounds[1])};
+            }
+            roots.put(root, bounds);
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns false if the candidate of the derivation from the root cannot derive a string of the length.
+     *
+     * @param cache the bounds of the nodes already computed for the root
+     */
+    public boolean admits(ExpressionTree.Node candidate, ExpressionTree.Node root, int length, Map<ExpressionTree.Node, int[]> cache) {
+        int[] bounds = bounds(candidate, rootBounds(root), cache);
+        return bounds[0] <= length && length <= bounds[1];
+    }
+
+    /**
+     * Returns the bounds of the node, the bounds of the nodes with sub-nodes are computed as the sentence of the node is built.
+     *
+     * @param self  the bounds of the self references
+     * @param cache the bounds of the nodes already computed, or <code>null</code>
+     */
+    private int[] bounds(ExpressionTree.Node node, int[] self, Map<ExpressionTree.Node, int[]> cache) {
+        int[] bounds = cache != null ? cache.get(node) : null;
+        if (bounds != null) {
+            return bounds;
+        }
+        Expression expression = node.getExpression();
+
+        if (node.getSubNodes().isEmpty()) {
+            if (!expression.isReference()) {
+                bounds = wordBounds(node.toWord());
+
+            } else {
+                int[] referenced = node.isThisReference() ? self : rules.get(expression.getText());
+                bounds = quantified(referenced != null ? referenced : ANY, expression);
+            }
+        } else {
+            bounds = node.isOrNode() ? new int[]{UNBOUNDED, 0} : new int[]{0, 0};
+            for (ExpressionTree.Node sub : node.getSubNodes()) {
+                int[] subBounds = bounds(sub, self, cache);
+                if (node.isOrNode()) {
+                    bounds[0] = Math.min(bounds[0], subBounds[0]);
+                    bounds[1] = Math.max(bounds[1], subBounds[1]);
+                } else {
+                    bounds[0] = sum(bounds[0], subBounds[0]);
+                    bounds[1] = sum(bounds[1], subBounds[1]);
+                }
+            }
+            bounds = quantified(bounds, expression);
+        }
+        if (cache != null) {
+            cache.put(node, bounds);
+        }
+        return bounds;
+    }
+
+    private int[] wordBounds(String word) {
+        int[] bounds = words.get(word);
+        if (bounds == null) {
+            Automaton automaton = Automaton.compile(word, flags);
+            bounds = automaton != null ? new int[]{automaton.minLength(), automaton.maxLength()} : ANY;
+            words.put(word, bounds);
+        }
+        return bounds;
+    }
+
+    private static int[] quantified(int[] bounds, Expression expression) {
+        if (!expression.isQuantified()) {
+            return bounds;
+        }
+        int min = bounds[0];
+        int max = bounds[1];
+        for (int[] quantifier : ContextFreeGrammar.parseQuantifier(expression.getQuantifier())) {
+            min = product(quantifier[0], min);
+            max = product(quantifier[1] < 0 ? UNBOUNDED : quantifier[1], max);
+        }
+        return new int[]{min, max};
+    }
+
+    /**
+     * Returns the sum of the lengths, {@link #UNBOUNDED} when any of them is unbounded.
+     */
+    static int sum(int length1, int length2) {
+        long sum = (long) length1 + length2;
+        return sum >= UNBOUNDED ? UNBOUNDED : (int) sum;
+    }
+
+    /**
+     * Returns the length repeated the count of times, zero for no repetitions or an empty length even when the other one is unbounded.
+     */
+    static int product(int count, int length) {
+        if (count == 0 || length == 0) {
+            return 0;
+        }
+        long product = (long) count * length;
+        return product >= UNBOUNDED ? UNBOUNDED : (int) product;
+    }
+}
@@ -0,0 +1,217 @@
+package cz.net21.ttulka.recexp;
+
+/**
+ * Literals of the strings derived from a symbol - the prefix and the suffix all the strings start and end with, a factor all the strings
+ * contain and the exact string when only one is derived.
+ * <p>
+ * The literals are immutable and conservative: an empty literal means no constraint. Literals of sequences and alternatives are combined by
+ * {@link #concat(Literals, Literals)} and {@link #join(Literals, Literals)}, <code>null</code> stands for a symbol deriving no string at all. The
+ * literals are cut to {@link #MAX_LENGTH} characters.
+ *
+ * @author ttulka
+ * @see GrammarAnalysis
+ */
+final class Literals {
+
+    static final int MAX_LENGTH = 64;
+
+    /**
+     * No constraint.
+     */
+    static final Literals NONE = new Literals(null, "", "", "");
+    /**
+     * The empty string only.
+     */
+    static final Literals EMPTY = new Literals("", "", "", "");
+
+    /**
+     * The only derived string, or <code>null</code>; the prefix, the suffix and the factor are equal to it when not <code>null</code>.
+     */
+    final String exact;
+    final String prefix;
+    final String suffix;
+    final String factor;
+
+    private Literals(String exact, String prefix, String suffix, String factor) {
+        this.exact = exact;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.factor = factor;
+    }
+
+    static Literals of(String exact) {
+        if (exact.length() > MAX_LENGTH) {
+            return new Literals(null, exact.substring(0, MAX_LENGTH), exact.substring(exact.length() - MAX_LENGTH), exact.substring(0, MAX_LENGTH));
+        }
+        return new Literals(exact, exact, exact, exact);
+    }
+
+    private static Literals of(String prefix, String suffix, String factor) {
+        return new Literals(
+                null,
+                prefix.length() > MAX_LENGTH ? prefix.substring(0, MAX_LENGTH) : prefix,
+                suffix.length() > MAX_LENGTH ? suffix.substring(suffix.length() - MAX_LENGTH) : suffix,
+                factor.length() > MAX_LENGTH ? factor.substring(0, MAX_LENGTH) : factor);
+    }
+
+    /**
+     * Returns the literals without the exact string, they hold for repetitions of the strings too.
+     */
+    Literals inexact() {
+        return exact != null ? new Literals(null, prefix, suffix, factor) : this;
+    }
+
+    /**
+     * Returns the literals of the strings derived from the first symbol followed by the second one.
+     */
+    static Literals concat(Literals first, Literals second) {
+        if (first == null || second == null) {
+            return null;
+        }
+        if (first.exact != null && second.exact != null) {
+            return of(first.exact + second.exact);
+        }
+        String prefix = first.exact != null ? first.exact + second.prefix : first.prefix;
+        String suffix = second.exact != null ? first.suffix + second.exact : second.suffix;
+
+        String factor = longer(first.factor, second.factor);
+        factor = longer(factor, first.suffix + second.prefix);
+        factor = longer(factor, prefix);
+        factor = longer(factor, suffix);
+        return of(prefix, suffix, factor);
+    }
+
+    /**
+     * Returns the literals of the strings derived from the first or the second symbol.
+     */
+    static Literals join(Literals first, Literals second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null || first.equals(second)) {
+            return first;
+        }
+        return of(commonPrefix(first.prefix, second.prefix), commonSuffix(first.suffix, second.suffix), commonFactor(first.factor, second.factor));
+    }
+
+    /**
+     * Returns true if the input cannot be derived.
+     */
+    boolean excludes(CharSequence input) {
+        if (exact != null) {
+            return !equal(exact, input, 0, input.length());
+        }
+        if (!equal(prefix, input, 0, prefix.length()) || !equal(suffix, input, input.length() - suffix.length(), input.length())) {
+            return true;
+        }
+        // the factor not longer than the prefix or the suffix is already found
+        return factor.length() > prefix.length() && factor.length() > suffix.length() && indexOf(input, factor) < 0;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the literal in the input by the Boyer-Moore-Horspool search, or <code>-1</code>.
+     */
+    static int indexOf(CharSequence input, String literal) {
+        int length = literal.length();
+        if (length == 0) {
+            return 0;
+        }
+        // shifts by the lower byte of the characters
+        int[] shifts = new int[256];
+        for (int i = 0; i < shifts.length; i++) {
+            shifts[i] = length;
+        }
+        for (int i = 0; i < length - 1; i++) {
+            shifts[literal.charAt(i) & 0xFF] = length - 1 - i;
+        }
+        char last = literal.charAt(length - 1);
+        int position = 0;
+        while (position <= input.length() - length) {
+            char ch = input.charAt(position + length - 1);
+            if (ch == last && equal(literal, input, position, position + length)) {
+                return position;
+            }
+            position += shifts[ch & 0xFF];
+        }
+        return -1;
+    }
+
+    private static boolean equal(String literal, CharSequence input, int start, int end) {
+        if (start < 0 || end > input.length() || end - start != literal.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (literal.charAt(i) != input.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String longer(String literal1, String literal2) {
+        return literal2.length() > literal1.length() ? literal2 : literal1;
+    }
+
+    private static String commonPrefix(String literal1, String literal2) {
+        int length = 0;
+        while (length < literal1.length() && length < literal2.length() && literal1.charAt(length) == literal2.charAt(length)) {
+            length++;
+        }
+        return literal1.substring(0, length);
+    }
+
+    private static String commonSuffix(String literal1, String literal2) {
+        int length = 0;
+        while (length < literal1.length() && length < literal2.length()
+               && literal1.charAt(literal1.length() - 1 - length) == literal2.charAt(literal2.length() - 1 - length)) {
+            length++;
+        }
+        return literal1.substring(literal1.length() - length);
+    }
+
+    /**
+     * Returns the longest common substring of the literals.
+     */
+    private static String commonFactor(String literal1, String literal2) {
+        int start = 0;
+        int longest = 0;
+        int[] previous = new int[literal2.length() + 1];
+        for (int i = 1; i <= literal1.length(); i++) {
+            int[] current = new int[literal2.length() + 1];
+            for (int j = 1; j <= literal2.length(); j++) {
+                if (literal1.charAt(i - 1) == literal2.charAt(j - 1)) {
+                    current[j] = previous[j - 1] + 1;
+                    if (current[j] > longest) {
+                        longest = current[j];
+                        start = i - longest;
+                    }
+                }
+            }
+            previous = current;
+        }
+        return literal1.substring(start, start + longest);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Literals literals = (Literals) o;
+        return (exact != null ? exact.equals(literals.exact) : literals.exact == null)
+               && prefix.equals(literals.prefix) && suffix.equals(literals.suffix) && factor.equals(literals.factor);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * prefix.hashCode() + suffix.hashCode()) + factor.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return exact != null ? "'" + exact + "'" : "'" + prefix + "'..'" + factor + "'..'" + suffix + "'";
+    }
+}
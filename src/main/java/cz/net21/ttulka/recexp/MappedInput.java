@@ -0,0 +1,389 @@
+package cz.net21.ttulka.recexp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Character views of byte buffers, typically of memory-mapped files.
+ * <p>
+ * Single-byte and ASCII contents are viewed directly, UTF-16 contents through a char buffer view, no characters are copied to the heap. UTF-8
+ * contents are decoded lazily window by window, only the window being read is kept decoded. Other contents are decoded into a direct buffer
+ * outside the heap, their size is limited by the maximal direct memory of the runtime.
+ *
+ * @author ttulka
+ * @see Recexp#matcher(ByteBuffer, Charset)
+ */
+final class MappedInput {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16 = Charset.forName("UTF-16");
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private MappedInput() {
+    }
+
+    /**
+     * Maps the file into memory read-only.
+     *
+     * @throws IOException              when the file cannot be mapped
+     * @throws IllegalArgumentException when the file is larger than 2 GB
+     */
+    public static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = access.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("File too large to be mapped: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+        } finally {
+            access.close();
+        }
+    }
+
+    /**
+     * Creates a character view of the bytes from the position to the limit of the buffer.
+     */
+    public static CharSequence view(ByteBuffer bytes, Charset charset) {
+        ByteBuffer buffer = bytes.slice();
+
+        if (charset.equals(ISO_8859_1)) {
+            return new ByteView(buffer);
+        }
+        if (charset.equals(US_ASCII) || charset.equals(UTF_8)) {
+            return isAscii(buffer) ? new ByteView(buffer) : new DecodingView(buffer, charset);
+        }
+        if (charset.equals(UTF_16BE) || charset.equals(UTF_16LE) || charset.equals(UTF_16)) {
+            ByteOrder order = charset.equals(UTF_16LE) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            if (charset.equals(UTF_16) && buffer.remaining() >= 2) {
+                // byte order mark
+                int mark = (buffer.get(0) & 0xFF) << 8 | buffer.get(1) & 0xFF;
+                if (mark == 0xFEFF || mark == 0xFFFE) {
+                    order = mark == 0xFEFF ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+                    buffer.position(2);
+                    buffer = buffer.slice();
+                }
+            }
+            return buffer.order(order).asCharBuffer();
+        }
+        return decode(buffer, charset);
+    }
+
+    /**
+     * Creates a reader decoding the bytes from the position to the limit of the buffer chunk by chunk.
+     */
+    public static Reader reader(ByteBuffer bytes, Charset charset) {
+        return new DecodingReader(bytes.slice(), charset);
+    }
+
+    private static boolean isAscii(ByteBuffer buffer) {
+        for (int i = 0; i < buffer.limit(); i++) {
+            if (buffer.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @throws IllegalArgumentException when the decoded input doesn't fit into the direct memory
+     */
+    private static CharBuffer decode(ByteBuffer buffer, Charset charset) {
+        CharsetDecoder decoder = decoder(charset);
+        long capacity = (long) Math.ceil(buffer.remaining() * (double) decoder.maxCharsPerByte());
+        if (capacity > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Input too large to be decoded: " + buffer.remaining() + " bytes");
+        }
+        CharBuffer chars;
+        try {
+            chars = ByteBuffer.allocateDirect((int) capacity * 2).asCharBuffer();
+
+        } catch (OutOfMemoryError e) {
+            throw new IllegalArgumentException(
+                    "Input too large to be decoded from " + charset + " into the direct memory: " + buffer.remaining() + " bytes", e);
+        }
+        decoder.decode(buffer.duplicate(), chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return chars;
+    }
+
+    private static CharsetDecoder decoder(Charset charset) {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * View of single-byte characters.
+     */
+    private static class ByteView implements CharSequence {
+
+        private final ByteBuffer buffer;
+
+        ByteView(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int length() {
+            return buffer.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > length()) {
+                throw new IndexOutOfBoundsException("Range out of the input: " + start + ", " + end);
+            }
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(start);
+            slice.limit(end);
+            return new ByteView(slice.slice());
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = charAt(i);
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * View of characters decoded lazily window by window, for charsets decoded without a state kept between characters.
+     * <p>
+     * The characters are counted in the first pass, which records where every window starts in the bytes. A window is decoded again when read,
+     * the last read window is shared by the threads reading the view.
+     */
+    private static class DecodingView implements CharSequence {
+
+        private final ByteBuffer buffer;
+        private final Charset charset;
+        /**
+         * Indexes of the first characters of the windows, the last one is the length.
+         */
+        private final int[] charStarts;
+        /**
+         * Offsets of the first bytes of the windows, the last one is the limit of the buffer.
+         */
+        private final int[] byteStarts;
+
+        private volatile Window window;
+
+        DecodingView(ByteBuffer buffer, Charset charset) {
+            this.buffer = buffer;
+            this.charset = charset;
+
+            int windows = buffer.limit() / CHUNK_SIZE + 2;
+            int[] charStarts = new int[windows];
+            int[] byteStarts = new int[windows];
+            int count = 0;
+            int length = 0;
+
+            CharsetDecoder decoder = decoder(charset);
+            ByteBuffer bytes = buffer.duplicate();
+            CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+            boolean underflow = false;
+
+            while (!underflow) {
+                if (count + 1 == charStarts.length) {
+                    charStarts = copyOf(charStarts, charStarts.length * 2);
+                    byteStarts = copyOf(byteStarts, byteStarts.length * 2);
+                }
+                charStarts[count] = length;
+                byteStarts[count] = bytes.position();
+                count++;
+
+                chars.clear();
+                underflow = decoder.decode(bytes, chars, true).isUnderflow();
+                length += chars.position();
+            }
+            charStarts[count] = length;
+            byteStarts[count] = buffer.limit();
+
+            this.charStarts = copyOf(charStarts, count + 1);
+            this.byteStarts = copyOf(byteStarts, count + 1);
+        }
+
+        private static int[] copyOf(int[] array, int length) {
+            int[] copy = new int[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+
+        @Override
+        public int length() {
+            return charStarts[charStarts.length - 1];
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException("Index out of the input: " + index);
+            }
+            Window window = this.window;
+            if (window == null || index < window.start || index >= window.start + window.chars.length) {
+                window = decodeWindow(index);
+                this.window = window;
+            }
+            return window.chars[index - window.start];
+        }
+
+        /**
+         * Decodes the window containing the character at the index.
+         */
+        private Window decodeWindow(int index) {
+            int search = Arrays.binarySearch(charStarts, index);
+            // the last one of equal starts, the previous windows are empty
+            int i = search >= 0 ? search : -search - 2;
+            while (i + 1 < charStarts.length && charStarts[i + 1] == index) {
+                i++;
+            }
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.position(byteStarts[i]);
+            bytes.limit(byteStarts[i + 1]);
+
+            CharBuffer chars = CharBuffer.allocate(charStarts[i + 1] - charStarts[i]);
+            decoder(charset).decode(bytes, chars, true);
+            return new Window(charStarts[i], chars.array());
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > length()) {
+                throw new IndexOutOfBoundsException("Range out of the input: " + start + ", " + end);
+            }
+            return new Region(this, start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new Region(this, 0, length()).toString();
+        }
+
+        private static class Window {
+
+            final int start;
+            final char[] chars;
+
+            Window(int start, char[] chars) {
+                this.start = start;
+                this.chars = chars;
+            }
+        }
+    }
+
+    /**
+     * Region of a character sequence.
+     */
+    private static class Region implements CharSequence {
+
+        private final CharSequence input;
+        private final int start;
+        private final int end;
+
+        Region(CharSequence input, int start, int end) {
+            this.input = input;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException("Index out of the input: " + index);
+            }
+            return input.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > length()) {
+                throw new IndexOutOfBoundsException("Range out of the input: " + start + ", " + end);
+            }
+            return new Region(input, this.start + start, this.start + end);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(length());
+            for (int i = start; i < end; i++) {
+                sb.append(input.charAt(i));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Reader decoding a byte buffer.
+     */
+    private static class DecodingReader extends Reader {
+
+        private final ByteBuffer buffer;
+        private final CharsetDecoder decoder;
+        private final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+
+        private boolean flushed;
+
+        DecodingReader(ByteBuffer buffer, Charset charset) {
+            this.buffer = buffer;
+            this.decoder = decoder(charset);
+            this.chars.flip();
+        }
+
+        @Override
+        public int read(char[] target, int offset, int length) {
+            if (!chars.hasRemaining()) {
+                if (flushed) {
+                    return -1;
+                }
+                chars.clear();
+                if (decoder.decode(buffer, chars, true).isUnderflow()) {
+                    decoder.flush(chars);
+                    flushed = true;
+                }
+                chars.flip();
+                if (!chars.hasRemaining()) {
+                    return -1;
+                }
+            }
+            int count = Math.min(length, chars.remaining());
+            chars.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packrat (memoized recursive-descent) parser over a {@link ContextFreeGrammar context-free grammar} with the semantics of parsing expression
+ * grammars.
+ * <p>
+ * Alternatives are ordered: the first matching one is chosen and never reconsidered. Terminals match their preferred (greedy) match and
+ * repetitions are greedy. Every nonterminal is evaluated at most once per position, so the parsing runs in linear time. Left recursion is
+ * supported by growing a seed (Warth et al.): a left-recursive nonterminal fails on its first recursive call and then is reevaluated as long as
+ * its result grows.
+ * <p>
+ * Finding applies the starting symbol at every position, the memoized results are shared by all the positions and all the calls of the finder.
+ *
+ * @author ttulka
+ * @see ContextFreeGrammar
+ */
+class PackratParser implements GrammarParser {
+
+    private final ContextFreeGrammar grammar;
+
+    public PackratParser(ContextFreeGrammar grammar) {
+        this.grammar = grammar;
+    }
+
+    @Override
+    public ContextFreeGrammar getGrammar() {
+        return grammar;
+    }
+
+    @Override
+    public Derivation parse(ContextFreeGrammar.Nonterminal start, CharSequence input) {
+        return parse(start, input, null);
+    }
+
+    @Override
+    public Derivation parse(ContextFreeGrammar.Nonterminal start, CharSequence input, Budget budget) {
+        Parsing parsing = new Parsing(input);
+        parsing.budget = budget;
+
+        Derivation derivation;
+        try {
+            derivation = parsing.apply(start, 0);
+
+        } catch (StackOverflowError e) {
+            if (budget == null) {
+                throw e;
+            }
+            throw budget.overflow();
+        }
+        return derivation != null && derivation.getEnd() == input.length() ? derivation : null;
+    }
+
+    @Override
+    public Finder finder(final ContextFreeGrammar.Nonterminal start, CharSequence input) {
+        final Parsing parsing = new Parsing(input);
+
+        return new Finder() {
+            @Override
+            public Derivation find(int from) {
+                for (int position = from; position <= parsing.input.length(); position++) {
+                    Derivation derivation = parsing.apply(start, position);
+                    if (derivation != null) {
+                        return derivation;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public Recognizer recognizer(final List<ContextFreeGrammar.Nonterminal> starts) {
+        final Parsing parsing = new Parsing("");
+
+        return new Recognizer() {
+            @Override
+            public boolean recognize(CharSequence input) {
+                parsing.reset(input);
+                for (ContextFreeGrammar.Nonterminal start : starts) {
+                    Derivation derivation = parsing.apply(start, 0);
+                    if (derivation != null && derivation.getEnd() == input.length()) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Memoized result of a nonterminal at a position.
+     */
+    private static class Memo {
+
+        /**
+         * Creation order, entries created later can depend on this one.
+         */
+        final int stamp;
+
+        Derivation result;
+        boolean evaluating = true;
+        boolean leftRecursion;
+
+        Memo(int stamp) {
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * State of parsing an input.
+     */
+    private class Parsing {
+
+        CharSequence input;
+
+        Memo[][] memos;
+        final ContextFreeGrammar.TerminalMatcher[] matchers;
+        final GrammarAnalysis analysis = grammar.getAnalysis();
+        int clock;
+
+        /**
+         * The budget of the parsing, <code>null</code> when not limited.
+         */
+        Budget budget;
+        /**
+         * The depth of the evaluated nonterminals.
+         */
+        int depth;
+
+        Parsing(CharSequence input) {
+            this.input = input;
+            this.memos = new Memo[input.length() + 1][];
+            this.matchers = new ContextFreeGrammar.TerminalMatcher[grammar.getTerminals().size()];
+        }
+
+        /**
+         * Resets the state for another input, the memo rows and the matchers are reused.
+         */
+        void reset(CharSequence input) {
+            if (memos.length <= input.length()) {
+                memos = new Memo[Math.max(input.length() + 1, memos.length * 2)][];
+            } else {
+                for (int position = 0; position <= this.input.length(); position++) {
+                    if (memos[position] != null) {
+                        Arrays.fill(memos[position], null);
+                    }
+                }
+            }
+            for (ContextFreeGrammar.TerminalMatcher matcher : matchers) {
+                if (matcher != null) {
+                    matcher.reset(input);
+                }
+            }
+            this.input = input;
+            depth = 0;
+        }
+
+        /**
+         * Evaluates the nonterminal at the position, the result is memoized. A left-recursive nonterminal is reevaluated as long as its result
+         * grows.
+         * <p>
+         * The productions are evaluated in place (not in a separate method) as the depth of the recursion is proportional to the nesting of the
+         * input.
+         */
+        Derivation apply(ContextFreeGrammar.Nonterminal symbol, int position) {
+            Memo[] row = memos[position];
+            if (row == null) {
+                row = new Memo[grammar.getNonterminals().size()];
+                memos[position] = row;
+            }
+            Memo memo = row[symbol.getId()];
+            if (memo != null) {
+                if (memo.evaluating) {
+                    memo.leftRecursion = true;
+                    return null;
+                }
+                return memo.result;
+            }
+            if (symbol.isUndefined()) {
+                throw new RecexpRuleNotFoundException(symbol.getName().substring(1));
+            }
+            memo = new Memo(++clock);
+            row[symbol.getId()] = memo;
+
+            if (budget != null) {
+                budget.step();
+                budget.depth(depth + 1);
+            }
+            // a failed parsing is not continued, so the depth is not restored on an exception
+            depth++;
+            while (true) {
+                Derivation evaluated = null;
+                if (symbol.getKind() == ContextFreeGrammar.Nonterminal.Kind.REPETITION) {
+                    evaluated = evaluateRepetition(symbol, position);
+
+                } else {
+                    productions:
+                    for (ContextFreeGrammar.Production production : symbol.getProductions()) {
+                        if (!analysis.canStart(production, input, position)) {
+                            continue;
+                        }
+                        ContextFreeGrammar.Symbol[] body = production.getBody();
+                        Derivation[] children = new Derivation[body.length];
+                        int end = position;
+
+                        for (int i = 0; i < body.length; i++) {
+                            if (body[i] instanceof ContextFreeGrammar.Terminal) {
+                                int scanned = scan((ContextFreeGrammar.Terminal) body[i], end);
+                                if (scanned < 0) {
+                                    continue productions;
+                                }
+                                children[i] = new Derivation(body[i], null, end, scanned, null);
+
+                            } else {
+                                children[i] = apply((ContextFreeGrammar.Nonterminal) body[i], end);
+                                if (children[i] == null) {
+                                    continue productions;
+                                }
+                            }
+                            end = children[i].getEnd();
+                        }
+                        evaluated = new Derivation(symbol, production, position, end, children);
+                        break;
+                    }
+                }
+                if (memo.evaluating) {
+                    memo.evaluating = false;
+                    memo.result = evaluated;
+                    if (!memo.leftRecursion || evaluated == null) {
+                        break;
+                    }
+                } else if (evaluated == null || evaluated.getEnd() <= memo.result.getEnd()) {
+                    break;
+                } else {
+                    memo.result = evaluated;
+                }
+                // results depending on the previous seed are evaluated again
+                invalidate(row, memo);
+            }
+            depth--;
+            return memo.result;
+        }
+
+        private void invalidate(Memo[] row, Memo head) {
+            for (int i = 0; i < row.length; i++) {
+                if (row[i] != null && row[i].stamp > head.stamp) {
+                    row[i] = null;
+                }
+            }
+        }
+
+        /**
+         * Evaluates the base of the repetition greedily, the derivation has the shape of the repetition productions.
+         */
+        private Derivation evaluateRepetition(ContextFreeGrammar.Nonterminal symbol, int position) {
+            List<ContextFreeGrammar.Production> productions = symbol.getProductions();
+            int min = symbol.getMin();
+            int max = symbol.getMax();
+
+            List<Derivation> iterations = new ArrayList<Derivation>();
+            int end = position;
+
+            while (max < 0 || iterations.size() < max) {
+                Derivation iteration = apply(symbol.getBase(), end);
+                if (iteration == null || (iteration.getEnd() == end && iterations.size() >= min)) {
+                    break;
+                }
+                iterations.add(iteration);
+                end = iteration.getEnd();
+            }
+            if (iterations.size() < min) {
+                return null;
+            }
+            ContextFreeGrammar.Production first = productions.get(0);
+            int minEnd = min > 0 ? iterations.get(min - 1).getEnd() : position;
+            Derivation[] children = new Derivation[first.length()];
+            for (int i = 0; i < min; i++) {
+                children[i] = iterations.get(i);
+            }
+            if (max >= 0) {
+                if (max > min) {
+                    children[min] = optionalIterations((ContextFreeGrammar.Nonterminal) first.getBody()[min], iterations, min, minEnd);
+                }
+                return new Derivation(symbol, first, position, end, children);
+            }
+            Derivation derivation = new Derivation(symbol, first, position, minEnd, children);
+            ContextFreeGrammar.Production last = productions.get(productions.size() - 1);
+            for (Derivation iteration : iterations.subList(min, iterations.size())) {
+                derivation = new Derivation(symbol, last, position, iteration.getEnd(), new Derivation[]{derivation, iteration});
+            }
+            return derivation;
+        }
+
+        /**
+         * Derivation of the chain of the optional iterations from the index, every link derives one iteration or the empty string.
+         */
+        private Derivation optionalIterations(ContextFreeGrammar.Nonterminal optional, List<Derivation> iterations, int index, int position) {
+            if (index == iterations.size()) {
+                return new Derivation(optional, optional.getProductions().get(0), position, position, new Derivation[0]);
+            }
+            ContextFreeGrammar.Production production = optional.getProductions().get(1);
+            Derivation iteration = iterations.get(index);
+            if (production.length() == 1) {
+                return new Derivation(optional, production, position, iteration.getEnd(), new Derivation[]{iteration});
+            }
+            Derivation next = optionalIterations((ContextFreeGrammar.Nonterminal) production.getBody()[1], iterations, index + 1, iteration.getEnd());
+            return new Derivation(optional, production, position, next.getEnd(), new Derivation[]{iteration, next});
+        }
+
+        private int scan(ContextFreeGrammar.Terminal terminal, int position) {
+            ContextFreeGrammar.TerminalMatcher matcher = matchers[terminal.getId()];
+            if (matcher == null) {
+                matcher = terminal.matcher(input);
+                matchers[terminal.getId()] = matcher;
+            }
+            return matcher.matchPrefix(position, input.length());
+        }
+    }
+}
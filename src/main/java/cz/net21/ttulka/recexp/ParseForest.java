@@ -0,0 +1,255 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared packed parse forest (SPPF) over a {@link ContextFreeGrammar context-free grammar}.
+ * <p>
+ * The forest is binarised: an {@link ItemNode item node} is a dotted production spanning an input, its packed derivations are pairs of the item
+ * node before the dot was moved and the {@link SymbolNode symbol node} of the nonterminal before the dot (<code>null</code> for a terminal). All
+ * the derivations of a nonterminal over the same input share one symbol node.
+ *
+ * @author ttulka
+ * @see EarleyParser
+ * @see GllParser
+ */
+class ParseForest {
+
+    private ParseForest() {
+    }
+
+    /**
+     * Symbol node - all the completed productions of a nonterminal spanning the same input.
+     */
+    static class SymbolNode {
+
+        final ContextFreeGrammar.Nonterminal symbol;
+        final int start;
+        final int end;
+
+        final List<ItemNode> alternatives = new ArrayList<ItemNode>(1);
+
+        /**
+         * Height of the first found alternative.
+         */
+        int height;
+
+        SymbolNode(ContextFreeGrammar.Nonterminal symbol, int start, int end) {
+            this.symbol = symbol;
+            this.start = start;
+            this.end = end;
+        }
+
+        void addAlternative(ItemNode completed) {
+            for (ItemNode alternative : alternatives) {
+                if (alternative == completed) {
+                    return;
+                }
+            }
+            if (alternatives.isEmpty()) {
+                height = completed.height;
+            }
+            alternatives.add(completed);
+        }
+    }
+
+    /**
+     * Item node - a dotted production spanning an input with its packed derivations.
+     */
+    static class ItemNode {
+
+        final ContextFreeGrammar.Production production;
+        final int dot;
+        final int start;
+        final int end;
+
+        /**
+         * The item node before the dot was moved, <code>null</code> at the beginning of the production.
+         */
+        final ItemNode previous;
+        /**
+         * The symbol node of the nonterminal before the dot, <code>null</code> for a terminal.
+         */
+        final SymbolNode child;
+
+        /**
+         * Height of the first found derivation, the first found derivations never contain a cycle.
+         */
+        final int height;
+
+        /**
+         * Pairs of previous and child nodes of other derivations, <code>null</code> for an unambiguous node.
+         */
+        List<Object> ambiguities;
+
+        ItemNode(ContextFreeGrammar.Production production, int dot, int start, int end, ItemNode previous, SymbolNode child) {
+            this.production = production;
+            this.dot = dot;
+            this.start = start;
+            this.end = end;
+            this.previous = previous;
+            this.child = child;
+            this.height = Math.max(previous != null ? previous.height : 0, child != null ? child.height + 1 : 0);
+        }
+
+        ContextFreeGrammar.Symbol next() {
+            return dot < production.length() ? production.getBody()[dot] : null;
+        }
+
+        boolean isCompleted() {
+            return dot == production.length();
+        }
+
+        void addDerivation(ItemNode previous, SymbolNode child) {
+            if (this.previous == previous && this.child == child) {
+                return;
+            }
+            if (ambiguities == null) {
+                ambiguities = new ArrayList<Object>(2);
+            }
+            for (int i = 0; i < ambiguities.size(); i += 2) {
+                if (ambiguities.get(i) == previous && ambiguities.get(i + 1) == child) {
+                    return;
+                }
+            }
+            ambiguities.add(previous);
+            ambiguities.add(child);
+        }
+
+        int derivationsCount() {
+            return ambiguities == null ? 1 : 1 + ambiguities.size() / 2;
+        }
+
+        ItemNode previous(int derivation) {
+            return derivation == 0 ? previous : (ItemNode) ambiguities.get(2 * derivation - 2);
+        }
+
+        SymbolNode child(int derivation) {
+            return derivation == 0 ? child : (SymbolNode) ambiguities.get(2 * derivation - 1);
+        }
+    }
+
+    /**
+     * Builds a derivation tree from the forest.
+     * <p>
+     * From ambiguous derivations the leftmost-shortest one is chosen: the sub-derivations are as short as possible from left to right, the lower
+     * derivations are preferred for the same sub-derivation lengths. A child spanning the same input as the completed node must have a lower height,
+     * which rules out cyclic derivations.
+     */
+    static class DerivationBuilder {
+
+        private static final int[] NO_DERIVATION = new int[0];
+        private static final int[] EMPTY_PREFIX = new int[0];
+
+        private final Map<ItemNode, int[]> prefixes = new IdentityHashMap<ItemNode, int[]>();
+        private final Map<ItemNode, int[]> choices = new IdentityHashMap<ItemNode, int[]>();
+
+        /**
+         * Builds the derivation of the lowest alternative of the symbol node.
+         */
+        Derivation build(SymbolNode symbol) {
+            ItemNode accepted = null;
+            for (ItemNode alternative : symbol.alternatives) {
+                if (accepted == null || alternative.height < accepted.height) {
+                    accepted = alternative;
+                }
+            }
+            return build(accepted);
+        }
+
+        private Derivation build(ItemNode completed) {
+            ContextFreeGrammar.Production production = completed.production;
+            Derivation[] children = new Derivation[production.length()];
+
+            ItemNode item = completed;
+            for (int i = children.length - 1; i >= 0; i--) {
+                int[] choice = choose(item, completed);
+                ItemNode previous = item.previous(choice[0]);
+                SymbolNode child = item.child(choice[0]);
+
+                if (child != null) {
+                    children[i] = build(child.alternatives.get(choice[1]));
+                } else {
+                    children[i] = new Derivation(production.getBody()[i], null, previous != null ? previous.end : item.start, item.end, null);
+                }
+                item = previous;
+            }
+            return new Derivation(production.getHead(), production, completed.start, completed.end, children);
+        }
+
+        private int[] choose(ItemNode item, ItemNode completed) {
+            if (item.ambiguities == null && (item.child == null || item.child.alternatives.size() == 1)) {
+                return new int[]{0, 0};
+            }
+            prefix(item, completed);
+            return choices.get(item);
+        }
+
+        /**
+         * Returns the smallest ends of the nodes preceding the node from left to right, or {@link #NO_DERIVATION}.
+         */
+        private int[] prefix(ItemNode item, ItemNode completed) {
+            if (item == null || item.dot == 0) {
+                return EMPTY_PREFIX;
+            }
+            int[] prefix = prefixes.get(item);
+            if (prefix != null) {
+                return prefix;
+            }
+            int[] choice = null;
+            ItemNode chosen = null;
+
+            for (int derivation = 0; derivation < item.derivationsCount(); derivation++) {
+                ItemNode previous = item.previous(derivation);
+                SymbolNode child = item.child(derivation);
+
+                int[] previousPrefix = prefix(previous, completed);
+                if (previousPrefix == NO_DERIVATION) {
+                    continue;
+                }
+                int[] candidate = EMPTY_PREFIX;
+                if (previous != null && previous.dot > 0) {
+                    candidate = new int[previousPrefix.length + 1];
+                    System.arraycopy(previousPrefix, 0, candidate, 0, previousPrefix.length);
+                    candidate[previousPrefix.length] = previous.end;
+                }
+                int alternatives = child != null ? child.alternatives.size() : 1;
+                for (int alternative = 0; alternative < alternatives; alternative++) {
+                    ItemNode childItem = child != null ? child.alternatives.get(alternative) : null;
+
+                    if (childItem != null && childItem.start == completed.start && childItem.end == completed.end
+                        && childItem.height >= completed.height) {
+                        continue;
+                    }
+                    int comparison = choice == null ? -1 : compare(candidate, prefix);
+                    if (comparison == 0 && childItem != null && chosen != null) {
+                        comparison = childItem.height - chosen.height;
+                    }
+                    if (comparison < 0) {
+                        prefix = candidate;
+                        choice = new int[]{derivation, alternative};
+                        chosen = childItem;
+                    }
+                }
+            }
+            if (choice == null) {
+                prefix = NO_DERIVATION;
+            }
+            prefixes.put(item, prefix);
+            choices.put(item, choice);
+            return prefix;
+        }
+
+        private static int compare(int[] a, int[] b) {
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) {
+                    return a[i] < b[i] ? -1 : 1;
+                }
+            }
+            return 0;
+        }
+    }
+}
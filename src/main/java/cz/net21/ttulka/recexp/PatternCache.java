@@ -0,0 +1,171 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded cache of compiled patterns of hydrated expressions.
+ * <p>
+ * The cache is keyed by the expression, the replacement of the references and the match flags. Entries are evicted in the least-recently-used
+ * order. A large cache is split into independently locked segments to reduce contention of concurrent lookups, the eviction order is kept per
+ * segment.
+ *
+ * @author ttulka
+ * @see ExpressionUtils#hydrateExpression(String, String)
+ */
+class PatternCache {
+
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int SEGMENTS_COUNT = 16;
+    private static final int SEGMENT_MIN_CAPACITY = 64;
+
+    private final int capacity;
+    private final Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the maximal count of cached patterns
+     */
+    public PatternCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        int segmentsCount = Math.max(1, Math.min(SEGMENTS_COUNT, capacity / SEGMENT_MIN_CAPACITY));
+        this.segments = new Segment[segmentsCount];
+        for (int i = 0; i < segmentsCount; i++) {
+            // distribute the capacity evenly
+            segments[i] = new Segment(capacity / segmentsCount + (i < capacity % segmentsCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * Returns a compiled pattern of the expression with references replaced by the replacement.
+     *
+     * @param expression  the expression
+     * @param replacement the replacement of references
+     * @param flags       the match flags
+     * @return the compiled pattern
+     */
+    public Pattern compile(String expression, String replacement, int flags) {
+        Key key = new Key(expression, replacement, flags);
+        Segment segment = segments[(key.hashCode() & Integer.MAX_VALUE) % segments.length];
+
+        Pattern pattern = segment.get(key);
+        if (pattern != null) {
+            hits.incrementAndGet();
+            return pattern;
+        }
+        misses.incrementAndGet();
+
+        // compiled out of the lock, a concurrent compilation of the same pattern is harmless
+        pattern = Pattern.compile(ExpressionUtils.hydrateExpression(expression, replacement), flags);
+        segment.put(key, pattern);
+        return pattern;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns a snapshot of the counters and the size.
+     */
+    public RecexpCacheStatistics statistics() {
+        return new RecexpCacheStatistics(hits.get(), misses.get(), size(), capacity);
+    }
+
+    /**
+     * Removes all the cached patterns and resets the counters.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static class Segment {
+
+        private final Map<Key, Pattern> patterns;
+
+        Segment(final int capacity) {
+            this.patterns = new LinkedHashMap<Key, Pattern>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Pattern> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized Pattern get(Key key) {
+            return patterns.get(key);
+        }
+
+        synchronized void put(Key key, Pattern pattern) {
+            patterns.put(key, pattern);
+        }
+
+        synchronized int size() {
+            return patterns.size();
+        }
+
+        synchronized void clear() {
+            patterns.clear();
+        }
+    }
+
+    private static class Key {
+
+        private final String expression;
+        private final String replacement;
+        private final int flags;
+        private final int hashCode;
+
+        Key(String expression, String replacement, int flags) {
+            this.expression = expression;
+            this.replacement = replacement;
+            this.flags = flags;
+
+            int result = expression.hashCode();
+            result = 31 * result + replacement.hashCode();
+            result = 31 * result + flags;
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return flags == key.flags && expression.equals(key.expression) && replacement.equals(key.replacement);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -1,13 +1,38 @@
 package cz.net21.ttulka.recexp;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Recursive Expressions.
@@ -17,6 +42,10 @@ import java.util.Set;
  * From a grammar a derivative tree can be generated based on an input string. The result is represented as a {@link RecexpMatcher matcher} and the derivative
  * as a tree of {@link RecexpGroup groups}.
  *
+ * <p>
+ * Instances of this class are immutable and safe for use by multiple concurrent threads, one grammar can be shared by all the threads. The
+ * {@link RecexpBuilder builder} is not safe for concurrent use.
+ *
  * @author ttulka
  * @see RecexpMatcher
  * @see RecexpGroup
@@ -24,22 +53,223 @@ import java.util.Set;
  */
 public class Recexp {
 
+    /**
+     * Number of inputs taken by a worker at once in parallel batch matching.
+     */
+    private static final int BATCH_CHUNK_SIZE = 64;
+    /**
+     * Number of workers in parallel batch matching.
+     */
+    private static final int BATCH_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
     protected final Set<Rule> rules;
     protected final int flags;
+    protected final RecexpEngine engine;
+
+    private final GrammarModel grammar;
+    /**
+     * Parser of the selected engine, or <code>null</code> for the derivation engine.
+     */
+    private final GrammarParser parser;
+    /**
+     * Context-free grammar of the rules with its analysis, or <code>null</code> when the rules cannot be compiled into one, compiled lazily for
+     * the derivation engine.
+     */
+    private final Lazy<ContextFreeGrammar> contextFree;
+    /**
+     * Regular rules collapsed into automata, created lazily.
+     */
+    private final Lazy<RegularSubgrammar> regular;
+    /**
+     * Bounds of the lengths derived from the rules, the derivation discards the candidates out of the bounds, created lazily.
+     */
+    private final Lazy<LengthBounds> lengths;
+    /**
+     * Constraints on the counts of characters derived from the rules, or <code>null</code> when not enabled.
+     */
+    private final CountConstraints counts;
+    /**
+     * Recognizer generated for the grammar, or <code>null</code> when not generated.
+     */
+    private final GeneratedRecognizer generated;
+
+    /**
+     * Earley parser for finding with the derivation engine and for streams, created lazily.
+     */
+    private final Lazy<EarleyParser> earley;
+    /**
+     * Analysis of the grammar, created lazily.
+     */
+    private final Lazy<RecexpAnalysis> analysis;
 
     /**
-     * The only one constructor.
+     * Executor exploring the starting rules and the alternatives in parallel, or <code>null</code> for the sequential exploration.
+     */
+    private final Executor explorer;
+
+    /**
+     * Parsed expressions substituted for references by the derivation engine, by the expression.
+     */
+    private final ConcurrentMap<String, ExpressionTree.Node> combinationNodes = new ConcurrentHashMap<String, ExpressionTree.Node>();
+
+    /**
+     * Validation failures of the explicit rules, validated once by the first match and thrown when matching.
+     */
+    private final Lazy<RecexpException> explicitRulesFailure;
+    /**
+     * Validation failures of the named rules by name, validated once by the first match and thrown when matching.
+     */
+    private final Lazy<Map<String, RecexpException>> namedRulesFailures;
+
+    /**
+     * Constructs a grammar with the default engine.
      *
      * @param rules the rules
      * @param flags the match flags, a bit mask that may include the flags from {@link java.util.regex.Pattern}
      */
     protected Recexp(Collection<Rule> rules, int flags) {
-        Set<Rule> ruleSet = new HashSet<Rule>(rules);
+        this(rules, new GrammarOptions().flags(flags));
+    }
+
+    /**
+     * Constructs a grammar with the options.
+     * <p>
+     * Only the structures of the selected engine and options are built eagerly, the structures serving all the engines and the validation of
+     * the rules are built by the first match. The rules are not validated at construction: the check for empty and cyclic rules needs the
+     * nullability of the expressions, which a grammar loaded from a snapshot doesn't compute before it is used. The validation runs once, the
+     * next matches only throw its failure.
+     *
+     * @param rules   the rules
+     * @param options the options, not kept by the grammar
+     */
+    Recexp(Collection<Rule> rules, GrammarOptions options) {
+        Set<Rule> ruleSet = new LinkedHashSet<Rule>(rules);
         // add implicit rules
         ruleSet.add(ImplicitRule.EPSILON_RULE);
 
-        this.rules = Collections.unmodifiableSet(ruleSet);
-        this.flags = flags;
+        this.grammar = new GrammarModel(ruleSet);
+        this.rules = grammar.getRules();
+        this.flags = options.getFlags();
+        this.engine = options.getEngine();
+        this.explorer = options.getExplorer();
+
+        this.parser = parser(engine, this.rules, flags);
+        this.contextFree = new Lazy<ContextFreeGrammar>() {
+            @Override
+            protected ContextFreeGrammar compute() {
+                return parser != null ? parser.getGrammar() : contextFree(Recexp.this.rules, Recexp.this.flags);
+            }
+        };
+        this.regular = new Lazy<RegularSubgrammar>() {
+            @Override
+            protected RegularSubgrammar compute() {
+                return new RegularSubgrammar(grammar, Recexp.this.flags, engine != RecexpEngine.PACKRAT,
+                                             engine == RecexpEngine.DERIVATION);
+            }
+        };
+        this.lengths = new Lazy<LengthBounds>() {
+            @Override
+            protected LengthBounds compute() {
+                return new LengthBounds(grammar, Recexp.this.flags);
+            }
+        };
+        this.earley = new Lazy<EarleyParser>() {
+            @Override
+            protected EarleyParser compute() {
+                return parser instanceof EarleyParser ? (EarleyParser) parser : new EarleyParser(compiledGrammar());
+            }
+        };
+        this.analysis = new Lazy<RecexpAnalysis>() {
+            @Override
+            protected RecexpAnalysis compute() {
+                return new RecexpAnalysis(grammar, compiledGrammar());
+            }
+        };
+        this.counts = options.isCountConstraints() ? new CountConstraints(grammar, flags) : null;
+        this.generated = options.isBytecode() ? RecognizerGenerator.generate(parser != null ? parser.getGrammar() : compiledGrammar()) : null;
+
+        this.explicitRulesFailure = new Lazy<RecexpException>() {
+            @Override
+            protected RecexpException compute() {
+                return validate(grammar.getExplicitRules());
+            }
+        };
+        this.namedRulesFailures = new Lazy<Map<String, RecexpException>>() {
+            @Override
+            protected Map<String, RecexpException> compute() {
+                Map<String, RecexpException> failures = new HashMap<String, RecexpException>();
+                for (String name : grammar.getRuleNames()) {
+                    failures.put(name, validate(grammar.getNamedRules(name)));
+                }
+                return failures;
+            }
+        };
+    }
+
+    private static GrammarParser parser(RecexpEngine engine, Set<Rule> rules, int flags) {
+        switch (engine) {
+            case EARLEY:
+                return new EarleyParser(ContextFreeGrammar.compile(rules, flags));
+            case GLL:
+                return new GllParser(ContextFreeGrammar.compile(rules, flags));
+            case PACKRAT:
+                return new PackratParser(ContextFreeGrammar.compile(rules, flags));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the context-free grammar of the rules, compiled again when the analyzed one is not available.
+     *
+     * @throws RecexpSyntaxException when a part of an expression is not a valid regular expression on its own
+     */
+    private ContextFreeGrammar compiledGrammar() {
+        ContextFreeGrammar contextFree = this.contextFree.get();
+        return contextFree != null ? contextFree : ContextFreeGrammar.compile(rules, flags);
+    }
+
+    /**
+     * Returns true if the structures serving all the engines have been built already.
+     */
+    boolean isPrepared() {
+        return contextFree.isComputed() || regular.isComputed() || lengths.isComputed();
+    }
+
+    /**
+     * Compiles the context-free grammar for the derivation engine, only to be analyzed.
+     * <p>
+     * The derivation engine substitutes a self reference in a named rule with the starting rule, while the grammar refers to the named rule
+     * itself, so such rules are not analyzed.
+     *
+     * @return the grammar, or <code>null</code> when a part of the rules is not a valid regular expression on its own or a named rule refers
+     * to itself
+     */
+    private static ContextFreeGrammar contextFree(Set<Rule> rules, int flags) {
+        for (Rule rule : rules) {
+            if (rule instanceof NamedRule && containsThisReference(rule.getExpression().getRoot())) {
+                return null;
+            }
+        }
+        try {
+            return ContextFreeGrammar.compile(rules, flags);
+
+        } catch (RecexpSyntaxException e) {
+            // the derivation engine matches the whole sentences
+            return null;
+        }
+    }
+
+    private static boolean containsThisReference(ExpressionTree.Node node) {
+        if (node.isThisReference()) {
+            return true;
+        }
+        for (ExpressionTree.Node sub : node.getSubNodes()) {
+            if (containsThisReference(sub)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -50,7 +280,7 @@ public class Recexp {
      * @return the constructed grammar object
      */
     public static Recexp compile(String rule, String... rules) {
-        Set<Rule> ruleSet = new HashSet<Rule>(rules.length);
+        Set<Rule> ruleSet = new LinkedHashSet<Rule>();
         ruleSet.add(new Rule(rule, rule));
         for (String r : rules) {
             ruleSet.add(new Rule(r, r));
@@ -78,68 +308,734 @@ public class Recexp {
         return new RecexpBuilder();
     }
 
+    /**
+     * Returns the statistics of the cache of compiled patterns shared by all the grammars.
+     *
+     * @return the snapshot of the statistics
+     */
+    public static RecexpCacheStatistics cacheStatistics() {
+        return ExpressionUtils.PATTERNS.statistics();
+    }
+
+    /**
+     * Loads a grammar from a binary snapshot without parsing its rules again.
+     *
+     * @param input the input stream of the snapshot
+     * @return the loaded grammar
+     * @throws IOException when the reading fails or the input is not a valid snapshot
+     * @see #save(OutputStream)
+     */
+    public static Recexp load(InputStream input) throws IOException {
+        return RecexpSnapshot.read(input);
+    }
+
+    /**
+     * Loads a grammar from a binary snapshot in the buffer, e.g. a mapped file or a resource.
+     *
+     * @param buffer the buffer of the snapshot, read from its position to its limit
+     * @return the loaded grammar
+     * @throws IOException when the buffer doesn't contain a valid snapshot
+     * @see #save(OutputStream)
+     */
+    public static Recexp load(ByteBuffer buffer) throws IOException {
+        return RecexpSnapshot.read(buffer);
+    }
+
+    /**
+     * Saves a binary snapshot of this grammar.
+     * <p>
+     * The snapshot contains the parsed rule graph with the nullability of its nodes, the match flags, the engine, the bytecode and the count
+     * constraints options, so the rules can be parsed ahead of time (e.g. in the build). The analysis and the automata are not saved, they are
+     * built by the first match of the loaded grammar. The parallel executor is not saved.
+     *
+     * @param output the output stream, not closed
+     * @throws IOException when the writing fails
+     * @see #load(InputStream)
+     * @see #load(ByteBuffer)
+     */
+    public void save(OutputStream output) throws IOException {
+        RecexpSnapshot.write(output, grammar.getExplicitRules(), flags, engine, generated != null, counts != null);
+    }
+
+    /**
+     * Returns the analysis of this grammar - the nullable rules and the characters the rules start with and are followed by.
+     * <p>
+     * The analysis is computed lazily by the first call and returned by the next calls, the engines use the same sets to skip the alternatives
+     * which cannot start at the current position of the input.
+     *
+     * @return the analysis
+     * @throws RecexpSyntaxException when a part of an expression is not a valid regular expression on its own
+     */
+    public RecexpAnalysis analysis() {
+        return analysis.get();
+    }
+
     /**
      * Convenient method. See {@link RecexpMatcher#matches()}.
      *
-     * @param input the input string
-     * @return true if the grammar accepts the string, otherwise false
+     * @param input the input
+     * @return true if the grammar accepts the input, otherwise false
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public boolean matches(CharSequence input) {
+        throwFailure(explicitRulesFailure.get());
+
+        if (regular.get().decides(grammar.getExplicitRules())) {
+            return regular.get().matches(grammar.getExplicitRules(), input);
+        }
+        if (generated != null) {
+            return new Batch(grammar.getExplicitRules()).matches(input);
+        }
+        return matcher(grammar.getExplicitRules(), input).matches();
+    }
+
+    /**
+     * Convenient method. See {@link RecexpMatcher#matches()}.
+     * <p>
+     * Same as {@link #matches(CharSequence)}, kept for the binary compatibility.
+     *
+     * @param input the input
+     * @return true if the grammar accepts the input, otherwise false
      * @throws RecexpEmptyRulesException   when there are no rules
      * @throws RecexpCyclicRuleException   when there is a cyclic rule
      * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
      */
     public boolean matches(String input) {
-        return matcher(input).matches();
+        return matches((CharSequence) input);
     }
 
     /**
-     * Creates a matcher from this grammar for an input string with a starting rule.
+     * Creates a matcher from this grammar for an input with a starting rule.
+     * <p>
+     * Same as {@link #matcher(String, CharSequence)}, kept for the binary compatibility.
      *
      * @param startingRuleName the name of the starting rule
-     * @param input            the input string
+     * @param input            the input
      * @return the matcher
      * @throws RecexpEmptyRulesException   when there are no rules
      * @throws RecexpCyclicRuleException   when there is a cyclic rule
      * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
      */
     public RecexpMatcher matcher(String startingRuleName, String input) {
-        return matcher(getNamedRules(startingRuleName), input);
+        return matcher(startingRuleName, (CharSequence) input);
+    }
+
+    /**
+     * Creates a matcher from this grammar for an input with a starting rule.
+     *
+     * @param startingRuleName the name of the starting rule
+     * @param input            the input
+     * @return the matcher
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public RecexpMatcher matcher(String startingRuleName, CharSequence input) {
+        Set<Rule> rules = grammar.getNamedRules(startingRuleName);
+        throwFailure(namedRulesFailures.get().get(startingRuleName));
+
+        return matcher(rules, input);
     }
 
     /**
-     * Creates a matcher from this grammar for an input string.
+     * Creates a matcher from this grammar for an input.
+     * <p>
+     * The groups of the matcher are views of the input, the input is not copied except by the derivation engine.
      *
-     * @param input the input string
+     * @param input the input
+     * @return the matcher
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public RecexpMatcher matcher(CharSequence input) {
+        throwFailure(explicitRulesFailure.get());
+
+        return matcher(grammar.getExplicitRules(), input);
+    }
+
+    /**
+     * Creates a matcher from this grammar for an input.
+     * <p>
+     * Same as {@link #matcher(CharSequence)}, kept for the binary compatibility.
+     *
+     * @param input the input
      * @return the matcher
      * @throws RecexpEmptyRulesException   when there are no rules
      * @throws RecexpCyclicRuleException   when there is a cyclic rule
      * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
      */
     public RecexpMatcher matcher(String input) {
-        return matcher(getAllExplicitRules(), input);
+        return matcher((CharSequence) input);
     }
 
-    private RecexpMatcher matcher(Set<Rule> rules, String input) {
-        checkEmptyRules(rules);
-        checkCyclicRules(rules);
+    /**
+     * Convenient method. See {@link RecexpMatcher#matches()}.
+     *
+     * @param input   the input
+     * @param options the limits of the match
+     * @return true if the grammar accepts the input, otherwise false
+     * @throws RecexpEmptyRulesException     when there are no rules
+     * @throws RecexpCyclicRuleException     when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException   when a rule is referenced but not defined
+     * @throws RecexpBudgetExceededException when a limit of the match is exceeded
+     * @see #matcher(CharSequence, RecexpMatchOptions)
+     */
+    public boolean matches(CharSequence input, RecexpMatchOptions options) {
+        return matcher(input, options).matches();
+    }
 
-        for (Rule rule : rules) {
-            try {
-                ExpressionTree.Node derivative = deriveTree(
-                        rule.getExpression().getRoot(), input, new HashSet<String>());
+    /**
+     * Creates a matcher from this grammar for an input with a starting rule within limits.
+     *
+     * @param startingRuleName the name of the starting rule
+     * @param input            the input
+     * @param options          the limits of the match
+     * @return the matcher
+     * @throws RecexpEmptyRulesException     when there are no rules
+     * @throws RecexpCyclicRuleException     when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException   when a rule is referenced but not defined
+     * @throws RecexpBudgetExceededException when a limit of the match is exceeded
+     * @see #matcher(CharSequence, RecexpMatchOptions)
+     */
+    public RecexpMatcher matcher(String startingRuleName, CharSequence input, RecexpMatchOptions options) {
+        Set<Rule> rules = grammar.getNamedRules(startingRuleName);
+        throwFailure(namedRulesFailures.get().get(startingRuleName));
 
-                if (derivative != null) {
-                    RecexpGroup group = nodeToGroup(derivative, input, flags);
-                    return RecexpMatcher.matcher(rule.toString(), input, group.groups());
+        return matcher(rules, input, new Budget(options));
+    }
+
+    /**
+     * Creates a matcher from this grammar for an input within limits.
+     * <p>
+     * The match throws an exception instead of running longer than the timeout, expanding more steps than allowed or going deeper than allowed,
+     * and when cancelled. An overflow of the stack is reported as an exceeded depth instead of a failed match.
+     *
+     * @param input   the input
+     * @param options the limits of the match
+     * @return the matcher
+     * @throws RecexpEmptyRulesException     when there are no rules
+     * @throws RecexpCyclicRuleException     when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException   when a rule is referenced but not defined
+     * @throws RecexpBudgetExceededException when a limit of the match is exceeded
+     */
+    public RecexpMatcher matcher(CharSequence input, RecexpMatchOptions options) {
+        throwFailure(explicitRulesFailure.get());
+
+        return matcher(grammar.getExplicitRules(), input, new Budget(options));
+    }
+
+    /**
+     * Matches a batch of inputs.
+     *
+     * @param inputs the inputs
+     * @return the bits of the accepted inputs set by their index
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     * @see #matchAll(Iterator)
+     */
+    public BitSet matchAll(Collection<? extends CharSequence> inputs) {
+        return matchAll(inputs.iterator());
+    }
+
+    /**
+     * Matches a batch of inputs.
+     * <p>
+     * The results are the same as of {@link #matches(CharSequence)} for every input. The setup is done once for the batch: the scratch state of
+     * the engine (charts, memo tables, regular expression matchers) is reused for all the inputs and no groups are built. The rules are validated
+     * by the first match of the grammar, the batch checks the result of the validation once before the first input.
+     *
+     * @param inputs the inputs
+     * @return the bits of the accepted inputs set by their index
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public BitSet matchAll(Iterator<? extends CharSequence> inputs) {
+        throwFailure(explicitRulesFailure.get());
+
+        Batch batch = new Batch(grammar.getExplicitRules());
+        BitSet results = new BitSet();
+
+        for (int index = 0; inputs.hasNext(); index++) {
+            if (batch.matches(inputs.next())) {
+                results.set(index);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Matches a batch of inputs in parallel on a shared pool of daemon threads, one per available processor.
+     *
+     * @param inputs the inputs
+     * @return the bits of the accepted inputs set by their index
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     * @see #matchAll(Collection, Executor)
+     */
+    public BitSet matchAllParallel(Collection<? extends CharSequence> inputs) {
+        return matchAll(inputs, Workers.EXECUTOR);
+    }
+
+    /**
+     * Matches a batch of inputs in parallel.
+     * <p>
+     * The inputs are fanned out to a worker per available processor running on the executor. Every worker takes chunks of the inputs in turn and
+     * keeps its own scratch state, see {@link #matchAll(Iterator)}. The results are indexed in the order of the inputs.
+     *
+     * @param inputs   the inputs
+     * @param executor the executor to run the workers
+     * @return the bits of the accepted inputs set by their index
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     * @throws IllegalStateException       when interrupted while waiting for the workers
+     */
+    public BitSet matchAll(Collection<? extends CharSequence> inputs, Executor executor) {
+        throwFailure(explicitRulesFailure.get());
+
+        final CharSequence[] batch = inputs.toArray(new CharSequence[inputs.size()]);
+        final AtomicInteger next = new AtomicInteger();
+
+        int chunks = (batch.length + BATCH_CHUNK_SIZE - 1) / BATCH_CHUNK_SIZE;
+        List<FutureTask<BitSet>> workers = new ArrayList<FutureTask<BitSet>>();
+
+        for (int i = 0; i < Math.min(BATCH_PARALLELISM, chunks); i++) {
+            FutureTask<BitSet> worker = new FutureTask<BitSet>(new Callable<BitSet>() {
+                @Override
+                public BitSet call() {
+                    Batch scratch = new Batch(grammar.getExplicitRules());
+                    BitSet results = new BitSet();
+
+                    int from;
+                    while ((from = next.getAndAdd(BATCH_CHUNK_SIZE)) < batch.length) {
+                        for (int index = from; index < Math.min(from + BATCH_CHUNK_SIZE, batch.length); index++) {
+                            if (scratch.matches(batch[index])) {
+                                results.set(index);
+                            }
+                        }
+                    }
+                    return results;
                 }
-            } catch (RecexpException rethrow) {
-                throw rethrow;
-            } catch (Throwable ignore) {
-                // TODO workaround for infinite recursions
+            });
+            workers.add(worker);
+            executor.execute(worker);
+        }
+
+        BitSet results = new BitSet(batch.length);
+        try {
+            for (FutureTask<BitSet> worker : workers) {
+                results.or(await(worker));
+            }
+            return results;
+
+        } finally {
+            // stops the remaining workers on a failure
+            next.set(batch.length);
+        }
+    }
+
+    /**
+     * Creates a matcher from this grammar for the content of a file.
+     * <p>
+     * The file is mapped into memory, see {@link #matcher(ByteBuffer, Charset)}.
+     *
+     * @param file    the file
+     * @param charset the charset of the file
+     * @return the matcher
+     * @throws IOException                 when the file cannot be mapped
+     * @throws IllegalArgumentException    when the file is larger than 2 GB or its content of another charset than ISO-8859-1, ASCII, UTF-8 and
+     *                                     UTF-16 is too large to be decoded into the direct memory
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public RecexpMatcher matcher(File file, Charset charset) throws IOException {
+        return matcher(MappedInput.map(file), charset);
+    }
+
+    /**
+     * Creates a matcher from this grammar for the bytes from the position to the limit of the buffer, typically a memory-mapped file.
+     * <p>
+     * The input is matched as a view of the buffer, the groups of the matcher are views of the buffer too. ISO-8859-1, ASCII and UTF-16 contents
+     * are not copied at all. UTF-8 contents are decoded lazily in windows of a few thousand characters, only the window being read is kept on
+     * the heap. Other contents are decoded into a direct buffer outside the heap of about twice the size of the content, limited by the maximal
+     * direct memory of the runtime (<code>-XX:MaxDirectMemorySize</code>); {@link #matches(ByteBuffer, Charset)} decodes them as a stream. The
+     * derivation engine works with a copy of the input.
+     *
+     * @param input   the buffer
+     * @param charset the charset of the bytes
+     * @return the matcher
+     * @throws IllegalArgumentException    when the content of another charset is too large to be decoded into the direct memory
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public RecexpMatcher matcher(ByteBuffer input, Charset charset) {
+        return matcher(MappedInput.view(input, charset));
+    }
+
+    /**
+     * Matches the content of a file without loading it to the heap.
+     * <p>
+     * The file is mapped into memory and recognized as a stream, see {@link #matches(Reader, RecexpRejectionListener)}. Files larger than the
+     * heap can be matched.
+     *
+     * @param file    the file
+     * @param charset the charset of the file
+     * @return true if the grammar accepts the content, otherwise false
+     * @throws IOException                 when the file cannot be mapped
+     * @throws IllegalArgumentException    when the file is larger than 2 GB
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public boolean matches(File file, Charset charset) throws IOException {
+        return matches(MappedInput.map(file), charset);
+    }
+
+    /**
+     * Matches the bytes from the position to the limit of the buffer, typically a memory-mapped file, without copying them to the heap.
+     * <p>
+     * The bytes are decoded and recognized as a stream, see {@link #matches(Reader, RecexpRejectionListener)}.
+     *
+     * @param input   the buffer
+     * @param charset the charset of the bytes
+     * @return true if the grammar accepts the content, otherwise false
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public boolean matches(ByteBuffer input, Charset charset) {
+        try {
+            return matches(MappedInput.reader(input, charset), null);
+
+        } catch (IOException e) {
+            // decoding a buffer reads nothing
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds the first substring of the input accepted by this grammar.
+     *
+     * @param input the input
+     * @return the matcher of the found substring, or an empty matcher if there is none
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     * @see #find(CharSequence, int)
+     */
+    public RecexpMatcher find(CharSequence input) {
+        return find(input, 0);
+    }
+
+    /**
+     * Finds the first substring of the input starting at the index or after it accepted by this grammar.
+     * <p>
+     * The input is searched in one left-to-right pass. The leftmost substring is found, the longest one of them. The {@link RecexpEngine#PACKRAT
+     * packrat engine} finds the substring its ordered choice derives instead of the longest one. The derivation engine finds with the Earley
+     * parser.
+     * <p>
+     * The found substring is the value of the returned matcher, its indexes are provided by {@link RecexpMatcher#start()} and {@link
+     * RecexpMatcher#end()}.
+     *
+     * @param input the input
+     * @param from  the index to start searching at
+     * @return the matcher of the found substring, or an empty matcher if there is none
+     * @throws IndexOutOfBoundsException   when the index is out of the input
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public RecexpMatcher find(CharSequence input, int from) {
+        throwFailure(explicitRulesFailure.get());
+
+        return new Scan(grammar.getExplicitRules(), input).find(from);
+    }
+
+    /**
+     * Finds the first substring of the input starting at the index or after it derived from a starting rule.
+     *
+     * @param startingRuleName the name of the starting rule
+     * @param input            the input
+     * @param from             the index to start searching at
+     * @return the matcher of the found substring, or an empty matcher if there is none
+     * @throws IndexOutOfBoundsException   when the index is out of the input
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     * @see #find(CharSequence, int)
+     */
+    public RecexpMatcher find(String startingRuleName, CharSequence input, int from) {
+        Set<Rule> rules = grammar.getNamedRules(startingRuleName);
+        throwFailure(namedRulesFailures.get().get(startingRuleName));
+
+        return new Scan(rules, input).find(from);
+    }
+
+    /**
+     * Finds all the non-overlapping substrings of the input accepted by this grammar.
+     * <p>
+     * The substrings are found lazily while iterating, all of them in one left-to-right pass. An empty substring is followed by a search from the
+     * next index.
+     *
+     * @param input the input
+     * @return the matchers of the found substrings
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     * @see #find(CharSequence, int)
+     */
+    public Iterable<RecexpMatcher> findAll(CharSequence input) {
+        throwFailure(explicitRulesFailure.get());
+
+        return findAll(grammar.getExplicitRules(), input);
+    }
+
+    /**
+     * Finds all the non-overlapping substrings of the input derived from a starting rule.
+     *
+     * @param startingRuleName the name of the starting rule
+     * @param input            the input
+     * @return the matchers of the found substrings
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     * @see #findAll(CharSequence)
+     */
+    public Iterable<RecexpMatcher> findAll(String startingRuleName, CharSequence input) {
+        Set<Rule> rules = grammar.getNamedRules(startingRuleName);
+        throwFailure(namedRulesFailures.get().get(startingRuleName));
+
+        return findAll(rules, input);
+    }
+
+    private Iterable<RecexpMatcher> findAll(final Set<Rule> rules, final CharSequence input) {
+        return new Iterable<RecexpMatcher>() {
+            @Override
+            public Iterator<RecexpMatcher> iterator() {
+                final Scan scan = new Scan(rules, input);
+
+                return new Iterator<RecexpMatcher>() {
+
+                    private int from = 0;
+                    private RecexpMatcher next;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (next == null && from <= input.length()) {
+                            next = scan.find(from);
+                            if (next.matches()) {
+                                from = next.end() > next.start() ? next.end() : next.end() + 1;
+                            } else {
+                                next = null;
+                                from = input.length() + 1;
+                            }
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public RecexpMatcher next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        RecexpMatcher current = next;
+                        next = null;
+                        return current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns the parser for finding, the derivation engine finds with the Earley parser.
+     */
+    private GrammarParser scanner() {
+        return parser != null ? parser : earley();
+    }
+
+    private EarleyParser earley() {
+        return earley.get();
+    }
+
+    /**
+     * Matches an input read from the reader.
+     *
+     * @param input the reader of the input
+     * @return true if the grammar accepts the input, otherwise false
+     * @throws IOException                 when the reading fails
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     * @see #matches(Reader, RecexpRejectionListener)
+     */
+    public boolean matches(Reader input) throws IOException {
+        return matches(input, null);
+    }
+
+    /**
+     * Matches an input read from the reader without loading the whole input.
+     * <p>
+     * The input is recognized by the Earley parser of all the engines in one pass, characters are read only as far as the terminals need. Only
+     * the live part of the parsing state and of the input is kept in memory. The reading stops as soon as no derivation can succeed, the listener
+     * is notified then. Lookbehinds cannot see the characters before the position being scanned.
+     * <p>
+     * The reader is not closed.
+     *
+     * @param input    the reader of the input
+     * @param listener the listener of an early rejection, can be <code>null</code>
+     * @return true if the grammar accepts the input, otherwise false
+     * @throws IOException                 when the reading fails
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     */
+    public boolean matches(Reader input, RecexpRejectionListener listener) throws IOException {
+        throwFailure(explicitRulesFailure.get());
+
+        EarleyParser earley = earley();
+        List<ContextFreeGrammar.Nonterminal> starts = new ArrayList<ContextFreeGrammar.Nonterminal>();
+        for (Rule rule : grammar.getExplicitRules()) {
+            starts.add(earley.getGrammar().ruleSymbol(rule));
+        }
+        return earley.recognize(starts, input, listener);
+    }
+
+    /**
+     * Matches an input read from the channel.
+     *
+     * @param input   the channel of the input
+     * @param charset the charset to decode the input with
+     * @return true if the grammar accepts the input, otherwise false
+     * @throws IOException                 when the reading fails
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     * @see #matches(Reader, RecexpRejectionListener)
+     */
+    public boolean matches(ReadableByteChannel input, Charset charset) throws IOException {
+        return matches(input, charset, null);
+    }
+
+    /**
+     * Matches an input read from the channel without loading the whole input.
+     *
+     * @param input    the channel of the input
+     * @param charset  the charset to decode the input with
+     * @param listener the listener of an early rejection, can be <code>null</code>
+     * @return true if the grammar accepts the input, otherwise false
+     * @throws IOException                 when the reading fails
+     * @throws RecexpEmptyRulesException   when there are no rules
+     * @throws RecexpCyclicRuleException   when there is a cyclic rule
+     * @throws RecexpRuleNotFoundException when a rule is referenced but not defined
+     * @see #matches(Reader, RecexpRejectionListener)
+     */
+    public boolean matches(ReadableByteChannel input, Charset charset, RecexpRejectionListener listener) throws IOException {
+        return matches(Channels.newReader(input, charset.newDecoder(), -1), listener);
+    }
+
+    /**
+     * Matches the input with already validated rules.
+     */
+    private RecexpMatcher matcher(Set<Rule> rules, CharSequence input) {
+        return matcher(rules, input, null);
+    }
+
+    /**
+     * Matches the input with already validated rules within the budget, <code>null</code> when not limited.
+     */
+    private RecexpMatcher matcher(Set<Rule> rules, CharSequence input, Budget budget) {
+        // regular rules rejecting the input are not derived
+        rules = regular.get().candidates(rules, input);
+        if (rules.isEmpty() || rejectsAnalyzed(rules, input) || rejectsCounted(rules, input) || rejectsGenerated(rules, input)) {
+            return RecexpMatcher.emptyMatcher(input);
+        }
+        if (explorer != null && (rules.size() > 1 || parser == null)) {
+            return new Exploration(rules, input, budget).explore();
+        }
+        if (parser != null) {
+            return parse(rules, input, budget);
+        }
+        String string = input.toString();
+        Derived derived = derive(rules, string, budget);
+
+        return derived != null ? toMatcher(derived.rule, derived.tree, string) : RecexpMatcher.emptyMatcher(input);
+    }
+
+    /**
+     * Derives the input from the first rule deriving it.
+     *
+     * @param budget the budget, or <code>null</code> when not limited
+     * @return the rule and its derivative tree, or <code>null</code> when no rule derives the input
+     * @throws RecexpBudgetExceededException when the budget is exceeded
+     */
+    private Derived derive(Set<Rule> rules, String input, Budget budget) {
+        for (Rule rule : rules) {
+            ExpressionTree.Node root = rule.getExpression().getRoot();
+            ExpressionTree.Node tree = deriveTree(root, alternatives(root), input, budget, null);
+
+            if (tree != null) {
+                return new Derived(rule, tree);
+            }
+        }
+        return null;
+    }
+
+    private static List<ExpressionTree.Node> alternatives(ExpressionTree.Node root) {
+        return root.isOrNode() ? root.getSubNodes() : Collections.singletonList(root);
+    }
+
+    private RecexpMatcher toMatcher(Rule rule, ExpressionTree.Node tree, String input) {
+        RecexpGroup group = nodeToGroup(tree, input, flags);
+        return RecexpMatcher.matcher(rule.toString(), input, group.groups());
+    }
+
+    private RecexpMatcher parse(Set<Rule> rules, CharSequence input, Budget budget) {
+        for (Rule rule : rules) {
+            Derivation derivation = parser.parse(parser.getGrammar().ruleSymbol(rule), input, budget);
+
+            if (derivation != null) {
+                return derivation.toMatcher(input);
             }
         }
         return RecexpMatcher.emptyMatcher(input);
     }
 
+    /**
+     * Validates the rules.
+     *
+     * @return the validation failure, or <code>null</code> when the rules are valid
+     */
+    private RecexpException validate(Set<Rule> rules) {
+        try {
+            checkEmptyRules(rules);
+            checkCyclicRules(rules);
+            return null;
+
+        } catch (RecexpException e) {
+            return e;
+        }
+    }
+
+    private static void throwFailure(RecexpException failure) {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     /**
      * @throws RecexpEmptyRulesException when there are no rules
      */
@@ -165,7 +1061,7 @@ public class Recexp {
      * @return true if the rule has no self-reference, otherwise false.
      */
     private boolean checkCyclicRules(Rule rule, ExpressionTree.Node node, Set<String> alreadyCheckedReferences) {
-        if (ExpressionUtils.matchesEpsilon(node.toWord())) {
+        if (grammar.isNullable(node)) {
             return true;
         }
         if (node.isThisReference()) {
@@ -175,12 +1071,12 @@ public class Recexp {
             if (alreadyCheckedReferences.add(node.getExpression().getText())) {
 
                 if (rule.getName().equals(node.getExpression().getText())) {
-                    if (numberOfRulesWithSameName(rule.getName()) == 1) {
+                    if (grammar.explicitRulesCount(rule.getName()) == 1) {
                         return false;
                     }
                 }
 
-                for (ExpressionTree.Node candidate : generateCandidates(node, rule.getExpression().getRoot())) {
+                for (ExpressionTree.Node candidate : generateCandidates(node, rule.getExpression().getRoot(), null)) {
                     if (checkCyclicRules(rule, candidate, alreadyCheckedReferences)) {
                         return true;
                     }
@@ -207,110 +1103,146 @@ public class Recexp {
         return true;
     }
 
-    private int numberOfRulesWithSameName(String ruleName) {
-        int count = 0;
-        for (Rule rule : getAllExplicitRules()) {
-            if (rule.getName().equals(ruleName)) {
-                count++;
-            }
-        }
-        return count;
-    }
-
-    private Set<Rule> getAllExplicitRules() {
-        Set<Rule> explicitRules = new HashSet<Rule>();
-
-        for (Rule rule : rules) {
-            if (!(rule instanceof ImplicitRule)) {
-                explicitRules.add(rule);
-            }
-        }
-        return Collections.unmodifiableSet(explicitRules);
-    }
-
-    private Set<Rule> getNamedRules(String name) {
-        Set<Rule> namedRules = new HashSet<Rule>();
-
-        for (Rule rule : rules) {
-            if (rule instanceof NamedRule && rule.getName().equals(name)) {
-                namedRules.add(rule);
-            }
-        }
-        if (namedRules.isEmpty()) {
-            throw new RecexpRuleNotFoundException(name);
-        }
-        return namedRules;
-    }
-
     /**
      * Returns a derivative tree for the candidate and input, or <code>null</code> if there is no such a derivation.
      */
-    ExpressionTree.Node deriveTree(ExpressionTree.Node root, String input, Set<String> alreadySeen) {
-        Queue<ExpressionTree.Node> candidatesQueue = new LinkedList<ExpressionTree.Node>();
-
-        if (root.isOrNode()) {
-            candidatesQueue.addAll(root.getSubNodes());
-        } else {
-            candidatesQueue.add(root);
-        }
-
-        while (!candidatesQueue.isEmpty()) {
-            ExpressionTree.Node candidate = candidatesQueue.remove();
-            String sentence = candidate.getSentence();
+    ExpressionTree.Node deriveTree(ExpressionTree.Node root, String input) {
+        return deriveTree(root, alternatives(root), input, null, null);
+    }
 
-            if (alreadySeen.contains(sentence)) {
-                continue;
+    /**
+     * Returns a derivative tree for the candidates of the root and input, or <code>null</code> if there is no such a derivation or the branch
+     * was cancelled.
+     *
+     * @param budget the budget, or <code>null</code> when not limited
+     * @param branch the branch of a parallel exploration, or <code>null</code>
+     * @throws RecexpBudgetExceededException when the budget is exceeded, an overflow of the stack exceeds the budget too
+     * @throws StackOverflowError            when the stack overflows without a budget
+     * @throws PatternSyntaxException        when the stack overflows while compiling a pattern without a budget
+     */
+    private ExpressionTree.Node deriveTree(ExpressionTree.Node root, List<ExpressionTree.Node> candidates, String input, Budget budget,
+                                           Branch branch) {
+        try {
+            return deriveLevels(root, candidates, input, budget, branch);
+
+        } catch (StackOverflowError e) {
+            if (budget == null) {
+                throw e;
             }
-            alreadySeen.add(sentence);
+            throw budget.overflow();
 
-            if (!ExpressionUtils.matchesIgnoreReferences(sentence, input, flags)) {
-                continue;
+        } catch (PatternSyntaxException e) {
+            // the stack overflowed while compiling the pattern of a deep sentence
+            if (budget == null || !e.getDescription().startsWith("Stack overflow")) {
+                throw e;
             }
+            throw budget.overflow();
+        }
+    }
 
-            if (ExpressionUtils.matches(sentence, input, flags)) {
-                return candidate;
+    private ExpressionTree.Node deriveLevels(ExpressionTree.Node root, List<ExpressionTree.Node> candidates, String input, Budget budget,
+                                             Branch branch) {
+        Collection<ExpressionTree.Node> level = candidates;
+        // different trees can derive the same sentence, the sentences are cached by the nodes
+        Set<String> alreadySeen = new HashSet<String>();
+        Map<ExpressionTree.Node, int[]> bounds = new HashMap<ExpressionTree.Node, int[]>();
+        int[] inputCounts = counts != null ? counts.count(input) : null;
+        Map<ExpressionTree.Node, CountConstraints.Counts> countsCache = new HashMap<ExpressionTree.Node, CountConstraints.Counts>();
+
+        // this is a level-based derivation (in contrast to depth-base derivation)
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            List<ExpressionTree.Node> nextLevel = new ArrayList<ExpressionTree.Node>();
+            if (budget != null) {
+                budget.depth(depth);
             }
+            for (ExpressionTree.Node candidate : level) {
+                if (branch != null && branch.isCancelled(depth)) {
+                    return null;
+                }
+                if (budget != null) {
+                    budget.step();
+                }
+                String sentence = candidate.getSentence();
+
+                if (!alreadySeen.add(sentence)) {
+                    continue;
+                }
+
+                // the candidate cannot derive a string of the length of the input
+                if (!lengths.get().admits(candidate, root, input.length(), bounds)) {
+                    continue;
+                }
+                // the candidate cannot derive a string with the counts of characters of the input
+                if (counts != null && !counts.admits(candidate, root, inputCounts, countsCache)) {
+                    continue;
+                }
+                if (!ExpressionUtils.matchesIgnoreReferences(sentence, input, flags)) {
+                    continue;
+                }
+
+                if (ExpressionUtils.matches(sentence, input, flags)) {
+                    if (branch != null) {
+                        branch.found(depth, candidate);
+                    }
+                    return candidate;
+                }
 
-            // generate new candidates from this candidate tree and add them to the queue
-            // this is a level-based derivation (in contrast to depth-base derivation)
-            candidatesQueue.addAll(generateCandidates(candidate, root));
+                // generate new candidates from this candidate tree and add them to the next level
+                nextLevel.addAll(generateCandidates(candidate, root, budget));
+            }
+            level = nextLevel;
         }
         return null;
     }
 
-    private Set<ExpressionTree.Node> generateCandidates(ExpressionTree.Node node, ExpressionTree.Node root) {
-        Set<ExpressionTree.Node> candidates = new HashSet<ExpressionTree.Node>();
-
-        for (Set<NodeCandidate> nodeCandidates : getCartesianProduct(node, root)) {
-            candidates.add(copyNode(node, nodeCandidates));
+    /**
+     * @param budget the budget counting every generated candidate, or <code>null</code> when not limited
+     */
+    private List<ExpressionTree.Node> generateCandidates(ExpressionTree.Node node, ExpressionTree.Node root, Budget budget) {
+        List<ExpressionTree.Node> candidates = new ArrayList<ExpressionTree.Node>();
+        Map<ExpressionTree.Node, NodeCombinationsHolder> combinations = new IdentityHashMap<ExpressionTree.Node, NodeCombinationsHolder>();
+        getCombinations(node, root, combinations);
+
+        for (Set<NodeCandidate> nodeCandidates : generateCartesianProduct(combinations.values(), budget)) {
+            if (budget != null) {
+                budget.step();
+            }
+            ExpressionTree.Node[] substitutions = new ExpressionTree.Node[combinations.size()];
+            for (NodeCandidate candidate : nodeCandidates) {
+                substitutions[candidate.getPosition()] = candidate.getCandidate();
+            }
+            candidates.add(copyNode(node, combinations, substitutions));
         }
         return candidates;
     }
 
-    private Set<Set<NodeCandidate>> getCartesianProduct(ExpressionTree.Node node, ExpressionTree.Node root) {
-        return generateCartesianProduct(getCombinations(node, root));
-    }
-
-    private Set<NodeCombinationsHolder> getCombinations(ExpressionTree.Node node, ExpressionTree.Node root) {
-        Set<NodeCombinationsHolder> combinations = new HashSet<NodeCombinationsHolder>();
-
-        if (node.getSubNodes().isEmpty()) {
-            if (node.getExpression().isReference()) {
-                combinations.add(new NodeCombinationsHolder(node, generateCombinations(node, root)));
+    /**
+     * Collects the combinations of the substituted nodes by the node instance, the position of a substituted node is its index.
+     * <p>
+     * A node inserted by a substitution at several places is the same instance at all of them, so its references are substituted equally.
+     */
+    private void getCombinations(ExpressionTree.Node node, ExpressionTree.Node root,
+                                 Map<ExpressionTree.Node, NodeCombinationsHolder> combinations) {
+        if (isSubstituted(node)) {
+            if (!combinations.containsKey(node)) {
+                List<ExpressionTree.Node> candidates = node.getSubNodes().isEmpty()
+                                                       ? generateCombinations(node, root)
+                                                       : new ArrayList<ExpressionTree.Node>(node.getSubNodes());
+                combinations.put(node, new NodeCombinationsHolder(node, combinations.size(), candidates));
             }
-        } else {
-            if (node.isOrNode()) {
-                if (node.getExpression().isReference()) {
-                    combinations.add(new NodeCombinationsHolder(node, new ArrayList<ExpressionTree.Node>(node.getSubNodes())));
-                }
 
-            } else {
-                for (ExpressionTree.Node sub : node.getSubNodes()) {
-                    combinations.addAll(getCombinations(sub, root));
-                }
+        } else if (!node.isOrNode()) {
+            for (ExpressionTree.Node sub : node.getSubNodes()) {
+                getCombinations(sub, root, combinations);
             }
         }
-        return combinations;
+    }
+
+    /**
+     * Returns true if the node is a reference substituted by its combinations.
+     */
+    private static boolean isSubstituted(ExpressionTree.Node node) {
+        return node.getExpression().isReference() && (node.getSubNodes().isEmpty() || node.isOrNode());
     }
 
     /**
@@ -319,6 +1251,13 @@ public class Recexp {
      * @return the set of sets of node candidates of the Cartesian product, each sub-set means a row in the matrix
      */
     static Set<Set<NodeCandidate>> generateCartesianProduct(Collection<NodeCombinationsHolder> combinations) {
+        return generateCartesianProduct(combinations, null);
+    }
+
+    /**
+     * Generates the Cartesian product for the node combinations within the budget counting every row.
+     */
+    private static Set<Set<NodeCandidate>> generateCartesianProduct(Collection<NodeCombinationsHolder> combinations, Budget budget) {
         Set<Set<NodeCandidate>> cartesianProduct = new HashSet<Set<NodeCandidate>>();
 
         if (combinations.isEmpty()) {
@@ -330,11 +1269,14 @@ public class Recexp {
         NodeCombinationsHolder head = combinationList.get(0);
 
         if (combinations.size() > 1) {
-            for (Set<NodeCandidate> tail : generateCartesianProduct(combinationList.subList(1, combinationList.size()))) {
+            for (Set<NodeCandidate> tail : generateCartesianProduct(combinationList.subList(1, combinationList.size()), budget)) {
 
                 for (ExpressionTree.Node candidate : head.getCombinations()) {
+                    if (budget != null) {
+                        budget.step();
+                    }
                     Set<NodeCandidate> product = new HashSet<NodeCandidate>(tail);
-                    product.add(new NodeCandidate(head.getNode(), candidate));
+                    product.add(new NodeCandidate(head.getNode(), head.getPosition(), candidate));
 
                     cartesianProduct.add(product);
                 }
@@ -343,7 +1285,7 @@ public class Recexp {
         } else {
             for (ExpressionTree.Node candidate : head.getCombinations()) {
                 Set<NodeCandidate> product = new HashSet<NodeCandidate>();
-                product.add(new NodeCandidate(head.getNode(), candidate));
+                product.add(new NodeCandidate(head.getNode(), head.getPosition(), candidate));
 
                 cartesianProduct.add(product);
             }
@@ -359,8 +1301,8 @@ public class Recexp {
 
         if (node.isThisReference()) {
             if (node.getExpression().isQuantified()) {
-                combinations.add(ExpressionTree.Node.parseNode(
-                        "(" + root.getExpression().toWord() + ")" + node.getExpression().getQuantifier()));
+                combinations.add(copyTree(combinationNode(
+                        "(" + root.getExpression().toWord() + ")" + node.getExpression().getQuantifier())));
 
             } else {
                 if (root.isOrNode()) {
@@ -371,7 +1313,7 @@ public class Recexp {
             }
         } else {
             if (node.getExpression().isReference()) {
-                for (Rule rule : getNamedRules(node.getExpression().getText())) {
+                for (Rule rule : grammar.getNamedRules(node.getExpression().getText())) {
                     ExpressionTree.Node ruleRoot = rule.getExpression().getRoot();
                     if (ruleRoot.isOrNode()) {
                         for (ExpressionTree.Node n : ruleRoot.getSubNodes()) {
@@ -393,8 +1335,8 @@ public class Recexp {
         }
 
         for (ExpressionTree.Node expression : combinations) {
-            if (ExpressionUtils.matchesEpsilon(expression.getExpression().toWord())) {
-                combinations.add(new ExpressionTree.Node(Expression.EPSILON));
+            if (grammar.isNullable(expression)) {
+                combinations.add(ExpressionTree.Node.EPSILON);
                 break;
             }
         }
@@ -402,137 +1344,519 @@ public class Recexp {
         return combinations;
     }
 
-    private static ExpressionTree.Node toCombination(ExpressionTree.Node leaf, Expression expression) {
+    private ExpressionTree.Node toCombination(ExpressionTree.Node leaf, Expression expression) {
         ExpressionTree.Node combination;
 
         if (!expression.isEpsilon()
             && leaf.getExpression().isQuantified()) {
-            combination = ExpressionTree.Node.parseNode(
+            combination = combinationNode(
                     "(" + expression.toWord() + ")" + (leaf.getExpression().isQuantified() ? leaf.getExpression().getQuantifier() : ""));
         } else {
-            combination = ExpressionTree.Node.parseNode(expression.toWord());
+            combination = combinationNode(expression.toWord());
         }
-        return combination;
+        return copyTree(combination);
     }
 
-    private static ExpressionTree.Node copyNode(ExpressionTree.Node node, Set<NodeCandidate> nodeCandidates) {
-        ExpressionTree.Node candidate = findCandidate(node, nodeCandidates);
+    /**
+     * Copies the parsed combination, so the references of the combinations of different nodes are substituted independently.
+     */
+    private static ExpressionTree.Node copyTree(ExpressionTree.Node node) {
+        List<ExpressionTree.Node> subNodes = new ArrayList<ExpressionTree.Node>(node.getSubNodes().size());
+        for (ExpressionTree.Node subNode : node.getSubNodes()) {
+            subNodes.add(copyTree(subNode));
+        }
+        ExpressionTree.Node copy = new ExpressionTree.Node(node.getExpression(), node.getSubNodesConnectionType(), subNodes);
+        copy.cacheNullable(node.isNullable());
+        return copy;
+    }
+
+    /**
+     * Returns the parsed expression, every expression is parsed only once.
+     */
+    private ExpressionTree.Node combinationNode(String expression) {
+        ExpressionTree.Node node = combinationNodes.get(expression);
+        if (node == null) {
+            node = ExpressionTree.Node.parseNode(expression);
+            ExpressionTree.Node parsed = combinationNodes.putIfAbsent(expression, node);
+            if (parsed != null) {
+                node = parsed;
+            }
+        }
+        return node;
+    }
 
-        if (candidate != null) {
+    /**
+     * Copies the node with the substituted nodes replaced by the substitutions at their positions, subtrees without substitutions are not
+     * copied.
+     */
+    private static ExpressionTree.Node copyNode(ExpressionTree.Node node, Map<ExpressionTree.Node, NodeCombinationsHolder> combinations,
+                                                ExpressionTree.Node[] substitutions) {
+        if (isSubstituted(node)) {
             return new ExpressionTree.Node(
                     node.getExpression(),
                     ExpressionTree.Node.SubNodesConnectionType.SINGLE,
-                    Collections.singletonList(candidate));
+                    Collections.singletonList(substitutions[combinations.get(node).getPosition()]));
+
+        } else if (node.isOrNode() || node.getSubNodes().isEmpty()) {
+            return node;
 
         } else {
             List<ExpressionTree.Node> subNodes = new ArrayList<ExpressionTree.Node>();
+            boolean changed = false;
             for (ExpressionTree.Node subNode : node.getSubNodes()) {
-                subNodes.add(copyNode(subNode, nodeCandidates));
+                ExpressionTree.Node subCopy = copyNode(subNode, combinations, substitutions);
+                subNodes.add(subCopy);
+                changed |= subCopy != subNode;
             }
-            return new ExpressionTree.Node(
-                    node.getExpression(), node.getSubNodesConnectionType(), subNodes);
-        }
-    }
-
-    private static ExpressionTree.Node findCandidate(ExpressionTree.Node node, Set<NodeCandidate> nodeCandidates) {
-        for (NodeCandidate candidate : nodeCandidates) {
-            if (candidate.getNode().equals(node)) {
-                return candidate.getCandidate();
+            if (!changed) {
+                return node;
             }
+            return new ExpressionTree.Node(node.getExpression(), node.getSubNodesConnectionType(), subNodes);
         }
-        return null;
     }
 
     static RecexpGroup nodeToGroup(ExpressionTree.Node node, String input, int flags) {
-        if (input.isEmpty()) {
-            return new RecexpGroup(node.getExpression().toWord(), input, new RecexpGroup[0]);
+        return nodeToGroup(node, input, 0, input.length(), flags);
+    }
+
+    /**
+     * Reduces the input between the start (inclusive) and the end (exclusive) to a group tree of the node.
+     */
+    private static RecexpGroup nodeToGroup(ExpressionTree.Node node, String input, int start, int end, int flags) {
+        if (start == end) {
+            return new RecexpGroup(node.getExpression().toWord(), input, start, end, new RecexpGroup[0]);
         }
 
         if (node.isOrNode()) {
             for (ExpressionTree.Node subNode : node.getSubNodes()) {
                 try {
-                    return nodeToGroup(subNode, input, flags);
+                    return nodeToGroup(subNode, input, start, end, flags);
 
                 } catch (IllegalStateException ignore) {
                     // continue
                 }
             }
-            throw new IllegalStateException("Cannot reduce: input '" + input + "' doesn't match the expression: " + node.toWord());
+            throw new IllegalStateException(
+                    "Cannot reduce: input '" + input.substring(start, end) + "' doesn't match the expression: " + node.toWord());
         }
 
         List<RecexpGroup> subGroups = new ArrayList<RecexpGroup>();
 
-        String restInput = input;
+        int restStart = start;
 
         for (int i = 0; i < node.getSubNodes().size(); i++) {
             ExpressionTree.Node subNode = node.getSubNodes().get(i);
 
-            if (restInput.isEmpty()) {
+            if (restStart == end) {
                 subGroups.clear();
                 break;
             }
 
-            String value = getInputPartForNodeByLeftReduction(
-                    restInput, flags, subNode, node.getSubNodes().subList(i + 1, node.getSubNodes().size()));
+            int valueEnd = getInputPartEndForNodeByLeftReduction(
+                    input, restStart, end, flags, subNode, node.getSubNodes().subList(i + 1, node.getSubNodes().size()));
 
-            if (value == null) {
-                throw new IllegalStateException("Cannot reduce: input '" + input + "' doesn't match the expression: " + node.toWord());
+            if (valueEnd < 0) {
+                throw new IllegalStateException(
+                        "Cannot reduce: input '" + input.substring(start, end) + "' doesn't match the expression: " + node.toWord());
             }
-            subGroups.add(nodeToGroup(subNode, value, flags));
+            subGroups.add(nodeToGroup(subNode, input, restStart, valueEnd, flags));
 
-            restInput = restInput.substring(value.length());
+            restStart = valueEnd;
         }
 
         RecexpGroup[] groups = new RecexpGroup[subGroups.size()];
         for (int i = 0; i < subGroups.size(); i++) {
             groups[i] = subGroups.get(i);
         }
-        return new RecexpGroup(node.getExpression().toWord(), input, groups);
+        return new RecexpGroup(node.getExpression().toWord(), input, start, end, groups);
     }
 
-    private static String getInputPartForNodeByLeftReduction(String input, int flags, ExpressionTree.Node node, List<ExpressionTree.Node> rightNodes) {
+    /**
+     * Returns the end of the shortest input part from the start matching the node, or -1 when there is no such part.
+     */
+    private static int getInputPartEndForNodeByLeftReduction(String input, int start, int end, int flags,
+                                                             ExpressionTree.Node node, List<ExpressionTree.Node> rightNodes) {
         String nodeSentence = node.getSentence();
         String rightNodesSentence = getNodesSentence(rightNodes);
 
+        for (int index = start; index <= end; index++) {
+            if (ExpressionUtils.matches(nodeSentence, input, start, index, flags)
+                && ExpressionUtils.matches(rightNodesSentence, input, index, end, flags)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static String getNodesSentence(List<ExpressionTree.Node> nodes) {
         StringBuilder sb = new StringBuilder();
 
-        for (int index = 0; index <= input.length(); index++) {
+        for (ExpressionTree.Node node : nodes) {
+            sb.append(node.getConcatenatedSentence());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Waits for the result of the task, the task is run by the calling thread when not started yet.
+     *
+     * @throws IllegalStateException when interrupted while waiting
+     */
+    private static <T> T await(FutureTask<T> task) {
+        // no-op when already started, avoids waiting for a busy executor
+        task.run();
+        try {
+            return task.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while matching.", e);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Shared fixed pool of daemon threads for parallel matching, one thread per available processor. The holder class is initialized, and the
+     * pool created, by the first parallel match.
+     */
+    private static class Workers {
+
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(BATCH_PARALLELISM, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "recexp-worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Exploration of the starting rules and the alternatives of their roots in parallel.
+     * <p>
+     * The result is the same as of the sequential exploration: the first rule with a derivation wins, within a rule the alternative with the
+     * shallowest derivation, then the first one. A branch is cancelled as soon as a better branch has found a derivation.
+     */
+    private class Exploration {
+
+        final CharSequence input;
+        final String string;
+        final List<Rule> rules;
+        final Budget budget;
+
+        /**
+         * Best derivation found so far.
+         */
+        volatile Branch best;
+        volatile boolean stopped;
+
+        Exploration(Set<Rule> rules, CharSequence input, Budget budget) {
+            this.input = input;
+            this.budget = budget;
+            this.string = parser == null ? input.toString() : null;
+            this.rules = new ArrayList<Rule>(rules);
+        }
+
+        RecexpMatcher explore() {
+            List<FutureTask<Object>> branches = new ArrayList<FutureTask<Object>>();
 
-            String candidate = sb.toString();
-            String restString = input.substring(candidate.length());
+            for (int rule = 0; rule < rules.size(); rule++) {
+                ExpressionTree.Node root = rules.get(rule).getExpression().getRoot();
+
+                if (parser == null && root.isOrNode()) {
+                    for (int alternative = 0; alternative < root.getSubNodes().size(); alternative++) {
+                        branches.add(fork(new Branch(this, rule, alternative)));
+                    }
+                } else {
+                    branches.add(fork(new Branch(this, rule, 0)));
+                }
+            }
+            try {
+                for (FutureTask<Object> branch : branches) {
+                    await(branch);
+                }
+            } finally {
+                // cancels the remaining branches on a failure
+                stopped = true;
+            }
 
-            if (ExpressionUtils.matches(nodeSentence, sb.toString(), flags)
-                && ExpressionUtils.matches(rightNodesSentence, restString, flags)) {
-                return sb.toString();
+            Branch best = this.best;
+            if (best == null) {
+                return RecexpMatcher.emptyMatcher(input);
             }
+            if (parser != null) {
+                return best.derivation.toMatcher(input);
+            }
+            return toMatcher(rules.get(best.rule), best.derivative, string);
+        }
 
-            if (index < input.length()) {
-                sb.append(input.charAt(index));
+        private FutureTask<Object> fork(Branch branch) {
+            FutureTask<Object> task = new FutureTask<Object>(branch, null);
+            explorer.execute(task);
+            return task;
+        }
+
+        synchronized void found(Branch branch) {
+            if (best == null || branch.isBefore(best)) {
+                best = branch;
             }
         }
-        return null;
     }
 
-    private static String getNodesSentence(List<ExpressionTree.Node> nodes) {
-        StringBuilder sb = new StringBuilder();
+    /**
+     * Branch of an exploration, a starting rule or an alternative of its root.
+     */
+    private class Branch implements Runnable {
 
-        for (ExpressionTree.Node node : nodes) {
-            sb.append(node.getSentence());
+        final Exploration exploration;
+        final int rule;
+        final int alternative;
+
+        int depth;
+        ExpressionTree.Node derivative;
+        Derivation derivation;
+
+        Branch(Exploration exploration, int rule, int alternative) {
+            this.exploration = exploration;
+            this.rule = rule;
+            this.alternative = alternative;
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled(0)) {
+                return;
+            }
+            Rule rule = exploration.rules.get(this.rule);
+
+            if (parser != null) {
+                derivation = parser.parse(parser.getGrammar().ruleSymbol(rule), exploration.input, exploration.budget);
+                if (derivation != null) {
+                    exploration.found(this);
+                }
+                return;
+            }
+            ExpressionTree.Node root = rule.getExpression().getRoot();
+            List<ExpressionTree.Node> candidates = Collections.singletonList(alternatives(root).get(alternative));
+
+            // a failure is thrown by the task of the branch
+            deriveTree(root, candidates, exploration.string, exploration.budget, this);
+        }
+
+        void found(int depth, ExpressionTree.Node derivative) {
+            this.depth = depth;
+            this.derivative = derivative;
+            exploration.found(this);
+        }
+
+        /**
+         * Returns true if a better branch has found a derivation than this branch can find from the depth on.
+         */
+        boolean isCancelled(int depth) {
+            if (exploration.stopped) {
+                return true;
+            }
+            Branch best = exploration.best;
+            if (best == null) {
+                return false;
+            }
+            if (best.rule != rule) {
+                return best.rule < rule;
+            }
+            return best.depth < depth || best.depth == depth && best.alternative < alternative;
+        }
+
+        /**
+         * Returns true if this found derivation is better than the other one.
+         */
+        boolean isBefore(Branch other) {
+            if (rule != other.rule) {
+                return rule < other.rule;
+            }
+            return depth < other.depth || depth == other.depth && alternative < other.alternative;
+        }
+    }
+
+    /**
+     * Returns true if the analysis excludes the input for all the rules - by its first character, its length, the prefixes, suffixes and
+     * factors of the derived strings or the characters they consist of.
+     */
+    private boolean rejectsAnalyzed(Set<Rule> rules, CharSequence input) {
+        ContextFreeGrammar contextFree = this.contextFree.get();
+        if (contextFree == null) {
+            return false;
+        }
+        GrammarAnalysis analysis = contextFree.getAnalysis();
+        for (Rule rule : rules) {
+            ContextFreeGrammar.Nonterminal symbol = contextFree.ruleSymbol(rule);
+            if (!analysis.excludes(symbol, input)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if no rule can derive a string with the counts of characters of the input.
+     */
+    private boolean rejectsCounted(Set<Rule> rules, CharSequence input) {
+        if (counts == null) {
+            return false;
+        }
+        int[] inputCounts = counts.count(input);
+        for (Rule rule : rules) {
+            ExpressionTree.Node root = rule.getExpression().getRoot();
+            if (counts.admits(root, root, inputCounts, null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the generated recognizer rejects the input for all the rules, the generated recognizer can't reject an input accepted by
+     * any engine.
+     */
+    private boolean rejectsGenerated(Set<Rule> rules, CharSequence input) {
+        if (generated == null) {
+            return false;
+        }
+        return recognizeGenerated(generated.recognizer(startSymbols(generated.getGrammar(), rules)), input) == Boolean.FALSE;
+    }
+
+    /**
+     * Recognizes the input by the generated recognizer.
+     *
+     * @return whether the recognizer accepts the input, or <code>null</code> when the input is nested too deep for the generated code, the
+     * engine decides such inputs
+     */
+    private static Boolean recognizeGenerated(GrammarParser.Recognizer recognizer, CharSequence input) {
+        try {
+            return recognizer.recognize(input);
+
+        } catch (StackOverflowError e) {
+            return null;
+        }
+    }
+
+    private static List<ContextFreeGrammar.Nonterminal> startSymbols(ContextFreeGrammar grammar, Set<Rule> rules) {
+        List<ContextFreeGrammar.Nonterminal> starts = new ArrayList<ContextFreeGrammar.Nonterminal>();
+        for (Rule rule : rules) {
+            starts.add(grammar.ruleSymbol(rule));
+        }
+        return starts;
+    }
+
+    /**
+     * Matching of many inputs with already validated rules, the scratch state is reused for all the inputs.
+     */
+    private class Batch {
+
+        final Set<Rule> rules;
+        final GrammarParser.Recognizer recognizer;
+        final GrammarParser.Recognizer generatedRecognizer;
+
+        Batch(Set<Rule> rules) {
+            this.rules = rules;
+            this.recognizer = parser != null ? parser.recognizer(startSymbols(parser.getGrammar(), rules)) : null;
+            this.generatedRecognizer = generated != null ? generated.recognizer(startSymbols(generated.getGrammar(), rules)) : null;
+        }
+
+        boolean matches(CharSequence input) {
+            if (regular.get().decides(rules)) {
+                return regular.get().matches(rules, input);
+            }
+            Set<Rule> candidates = regular.get().candidates(rules, input);
+            if (candidates.isEmpty() || rejectsAnalyzed(candidates, input) || rejectsCounted(candidates, input)) {
+                return false;
+            }
+            if (generatedRecognizer != null) {
+                Boolean accepted = recognizeGenerated(generatedRecognizer, input);
+                // the ordered choice of the packrat engine can reject an input accepted by the generated recognizer
+                if (accepted != null && (!accepted || engine != RecexpEngine.PACKRAT)) {
+                    return accepted;
+                }
+            }
+            if (recognizer != null) {
+                return recognizer.recognize(input);
+            }
+            return derive(candidates, input.toString(), null) != null;
+        }
+    }
+
+    /**
+     * Finding in an input with already validated rules.
+     * <p>
+     * Every rule has its finder, the found substring of a rule is reused as long as it starts after the index searched from.
+     */
+    private class Scan {
+
+        final CharSequence input;
+        final List<Rule> rules;
+        final GrammarParser.Finder[] finders;
+        final Derivation[] found;
+        final int[] searchedFrom;
+
+        Scan(Set<Rule> rules, CharSequence input) {
+            GrammarParser scanner = scanner();
+
+            this.input = input;
+            this.rules = new ArrayList<Rule>(rules);
+            this.finders = new GrammarParser.Finder[rules.size()];
+            this.found = new Derivation[rules.size()];
+            this.searchedFrom = new int[rules.size()];
+
+            for (int i = 0; i < finders.length; i++) {
+                finders[i] = scanner.finder(scanner.getGrammar().ruleSymbol(this.rules.get(i)), input);
+                searchedFrom[i] = -1;
+            }
+        }
+
+        RecexpMatcher find(int from) {
+            if (from < 0 || from > input.length()) {
+                throw new IndexOutOfBoundsException("Illegal start index: " + from);
+            }
+            Derivation first = null;
+            for (int i = 0; i < finders.length; i++) {
+                boolean reusable = searchedFrom[i] >= 0 && searchedFrom[i] <= from
+                                   && (found[i] == null || found[i].getStart() >= from);
+                if (!reusable) {
+                    found[i] = finders[i].find(from);
+                    searchedFrom[i] = from;
+                }
+                Derivation derivation = found[i];
+                if (derivation != null && (first == null || derivation.getStart() < first.getStart()
+                                           || derivation.getStart() == first.getStart() && derivation.getEnd() > first.getEnd())) {
+                    first = derivation;
+                }
+            }
+            return first != null ? first.toMatcher(input) : RecexpMatcher.emptyMatcher(input);
         }
-        return sb.toString();
     }
 
     /**
      * Builder for the {@link Recexp Recursive Expressions class}.
+     * <p>
+     * A builder is not safe for use by multiple concurrent threads.
      */
     public static class RecexpBuilder {
 
         private final Set<Rule> ruleSet;
-        private int flags;
+        private final GrammarOptions options;
 
         private RecexpBuilder() {
-            this.ruleSet = new HashSet<Rule>();
-            this.flags = 0;
+            this.ruleSet = new LinkedHashSet<Rule>();
+            this.options = new GrammarOptions();
         }
 
         /**
@@ -565,7 +1889,77 @@ public class Recexp {
          * @return the builder
          */
         public RecexpBuilder flags(int flags) {
-            this.flags = flags;
+            this.options.flags(flags);
+            return this;
+        }
+
+        /**
+         * Sets the parsing engine.
+         *
+         * @param engine the parsing engine
+         * @return the builder
+         */
+        public RecexpBuilder engine(RecexpEngine engine) {
+            if (engine == null) {
+                throw new IllegalArgumentException("Engine cannot be null.");
+            }
+            this.options.engine(engine);
+            return this;
+        }
+
+        /**
+         * Explores the starting rules and the alternatives of their roots in parallel on a shared pool of daemon threads.
+         *
+         * @return the builder
+         * @see #parallel(Executor)
+         */
+        public RecexpBuilder parallel() {
+            return parallel(Workers.EXECUTOR);
+        }
+
+        /**
+         * Explores the starting rules and the alternatives of their roots in parallel on the executor.
+         * <p>
+         * The derivation engine explores every alternative of a root in its own branch, the other engines parse every starting rule in its own
+         * branch. The result is the same as of the sequential exploration, branches that cannot lead to a better result are cancelled.
+         *
+         * @param executor the executor to run the branches
+         * @return the builder
+         */
+        public RecexpBuilder parallel(Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("Executor cannot be null.");
+            }
+            this.options.explorer(executor);
+            return this;
+        }
+
+        /**
+         * Generates a bytecode recognizer for the grammar.
+         * <p>
+         * The rules are compiled into a class with a method for every symbol of the grammar, which decides whether the grammar accepts an input
+         * (the groups of a match are still built by the engine). Grammars with left recursion, too large grammars and runtimes not allowing to
+         * define classes are recognized by the engine.
+         *
+         * @return the builder
+         */
+        public RecexpBuilder bytecode() {
+            this.options.bytecode(true);
+            return this;
+        }
+
+        /**
+         * Derives constraints on the counts of characters from the rules.
+         * <p>
+         * The counts of the characters of the literals in the strings derived from a rule are approximated by linear constraints, e.g. every
+         * expansion of the rule <code>0(@this)1|1(@this)0|@this@this|@eps</code> adds one zero and one one, so their counts are equal. Inputs whose
+         * counts of characters violate the constraints are rejected in a single scan and the derivation engine discards the candidates which
+         * cannot derive the counts of the input.
+         *
+         * @return the builder
+         */
+        public RecexpBuilder countConstraints() {
+            this.options.countConstraints(true);
             return this;
         }
 
@@ -578,22 +1972,38 @@ public class Recexp {
             if (this.ruleSet.isEmpty()) {
                 throw new IllegalStateException("Rule set cannot be empty.");
             }
-            Recexp grammar = new Recexp(this.ruleSet, this.flags);
+            Recexp grammar = new Recexp(this.ruleSet, this.options);
             this.ruleSet.clear();
             return grammar;
         }
     }
 
     /**
-     * Holder of possible expression combinations for a node.
+     * Derivative tree of the input from a rule.
+     */
+    private static class Derived {
+
+        final Rule rule;
+        final ExpressionTree.Node tree;
+
+        Derived(Rule rule, ExpressionTree.Node tree) {
+            this.rule = rule;
+            this.tree = tree;
+        }
+    }
+
+    /**
+     * Holder of possible expression combinations for a node at a position.
      */
     static class NodeCombinationsHolder {
 
         final ExpressionTree.Node node;
+        final int position;
         final List<ExpressionTree.Node> combinations;
 
-        public NodeCombinationsHolder(ExpressionTree.Node node, List<ExpressionTree.Node> combinations) {
+        public NodeCombinationsHolder(ExpressionTree.Node node, int position, List<ExpressionTree.Node> combinations) {
             this.node = node;
+            this.position = position;
             this.combinations = combinations;
         }
 
@@ -601,6 +2011,10 @@ public class Recexp {
             return node;
         }
 
+        public int getPosition() {
+            return position;
+        }
+
         public List<ExpressionTree.Node> getCombinations() {
             return combinations;
         }
@@ -616,25 +2030,27 @@ public class Recexp {
 
             NodeCombinationsHolder that = (NodeCombinationsHolder) o;
 
-            return node.equals(that.node);
+            return position == that.position && node.equals(that.node);
         }
 
         @Override
         public int hashCode() {
-            return node.hashCode();
+            return 31 * node.hashCode() + position;
         }
     }
 
     /**
-     * Expression candidate for a node.
+     * Expression candidate for a node at a position.
      */
     static class NodeCandidate {
 
         final ExpressionTree.Node node;
+        final int position;
         final ExpressionTree.Node candidate;
 
-        public NodeCandidate(ExpressionTree.Node node, ExpressionTree.Node candidate) {
+        public NodeCandidate(ExpressionTree.Node node, int position, ExpressionTree.Node candidate) {
             this.node = node;
+            this.position = position;
             this.candidate = candidate;
         }
 
@@ -642,6 +2058,10 @@ public class Recexp {
             return node;
         }
 
+        public int getPosition() {
+            return position;
+        }
+
         public ExpressionTree.Node getCandidate() {
             return candidate;
         }
@@ -657,7 +2077,7 @@ public class Recexp {
 
             NodeCandidate candidate = (NodeCandidate) o;
 
-            if (!node.equals(candidate.node)) {
+            if (position != candidate.position || !node.equals(candidate.node)) {
                 return false;
             }
             return this.candidate.equals(candidate.candidate);
@@ -666,6 +2086,7 @@ public class Recexp {
         @Override
         public int hashCode() {
             int result = node.hashCode();
+            result = 31 * result + position;
             result = 31 * result + candidate.hashCode();
             return result;
         }
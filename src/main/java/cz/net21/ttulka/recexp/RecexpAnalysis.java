@@ -0,0 +1,298 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.Set;
+
+/**
+ * Analysis of a grammar - the nullable rules, the characters the strings derived from the rules start with and are followed by, the bounds
+ * of the lengths of the strings, the literals the strings start with, end with and contain and the characters they contain and consist of.
+ * <p>
+ * The analysis is computed once by the first request and is conservative: a rule not nullable derives no empty string and no rule derives a
+ * string starting with or followed by a character out of its set or a string out of its bounds of lengths. Parts of expressions out of the regular subset of the syntax (lookarounds,
+ * anchors, backreferences, etc.) and undefined references are nullable and can start with any character.
+ * <p>
+ * Sets of characters are returned as sorted disjoint ranges as pairs of inclusive bounds, e.g. <code>{'0', '9', 'a', 'a'}</code> for the digits
+ * and the letter 'a'.
+ *
+ * @author ttulka
+ * @see Recexp#analysis()
+ */
+public class RecexpAnalysis {
+
+    private final GrammarModel grammar;
+    private final ContextFreeGrammar contextFree;
+
+    RecexpAnalysis(GrammarModel grammar, ContextFreeGrammar contextFree) {
+        this.grammar = grammar;
+        this.contextFree = contextFree;
+    }
+
+    /**
+     * Returns true if the grammar can accept an empty input.
+     *
+     * @return true if nullable, otherwise false
+     */
+    public boolean isNullable() {
+        return isNullable(grammar.getExplicitRules());
+    }
+
+    /**
+     * Returns the characters the inputs accepted by the grammar can start with.
+     *
+     * @return the sorted disjoint ranges as pairs of inclusive bounds
+     */
+    public char[] getFirst() {
+        return first(grammar.getExplicitRules()).toArray();
+    }
+
+    /**
+     * Returns the minimal length of the inputs accepted by the grammar.
+     *
+     * @return the length, or <code>-1</code> when the grammar accepts no input
+     */
+    public int getMinLength() {
+        return minLength(grammar.getExplicitRules());
+    }
+
+    /**
+     * Returns the maximal length of the inputs accepted by the grammar.
+     *
+     * @return the length, or <code>-1</code> when not limited
+     */
+    public int getMaxLength() {
+        return maxLength(grammar.getExplicitRules());
+    }
+
+    /**
+     * Returns the longest literal all the inputs accepted by the grammar start with, the literals are limited to 64 characters.
+     *
+     * @return the literal, empty when none
+     */
+    public String getPrefix() {
+        Literals literals = literals(grammar.getExplicitRules());
+        return literals != null ? literals.prefix : "";
+    }
+
+    /**
+     * Returns the longest literal all the inputs accepted by the grammar end with, the literals are limited to 64 characters.
+     *
+     * @return the literal, empty when none
+     */
+    public String getSuffix() {
+        Literals literals = literals(grammar.getExplicitRules());
+        return literals != null ? literals.suffix : "";
+    }
+
+    /**
+     * Returns a literal all the inputs accepted by the grammar contain, the literals are limited to 64 characters.
+     *
+     * @return the literal, empty when none
+     */
+    public String getRequired() {
+        Literals literals = literals(grammar.getExplicitRules());
+        return literals != null ? literals.factor : "";
+    }
+
+    /**
+     * Returns the characters all the inputs accepted by the grammar contain at least one of. The surrogate characters are always included.
+     *
+     * @return the sorted disjoint ranges as pairs of inclusive bounds, or <code>null</code> when an accepted input can contain no such characters
+     */
+    public char[] getRequiredChars() {
+        CharRanges required = requiredChars(grammar.getExplicitRules());
+        return required != null ? required.toArray() : null;
+    }
+
+    /**
+     * Returns the characters the inputs accepted by the grammar consist of. The surrogate characters are always included.
+     *
+     * @return the sorted disjoint ranges as pairs of inclusive bounds
+     */
+    public char[] getAlphabet() {
+        return alphabet(grammar.getExplicitRules()).toArray();
+    }
+
+    /**
+     * Returns true if a rule with the name can derive an empty string.
+     *
+     * @param ruleName the name of the rule
+     * @return true if nullable, otherwise false
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public boolean isNullable(String ruleName) {
+        return isNullable(grammar.getNamedRules(ruleName));
+    }
+
+    /**
+     * Returns the characters the strings derived from the rules with the name can start with.
+     *
+     * @param ruleName the name of the rule
+     * @return the sorted disjoint ranges as pairs of inclusive bounds
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public char[] getFirst(String ruleName) {
+        return first(grammar.getNamedRules(ruleName)).toArray();
+    }
+
+    /**
+     * Returns the minimal length of the strings derived from the rules with the name.
+     *
+     * @param ruleName the name of the rule
+     * @return the length, or <code>-1</code> when the rules derive no string
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public int getMinLength(String ruleName) {
+        return minLength(grammar.getNamedRules(ruleName));
+    }
+
+    /**
+     * Returns the maximal length of the strings derived from the rules with the name.
+     *
+     * @param ruleName the name of the rule
+     * @return the length, or <code>-1</code> when not limited
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public int getMaxLength(String ruleName) {
+        return maxLength(grammar.getNamedRules(ruleName));
+    }
+
+    /**
+     * Returns the longest literal all the strings derived from the rules with the name start with.
+     *
+     * @param ruleName the name of the rule
+     * @return the literal, empty when none
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public String getPrefix(String ruleName) {
+        Literals literals = literals(grammar.getNamedRules(ruleName));
+        return literals != null ? literals.prefix : "";
+    }
+
+    /**
+     * Returns the longest literal all the strings derived from the rules with the name end with.
+     *
+     * @param ruleName the name of the rule
+     * @return the literal, empty when none
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public String getSuffix(String ruleName) {
+        Literals literals = literals(grammar.getNamedRules(ruleName));
+        return literals != null ? literals.suffix : "";
+    }
+
+    /**
+     * Returns a literal all the strings derived from the rules with the name contain.
+     *
+     * @param ruleName the name of the rule
+     * @return the literal, empty when none
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public String getRequired(String ruleName) {
+        Literals literals = literals(grammar.getNamedRules(ruleName));
+        return literals != null ? literals.factor : "";
+    }
+
+    /**
+     * Returns the characters all the strings derived from the rules with the name contain at least one of.
+     *
+     * @param ruleName the name of the rule
+     * @return the sorted disjoint ranges as pairs of inclusive bounds, or <code>null</code> when a derived string can contain no such characters
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public char[] getRequiredChars(String ruleName) {
+        CharRanges required = requiredChars(grammar.getNamedRules(ruleName));
+        return required != null ? required.toArray() : null;
+    }
+
+    /**
+     * Returns the characters the strings derived from the rules with the name consist of.
+     *
+     * @param ruleName the name of the rule
+     * @return the sorted disjoint ranges as pairs of inclusive bounds
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public char[] getAlphabet(String ruleName) {
+        return alphabet(grammar.getNamedRules(ruleName)).toArray();
+    }
+
+    /**
+     * Returns the characters which can follow a string derived from the rules with the name in a string derived from any rule. The end of the
+     * input is not included.
+     *
+     * @param ruleName the name of the rule
+     * @return the sorted disjoint ranges as pairs of inclusive bounds
+     * @throws RecexpRuleNotFoundException when there is no such a rule
+     */
+    public char[] getFollow(String ruleName) {
+        GrammarAnalysis analysis = contextFree.getAnalysis();
+        CharRanges follow = CharRanges.EMPTY;
+        for (Rule rule : grammar.getNamedRules(ruleName)) {
+            follow = follow.union(analysis.follow(contextFree.ruleSymbol(rule)));
+        }
+        ContextFreeGrammar.Nonterminal reference = contextFree.referenceSymbol(ruleName);
+        if (reference != null) {
+            follow = follow.union(analysis.follow(reference));
+        }
+        return follow.toArray();
+    }
+
+    private boolean isNullable(Set<Rule> rules) {
+        for (Rule rule : rules) {
+            if (contextFree.getAnalysis().isNullable(contextFree.ruleSymbol(rule))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CharRanges first(Set<Rule> rules) {
+        CharRanges first = CharRanges.EMPTY;
+        for (Rule rule : rules) {
+            first = first.union(contextFree.getAnalysis().first(contextFree.ruleSymbol(rule)));
+        }
+        return first;
+    }
+
+    private int minLength(Set<Rule> rules) {
+        int length = LengthBounds.UNBOUNDED;
+        for (Rule rule : rules) {
+            length = Math.min(length, contextFree.getAnalysis().minLength(contextFree.ruleSymbol(rule)));
+        }
+        return length != LengthBounds.UNBOUNDED ? length : -1;
+    }
+
+    private int maxLength(Set<Rule> rules) {
+        int length = 0;
+        for (Rule rule : rules) {
+            length = Math.max(length, contextFree.getAnalysis().maxLength(contextFree.ruleSymbol(rule)));
+        }
+        return length != LengthBounds.UNBOUNDED ? length : -1;
+    }
+
+    private Literals literals(Set<Rule> rules) {
+        Literals literals = null;
+        for (Rule rule : rules) {
+            literals = Literals.join(literals, contextFree.getAnalysis().literals(contextFree.ruleSymbol(rule)));
+        }
+        return literals;
+    }
+
+    private CharRanges requiredChars(Set<Rule> rules) {
+        CharRanges required = CharRanges.EMPTY;
+        for (Rule rule : rules) {
+            CharRanges ruleRequired = contextFree.getAnalysis().requiredChars(contextFree.ruleSymbol(rule));
+            if (ruleRequired == null) {
+                return null;
+            }
+            required = required.union(ruleRequired);
+        }
+        return required;
+    }
+
+    private CharRanges alphabet(Set<Rule> rules) {
+        CharRanges alphabet = CharRanges.EMPTY;
+        for (Rule rule : rules) {
+            alphabet = alphabet.union(contextFree.getAnalysis().alphabet(contextFree.ruleSymbol(rule)));
+        }
+        return alphabet;
+    }
+}
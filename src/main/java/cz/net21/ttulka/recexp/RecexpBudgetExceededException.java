@@ -0,0 +1,56 @@
+package cz.net21.ttulka.recexp;
+
+/**
+ * Match budget exceeded exception.
+ *
+ * @author ttulka
+ * @see RecexpMatchOptions
+ */
+public class RecexpBudgetExceededException extends RecexpException {
+
+    /**
+     * Limit of a match.
+     */
+    public enum Limit {
+
+        /**
+         * The timeout elapsed.
+         */
+        TIMEOUT,
+
+        /**
+         * The maximum number of steps was exceeded.
+         */
+        STEPS,
+
+        /**
+         * The maximum depth was exceeded or the stack overflowed.
+         */
+        DEPTH,
+
+        /**
+         * The match was cancelled.
+         */
+        CANCELLED
+    }
+
+    private final Limit limit;
+
+    /**
+     * @param limit   the exceeded limit
+     * @param message the message
+     */
+    protected RecexpBudgetExceededException(Limit limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the exceeded limit.
+     *
+     * @return the limit
+     */
+    public Limit getLimit() {
+        return limit;
+    }
+}
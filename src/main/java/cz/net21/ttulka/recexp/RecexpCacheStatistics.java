@@ -0,0 +1,75 @@
+package cz.net21.ttulka.recexp;
+
+/**
+ * Statistics of the cache of compiled patterns shared by all the grammars.
+ * <p>
+ * A statistics object is an immutable snapshot taken at the time of its creation.
+ *
+ * @author ttulka
+ * @see Recexp#cacheStatistics()
+ */
+public class RecexpCacheStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final int size;
+    private final int capacity;
+
+    RecexpCacheStatistics(long hits, long misses, int size, int capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the count of lookups finding an already compiled pattern.
+     *
+     * @return the count of hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the count of lookups compiling a pattern.
+     *
+     * @return the count of misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the ratio of the hits to all the lookups.
+     *
+     * @return the hit ratio, or zero when there was no lookup
+     */
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    /**
+     * Returns the count of cached patterns.
+     *
+     * @return the count of cached patterns
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the maximal count of cached patterns.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "RecexpCacheStatistics{hits=" + hits + ", misses=" + misses + ", size=" + size + ", capacity=" + capacity + "}";
+    }
+}
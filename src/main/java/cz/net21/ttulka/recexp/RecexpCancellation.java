@@ -0,0 +1,30 @@
+package cz.net21.ttulka.recexp;
+
+/**
+ * Cancellation token of matches.
+ * <p>
+ * A token can be shared by many matches and cancelled from any thread, a cancelled match throws {@link RecexpBudgetExceededException}.
+ *
+ * @author ttulka
+ * @see RecexpMatchOptions.Builder#cancellation(RecexpCancellation)
+ */
+public class RecexpCancellation {
+
+    private volatile boolean cancelled;
+
+    /**
+     * Cancels the matches using this token.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns true if cancelled.
+     *
+     * @return true if cancelled, otherwise false
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,85 @@
+package cz.net21.ttulka.recexp;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Command-line compiler of grammars into binary snapshots, to be run in a build (e.g. by the Exec Maven Plugin).
+ * <p>
+ * Usage: <code>RecexpCompiler &lt;rules-file&gt; &lt;snapshot-file&gt; [engine] [flags] [bytecode] [countConstraints]</code>
+ * <p>
+ * The rules file is read in UTF-8, one rule per line: <code>NAME = expression</code> for a named rule, otherwise the line is an anonymous rule.
+ * Empty lines and lines starting with <code>#</code> are ignored. The snapshot is loaded by {@link Recexp#load(java.io.InputStream)}.
+ *
+ * @author ttulka
+ * @see Recexp#save(OutputStream)
+ */
+public class RecexpCompiler {
+
+    private static final Pattern NAMED_RULE = Pattern.compile("(\\w+) = (.*)");
+
+    private RecexpCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 6) {
+            System.err.println("Usage: RecexpCompiler <rules-file> <snapshot-file> [engine] [flags] [bytecode] [countConstraints]");
+            System.exit(1);
+        }
+        Recexp.RecexpBuilder builder = Recexp.builder();
+        if (args.length > 2) {
+            builder.engine(RecexpEngine.valueOf(args[2]));
+        }
+        if (args.length > 3) {
+            builder.flags(Integer.parseInt(args[3]));
+        }
+        if (args.length > 4 && Boolean.parseBoolean(args[4])) {
+            builder.bytecode();
+        }
+        if (args.length > 5 && Boolean.parseBoolean(args[5])) {
+            builder.countConstraints();
+        }
+
+        Reader reader = new InputStreamReader(new FileInputStream(args[0]), Charset.forName("UTF-8"));
+        try {
+            readRules(reader, builder);
+        } finally {
+            reader.close();
+        }
+
+        Recexp recexp = builder.build();
+        OutputStream output = new FileOutputStream(args[1]);
+        try {
+            recexp.save(output);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Adds the rules read from the reader to the builder.
+     */
+    static void readRules(Reader reader, Recexp.RecexpBuilder builder) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Matcher named = NAMED_RULE.matcher(line);
+            if (named.matches()) {
+                builder.rule(named.group(1), named.group(2));
+            } else {
+                builder.rule(line);
+            }
+        }
+    }
+}
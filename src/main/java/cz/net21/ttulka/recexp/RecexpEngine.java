@@ -0,0 +1,40 @@
+package cz.net21.ttulka.recexp;
+
+/**
+ * Parsing engine used for matching an input against a grammar.
+ *
+ * @author ttulka
+ * @see Recexp.RecexpBuilder#engine(RecexpEngine)
+ */
+public enum RecexpEngine {
+
+    /**
+     * Breadth-first derivation of sentences checked with regular expressions.
+     * <p>
+     * The default engine.
+     */
+    DERIVATION,
+
+    /**
+     * Earley chart parser running over the rule graph.
+     * <p>
+     * Handles left recursion and ambiguity, runs in <code>O(n^3)</code> time in the worst case and in linear time for most unambiguous grammars.
+     */
+    EARLEY,
+
+    /**
+     * Generalized LL parser with a graph-structured stack.
+     * <p>
+     * Handles left recursion and ambiguity in <code>O(n^3)</code> time in the worst case, all the derivations share one parse forest.
+     */
+    GLL,
+
+    /**
+     * Packrat (memoized recursive-descent) parser with ordered choice.
+     * <p>
+     * Follows the semantics of parsing expression grammars: the first matching alternative wins and repetitions are greedy, so some inputs
+     * accepted by the other engines can be rejected. Handles left recursion and runs in linear time for grammars without left recursion,
+     * the depth of the recursion grows with the nesting of the input.
+     */
+    PACKRAT
+}
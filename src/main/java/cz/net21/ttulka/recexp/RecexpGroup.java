@@ -2,6 +2,9 @@ package cz.net21.ttulka.recexp;
 
 /**
  * Derivation result tree node.
+ * <p>
+ * A group is backed by offsets into the input, its value is materialized lazily. Groups are safe for use by multiple concurrent threads as long as
+ * the input is not modified.
  *
  * @author ttulka
  * @see RecexpMatcher
@@ -9,17 +12,38 @@ package cz.net21.ttulka.recexp;
 public class RecexpGroup {
 
     private final String name;
-    private final String value;
+    private final CharSequence input;
+    private final int start;
+    private final int end;
     private final RecexpGroup[] groups;
 
+    /**
+     * Lazily materialized value, a concurrent materialization creates only an equal string.
+     */
+    private String value;
+
     /**
      * @param name   the name of the expression part
      * @param value  the parsed input value
      * @param groups the children groups
      */
     protected RecexpGroup(String name, String value, RecexpGroup[] groups) {
-        this.name = name;
+        this(name, value, 0, value != null ? value.length() : 0, groups);
         this.value = value;
+    }
+
+    /**
+     * @param name   the name of the expression part
+     * @param input  the whole input
+     * @param start  the start index of the parsed input value (inclusive)
+     * @param end    the end index of the parsed input value (exclusive)
+     * @param groups the children groups
+     */
+    protected RecexpGroup(String name, CharSequence input, int start, int end, RecexpGroup[] groups) {
+        this.name = name;
+        this.input = input;
+        this.start = start;
+        this.end = end;
         this.groups = groups;
     }
 
@@ -29,9 +53,30 @@ public class RecexpGroup {
      * @return the input subsequence captured by the given group
      */
     public String value() {
+        if (value == null && input != null) {
+            value = input.subSequence(start, end).toString();
+        }
         return value;
     }
 
+    /**
+     * Returns the start index of the input subsequence captured by the given group.
+     *
+     * @return the index of the first character captured by the group
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * Returns the offset after the last character of the input subsequence captured by the given group.
+     *
+     * @return the offset after the last character captured by the group
+     */
+    public int end() {
+        return end;
+    }
+
     /**
      * Returns the name of capturing group.
      *
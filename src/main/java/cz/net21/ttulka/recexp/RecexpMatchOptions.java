@@ -0,0 +1,144 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits of a match.
+ * <p>
+ * A match exceeding a limit throws {@link RecexpBudgetExceededException}. Steps are the candidates expanded by the derivation engine, the items
+ * processed by the Earley engine, the descriptors processed by the GLL engine and the nonterminals applied by the packrat engine. Depth is the
+ * level of the derivation engine and the recursion of the packrat engine, the other engines parse without recursion. The options are immutable.
+ *
+ * @author ttulka
+ * @see Recexp#matcher(CharSequence, RecexpMatchOptions)
+ */
+public final class RecexpMatchOptions {
+
+    private final long timeoutNanos;
+    private final long maxSteps;
+    private final int maxDepth;
+    private final RecexpCancellation cancellation;
+
+    private RecexpMatchOptions(long timeoutNanos, long maxSteps, int maxDepth, RecexpCancellation cancellation) {
+        this.timeoutNanos = timeoutNanos;
+        this.maxSteps = maxSteps;
+        this.maxDepth = maxDepth;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Creates an options builder, no limits are set by default.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the timeout in nanoseconds, or <code>-1</code> when not limited
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * @return the maximum number of steps, or <code>-1</code> when not limited
+     */
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * @return the maximum depth, or <code>-1</code> when not limited
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return the cancellation token, or <code>null</code>
+     */
+    public RecexpCancellation getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Builder for the {@link RecexpMatchOptions match options}.
+     * <p>
+     * A builder is not safe for use by multiple concurrent threads.
+     */
+    public static class Builder {
+
+        private long timeoutNanos = -1;
+        private long maxSteps = -1;
+        private int maxDepth = -1;
+        private RecexpCancellation cancellation;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the timeout, the deadline of a match is the time the match starts plus the timeout.
+         *
+         * @param timeout the timeout
+         * @param unit    the unit of the timeout
+         * @return the builder
+         */
+        public Builder timeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("Timeout cannot be negative.");
+            }
+            this.timeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of steps.
+         *
+         * @param maxSteps the maximum number of steps
+         * @return the builder
+         */
+        public Builder maxSteps(long maxSteps) {
+            if (maxSteps < 0) {
+                throw new IllegalArgumentException("Maximum steps cannot be negative.");
+            }
+            this.maxSteps = maxSteps;
+            return this;
+        }
+
+        /**
+         * Sets the maximum depth.
+         *
+         * @param maxDepth the maximum depth
+         * @return the builder
+         */
+        public Builder maxDepth(int maxDepth) {
+            if (maxDepth < 0) {
+                throw new IllegalArgumentException("Maximum depth cannot be negative.");
+            }
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Sets the cancellation token.
+         *
+         * @param cancellation the cancellation token
+         * @return the builder
+         */
+        public Builder cancellation(RecexpCancellation cancellation) {
+            this.cancellation = cancellation;
+            return this;
+        }
+
+        /**
+         * Builds the options.
+         *
+         * @return the options
+         */
+        public RecexpMatchOptions build() {
+            return new RecexpMatchOptions(timeoutNanos, maxSteps, maxDepth, cancellation);
+        }
+    }
+}
@@ -17,8 +17,32 @@ abstract public class RecexpMatcher extends RecexpGroup {
         super(name, value, groups);
     }
 
-    static RecexpMatcher matcher(String name, String input, RecexpGroup[] groups) {
-        return new RecexpMatcher(name, input, groups) {
+    /**
+     * @param name   the name of the expression
+     * @param input  the input
+     * @param groups the children groups
+     */
+    protected RecexpMatcher(String name, CharSequence input, RecexpGroup[] groups) {
+        super(name, input, 0, input.length(), groups);
+    }
+
+    /**
+     * @param name   the name of the expression
+     * @param input  the whole input
+     * @param start  the start index of the matched region (inclusive)
+     * @param end    the end index of the matched region (exclusive)
+     * @param groups the children groups
+     */
+    protected RecexpMatcher(String name, CharSequence input, int start, int end, RecexpGroup[] groups) {
+        super(name, input, start, end, groups);
+    }
+
+    static RecexpMatcher matcher(String name, CharSequence input, RecexpGroup[] groups) {
+        return matcher(name, input, 0, input.length(), groups);
+    }
+
+    static RecexpMatcher matcher(String name, CharSequence input, int start, int end, RecexpGroup[] groups) {
+        return new RecexpMatcher(name, input, start, end, groups) {
             @Override
             public boolean matches() {
                 return true;
@@ -26,7 +50,7 @@ abstract public class RecexpMatcher extends RecexpGroup {
         };
     }
 
-    static RecexpMatcher emptyMatcher(String input) {
+    static RecexpMatcher emptyMatcher(CharSequence input) {
         return new RecexpMatcher(null, input, null) {
             @Override
             public boolean matches() {
@@ -37,6 +61,8 @@ abstract public class RecexpMatcher extends RecexpGroup {
 
     /**
      * Attempts to match the entire input against the grammar.
+     * <p>
+     * For a matcher returned by {@link Recexp#find(CharSequence) find} the input is the found region.
      *
      * @return true if, and only if, the entire input sequence matches this matcher's grammar
      */
@@ -0,0 +1,17 @@
+package cz.net21.ttulka.recexp;
+
+/**
+ * Listener of an early rejection of a streamed input.
+ *
+ * @author ttulka
+ * @see Recexp#matches(java.io.Reader, RecexpRejectionListener)
+ */
+public interface RecexpRejectionListener {
+
+    /**
+     * Called when no derivation can succeed before the whole input was read, the rest of the input is not read.
+     *
+     * @param position the position of the first character that cannot be derived
+     */
+    void rejected(int position);
+}
@@ -0,0 +1,278 @@
+package cz.net21.ttulka.recexp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binary snapshot of the parsed rule graph of a grammar.
+ * <p>
+ * The snapshot contains the settings, the table of the rules and the graph of their expression nodes with the precomputed nullability, equal
+ * subtrees are written once and loaded as separate nodes. A loaded grammar is built from the nodes without parsing the expressions again.
+ * The analysis, the automata and the length bounds are not saved, they are computed from the nodes by the first match as for a built grammar. The parser of the engine, the
+ * bytecode recognizer and the count constraints, when selected, are compiled from the nodes when loading.
+ * <p>
+ * Format (big-endian): the magic number, the version, the flags, the engine, the bytecode option, the count constraints option (since the
+ * version 2), the nodes in post-order (every node after its sub-nodes) and the rules as their names and root nodes.
+ *
+ * @author ttulka
+ * @see Recexp#save(OutputStream)
+ * @see Recexp#load(InputStream)
+ */
+class RecexpSnapshot {
+
+    static final int MAGIC = 0x52454358;
+    static final int VERSION = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int NULLABLE_UNKNOWN = 0;
+    private static final int NULLABLE_FALSE = 1;
+    private static final int NULLABLE_TRUE = 2;
+
+    private RecexpSnapshot() {
+    }
+
+    /**
+     * Writes the snapshot of the grammar.
+     *
+     * @param output           the output stream
+     * @param rules            the explicit rules
+     * @param flags            the match flags
+     * @param engine           the parsing engine
+     * @param bytecode         whether to generate a bytecode recognizer
+     * @param countConstraints whether to derive the constraints on the counts of characters
+     * @throws IOException when the writing fails
+     */
+    public static void write(OutputStream output, Set<Rule> rules, int flags, RecexpEngine engine, boolean bytecode, boolean countConstraints)
+            throws IOException {
+        Map<ExpressionTree.Node, Integer> indexes = new HashMap<ExpressionTree.Node, Integer>();
+        List<ExpressionTree.Node> nodes = new ArrayList<ExpressionTree.Node>();
+        for (Rule rule : rules) {
+            index(rule.getExpression().getRoot(), indexes, nodes);
+        }
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(flags);
+        writeString(out, engine.name());
+        out.writeBoolean(bytecode);
+        out.writeBoolean(countConstraints);
+
+        out.writeInt(nodes.size());
+        for (ExpressionTree.Node node : nodes) {
+            Expression expression = node.getExpression();
+            writeString(out, expression.getText());
+            out.writeBoolean(expression.getQuantifier() != null);
+            if (expression.getQuantifier() != null) {
+                writeString(out, expression.getQuantifier());
+            }
+            out.writeBoolean(expression.isReference());
+            out.writeByte(node.getSubNodesConnectionType().ordinal());
+            out.writeByte(nullable(node));
+            out.writeInt(node.getSubNodes().size());
+            for (ExpressionTree.Node sub : node.getSubNodes()) {
+                out.writeInt(indexes.get(sub));
+            }
+        }
+
+        out.writeInt(rules.size());
+        for (Rule rule : rules) {
+            out.writeBoolean(rule instanceof NamedRule);
+            writeString(out, rule.getName());
+            out.writeInt(indexes.get(rule.getExpression().getRoot()));
+        }
+        out.flush();
+    }
+
+    private static void index(ExpressionTree.Node node, Map<ExpressionTree.Node, Integer> indexes, List<ExpressionTree.Node> nodes) {
+        if (indexes.containsKey(node)) {
+            return;
+        }
+        for (ExpressionTree.Node sub : node.getSubNodes()) {
+            index(sub, indexes, nodes);
+        }
+        indexes.put(node, nodes.size());
+        nodes.add(node);
+    }
+
+    private static int nullable(ExpressionTree.Node node) {
+        try {
+            return node.isNullable() ? NULLABLE_TRUE : NULLABLE_FALSE;
+
+        } catch (RuntimeException e) {
+            // computed when needed
+            return NULLABLE_UNKNOWN;
+        }
+    }
+
+    /**
+     * Reads a grammar from the snapshot.
+     *
+     * @param input the input stream
+     * @return the grammar
+     * @throws IOException when the reading fails or the input is not a valid snapshot
+     */
+    public static Recexp read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a Recexp snapshot.");
+        }
+        int version = in.readUnsignedShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported version of the snapshot: " + version);
+        }
+        int flags = in.readInt();
+        RecexpEngine engine;
+        try {
+            engine = RecexpEngine.valueOf(readString(in));
+
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown engine in the snapshot.");
+        }
+        boolean bytecode = in.readBoolean();
+        boolean countConstraints = version >= 2 && in.readBoolean();
+
+        ExpressionTree.Node.SubNodesConnectionType[] types = ExpressionTree.Node.SubNodesConnectionType.values();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid count of nodes in the snapshot: " + count);
+        }
+        ExpressionTree.Node[] nodes = new ExpressionTree.Node[count];
+        int[][] subIndexes = new int[count][];
+        int[] nullables = new int[count];
+        boolean[] used = new boolean[count];
+        for (int i = 0; i < nodes.length; i++) {
+            String text = readString(in);
+            String quantifier = in.readBoolean() ? readString(in) : null;
+            boolean reference = in.readBoolean();
+            int type = in.readUnsignedByte();
+            int nullable = in.readUnsignedByte();
+            nullables[i] = nullable;
+            int subCount = in.readInt();
+            if (subCount < 0) {
+                throw new IOException("Invalid count of sub-nodes in the snapshot: " + subCount);
+            }
+            subIndexes[i] = new int[subCount];
+            List<ExpressionTree.Node> subNodes = new ArrayList<ExpressionTree.Node>();
+            for (int j = 0; j < subCount; j++) {
+                subIndexes[i][j] = subIndex(in.readInt(), i);
+                subNodes.add(use(subIndexes[i][j], nodes, subIndexes, nullables, used));
+            }
+            if (type >= types.length) {
+                throw new IOException("Invalid node in the snapshot.");
+            }
+            ExpressionTree.Node node = new ExpressionTree.Node(new Expression(text, quantifier, reference), types[type], subNodes);
+            if (node.equals(ExpressionTree.Node.EPSILON)) {
+                node = ExpressionTree.Node.EPSILON;
+            } else if (nullable != NULLABLE_UNKNOWN) {
+                node.cacheNullable(nullable == NULLABLE_TRUE);
+            }
+            nodes[i] = node;
+        }
+
+        Set<Rule> rules = new LinkedHashSet<Rule>();
+        for (int i = in.readInt(); i > 0; i--) {
+            boolean named = in.readBoolean();
+            String name = readString(in);
+            ExpressionTree tree = new ExpressionTree(use(subIndex(in.readInt(), nodes.length), nodes, subIndexes, nullables, used));
+            try {
+                rules.add(named ? new NamedRule(name, tree) : new Rule(name, tree));
+
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        return new Recexp(rules, new GrammarOptions().flags(flags).engine(engine).bytecode(bytecode).countConstraints(countConstraints));
+    }
+
+    /**
+     * Returns the node at the index, a copy when the node is already used.
+     * <p>
+     * Equal subtrees are written once, but every occurrence is loaded as a separate node as parsed, because the derivation engine substitutes
+     * the references of the same node equally.
+     */
+    private static ExpressionTree.Node use(int index, ExpressionTree.Node[] nodes, int[][] subIndexes, int[] nullables, boolean[] used) {
+        if (!used[index]) {
+            used[index] = true;
+            return nodes[index];
+        }
+        return copy(index, nodes, subIndexes, nullables);
+    }
+
+    private static ExpressionTree.Node copy(int index, ExpressionTree.Node[] nodes, int[][] subIndexes, int[] nullables) {
+        ExpressionTree.Node node = nodes[index];
+        if (node == ExpressionTree.Node.EPSILON) {
+            return node;
+        }
+        List<ExpressionTree.Node> subNodes = new ArrayList<ExpressionTree.Node>(subIndexes[index].length);
+        for (int subIndex : subIndexes[index]) {
+            subNodes.add(copy(subIndex, nodes, subIndexes, nullables));
+        }
+        ExpressionTree.Node copy = new ExpressionTree.Node(node.getExpression(), node.getSubNodesConnectionType(), subNodes);
+        if (nullables[index] != NULLABLE_UNKNOWN) {
+            copy.cacheNullable(nullables[index] == NULLABLE_TRUE);
+        }
+        return copy;
+    }
+
+    /**
+     * Reads a grammar from the snapshot in the buffer.
+     *
+     * @param buffer the buffer, read from its position to its limit
+     * @return the grammar
+     * @throws IOException when the buffer doesn't contain a valid snapshot
+     */
+    public static Recexp read(final ByteBuffer buffer) throws IOException {
+        return read(new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (!buffer.hasRemaining()) {
+                    return -1;
+                }
+                length = Math.min(length, buffer.remaining());
+                buffer.get(bytes, offset, length);
+                return length;
+            }
+        });
+    }
+
+    private static int subIndex(int index, int limit) throws IOException {
+        if (index < 0 || index >= limit) {
+            throw new IOException("Invalid node reference in the snapshot: " + index);
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string in the snapshot.");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,762 @@
+package cz.net21.ttulka.recexp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Generator of bytecode recognizers for compiled grammars.
+ * <p>
+ * Every nonterminal gets its own method of a generated subclass of {@link GeneratedRecognizer}: the productions are unrolled into direct calls of
+ * the methods of their symbols and short literal terminals into comparisons of characters. The other terminals and the repetitions are
+ * recognized by the helpers of the base class. The class file is written directly (without the stack map frames, which the verifier of the
+ * version doesn't need) and defined as a hidden class when the runtime supports it, otherwise in the class loader of the base class.
+ * <p>
+ * The generated recognizers descend recursively, so a grammar with left recursion (a cycle of nonterminals derived at the same position) is not
+ * generated and must be recognized by a parsing engine; so is a grammar too large for the limits of a class file or a runtime not allowing to
+ * define classes.
+ *
+ * @author ttulka
+ * @see GeneratedRecognizer
+ */
+class RecognizerGenerator {
+
+    /**
+     * Longest literal terminal compared inline, the longer ones are matched by their matchers.
+     */
+    static final int MAX_INLINED_LITERAL = 32;
+
+    private static final String BASE = "cz/net21/ttulka/recexp/GeneratedRecognizer";
+    private static final String ENDS = "[I";
+
+    private static final int UNSUPPORTED_LITERAL_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.LITERAL | Pattern.CANON_EQ;
+    private static final String METACHARACTERS = "\\.[]{}()*+?^$|";
+
+    private static final AtomicInteger GENERATED = new AtomicInteger();
+
+    // locals of a nonterminal method
+    private static final int POSITION = 1;
+    private static final int ACCEPTED = 2;
+    private static final int CURRENT = 3;
+    private static final int NEXT = 4;
+    private static final int INDEX = 5;
+    private static final int START = 6;
+
+    private final ContextFreeGrammar grammar;
+    private final String name;
+    private final ConstantPool pool = new ConstantPool();
+
+    private RecognizerGenerator(ContextFreeGrammar grammar, String name) {
+        this.grammar = grammar;
+        this.name = name;
+    }
+
+    /**
+     * Generates a recognizer for the grammar.
+     *
+     * @param grammar the grammar
+     * @return the prototype of the recognizers, or <code>null</code> when the grammar cannot be generated
+     */
+    public static GeneratedRecognizer generate(ContextFreeGrammar grammar) {
+        if (isLeftRecursive(grammar)) {
+            return null;
+        }
+        String name = BASE + "$Generated" + GENERATED.incrementAndGet();
+        byte[] bytes;
+        try {
+            bytes = new RecognizerGenerator(grammar, name).classFile();
+
+        } catch (TooLarge e) {
+            return null;
+        }
+        Class<?> generated = define(name.replace('/', '.'), bytes);
+        if (generated == null) {
+            return null;
+        }
+        try {
+            GeneratedRecognizer prototype = (GeneratedRecognizer) generated.newInstance();
+            prototype.init(grammar);
+            return prototype;
+
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if a nonterminal can be derived from itself at the same position.
+     */
+    static boolean isLeftRecursive(ContextFreeGrammar grammar) {
+        boolean[] nullable = nullable(grammar);
+        List<Set<Integer>> leftCalls = new ArrayList<Set<Integer>>();
+
+        for (ContextFreeGrammar.Nonterminal symbol : grammar.getNonterminals()) {
+            Set<Integer> calls = new LinkedHashSet<Integer>();
+            if (symbol.getKind() == ContextFreeGrammar.Nonterminal.Kind.REPETITION) {
+                calls.add(symbol.getBase().getId());
+            } else {
+                for (ContextFreeGrammar.Production production : symbol.getProductions()) {
+                    for (ContextFreeGrammar.Symbol s : production.getBody()) {
+                        if (s instanceof ContextFreeGrammar.Nonterminal) {
+                            calls.add(s.getId());
+                        }
+                        if (!isNullable(s, nullable)) {
+                            break;
+                        }
+                    }
+                }
+            }
+            leftCalls.add(calls);
+        }
+        // depth-first search for a cycle: 0 not visited, 1 on the path, 2 done
+        int[] states = new int[leftCalls.size()];
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == 0 && hasCycle(i, leftCalls, states)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasCycle(int symbol, List<Set<Integer>> leftCalls, int[] states) {
+        states[symbol] = 1;
+        for (int called : leftCalls.get(symbol)) {
+            if (states[called] == 1 || (states[called] == 0 && hasCycle(called, leftCalls, states))) {
+                return true;
+            }
+        }
+        states[symbol] = 2;
+        return false;
+    }
+
+    private static boolean[] nullable(ContextFreeGrammar grammar) {
+        boolean[] nullable = new boolean[grammar.getNonterminals().size()];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (ContextFreeGrammar.Nonterminal symbol : grammar.getNonterminals()) {
+                if (!nullable[symbol.getId()]) {
+                    for (ContextFreeGrammar.Production production : symbol.getProductions()) {
+                        boolean all = true;
+                        for (ContextFreeGrammar.Symbol s : production.getBody()) {
+                            all &= isNullable(s, nullable);
+                        }
+                        if (all) {
+                            nullable[symbol.getId()] = true;
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return nullable;
+    }
+
+    private static boolean isNullable(ContextFreeGrammar.Symbol symbol, boolean[] nullable) {
+        if (symbol instanceof ContextFreeGrammar.Terminal) {
+            return ((ContextFreeGrammar.Terminal) symbol).getPattern().matcher("").matches();
+        }
+        return nullable[symbol.getId()];
+    }
+
+    /**
+     * Returns the literal matched by the terminal, <code>null</code> when the terminal is not a short literal.
+     */
+    static String literal(String regex, int flags) {
+        if ((flags & UNSUPPORTED_LITERAL_FLAGS) != 0) {
+            return null;
+        }
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            char ch = regex.charAt(i);
+            if (ch == '\\') {
+                if (++i == regex.length() || Character.isLetterOrDigit(regex.charAt(i))) {
+                    return null;
+                }
+                ch = regex.charAt(i);
+
+            } else if (METACHARACTERS.indexOf(ch) >= 0) {
+                return null;
+            }
+            if (Character.isHighSurrogate(ch) || Character.isLowSurrogate(ch)) {
+                return null;
+            }
+            literal.append(ch);
+        }
+        return literal.length() > 0 && literal.length() <= MAX_INLINED_LITERAL ? literal.toString() : null;
+    }
+
+    private byte[] classFile() {
+        List<byte[]> methods = new ArrayList<byte[]>();
+        methods.add(method(0x0001, "<init>", "()V", constructor(), 1, 1));
+        methods.add(method(0, "create", "()L" + BASE + ";", create(), 2, 1));
+        methods.add(method(0, "call", "(II)" + ENDS, call(), 3, 3));
+        for (ContextFreeGrammar.Nonterminal symbol : grammar.getNonterminals()) {
+            methods.add(method(0x0010, methodName(symbol), "(I)" + ENDS, nonterminal(symbol), 6, 7));
+        }
+        int thisClass = pool.classRef(name);
+        int superClass = pool.classRef(BASE);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.writeTo(out);
+            // final, super
+            out.writeShort(0x0030);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] method(int access, String methodName, String descriptor, Code code, int maxStack, int maxLocals) {
+        byte[] instructions = code.resolve();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(pool.utf8(methodName));
+            out.writeShort(pool.utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(pool.utf8("Code"));
+            out.writeInt(12 + instructions.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(instructions.length);
+            out.write(instructions);
+            out.writeShort(0);
+            out.writeShort(0);
+
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String methodName(ContextFreeGrammar.Nonterminal symbol) {
+        return "n" + symbol.getId();
+    }
+
+    private Code constructor() {
+        Code code = new Code();
+        code.op(Code.ALOAD_0);
+        code.op(Code.INVOKESPECIAL);
+        code.u2(pool.methodRef(BASE, "<init>", "()V"));
+        code.op(Code.RETURN);
+        return code;
+    }
+
+    private Code create() {
+        Code code = new Code();
+        code.op(Code.NEW);
+        code.u2(pool.classRef(name));
+        code.op(Code.DUP);
+        code.op(Code.INVOKESPECIAL);
+        code.u2(pool.methodRef(name, "<init>", "()V"));
+        code.op(Code.ARETURN);
+        return code;
+    }
+
+    /**
+     * Dispatch of the nonterminals by their ids.
+     */
+    private Code call() {
+        Code code = new Code();
+        int unknown = code.label();
+        int[] cases = new int[grammar.getNonterminals().size()];
+        for (int i = 0; i < cases.length; i++) {
+            cases[i] = code.label();
+        }
+        code.load(Code.ILOAD, 1);
+        code.tableSwitch(unknown, cases);
+        for (ContextFreeGrammar.Nonterminal symbol : grammar.getNonterminals()) {
+            code.mark(cases[symbol.getId()]);
+            code.op(Code.ALOAD_0);
+            code.load(Code.ILOAD, 2);
+            invokeNonterminal(code, symbol);
+            code.op(Code.ARETURN);
+        }
+        code.mark(unknown);
+        code.op(Code.ALOAD_0);
+        code.load(Code.ILOAD, 1);
+        code.load(Code.ILOAD, 2);
+        invokeHelper(code, "unknown", "(II)" + ENDS);
+        code.op(Code.ARETURN);
+        return code;
+    }
+
+    private Code nonterminal(ContextFreeGrammar.Nonterminal symbol) {
+        Code code = new Code();
+
+        if (symbol.getKind() == ContextFreeGrammar.Nonterminal.Kind.REPETITION) {
+            code.op(Code.ALOAD_0);
+            code.push(symbol.getId(), pool);
+            code.push(symbol.getBase().getId(), pool);
+            code.load(Code.ILOAD, POSITION);
+            code.push(symbol.getMin(), pool);
+            code.push(symbol.getMax(), pool);
+            invokeHelper(code, "repetition", "(IIIII)" + ENDS);
+            code.op(Code.ARETURN);
+            return code;
+        }
+
+        // memoized ends
+        int compute = code.label();
+        code.op(Code.ALOAD_0);
+        code.push(symbol.getId(), pool);
+        code.load(Code.ILOAD, POSITION);
+        invokeHelper(code, "memo", "(II)" + ENDS);
+        code.load(Code.ASTORE, ACCEPTED);
+        code.load(Code.ALOAD, ACCEPTED);
+        code.jump(Code.IFNULL, compute);
+        code.load(Code.ALOAD, ACCEPTED);
+        code.op(Code.ARETURN);
+        code.mark(compute);
+
+        empty(code);
+        code.load(Code.ASTORE, ACCEPTED);
+
+        for (ContextFreeGrammar.Production production : symbol.getProductions()) {
+            int rejected = code.label();
+            code.op(Code.ALOAD_0);
+            code.load(Code.ILOAD, POSITION);
+            invokeHelper(code, "single", "(I)" + ENDS);
+            code.load(Code.ASTORE, CURRENT);
+
+            for (ContextFreeGrammar.Symbol s : production.getBody()) {
+                // the ends of the symbol from all the current positions
+                int loop = code.label();
+                int done = code.label();
+                empty(code);
+                code.load(Code.ASTORE, NEXT);
+                code.op(Code.ICONST_0);
+                code.load(Code.ISTORE, INDEX);
+                code.mark(loop);
+                code.load(Code.ILOAD, INDEX);
+                code.load(Code.ALOAD, CURRENT);
+                code.op(Code.ARRAYLENGTH);
+                code.jump(Code.IF_ICMPGE, done);
+                code.load(Code.ALOAD, CURRENT);
+                code.load(Code.ILOAD, INDEX);
+                code.op(Code.IALOAD);
+                code.load(Code.ISTORE, START);
+
+                symbol(code, s);
+
+                code.op(Code.IINC);
+                code.u1(INDEX);
+                code.u1(1);
+                code.jump(Code.GOTO, loop);
+                code.mark(done);
+                code.load(Code.ALOAD, NEXT);
+                code.load(Code.ASTORE, CURRENT);
+                code.load(Code.ALOAD, CURRENT);
+                code.op(Code.ARRAYLENGTH);
+                code.jump(Code.IFEQ, rejected);
+            }
+            code.op(Code.ALOAD_0);
+            code.load(Code.ALOAD, ACCEPTED);
+            code.load(Code.ALOAD, CURRENT);
+            invokeHelper(code, "union", "(" + ENDS + ENDS + ")" + ENDS);
+            code.load(Code.ASTORE, ACCEPTED);
+            code.mark(rejected);
+        }
+        code.op(Code.ALOAD_0);
+        code.push(symbol.getId(), pool);
+        code.load(Code.ILOAD, POSITION);
+        code.load(Code.ALOAD, ACCEPTED);
+        invokeHelper(code, "store", "(II" + ENDS + ")" + ENDS);
+        code.op(Code.ARETURN);
+        return code;
+    }
+
+    /**
+     * Adds the ends of the symbol from the start position to the next ends.
+     */
+    private void symbol(Code code, ContextFreeGrammar.Symbol symbol) {
+        if (symbol instanceof ContextFreeGrammar.Nonterminal) {
+            code.op(Code.ALOAD_0);
+            code.load(Code.ALOAD, NEXT);
+            code.op(Code.ALOAD_0);
+            code.load(Code.ILOAD, START);
+            invokeNonterminal(code, (ContextFreeGrammar.Nonterminal) symbol);
+            invokeHelper(code, "union", "(" + ENDS + ENDS + ")" + ENDS);
+            code.load(Code.ASTORE, NEXT);
+            return;
+        }
+        String literal = literal(symbol.getName(), grammar.getFlags());
+        if (literal == null) {
+            code.op(Code.ALOAD_0);
+            code.load(Code.ALOAD, NEXT);
+            code.op(Code.ALOAD_0);
+            code.push(symbol.getId(), pool);
+            code.load(Code.ILOAD, START);
+            invokeHelper(code, "terminal", "(II)" + ENDS);
+            invokeHelper(code, "union", "(" + ENDS + ENDS + ")" + ENDS);
+            code.load(Code.ASTORE, NEXT);
+            return;
+        }
+        // literal compared char by char
+        int mismatch = code.label();
+        code.load(Code.ILOAD, START);
+        code.push(literal.length(), pool);
+        code.op(Code.IADD);
+        code.op(Code.ALOAD_0);
+        code.op(Code.GETFIELD);
+        code.u2(pool.fieldRef(BASE, "length", "I"));
+        code.jump(Code.IF_ICMPGT, mismatch);
+        for (int i = 0; i < literal.length(); i++) {
+            code.op(Code.ALOAD_0);
+            code.op(Code.GETFIELD);
+            code.u2(pool.fieldRef(BASE, "input", "[C"));
+            code.load(Code.ILOAD, START);
+            if (i > 0) {
+                code.push(i, pool);
+                code.op(Code.IADD);
+            }
+            code.op(Code.CALOAD);
+            code.push(literal.charAt(i), pool);
+            code.jump(Code.IF_ICMPNE, mismatch);
+        }
+        code.op(Code.ALOAD_0);
+        code.load(Code.ALOAD, NEXT);
+        code.load(Code.ILOAD, START);
+        code.push(literal.length(), pool);
+        code.op(Code.IADD);
+        invokeHelper(code, "add", "(" + ENDS + "I)" + ENDS);
+        code.load(Code.ASTORE, NEXT);
+        code.mark(mismatch);
+    }
+
+    private void empty(Code code) {
+        code.op(Code.GETSTATIC);
+        code.u2(pool.fieldRef(BASE, "EMPTY", ENDS));
+    }
+
+    private void invokeNonterminal(Code code, ContextFreeGrammar.Nonterminal symbol) {
+        code.op(Code.INVOKEVIRTUAL);
+        code.u2(pool.methodRef(name, methodName(symbol), "(I)" + ENDS));
+    }
+
+    private void invokeHelper(Code code, String helper, String descriptor) {
+        code.op(Code.INVOKEVIRTUAL);
+        code.u2(pool.methodRef(BASE, helper, descriptor));
+    }
+
+    /**
+     * Defines the class in the package of the base class by the first way the runtime supports.
+     *
+     * @return the class, or <code>null</code> when it cannot be defined
+     */
+    private static Class<?> define(String name, byte[] bytes) {
+        Object lookup = null;
+        try {
+            lookup = Class.forName("java.lang.invoke.MethodHandles").getMethod("lookup").invoke(null);
+        } catch (Exception ignore) {
+            // no method handles
+        }
+        if (lookup != null) {
+            // a hidden class, unloaded with its recognizers
+            try {
+                Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+                Object options = Array.newInstance(option, 0);
+                Method define = lookup.getClass().getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+                Object hidden = define.invoke(lookup, bytes, true, options);
+                return (Class<?>) hidden.getClass().getMethod("lookupClass").invoke(hidden);
+
+            } catch (Exception ignore) {
+                // not supported
+            }
+            try {
+                return (Class<?>) lookup.getClass().getMethod("defineClass", byte[].class).invoke(lookup, (Object) bytes);
+
+            } catch (Exception ignore) {
+                // not supported
+            }
+        }
+        ClassLoader loader = GeneratedRecognizer.class.getClassLoader();
+        if (loader == null) {
+            return null;
+        }
+        try {
+            Method define = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class, int.class, int.class);
+            define.setAccessible(true);
+            return (Class<?>) define.invoke(loader, name, bytes, 0, bytes.length);
+
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Constant pool of the class file.
+     */
+    private static class ConstantPool {
+
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int count = 1;
+
+        int utf8(String value) {
+            Integer index = indexes.get("U" + value);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(1);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return add("U" + value);
+        }
+
+        int integer(int value) {
+            Integer index = indexes.get("I" + value);
+            if (index != null) {
+                return index;
+            }
+            write(3, value >>> 16, value & 0xFFFF);
+            return add("I" + value);
+        }
+
+        int classRef(String className) {
+            Integer index = indexes.get("C" + className);
+            if (index != null) {
+                return index;
+            }
+            write(7, utf8(className));
+            return add("C" + className);
+        }
+
+        int fieldRef(String owner, String fieldName, String descriptor) {
+            return memberRef(9, owner, fieldName, descriptor);
+        }
+
+        int methodRef(String owner, String methodName, String descriptor) {
+            return memberRef(10, owner, methodName, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String memberName, String descriptor) {
+            String key = tag + owner + "." + memberName + descriptor;
+            Integer index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            int classIndex = classRef(owner);
+            int nameAndType = nameAndType(memberName, descriptor);
+            write(tag, classIndex, nameAndType);
+            return add(key);
+        }
+
+        private int nameAndType(String memberName, String descriptor) {
+            String key = "N" + memberName + ":" + descriptor;
+            Integer index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            int nameIndex = utf8(memberName);
+            int descriptorIndex = utf8(descriptor);
+            write(12, nameIndex, descriptorIndex);
+            return add(key);
+        }
+
+        private void write(int tag, int... shorts) {
+            try {
+                out.writeByte(tag);
+                for (int s : shorts) {
+                    out.writeShort(s);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private int add(String key) {
+            if (count == 0xFFFF) {
+                throw new TooLarge();
+            }
+            indexes.put(key, count);
+            return count++;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+    }
+
+    /**
+     * Instructions of a method with forward and backward jumps to labels.
+     */
+    private static class Code {
+
+        static final int ICONST_M1 = 0x02;
+        static final int ICONST_0 = 0x03;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC_W = 0x13;
+        static final int ILOAD = 0x15;
+        static final int ALOAD = 0x19;
+        static final int ALOAD_0 = 0x2a;
+        static final int IALOAD = 0x2e;
+        static final int CALOAD = 0x34;
+        static final int ISTORE = 0x36;
+        static final int ASTORE = 0x3a;
+        static final int DUP = 0x59;
+        static final int IADD = 0x60;
+        static final int IINC = 0x84;
+        static final int IFEQ = 0x99;
+        static final int IF_ICMPNE = 0xa0;
+        static final int IF_ICMPGE = 0xa2;
+        static final int IF_ICMPGT = 0xa3;
+        static final int GOTO = 0xa7;
+        static final int TABLESWITCH = 0xaa;
+        static final int ARETURN = 0xb0;
+        static final int RETURN = 0xb1;
+        static final int GETSTATIC = 0xb2;
+        static final int GETFIELD = 0xb4;
+        static final int INVOKEVIRTUAL = 0xb6;
+        static final int INVOKESPECIAL = 0xb7;
+        static final int NEW = 0xbb;
+        static final int ARRAYLENGTH = 0xbe;
+        static final int IFNULL = 0xc6;
+
+        private byte[] code = new byte[64];
+        private int size = 0;
+        private int[] labels = new int[8];
+        private int labelsCount = 0;
+        /**
+         * Jumps as the position of the instruction, the position of the offset, the label and the width of the offset.
+         */
+        private final List<int[]> jumps = new ArrayList<int[]>();
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void u1(int value) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value & 0xFFFF);
+        }
+
+        void load(int opcode, int local) {
+            op(opcode);
+            u1(local);
+        }
+
+        void push(int value, ConstantPool pool) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(value);
+            } else {
+                op(LDC_W);
+                u2(pool.integer(value));
+            }
+        }
+
+        int label() {
+            if (labelsCount == labels.length) {
+                labels = Arrays.copyOf(labels, labelsCount * 2);
+            }
+            labels[labelsCount] = -1;
+            return labelsCount++;
+        }
+
+        void mark(int label) {
+            labels[label] = size;
+        }
+
+        void jump(int opcode, int label) {
+            jumps.add(new int[]{size, size + 1, label, 2});
+            op(opcode);
+            u2(0);
+        }
+
+        /**
+         * Jumps to the label of the case from zero, or to the default label.
+         */
+        void tableSwitch(int defaultLabel, int[] cases) {
+            int at = size;
+            op(TABLESWITCH);
+            while (size % 4 != 0) {
+                u1(0);
+            }
+            jumps.add(new int[]{at, size, defaultLabel, 4});
+            u4(0);
+            u4(0);
+            u4(cases.length - 1);
+            for (int label : cases) {
+                jumps.add(new int[]{at, size, label, 4});
+                u4(0);
+            }
+        }
+
+        byte[] resolve() {
+            for (int[] jump : jumps) {
+                int offset = labels[jump[2]] - jump[0];
+                if (jump[3] == 2 && (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)) {
+                    throw new TooLarge();
+                }
+                for (int i = 0; i < jump[3]; i++) {
+                    code[jump[1] + i] = (byte) (offset >>> (8 * (jump[3] - i - 1)));
+                }
+            }
+            if (size > 0xFFFF) {
+                throw new TooLarge();
+            }
+            return Arrays.copyOf(code, size);
+        }
+    }
+
+    /**
+     * Grammar exceeding the limits of a class file.
+     */
+    private static class TooLarge extends RuntimeException {
+    }
+}
@@ -0,0 +1,285 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Regular rules of a grammar collapsed into finite automata.
+ * <p>
+ * A rule is regular when it references only regular rules and references itself only at the end of its alternatives (right-linear recursion).
+ * The references of a regular rule are inlined into one regular expression, which is matched by an {@link Automaton} in one linear pass.
+ * Self-embedding rules are left to the parsing engine.
+ * <p>
+ * An automaton decides whether a regular rule accepts an input. The ordered choice of the packrat engine can reject an input accepted by the
+ * automaton, so only rejections are decisive then.
+ * <p>
+ * The derivation engine substitutes a self reference in a named rule with the starting rule, so such a rule and the rules referring to it are
+ * not regular for the derivation engine.
+ *
+ * @author ttulka
+ * @see Automaton
+ * @see GrammarModel
+ */
+class RegularSubgrammar {
+
+    private final Map<Rule, Regular> regulars = new HashMap<Rule, Regular>();
+    private final boolean decisive;
+
+    /**
+     * @param grammar          the grammar model
+     * @param flags            the match flags
+     * @param decisive         whether an acceptance by an automaton is decisive
+     * @param thisStartingRule whether a self reference in a named rule refers to the starting rule
+     */
+    public RegularSubgrammar(GrammarModel grammar, int flags, boolean decisive, boolean thisStartingRule) {
+        this.decisive = decisive;
+
+        Analysis analysis = new Analysis(grammar, thisStartingRule);
+        Map<Rule, String> expressions = new HashMap<Rule, String>();
+        for (Rule rule : grammar.getRules()) {
+            String expression = analysis.expression(rule, new HashSet<Rule>(), expressions);
+            if (expression != null) {
+                Regular regular = Regular.compile(expression, flags);
+                if (regular != null) {
+                    regulars.put(rule, regular);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the rule is collapsed into an automaton.
+     */
+    public boolean isRegular(Rule rule) {
+        return regulars.containsKey(rule);
+    }
+
+    /**
+     * Returns the inlined regular expression of the rule, <code>null</code> when the rule is not regular.
+     */
+    public String getExpression(Rule rule) {
+        Regular regular = regulars.get(rule);
+        return regular != null ? regular.pattern.pattern() : null;
+    }
+
+    /**
+     * Returns true if the automata decide the input for all the rules.
+     */
+    public boolean decides(Set<Rule> rules) {
+        return decisive && regulars.keySet().containsAll(rules);
+    }
+
+    /**
+     * Returns true if a regular rule accepts the input.
+     */
+    public boolean matches(Set<Rule> rules, CharSequence input) {
+        for (Rule rule : rules) {
+            Regular regular = regulars.get(rule);
+            if (regular != null && regular.matches(input)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the rules which can accept the input, the regular rules rejecting the input are left out.
+     */
+    public Set<Rule> candidates(Set<Rule> rules, CharSequence input) {
+        Set<Rule> candidates = rules;
+        for (Rule rule : rules) {
+            Regular regular = regulars.get(rule);
+            if (regular != null && !regular.matches(input)) {
+                if (candidates == rules) {
+                    candidates = new LinkedHashSet<Rule>(rules);
+                }
+                candidates.remove(rule);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Automaton of a regular rule.
+     */
+    private static class Regular {
+
+        final Pattern pattern;
+        final Automaton automaton;
+
+        Regular(Pattern pattern, Automaton automaton) {
+            this.pattern = pattern;
+            this.automaton = automaton;
+        }
+
+        /**
+         * @return the automaton of the expression, or <code>null</code> when the expression can't be matched in linear time
+         */
+        static Regular compile(String expression, int flags) {
+            try {
+                Pattern pattern = Pattern.compile(expression, flags);
+                Automaton automaton = Automaton.compile(expression, flags);
+                return automaton != null ? new Regular(pattern, automaton) : null;
+
+            } catch (PatternSyntaxException e) {
+                return null;
+            }
+        }
+
+        boolean matches(CharSequence input) {
+            return automaton.matches(input, pattern);
+        }
+    }
+
+    /**
+     * Inlining of the rules into regular expressions.
+     */
+    private static class Analysis {
+
+        private final GrammarModel grammar;
+        private final boolean thisStartingRule;
+
+        Analysis(GrammarModel grammar, boolean thisStartingRule) {
+            this.grammar = grammar;
+            this.thisStartingRule = thisStartingRule;
+        }
+
+        /**
+         * Returns the regular expression of the rule, <code>null</code> when the rule is not regular.
+         *
+         * @param rule        the rule
+         * @param inProgress  the rules being inlined
+         * @param expressions the already inlined rules, <code>null</code> for the not regular ones
+         */
+        String expression(Rule rule, Set<Rule> inProgress, Map<Rule, String> expressions) {
+            if (expressions.containsKey(rule)) {
+                return expressions.get(rule);
+            }
+            if (!inProgress.add(rule)) {
+                // a cycle through other rules
+                return null;
+            }
+            String expression = inline(rule, inProgress, expressions);
+            inProgress.remove(rule);
+
+            expressions.put(rule, expression);
+            return expression;
+        }
+
+        private String inline(Rule rule, Set<Rule> inProgress, Map<Rule, String> expressions) {
+            if (thisStartingRule && rule instanceof NamedRule && containsThisReference(rule.getExpression().getRoot())) {
+                // the self reference depends on the starting rule
+                return null;
+            }
+            Set<String> selfNames = new HashSet<String>();
+            selfNames.add(Expression.THIS_REFERENCE_NAME);
+            if (rule instanceof NamedRule && grammar.getNamedRules(rule.getName()).size() == 1) {
+                selfNames.add(rule.getName());
+            }
+
+            ExpressionTree.Node root = rule.getExpression().getRoot();
+            List<String> loops = new ArrayList<String>();
+            List<String> bases = new ArrayList<String>();
+
+            for (ExpressionTree.Node alternative : root.isOrNode() ? root.getSubNodes() : Collections.singletonList(root)) {
+                String sentence = alternative.getSentence();
+                boolean tailRecursive = false;
+                boolean optional = false;
+
+                if (!alternative.getSubNodes().isEmpty() && !alternative.isOrNode()) {
+                    ExpressionTree.Node last = alternative.getSubNodes().get(alternative.getSubNodes().size() - 1);
+                    Expression expression = last.getExpression();
+
+                    if (last.getSubNodes().isEmpty() && expression.isReference() && selfNames.contains(expression.getText())
+                        && (!expression.isQuantified() || "?".equals(expression.getQuantifier()))
+                        && sentence.endsWith(last.getSentence())) {
+                        tailRecursive = true;
+                        optional = expression.isQuantified();
+                        sentence = sentence.substring(0, sentence.length() - last.getSentence().length());
+                    }
+                }
+                String inlined = inline(sentence, selfNames, inProgress, expressions);
+                if (inlined == null) {
+                    return null;
+                }
+                if (tailRecursive) {
+                    loops.add(inlined);
+                }
+                if (!tailRecursive || optional) {
+                    bases.add(inlined);
+                }
+            }
+            if (bases.isEmpty()) {
+                return null;
+            }
+            if (loops.isEmpty()) {
+                return join(bases);
+            }
+            return "(?:" + join(loops) + ")*(?:" + join(bases) + ")";
+        }
+
+        /**
+         * Inlines the references of the sentence, <code>null</code> when a reference is not regular.
+         */
+        private String inline(String sentence, Set<String> selfNames, Set<Rule> inProgress, Map<Rule, String> expressions) {
+            Map<String, String> replacements = new HashMap<String, String>();
+
+            for (String name : ExpressionUtils.getReferenceNames(sentence)) {
+                if (selfNames.contains(name)) {
+                    // not at the end of an alternative
+                    return null;
+                }
+                Set<Rule> named;
+                try {
+                    named = grammar.getNamedRules(name);
+                } catch (RecexpRuleNotFoundException e) {
+                    return null;
+                }
+                List<String> alternatives = new ArrayList<String>();
+                for (Rule rule : named) {
+                    String expression = expression(rule, inProgress, expressions);
+                    if (expression == null) {
+                        return null;
+                    }
+                    alternatives.add(expression);
+                }
+                replacements.put(name, "(?:" + join(alternatives) + ")");
+            }
+            return ExpressionUtils.inlineReferences(sentence, replacements);
+        }
+
+        private static boolean containsThisReference(ExpressionTree.Node node) {
+            if (node.isThisReference()) {
+                return true;
+            }
+            for (ExpressionTree.Node sub : node.getSubNodes()) {
+                if (containsThisReference(sub)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String join(List<String> expressions) {
+            if (expressions.size() == 1) {
+                return expressions.get(0);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String expression : expressions) {
+                if (sb.length() > 0) {
+                    sb.append('|');
+                }
+                sb.append("(?:").append(expression).append(')');
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -79,7 +79,18 @@ class NamedRule extends Rule {
 
     public NamedRule(String name, String expression) {
         super(name, expression);
+        checkName(name);
+    }
+
+    /**
+     * Named rule with an already parsed expression.
+     */
+    NamedRule(String name, ExpressionTree expressionTree) {
+        super(name, expressionTree);
+        checkName(name);
+    }
 
+    private static void checkName(String name) {
         if (!Pattern.matches("((\\w)+)", name)) {
             throw new IllegalArgumentException("Rule name can contain only word characters (letters, digits and underscore), but was: " + name);
         }
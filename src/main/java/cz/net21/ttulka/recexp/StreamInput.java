@@ -0,0 +1,113 @@
+package cz.net21.ttulka.recexp;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Input read from a reader incrementally.
+ * <p>
+ * Only a window of the input is buffered: characters are read on demand and the characters before a discarded position are dropped. Indexes are
+ * absolute positions in the whole input, the length is the number of characters read so far.
+ *
+ * @author ttulka
+ * @see EarleyParser#recognize(java.util.Collection, Reader, RecexpRejectionListener)
+ */
+class StreamInput implements CharSequence {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Reader reader;
+
+    private char[] buffer = new char[CHUNK_SIZE];
+    /**
+     * Absolute position of the first buffered character.
+     */
+    private int offset;
+    /**
+     * Number of buffered characters.
+     */
+    private int count;
+    /**
+     * Absolute position before which the characters are not needed anymore.
+     */
+    private int discarded;
+    private boolean end;
+
+    public StreamInput(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next chunk of characters.
+     *
+     * @return false when the end of the input was reached
+     * @throws IOException when the reading fails
+     */
+    public boolean fill() throws IOException {
+        if (end) {
+            return false;
+        }
+        if (count == buffer.length) {
+            int keep = offset + count - discarded;
+            char[] target = keep + CHUNK_SIZE > buffer.length ? new char[Math.max(buffer.length * 2, keep + CHUNK_SIZE)] : buffer;
+            System.arraycopy(buffer, discarded - offset, target, 0, keep);
+            buffer = target;
+            offset = discarded;
+            count = keep;
+        }
+        int read = reader.read(buffer, count, buffer.length - count);
+        if (read < 0) {
+            end = true;
+            return false;
+        }
+        count += read;
+        return true;
+    }
+
+    /**
+     * Returns true if there is a character at the position, reads the input when needed.
+     *
+     * @throws IOException when the reading fails
+     */
+    public boolean has(int position) throws IOException {
+        while (position >= length()) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks the characters before the position as not needed anymore.
+     */
+    public void discard(int position) {
+        discarded = Math.max(discarded, Math.min(position, offset + count));
+    }
+
+    @Override
+    public int length() {
+        return offset + count;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < offset || index >= offset + count) {
+            throw new IndexOutOfBoundsException("Index not buffered: " + index);
+        }
+        return buffer[index - offset];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < offset || start > end || end > offset + count) {
+            throw new IndexOutOfBoundsException("Range not buffered: " + start + ", " + end);
+        }
+        return new String(buffer, start - offset, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count);
+    }
+}
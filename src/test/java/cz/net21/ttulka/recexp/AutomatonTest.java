@@ -0,0 +1,250 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * @author ttulka
+ */
+public class AutomatonTest {
+
+    private static final String[] INPUTS = {
+            "", "a", "b", "ab", "aab", "abab", "abc", "aAbB", "ba", "aaaa", "x1_y", "a b\tc", "a\nb", "((X))±Y×(Y±X)", "Hello Recexp!", "0123", "-]"
+    };
+
+    @Test
+    public void sameAsPatternTest() {
+        String[] regexes = {
+                "", "a", "ab", "a|ab", "ab|a", "a*", "a*?", "a+b", "a?b?", "(a|b)*", "(?:ab)+", "(a*)*", "(a?)*b", "a{2}", "a{1,3}?", "a{2,}",
+                "[ab]+", "[^ab]*", "[a-c]{1,2}", "[-a]", "[a-]+", "[\\]\\-]+", "\\w+", "\\W", "\\d*", "\\D+", "\\s", "\\S+", ".", ".*", "\\.",
+                "\\(", "\\x41", "\\u00B1", "\\0101", "\\t|\\n", "(a|b)(c|bc)", "(a|ab)(c|bcd)(d*)", "X|Y|\\(", "[±×]", "[\\w\\s]+", "[^\\d]+"
+        };
+        int[] flags = {0, Pattern.CASE_INSENSITIVE, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE, Pattern.DOTALL, Pattern.UNIX_LINES};
+
+        for (String regex : regexes) {
+            for (int flag : flags) {
+                Pattern pattern = Pattern.compile(regex, flag);
+                Automaton automaton = Automaton.compile(regex, flag);
+                assertThat(regex, automaton, notNullValue());
+
+                for (String input : INPUTS) {
+                    ContextFreeGrammar.TerminalMatcher expected = new ContextFreeGrammar.PatternMatcher(pattern, input);
+                    ContextFreeGrammar.TerminalMatcher actual = automaton.matcher(input, pattern);
+
+                    for (int from = 0; from <= input.length(); from++) {
+                        String reason = "'" + regex + "' (" + flag + ") on '" + input + "' from " + from;
+
+                        assertThat(reason, ends(actual.matchEnds(from, input.length(), null)), is(matchingEnds(pattern, input, from)));
+                        assertThat(reason, actual.matchPrefix(from, input.length()), is(expected.matchPrefix(from, input.length())));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void firstCharsTest() {
+        String[] regexes = {
+                "", "a", "a|bc", "a*b", "(a?)*c", "[b-d]+", "[^ab]", "\\w+", "\\W", ".", "\\s?x", "A", "[x-zA]", "±"
+        };
+        int[] flags = {0, Pattern.CASE_INSENSITIVE, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE, Pattern.DOTALL};
+
+        for (String regex : regexes) {
+            for (int flag : flags) {
+                Pattern pattern = Pattern.compile(regex, flag);
+                Automaton automaton = Automaton.compile(regex, flag);
+                CharRanges first = CharRanges.of(automaton.firstChars());
+
+                assertThat(regex, automaton.matchesEmpty(), is(pattern.matcher("").matches()));
+                for (char ch = 0; ch < 0x2200; ch++) {
+                    Matcher matcher = pattern.matcher(String.valueOf(ch));
+                    // a prefix of an accepted input
+                    if (matcher.matches() || matcher.hitEnd()) {
+                        assertThat("'" + regex + "' (" + flag + ") starts with " + (int) ch, first.contains(ch), is(true));
+                    }
+                }
+            }
+        }
+        assertThat(CharRanges.of(Automaton.compile("a|b*c", 0).firstChars()).contains('d'), is(false));
+        assertThat(CharRanges.of(Automaton.compile("[^a]", 0).firstChars()).contains('a'), is(false));
+        assertThat(CharRanges.of(Automaton.compile("a", Pattern.CASE_INSENSITIVE).firstChars()).contains('A'), is(true));
+    }
+
+    @Test
+    public void lengthTest() {
+        assertLength("", 0, 0);
+        assertLength("abc", 3, 3);
+        assertLength("a*", 0, LengthBounds.UNBOUNDED);
+        assertLength("a+b", 2, LengthBounds.UNBOUNDED);
+        assertLength("a{2,5}", 2, 5);
+        assertLength("(ab|c)?d", 1, 3);
+        assertLength("(a{0}|bc){3}", 0, 6);
+        assertLength("[a-z]\\d?", 1, 2);
+        // a surrogate pair is matched by the fallback pattern
+        assertLength(".", 1, 2);
+        assertLength("[^a]{2}", 2, 4);
+    }
+
+    @Test
+    public void literalsTest() {
+        assertThat(Automaton.compile("abc", 0).literals().exact, is("abc"));
+        assertThat(Automaton.compile("a(b|c)d", 0).literals().toString(), is("'a'..'a'..'d'"));
+        assertThat(Automaton.compile("ab{2}(cd)+e", 0).literals().toString(), is("'abbcd'..'abbcd'..'cde'"));
+        assertThat(Automaton.compile("x(abc|bcd)y", 0).literals().factor, is("bc"));
+        assertThat(Automaton.compile("a?b", 0).literals().toString(), is("''..'b'..'b'"));
+        assertThat(Automaton.compile("a", Pattern.CASE_INSENSITIVE).literals(), is(Literals.NONE));
+        assertThat(Automaton.compile("-", Pattern.CASE_INSENSITIVE).literals().exact, is("-"));
+
+        String[] regexes = {"abc", "a(b|c)d", "(ab)+", "a{2,3}b", "x?y", "[ab]c", "(ab|cb)+", "a.c", "a", "A"};
+        int[] flags = {0, Pattern.CASE_INSENSITIVE};
+        for (String regex : regexes) {
+            for (int flag : flags) {
+                Pattern pattern = Pattern.compile(regex, flag);
+                Literals literals = Automaton.compile(regex, flag).literals();
+                for (String input : INPUTS) {
+                    if (pattern.matcher(input).matches()) {
+                        assertThat("'" + regex + "' (" + flag + ") excludes " + input, literals.excludes(input), is(false));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void charsTest() {
+        Automaton automaton = Automaton.compile("\\(?[±×]*(X|Y)\\)?", 0);
+        CharRanges alphabet = CharRanges.of(automaton.alphabet());
+        CharRanges required = CharRanges.of(automaton.requiredChars());
+
+        assertThat(alphabet.contains('±'), is(true));
+        assertThat(alphabet.contains(')'), is(true));
+        assertThat(alphabet.contains('Z'), is(false));
+        assertThat(required.contains('X'), is(true));
+        assertThat(required.contains('('), is(false));
+        assertThat(required.contains('±'), is(false));
+
+        assertThat(Automaton.compile("a*", 0).requiredChars(), is(nullValue()));
+        assertThat(CharRanges.of(Automaton.compile("a", Pattern.CASE_INSENSITIVE).requiredChars()).contains('A'), is(true));
+        required = CharRanges.of(Automaton.compile("ab|c", 0).requiredChars());
+        assertThat(required.contains('c'), is(true));
+        assertThat(required.contains('d'), is(false));
+    }
+
+    @Test
+    public void countsTest() {
+        char[] chars = {'a', 'b'};
+
+        CountConstraints.Counts counts = Automaton.compile("ab{2}c", 0).counts(chars);
+        assertThat(counts.contains(new int[]{1, 2}), is(true));
+        assertThat(counts.contains(new int[]{1, 1}), is(false));
+
+        counts = Automaton.compile("(ab)*", 0).counts(chars);
+        assertThat(counts.contains(new int[]{3, 3}), is(true));
+        assertThat(counts.contains(new int[]{3, 2}), is(false));
+
+        counts = Automaton.compile("[ab]x", 0).counts(chars);
+        assertThat(counts.contains(new int[]{1, 0}), is(true));
+        assertThat(counts.contains(new int[]{1, 1}), is(false));
+
+        counts = Automaton.compile("[a-c]", 0).counts(chars);
+        assertThat(counts.contains(new int[]{0, 0}), is(true));
+
+        counts = Automaton.compile("A", Pattern.CASE_INSENSITIVE).counts(chars);
+        assertThat(counts.contains(new int[]{1, 0}), is(true));
+    }
+
+    private static void assertLength(String regex, int min, int max) {
+        Automaton automaton = Automaton.compile(regex, 0);
+
+        assertThat(regex, automaton.minLength(), is(min));
+        assertThat(regex, automaton.maxLength(), is(max));
+    }
+
+    @Test
+    public void unsupportedTest() {
+        String[] regexes = {
+                "(a)\\1", "a(?=b)", "a(?!b)", "(?<=a)b", "(?>a)", "(?i)a", "^a", "a$", "\\ba", "a*+", "\\p{L}", "\\Qa\\E", "[a&&b]", "[a[b]]"
+        };
+        for (String regex : regexes) {
+            Pattern.compile(regex);
+            assertThat(regex, Automaton.compile(regex, 0), nullValue());
+        }
+        assertThat(Automaton.compile("a", Pattern.COMMENTS), nullValue());
+        assertThat(Automaton.compile("a{5000}", 0), nullValue());
+    }
+
+    @Test
+    public void catastrophicBacktrackingTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append('a');
+        }
+        String input = sb.toString();
+        Automaton automaton = Automaton.compile("(a|aa)*b", 0);
+        ContextFreeGrammar.TerminalMatcher matcher = automaton.matcher(input, Pattern.compile("(a|aa)*b"));
+
+        assertThat(matcher.matchEnds(0, input.length(), null)[0], is(0));
+        assertThat(matcher.hitEnd(), is(true));
+        assertThat(matcher.matchPrefix(0, input.length()), is(-1));
+    }
+
+    @Test
+    public void hitEndTest() {
+        Automaton automaton = Automaton.compile("ab*", 0);
+        ContextFreeGrammar.TerminalMatcher matcher = automaton.matcher("abbc", Pattern.compile("ab*"));
+
+        assertThat(ends(matcher.matchEnds(0, 3, null)), is(ends(new int[]{3, 1, 2, 3})));
+        assertThat(matcher.hitEnd(), is(true));
+        assertThat(ends(matcher.matchEnds(0, 4, null)), is(ends(new int[]{3, 1, 2, 3})));
+        assertThat(matcher.hitEnd(), is(false));
+    }
+
+    @Test
+    public void surrogatesFallbackTest() {
+        String input = "x😀y";
+        Pattern pattern = Pattern.compile("x.y");
+        ContextFreeGrammar.TerminalMatcher matcher = Automaton.compile("x.y", 0).matcher(input, pattern);
+
+        assertThat(ends(matcher.matchEnds(0, input.length(), null)), is(ends(new int[]{1, 4})));
+        assertThat(matcher.matchPrefix(0, input.length()), is(4));
+    }
+
+    @Test
+    public void boundedCacheTest() {
+        Automaton automaton = Automaton.compile("[ab]*a[ab]{10}", 0);
+        Pattern pattern = Pattern.compile("[ab]*a[ab]{10}");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append(Integer.bitCount(i * 31) % 2 == 0 ? 'a' : 'b');
+        }
+        String input = sb.toString();
+
+        ContextFreeGrammar.TerminalMatcher actual = automaton.matcher(input, pattern);
+
+        assertThat(ends(actual.matchEnds(0, input.length(), null)), is(matchingEnds(pattern, input, 0)));
+        assertThat(automaton.cachedStates(), lessThanOrEqualTo(Automaton.DFA_CACHE_CAPACITY));
+    }
+
+    private static String matchingEnds(Pattern pattern, String input, int from) {
+        int[] ends = new int[input.length() - from + 2];
+        for (int end = from; end <= input.length(); end++) {
+            if (pattern.matcher(input).region(from, end).matches()) {
+                ends[++ends[0]] = end;
+            }
+        }
+        return ends(ends);
+    }
+
+    private static String ends(int[] ends) {
+        return Arrays.toString(Arrays.copyOfRange(ends, 1, ends[0] + 1));
+    }
+}
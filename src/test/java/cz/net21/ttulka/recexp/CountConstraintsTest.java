@@ -0,0 +1,115 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class CountConstraintsTest {
+
+    @Test
+    public void balancedTest() {
+        Rule start = new Rule("0(@this)1|1(@this)0|@this@this|@eps");
+        CountConstraints counts = counts(start);
+
+        assertThat(admits(counts, start, ""), is(true));
+        assertThat(admits(counts, start, "0110"), is(true));
+        assertThat(admits(counts, start, "1100"), is(true));
+        assertThat(admits(counts, start, "011"), is(false));
+        assertThat(admits(counts, start, "000111x"), is(true));
+        assertThat(admits(counts, start, "0001110"), is(false));
+    }
+
+    @Test
+    public void namedRuleTest() {
+        Rule start = new Rule("@A@B");
+        CountConstraints counts = counts(start, new NamedRule("A", "a(@A)?b"), new NamedRule("B", "(bc){2}"));
+
+        assertThat(admits(counts, start, "abbcbc"), is(true));
+        assertThat(admits(counts, start, "aabbbcbc"), is(true));
+        // counts of b and c
+        assertThat(admits(counts, start, "abbc"), is(false));
+        assertThat(admits(counts, start, "aabbcbc"), is(false));
+    }
+
+    @Test
+    public void minimalCountsTest() {
+        Rule start = new Rule("x(@this)y|z+");
+        CountConstraints counts = counts(start);
+
+        assertThat(admits(counts, start, "xzy"), is(true));
+        assertThat(admits(counts, start, "xy"), is(false));
+        assertThat(admits(counts, start, "xxyy"), is(false));
+    }
+
+    @Test
+    public void parityTest() {
+        Rule start = new Rule("aa@this?|bb@this?");
+        CountConstraints counts = counts(start);
+
+        assertThat(admits(counts, start, "aabb"), is(true));
+        assertThat(admits(counts, start, "bbbb"), is(true));
+        assertThat(admits(counts, start, "aab"), is(false));
+        assertThat(admits(counts, start, "abab"), is(true));
+    }
+
+    @Test
+    public void candidateTest() {
+        Rule start = new Rule("a(@this)b|c");
+        CountConstraints counts = counts(start);
+        ExpressionTree.Node root = start.getExpression().getRoot();
+        ExpressionTree.Node candidate = ExpressionTree.Node.parseNode("aa(@this)bb");
+
+        assertThat(counts.admits(candidate, root, counts.count("acb"), new HashMap<ExpressionTree.Node, CountConstraints.Counts>()), is(false));
+        assertThat(counts.admits(candidate, root, counts.count("aacbb"), new HashMap<ExpressionTree.Node, CountConstraints.Counts>()), is(true));
+    }
+
+    @Test
+    public void unconstrainedTest() {
+        Rule start = new Rule("a@UNDEFINED|(?=b)b");
+        CountConstraints counts = counts(start);
+
+        assertThat(admits(counts, start, "bbb"), is(true));
+        assertThat(admits(counts, start, "aaa"), is(true));
+        assertThat(admits(counts, start, ""), is(true));
+    }
+
+    @Test
+    public void latticeTest() {
+        CountConstraints.Counts counts = CountConstraints.Counts.join(
+                CountConstraints.Counts.point(new long[]{4, 2}), CountConstraints.Counts.point(new long[]{0, 0}));
+        counts = CountConstraints.Counts.join(counts, CountConstraints.Counts.point(new long[]{6, 3}));
+
+        // the multiples of (2, 1)
+        assertThat(counts.contains(new int[]{8, 4}), is(true));
+        assertThat(counts.contains(new int[]{2, 1}), is(true));
+        assertThat(counts.contains(new int[]{3, 1}), is(false));
+        assertThat(counts.lattice.length, is(1));
+        assertThat(counts.lattice[0], is(new long[]{2, 1}));
+
+        CountConstraints.Counts repeated = CountConstraints.Counts.repeat(CountConstraints.Counts.point(new long[]{1, 2}), 2, 3);
+        assertThat(repeated.contains(new int[]{2, 4}), is(true));
+        assertThat(repeated.contains(new int[]{3, 6}), is(true));
+        assertThat(repeated.contains(new int[]{1, 2}), is(false));
+        assertThat(repeated.contains(new int[]{3, 5}), is(false));
+    }
+
+    private static CountConstraints counts(Rule... rules) {
+        List<Rule> ruleList = new ArrayList<Rule>(Arrays.asList(rules));
+        ruleList.add(ImplicitRule.EPSILON_RULE);
+        return new CountConstraints(new GrammarModel(ruleList), 0);
+    }
+
+    private static boolean admits(CountConstraints counts, Rule rule, String input) {
+        ExpressionTree.Node root = rule.getExpression().getRoot();
+        return counts.admits(root, root, counts.count(input), null);
+    }
+}
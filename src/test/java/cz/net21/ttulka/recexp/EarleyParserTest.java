@@ -0,0 +1,218 @@
+package cz.net21.ttulka.recexp;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class EarleyParserTest {
+
+    @Test
+    public void sameMatchesAsDerivationTest() {
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"a"}}, "", "a", "aa");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"a@this?b"}}, "", "ab", "aabb", "aaabbb", "abb", "ba");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"a(@this?)b"}}, "ab", "aabb", "aab");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"a(@this)?b"}}, "ab", "aabb", "aab");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"a@this?b@this?c"}}, "abc", "ababcc", "aabcbc", "aabcbabcc", "aabc", "cba");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"fi(r)st(@this?)second"}}, "firstsecond", "firstfirstsecondsecond", "first");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"a(b(c)(d))e"}}, "abcde", "abcd");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"a((b))"}}, "ab", "a");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"(a?)(b?)"}}, "", "a", "b", "ab", "ba");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"a(@this)b|c"}}, "c", "acb", "aacbb", "ab", "accb");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"0(@this)0|1(@this)1|0|1|@eps"}}, "", "0", "11", "010", "0110", "10101", "10", "1101");
+        // ambiguous grammar, the derivations can differ
+        assertSameAcceptance(RecexpEngine.EARLEY, new String[][]{{"0(@this)1(@this)|1(@this)0(@this)|@eps"}}, "", "0101", "1100", "110010", "0", "101");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"@A@B"}, {"A", "a"}, {"B", "b"}}, "ab", "a", "ba");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"@A@this?@B"}, {"A", "a"}, {"B", "b"}}, "ab", "aabb", "aab");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"AB", "a(@CD)b|x"}, {"CD", "c(@AB)d"}}, "x", "cxd", "acxdb", "cacxdbd", "acdb");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"R", "a(@R)b"}, {"R", "@X"}, {"R", "@eps"}, {"X", "x"}}, "", "x", "ab", "axb", "xx");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"RULE1", "@A@RULE1?@B"}, {"A", "a"}, {"B", "b"}}, "a", "b", "ab", "aabb", "ba");
+        assertSameMatches(RecexpEngine.EARLEY, new String[][]{{"S", "a?@S+|a"}}, "a", "b");
+        assertSameAcceptance(RecexpEngine.EARLEY, new String[][]{{"S", "(@A){1,3}c"}, {"A", "a"}}, "ac", "aac", "aaac", "c", "aaaac");
+    }
+
+    @Test
+    public void namedGroupsTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("WORD", "\\w+")
+                .rule("SENTENCE", "(@WORD\\s)+@WORD?[\\.\\!\\?]")
+                .engine(RecexpEngine.EARLEY)
+                .build();
+
+        RecexpMatcher matcher = recexp.matcher("SENTENCE", "Hello Recexp!");
+
+        assertThat(matcher.matches(), is(true));
+        assertThat(matcher.groupCount(), is(3));
+        assertThat(matcher.group("(@WORD\\s)+").value(), is("Hello "));
+        assertThat(matcher.group("@WORD?").value(), is("Recexp"));
+        assertThat(matcher.group("[\\.\\!\\?]").value(), is("!"));
+
+        // every repetition is derived independently
+        matcher = recexp.matcher("SENTENCE", "Hello big Recexp!");
+
+        assertThat(matcher.matches(), is(true));
+        assertThat(matcher.group(1).value(), is("Hello big "));
+        assertThat(matcher.group(1).groupCount(), is(4));
+        assertThat(matcher.group(1).group(1).value(), is("Hello"));
+        assertThat(matcher.group(1).group(3).value(), is("big"));
+    }
+
+    @Test
+    public void leftRecursionTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("E", "@E±@T|@T")
+                .rule("T", "@T×@F|@F")
+                .rule("F", "\\(@E\\)|X|Y")
+                .engine(RecexpEngine.EARLEY)
+                .build();
+
+        assertThat(recexp.matcher("E", "X±Y").matches(), is(true));
+        assertThat(recexp.matcher("E", "(X±X)×(Y×X)").matches(), is(true));
+        assertThat(recexp.matcher("E", "((X±X)×(Y×X)±Y×Y×(X))±X×(Y±(X×Y±X))").matches(), is(true));
+
+        assertThat(recexp.matcher("E", "").matches(), is(false));
+        assertThat(recexp.matcher("E", "X±").matches(), is(false));
+        assertThat(recexp.matcher("E", "(X×X)(Y×X)").matches(), is(false));
+
+        RecexpMatcher matcher = recexp.matcher("E", "X±Y");
+
+        assertThat(matcher.name(), is("@E"));
+        assertThat(matcher.groupCount(), is(3));
+        assertThat(matcher.group(1).name(), is("@E"));
+        assertThat(matcher.group(1).value(), is("X"));
+        assertThat(matcher.group(2).name(), is("±"));
+        assertThat(matcher.group(3).name(), is("@T"));
+        assertThat(matcher.group(3).value(), is("Y"));
+    }
+
+    @Test
+    public void longInputTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append('a');
+        }
+        for (int i = 0; i < 500; i++) {
+            sb.append('b');
+        }
+        Recexp recexp = Recexp.builder().rule("a@this?b").engine(RecexpEngine.EARLEY).build();
+
+        assertThat(recexp.matches(sb.toString()), is(true));
+        assertThat(recexp.matches(sb.append('b').toString()), is(false));
+    }
+
+    @Test(expected = RecexpRuleNotFoundException.class)
+    public void undefinedReferenceTest() {
+        Recexp.builder().rule("a@UNDEFINED").engine(RecexpEngine.EARLEY).build().matches("ab");
+    }
+
+    @Test(expected = RecexpCyclicRuleException.class)
+    public void cyclicRuleTest() {
+        Recexp.builder().rule("a(@this)b").engine(RecexpEngine.EARLEY).build().matches("ab");
+    }
+
+    @Test
+    public void parseTest() {
+        Rule rule = new Rule("a@this?b");
+        ContextFreeGrammar grammar = ContextFreeGrammar.compile(java.util.Collections.singleton(rule), 0);
+        EarleyParser parser = new EarleyParser(grammar);
+
+        Derivation derivation = parser.parse(grammar.ruleSymbol(rule), "aabb");
+
+        assertThat(derivation, not(nullValue()));
+        assertThat(derivation.getStart(), is(0));
+        assertThat(derivation.getEnd(), is(4));
+        assertThat(derivation.getChildren().length, is(1));
+
+        assertThat(parser.parse(grammar.ruleSymbol(rule), "aab"), is(nullValue()));
+    }
+
+    @Test
+    public void boundedRepetitionTest() {
+        Rule rule = new Rule("(@this){0,400}x");
+        ContextFreeGrammar grammar = ContextFreeGrammar.compile(java.util.Collections.singleton(rule), 0);
+        EarleyParser parser = new EarleyParser(grammar);
+
+        // the optional repetitions are chained, the size of the grammar is linear in the bounds
+        assertThat(grammar.getItemsCount() < 10 * 400, is(true));
+        assertThat(parser.parse(grammar.ruleSymbol(rule), "x"), not(nullValue()));
+        assertThat(parser.parse(grammar.ruleSymbol(rule), "xxx"), not(nullValue()));
+        assertThat(parser.parse(grammar.ruleSymbol(rule), ""), is(nullValue()));
+    }
+
+    @Test
+    public void sharedSelfReferenceTest() {
+        ExpressionTree.Node a = ExpressionTree.Node.parseNode("a@this|b");
+        ExpressionTree.Node c = ExpressionTree.Node.parseNode("c@this|d");
+        ExpressionTree.Node self = a.getSubNodes().get(0).getSubNodes().get(1);
+        ExpressionTree.Node cSelf = c.getSubNodes().get(0);
+        // the self reference node is shared by both the rules
+        ExpressionTree.Node shared = new ExpressionTree.Node(c.getExpression(), c.getSubNodesConnectionType(), java.util.Arrays.asList(
+                new ExpressionTree.Node(cSelf.getExpression(), cSelf.getSubNodesConnectionType(), java.util.Arrays.asList(cSelf.getSubNodes().get(0), self)),
+                c.getSubNodes().get(1)));
+        Rule ruleA = new NamedRule("A", new ExpressionTree(a));
+        Rule ruleB = new NamedRule("B", new ExpressionTree(shared));
+        ContextFreeGrammar grammar = ContextFreeGrammar.compile(java.util.Arrays.asList(ruleA, ruleB), 0);
+        EarleyParser parser = new EarleyParser(grammar);
+
+        assertThat(self.isThisReference(), is(true));
+        assertThat(parser.parse(grammar.ruleSymbol(ruleB), "ccd"), not(nullValue()));
+        assertThat(parser.parse(grammar.ruleSymbol(ruleB), "cab"), is(nullValue()));
+        assertThat(parser.parse(grammar.ruleSymbol(ruleA), "aab"), not(nullValue()));
+        assertThat(parser.parse(grammar.ruleSymbol(ruleA), "acd"), is(nullValue()));
+    }
+
+    static void assertSameMatches(RecexpEngine engine, String[][] rules, String... inputs) {
+        Recexp derivation = build(rules, RecexpEngine.DERIVATION);
+        Recexp parser = build(rules, engine);
+
+        for (String input : inputs) {
+            RecexpMatcher expected = derivation.matcher(input);
+            RecexpMatcher actual = parser.matcher(input);
+
+            assertThat("Matches for '" + input + "'", actual.matches(), is(expected.matches()));
+            if (expected.matches()) {
+                assertSameGroup(input, actual, expected);
+            }
+        }
+    }
+
+    static void assertSameAcceptance(RecexpEngine engine, String[][] rules, String... inputs) {
+        Recexp derivation = build(rules, RecexpEngine.DERIVATION);
+        Recexp parser = build(rules, engine);
+
+        for (String input : inputs) {
+            assertThat("Matches for '" + input + "'", parser.matches(input), is(derivation.matches(input)));
+        }
+    }
+
+    static Recexp build(String[][] rules, RecexpEngine engine) {
+        Recexp.RecexpBuilder builder = Recexp.builder().engine(engine);
+        for (String[] rule : rules) {
+            if (rule.length == 1) {
+                builder.rule(rule[0]);
+            } else {
+                builder.rule(rule[0], rule[1]);
+            }
+        }
+        return builder.build();
+    }
+
+    static void assertSameGroup(String input, RecexpGroup actual, RecexpGroup expected) {
+        String reason = "Group '" + expected.name() + "' for '" + input + "'";
+
+        assertThat(reason, actual.name(), is(expected.name()));
+        assertThat(reason, actual.value(), is(expected.value()));
+        assertThat(reason, actual.start(), is(expected.start()));
+        assertThat(reason, actual.end(), is(expected.end()));
+        assertThat(reason, actual.groupCount(), is(expected.groupCount()));
+
+        for (int i = 1; i <= expected.groupCount(); i++) {
+            assertSameGroup(input, actual.group(i), expected.group(i));
+        }
+    }
+}
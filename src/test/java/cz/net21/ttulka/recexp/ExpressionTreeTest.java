@@ -1,5 +1,7 @@
 package cz.net21.ttulka.recexp;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -235,6 +237,33 @@ public class ExpressionTreeTest {
         }
     }
 
+    @Test
+    public void parseTreeCharacterClassesTest() {
+        ExpressionTree tree = ExpressionTree.parseTree("x[|]y");
+
+        assertThat(tree.getRoot().getSubNodesConnectionType(), is(ExpressionTree.Node.SubNodesConnectionType.SINGLE));
+        assertThat(tree.getRoot().toWord(), is("x[|]y"));
+
+        tree = ExpressionTree.parseTree("[()@A]|[]|]@B");
+
+        assertThat(tree.getRoot().getSubNodesConnectionType(), is(ExpressionTree.Node.SubNodesConnectionType.OR));
+        assertThat(tree.getRoot().getSubNodes().size(), is(2));
+        assertThat(tree.getRoot().getSubNodes().get(0).toWord(), is("[()@A]"));
+        assertThat(tree.getRoot().getSubNodes().get(1).getSubNodes().size(), is(2));
+        assertThat(tree.getRoot().getSubNodes().get(1).getSubNodes().get(0).toWord(), is("[]|]"));
+        assertThat(tree.getRoot().getSubNodes().get(1).getSubNodes().get(1).toWord(), is("@B"));
+    }
+
+    @Test
+    public void parsedExpressionEqualsTest() {
+        ExpressionTree.Node parsed = ExpressionTree.parseTree("(a|b)c").getRoot().getSubNodes().get(0);
+        Expression expression = new Expression("a|b", null, false);
+
+        assertThat(parsed.getExpression(), is(expression));
+        assertThat(parsed.getExpression().hashCode(), is(expression.hashCode()));
+        assertThat(parsed.getExpression().getText(), is("a|b"));
+    }
+
     @Test
     public void getRootTest() {
         ExpressionTree tree = createSimpleTree();
@@ -248,18 +277,18 @@ public class ExpressionTreeTest {
 
         ExpressionTree.Node node;
 
-        node = new ExpressionTree.Node(new Expression("@A@B", null, false));
-        node.getSubNodes().add(new ExpressionTree.Node(new Expression("A", null, true)));
-        node.getSubNodes().add(new ExpressionTree.Node(new Expression("B", null, true)));
+        node = createNode(new Expression("@A@B", null, false),
+                          new ExpressionTree.Node(new Expression("A", null, true)),
+                          new ExpressionTree.Node(new Expression("B", null, true)));
         assertThat(new ExpressionTree(node).getSentence(), is("@A@B"));
 
-        node = new ExpressionTree.Node(new Expression("@A@B", "?", false));
-        node.getSubNodes().add(new ExpressionTree.Node(new Expression("A", null, true)));
-        node.getSubNodes().add(new ExpressionTree.Node(new Expression("B", null, true)));
+        node = createNode(new Expression("@A@B", "?", false),
+                          new ExpressionTree.Node(new Expression("A", null, true)),
+                          new ExpressionTree.Node(new Expression("B", null, true)));
         assertThat(new ExpressionTree(node).getSentence(), is("(@A@B)?"));
 
-        node = new ExpressionTree.Node(new Expression("((a))", null, false));
-        node.getSubNodes().add(new ExpressionTree.Node(new Expression("(a)", null, false)));
+        node = createNode(new Expression("((a))", null, false),
+                          new ExpressionTree.Node(new Expression("(a)", null, false)));
         assertThat(new ExpressionTree(node).getSentence(), is("(a)"));
     }
 
@@ -320,6 +349,36 @@ public class ExpressionTreeTest {
         assertThat(node.getSubNodes().get(1).getSubNodes().get(0).getSubNodes().get(0).getSubNodesConnectionType(), is(ExpressionTree.Node.SubNodesConnectionType.AND));
     }
 
+    @Test
+    public void parseNodeEscapedReferenceTest() {
+        ExpressionTree.Node node;
+
+        node = ExpressionTree.Node.parseNode("a\\@this");
+        assertThat(node.toWord(), is("a\\@this"));
+        assertThat(node.getSubNodes().size(), is(0));
+        assertThat(node.getExpression().isReference(), is(false));
+
+        node = ExpressionTree.Node.parseNode("x\\@A@B?");
+        assertThat(node.getSubNodes().size(), is(2));
+        assertThat(node.getSubNodes().get(0).toWord(), is("x\\@A"));
+        assertThat(node.getSubNodes().get(1).getExpression().getText(), is("B"));
+        assertThat(node.getSubNodes().get(1).getExpression().getQuantifier(), is("?"));
+    }
+
+    @Test
+    public void parseNodeLongExpressionTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("(a@A{1,2}?|b\\@this)*");
+        }
+        ExpressionTree.Node node = ExpressionTree.Node.parseNode(sb.toString());
+
+        assertThat(node.getSubNodesConnectionType(), is(ExpressionTree.Node.SubNodesConnectionType.AND));
+        assertThat(node.getSubNodes().size(), is(2000));
+        assertThat(node.getSubNodes().get(1999).getExpression().getQuantifier(), is("*"));
+        assertThat(node.getSubNodes().get(1999).getSubNodes().get(0).getSubNodes().get(1).getExpression().getQuantifier(), is("{1,2}?"));
+    }
+
     @Test
     public void getWordTest() {
         ExpressionTree.Node node;
@@ -346,6 +405,20 @@ public class ExpressionTreeTest {
         assertThat(node.toWord(), is("@AB{1,2}"));
     }
 
+    @Test
+    public void nodeEqualityTest() {
+        ExpressionTree.Node node1 = ExpressionTree.parseTree("(a)(@B)?").getRoot();
+        ExpressionTree.Node node2 = ExpressionTree.parseTree("(a)(@B)?").getRoot();
+
+        assertThat(node1 == node2, is(false));
+        assertThat(node1, is(node2));
+        assertThat(node1.hashCode(), is(node2.hashCode()));
+        assertThat(node1, not(ExpressionTree.parseTree("(a)(@C)?").getRoot()));
+
+        assertThat(node1.getSentence(), is(node2.getSentence()));
+        assertThat(node1.getSentence() == node1.getSentence(), is(true));
+    }
+
     //
     //            A
     //          /   \
@@ -356,29 +429,23 @@ public class ExpressionTreeTest {
     //            G
     //
     private ExpressionTree createSimpleTree() {
-        ExpressionTree.Node A = createSimpleLeaf("A");
-        ExpressionTree.Node B = createSimpleLeaf("B");
-        ExpressionTree.Node C = createSimpleLeaf("C");
         ExpressionTree.Node D = createSimpleLeaf("D");
-        ExpressionTree.Node E = createSimpleLeaf("E");
         ExpressionTree.Node F = createSimpleLeaf("F");
         ExpressionTree.Node G = createSimpleLeaf("G");
         ExpressionTree.Node eps = createSimpleLeaf("");
 
-        A.getSubNodes().add(B);
-        A.getSubNodes().add(C);
-
-        B.getSubNodes().add(D);
-        B.getSubNodes().add(E);
-
-        E.getSubNodes().add(G);
-
-        C.getSubNodes().add(F);
-        C.getSubNodes().add(eps);
+        ExpressionTree.Node E = createNode(new Expression("E", null, false), G);
+        ExpressionTree.Node B = createNode(new Expression("B", null, false), D, E);
+        ExpressionTree.Node C = createNode(new Expression("C", null, false), F, eps);
+        ExpressionTree.Node A = createNode(new Expression("A", null, false), B, C);
 
         return new ExpressionTree(A);
     }
 
+    private ExpressionTree.Node createNode(Expression expression, ExpressionTree.Node... subNodes) {
+        return new ExpressionTree.Node(expression, ExpressionTree.Node.SubNodesConnectionType.SINGLE, Arrays.asList(subNodes));
+    }
+
     private ExpressionTree.Node createSimpleLeaf(final String expression) {
         return new ExpressionTree.Node(new Expression(expression, null, false));
     }
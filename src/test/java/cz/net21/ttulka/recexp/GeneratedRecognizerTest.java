@@ -0,0 +1,100 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class GeneratedRecognizerTest {
+
+    @Test
+    public void sameMatchesAsParserTest() {
+        assertSameMatches(0, new String[][]{{"a"}}, "", "a", "aa");
+        assertSameMatches(0, new String[][]{{"a@this?b"}}, "", "ab", "aabb", "aaabbb", "abb", "ba");
+        assertSameMatches(0, new String[][]{{"a@this?b@this?c"}}, "abc", "ababcc", "aabcbc", "aabcbabcc", "aabc", "cba");
+        assertSameMatches(0, new String[][]{{"(a?)(b?)"}}, "", "a", "b", "ab", "ba");
+        assertSameMatches(0, new String[][]{{"0(@this)0|1(@this)1|0|1|@eps"}}, "", "0", "11", "010", "0110", "10101", "10", "1101");
+        assertSameMatches(0, new String[][]{{"0(@this)1(@this)|1(@this)0(@this)|@eps"}}, "", "0101", "1100", "110010", "0", "101");
+        assertSameMatches(0, new String[][]{{"AB", "a(@CD)b|x"}, {"CD", "c(@AB)d"}}, "x", "cxd", "acxdb", "cacxdbd", "acdb");
+        assertSameMatches(0, new String[][]{{"S", "(@A\\s)+@A?[\\.\\!\\?]"}, {"A", "\\w+"}}, "Hello Recexp!", "Hello!", "Hello Recexp", "Hello  !");
+        assertSameMatches(0, new String[][]{{"E", "@T(±@T)*"}, {"T", "@F(×@F)*"}, {"F", "\\(@E\\)|X|Y|ab\\.c"}},
+                          "((X±X)×(Y×X)±Y×Y×(X))±X×(Y±(ab.c×Y±X))", "X", "(X×X)(Y×X)", "X±", "", "(((Y)))", "ab.c", "abxc");
+        assertSameMatches(0, new String[][]{{"(ab){2,3}@this?c?"}}, "abab", "ababc", "abababababc", "ab", "ababababc", "");
+        assertSameMatches(Pattern.CASE_INSENSITIVE, new String[][]{{"ab@this?"}}, "ab", "AbaB", "aba", "");
+    }
+
+    @Test
+    public void reusedStateTest() {
+        Set<Rule> ruleSet = rules(new String[][]{{"a@this?b"}});
+        GeneratedRecognizer generated = RecognizerGenerator.generate(ContextFreeGrammar.compile(ruleSet, 0));
+        List<ContextFreeGrammar.Nonterminal> starts = new ArrayList<ContextFreeGrammar.Nonterminal>();
+        starts.add(generated.getGrammar().ruleSymbol(ruleSet.iterator().next()));
+
+        GrammarParser.Recognizer recognizer = generated.recognizer(starts);
+
+        assertThat(recognizer.recognize("aaabbb"), is(true));
+        assertThat(recognizer.recognize("ab"), is(true));
+        assertThat(recognizer.recognize("aabbb"), is(false));
+        assertThat(recognizer.recognize(new StringBuilder("aabb")), is(true));
+    }
+
+    @Test
+    public void leftRecursionTest() {
+        assertThat(generate(new String[][]{{"S", "(@S)a|a"}}), nullValue());
+        assertThat(generate(new String[][]{{"S", "b?(@S)a|a"}}), nullValue());
+        assertThat(generate(new String[][]{{"E", "@E±@T|@T"}, {"T", "X"}}), nullValue());
+        assertThat(generate(new String[][]{{"S", "b(@S)a|a"}}), notNullValue());
+    }
+
+    @Test
+    public void literalTest() {
+        assertThat(RecognizerGenerator.literal("abc", 0), is("abc"));
+        assertThat(RecognizerGenerator.literal("a\\.\\(", 0), is("a.("));
+        assertThat(RecognizerGenerator.literal("±", Pattern.DOTALL), is("±"));
+        assertThat(RecognizerGenerator.literal("a.", 0), nullValue());
+        assertThat(RecognizerGenerator.literal("\\w", 0), nullValue());
+        assertThat(RecognizerGenerator.literal("a", Pattern.CASE_INSENSITIVE), nullValue());
+        assertThat(RecognizerGenerator.literal("", 0), nullValue());
+    }
+
+    private static GeneratedRecognizer generate(String[][] rules) {
+        return RecognizerGenerator.generate(ContextFreeGrammar.compile(rules(rules), 0));
+    }
+
+    private static void assertSameMatches(int flags, String[][] rules, String... inputs) {
+        Set<Rule> ruleSet = rules(rules);
+        List<ContextFreeGrammar.Nonterminal> starts = new ArrayList<ContextFreeGrammar.Nonterminal>();
+        ContextFreeGrammar grammar = ContextFreeGrammar.compile(ruleSet, flags);
+        starts.add(grammar.ruleSymbol(ruleSet.iterator().next()));
+
+        GeneratedRecognizer generated = RecognizerGenerator.generate(grammar);
+        assertThat(generated, notNullValue());
+
+        GrammarParser.Recognizer expected = new EarleyParser(grammar).recognizer(starts);
+        GrammarParser.Recognizer actual = generated.recognizer(starts);
+
+        for (String input : inputs) {
+            assertThat("Matches for '" + input + "'", actual.recognize(input), is(expected.recognize(input)));
+        }
+    }
+
+    private static Set<Rule> rules(String[][] rules) {
+        Set<Rule> ruleSet = new LinkedHashSet<Rule>();
+        for (String[] rule : rules) {
+            ruleSet.add(rule.length == 1 ? new Rule(rule[0]) : new NamedRule(rule[0], rule[1]));
+        }
+        ruleSet.add(ImplicitRule.EPSILON_RULE);
+        return ruleSet;
+    }
+}
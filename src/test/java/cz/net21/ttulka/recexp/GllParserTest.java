@@ -0,0 +1,114 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static cz.net21.ttulka.recexp.EarleyParserTest.assertSameAcceptance;
+import static cz.net21.ttulka.recexp.EarleyParserTest.assertSameMatches;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class GllParserTest {
+
+    @Test
+    public void sameMatchesAsDerivationTest() {
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"a"}}, "", "a", "aa");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"a@this?b"}}, "", "ab", "aabb", "aaabbb", "abb", "ba");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"a(@this)?b"}}, "ab", "aabb", "aab");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"a@this?b@this?c"}}, "abc", "ababcc", "aabcbc", "aabcbabcc", "aabc", "cba");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"fi(r)st(@this?)second"}}, "firstsecond", "firstfirstsecondsecond", "first");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"a(b(c)(d))e"}}, "abcde", "abcd");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"(a?)(b?)"}}, "", "a", "b", "ab", "ba");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"a(@this)b|c"}}, "c", "acb", "aacbb", "ab", "accb");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"0(@this)0|1(@this)1|0|1|@eps"}}, "", "0", "11", "010", "0110", "10101", "10");
+        // ambiguous grammar, the derivations can differ
+        assertSameAcceptance(RecexpEngine.GLL, new String[][]{{"0(@this)1(@this)|1(@this)0(@this)|@eps"}}, "", "0101", "1100", "110010", "0", "101");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"@A@this?@B"}, {"A", "a"}, {"B", "b"}}, "ab", "aabb", "aab");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"AB", "a(@CD)b|x"}, {"CD", "c(@AB)d"}}, "x", "cxd", "acxdb", "cacxdbd", "acdb");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"R", "a(@R)b"}, {"R", "@X"}, {"R", "@eps"}, {"X", "x"}}, "", "x", "ab", "axb", "xx");
+        assertSameMatches(RecexpEngine.GLL, new String[][]{{"S", "a?@S+|a"}}, "a", "b");
+    }
+
+    @Test
+    public void leftRecursionTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("E", "@E±@T|@T")
+                .rule("T", "@T×@F|@F")
+                .rule("F", "\\(@E\\)|X|Y")
+                .engine(RecexpEngine.GLL)
+                .build();
+
+        assertThat(recexp.matcher("E", "X±Y").matches(), is(true));
+        assertThat(recexp.matcher("E", "(X±X)×(Y×X)").matches(), is(true));
+        assertThat(recexp.matcher("E", "((X±X)×(Y×X)±Y×Y×(X))±X×(Y±(X×Y±X))").matches(), is(true));
+
+        assertThat(recexp.matcher("E", "").matches(), is(false));
+        assertThat(recexp.matcher("E", "X±").matches(), is(false));
+        assertThat(recexp.matcher("E", "(X×X)(Y×X)").matches(), is(false));
+
+        RecexpMatcher matcher = recexp.matcher("E", "X±Y×X");
+
+        assertThat(matcher.groupCount(), is(3));
+        assertThat(matcher.group(1).value(), is("X"));
+        assertThat(matcher.group(3).name(), is("@T"));
+        assertThat(matcher.group(3).value(), is("Y×X"));
+    }
+
+    @Test
+    public void highlyAmbiguousTest() {
+        // the number of derivations grows exponentially, the forest is shared
+        Recexp recexp = Recexp.builder()
+                .rule("S", "@S@S|@S@S@S|a")
+                .engine(RecexpEngine.GLL)
+                .build();
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append('a');
+        }
+        assertThat(recexp.matches(sb.toString()), is(true));
+        assertThat(recexp.matches(sb.append('b').toString()), is(false));
+    }
+
+    @Test
+    public void longInputTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append('a');
+        }
+        for (int i = 0; i < 500; i++) {
+            sb.append('b');
+        }
+        Recexp recexp = Recexp.builder().rule("a@this?b").engine(RecexpEngine.GLL).build();
+
+        assertThat(recexp.matches(sb.toString()), is(true));
+        assertThat(recexp.matches(sb.append('b').toString()), is(false));
+    }
+
+    @Test(expected = RecexpRuleNotFoundException.class)
+    public void undefinedReferenceTest() {
+        Recexp.builder().rule("a@UNDEFINED").engine(RecexpEngine.GLL).build().matches("ab");
+    }
+
+    @Test
+    public void parseTest() {
+        Rule rule = new Rule("a@this?b");
+        ContextFreeGrammar grammar = ContextFreeGrammar.compile(Collections.singleton(rule), 0);
+        GllParser parser = new GllParser(grammar);
+
+        Derivation derivation = parser.parse(grammar.ruleSymbol(rule), "aabb");
+
+        assertThat(derivation, not(nullValue()));
+        assertThat(derivation.getStart(), is(0));
+        assertThat(derivation.getEnd(), is(4));
+        assertThat(derivation.getChildren().length, is(1));
+
+        assertThat(parser.parse(grammar.ruleSymbol(rule), "aab"), is(nullValue()));
+    }
+}
@@ -0,0 +1,238 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class GrammarAnalysisTest {
+
+    @Test
+    public void nullableTest() {
+        assertThat(analyze(new String[][]{{"a"}}).isNullable(start()), is(false));
+        assertThat(analyze(new String[][]{{"a?"}}).isNullable(start()), is(true));
+        assertThat(analyze(new String[][]{{"a@this?b|@eps"}}).isNullable(start()), is(true));
+        assertThat(analyze(new String[][]{{"S", "@A@B"}, {"A", "a*"}, {"B", "b|@A"}}).isNullable(start()), is(true));
+        assertThat(analyze(new String[][]{{"S", "@A@B"}, {"A", "a*"}, {"B", "b|@A@C"}, {"C", "c"}}).isNullable(start()), is(false));
+        // out of the regular subset
+        assertThat(analyze(new String[][]{{"\\b"}}).isNullable(start()), is(true));
+        // undefined
+        assertThat(analyze(new String[][]{{"a?@UNDEFINED"}}).isNullable(start()), is(true));
+    }
+
+    @Test
+    public void firstTest() {
+        Analyzed analyzed = analyze(new String[][]{{"E", "@E±@T|@T"}, {"T", "@T×@F|@F"}, {"F", "\\(@E\\)|X|Y"}});
+
+        assertThat(analyzed.first(start()), is("(XY"));
+        assertThat(analyzed.first("F"), is("(XY"));
+        assertThat(analyzed.isNullable(start()), is(false));
+
+        analyzed = analyze(new String[][]{{"S", "@A?b"}, {"A", "a|[c-e]@S"}});
+        assertThat(analyzed.first(start()), is("abcde"));
+        assertThat(analyzed.first("A"), is("acde"));
+
+        analyzed = analyze(new String[][]{{"a@UNDEFINED|b"}});
+        assertThat(analyzed.first(start()), is("ab"));
+    }
+
+    @Test
+    public void followTest() {
+        Analyzed analyzed = analyze(new String[][]{{"E", "@E±@T|@T"}, {"T", "@T×@F|@F"}, {"F", "\\(@E\\)|X|Y"}});
+
+        assertThat(analyzed.follow("E"), is(")±"));
+        assertThat(analyzed.follow("T"), is(")±×"));
+        assertThat(analyzed.follow("F"), is(")±×"));
+
+        analyzed = analyze(new String[][]{{"S", "@A@B?c"}, {"A", "a"}, {"B", "b"}});
+        assertThat(analyzed.follow("A"), is("bc"));
+        assertThat(analyzed.follow("B"), is("c"));
+    }
+
+    @Test
+    public void lengthTest() {
+        Analyzed analyzed = analyze(new String[][]{{"S", "@A@B"}, {"A", "[0-9]{2}"}, {"B", "x?|yyy"}});
+        assertThat(analyzed.length(start()), is(new int[]{2, 5}));
+        assertThat(analyzed.length("B"), is(new int[]{0, 3}));
+
+        analyzed = analyze(new String[][]{{"S", "a@S?b"}});
+        assertThat(analyzed.length(start()), is(new int[]{2, LengthBounds.UNBOUNDED}));
+
+        analyzed = analyze(new String[][]{{"S", "@S|ab|c"}});
+        assertThat(analyzed.length(start()), is(new int[]{1, 2}));
+
+        // no string derived
+        analyzed = analyze(new String[][]{{"S", "a@S"}});
+        assertThat(analyzed.length(start())[0], is(LengthBounds.UNBOUNDED));
+
+        analyzed = analyze(new String[][]{{"a\\b|@UNDEFINED"}});
+        assertThat(analyzed.length(start()), is(new int[]{0, LengthBounds.UNBOUNDED}));
+    }
+
+    @Test
+    public void canStartTest() {
+        Analyzed analyzed = analyze(new String[][]{{"0(@this)1|@eps"}});
+        ContextFreeGrammar.Nonterminal start = analyzed.grammar.ruleSymbol(analyzed.rules.iterator().next());
+        GrammarAnalysis analysis = analyzed.grammar.getAnalysis();
+
+        assertThat(analysis.canStart(start, "01", 0), is(true));
+        assertThat(analysis.canStart(start, "", 0), is(true));
+
+        int rejecting = 0;
+        for (ContextFreeGrammar.Production production : start.getProductions()) {
+            if (!analysis.canStart(production, "1", 0)) {
+                rejecting++;
+            }
+        }
+        assertThat(rejecting, is(1));
+
+        // too long to fit into the rest of the input
+        assertThat(analysis.canStart(start, "0", 0), is(true));
+        rejecting = 0;
+        for (ContextFreeGrammar.Production production : start.getProductions()) {
+            if (!analysis.canStart(production, "0", 0)) {
+                rejecting++;
+            }
+        }
+        assertThat(rejecting, is(1));
+    }
+
+    @Test
+    public void literalsTest() {
+        Analyzed analyzed = analyze(new String[][]{{"S", "begin@B*end"}, {"B", "<@S>|x|y"}});
+        assertThat(analyzed.literals(start()).toString(), is("'begin'..'begin'..'end'"));
+        assertThat(analyzed.literals("B").toString(), is("''..''..''"));
+
+        analyzed = analyze(new String[][]{{"S", "a@S?b"}});
+        assertThat(analyzed.literals(start()).toString(), is("'a'..'a'..'b'"));
+
+        analyzed = analyze(new String[][]{{"S", "@A|@B"}, {"A", "xabcx"}, {"B", "yabcy"}});
+        assertThat(analyzed.literals(start()).factor, is("abc"));
+
+        // no string derived
+        analyzed = analyze(new String[][]{{"S", "a@S"}});
+        assertThat(analyzed.literals(start()), is(nullValue()));
+
+        analyzed = analyze(new String[][]{{"a@UNDEFINED"}});
+        assertThat(analyzed.literals(start()).toString(), is("'a'..'a'..''"));
+    }
+
+    @Test
+    public void excludesTest() {
+        Analyzed analyzed = analyze(new String[][]{{"E", "@E±@T|@T"}, {"T", "@T×@F|@F"}, {"F", "\\(@E\\)|X|Y"}});
+
+        assertThat(analyzed.requiredChars(start()), is("XY"));
+        assertThat(analyzed.alphabet(start()), is("()XY±×"));
+
+        assertThat(analyzed.excludes(start(), "(X±Y)×X"), is(false));
+        assertThat(analyzed.excludes(start(), "((±))"), is(true));
+        assertThat(analyzed.excludes(start(), "X±Z"), is(true));
+        assertThat(analyzed.excludes(start(), "±X"), is(true));
+        assertThat(analyzed.excludes(start(), ""), is(true));
+
+        analyzed = analyze(new String[][]{{"S", "<a>@B*</a>"}, {"B", "[a-z]+"}});
+        assertThat(analyzed.excludes(start(), "<a>xyz</a>"), is(false));
+        assertThat(analyzed.excludes(start(), "<a>xyz</b>"), is(true));
+        assertThat(analyzed.excludes(start(), "<b>xyz</a>"), is(true));
+        assertThat(analyzed.excludes(start(), "<a></a>"), is(false));
+        assertThat(analyzed.excludes(start(), "<a>/a>"), is(true));
+
+        analyzed = analyze(new String[][]{{"a@UNDEFINED"}});
+        assertThat(analyzed.excludes(start(), "a~"), is(false));
+        assertThat(analyzed.excludes(start(), "b"), is(true));
+
+        // out of the regular subset
+        analyzed = analyze(new String[][]{{"a\\b@UNDEFINED"}});
+        assertThat(analyzed.excludes(start(), "a~"), is(false));
+        assertThat(analyzed.excludes(start(), "b"), is(false));
+    }
+
+    private static String start() {
+        return null;
+    }
+
+    private static Analyzed analyze(String[][] rules) {
+        Set<Rule> ruleSet = new LinkedHashSet<Rule>();
+        for (String[] rule : rules) {
+            ruleSet.add(rule.length == 1 ? new Rule(rule[0]) : new NamedRule(rule[0], rule[1]));
+        }
+        ruleSet.add(ImplicitRule.EPSILON_RULE);
+        return new Analyzed(ruleSet, ContextFreeGrammar.compile(ruleSet, 0));
+    }
+
+    private static class Analyzed {
+
+        final Set<Rule> rules;
+        final ContextFreeGrammar grammar;
+
+        Analyzed(Set<Rule> rules, ContextFreeGrammar grammar) {
+            this.rules = rules;
+            this.grammar = grammar;
+        }
+
+        /**
+         * The rule by name, the first rule for <code>null</code>.
+         */
+        ContextFreeGrammar.Nonterminal symbol(String name) {
+            for (Rule rule : rules) {
+                if (name == null || rule instanceof NamedRule && rule.getName().equals(name)) {
+                    return grammar.ruleSymbol(rule);
+                }
+            }
+            throw new IllegalArgumentException(name);
+        }
+
+        boolean isNullable(String name) {
+            return grammar.getAnalysis().isNullable(symbol(name));
+        }
+
+        String first(String name) {
+            return chars(grammar.getAnalysis().first(symbol(name)));
+        }
+
+        int[] length(String name) {
+            return new int[]{grammar.getAnalysis().minLength(symbol(name)), grammar.getAnalysis().maxLength(symbol(name))};
+        }
+
+        Literals literals(String name) {
+            return grammar.getAnalysis().literals(symbol(name));
+        }
+
+        String requiredChars(String name) {
+            return chars(grammar.getAnalysis().requiredChars(symbol(name)));
+        }
+
+        String alphabet(String name) {
+            return chars(grammar.getAnalysis().alphabet(symbol(name)));
+        }
+
+        boolean excludes(String name, String input) {
+            return grammar.getAnalysis().excludes(symbol(name), input);
+        }
+
+        String follow(String name) {
+            ContextFreeGrammar.Nonterminal reference = grammar.referenceSymbol(name);
+            return chars(grammar.getAnalysis().follow(symbol(name)).union(grammar.getAnalysis().follow(reference)));
+        }
+
+        /**
+         * The characters out of the surrogates.
+         */
+        private static String chars(CharRanges ranges) {
+            StringBuilder sb = new StringBuilder();
+            for (char ch = 0; ch < Character.MIN_SURROGATE; ch++) {
+                if (ranges.contains(ch)) {
+                    sb.append(ch);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
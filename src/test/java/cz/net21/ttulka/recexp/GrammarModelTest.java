@@ -0,0 +1,55 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+
+/**
+ * @author ttulka
+ */
+public class GrammarModelTest {
+
+    @Test
+    public void indexTest() {
+        Rule a1 = new NamedRule("A", "a");
+        Rule a2 = new NamedRule("A", "@B");
+        Rule b = new NamedRule("B", "b?");
+        Rule anonymous = new Rule("x@A");
+
+        GrammarModel grammar = new GrammarModel(Arrays.asList(a1, a2, b, anonymous, ImplicitRule.EPSILON_RULE));
+
+        assertThat(grammar.getRules().size(), is(5));
+        assertThat(grammar.getExplicitRules(), containsInAnyOrder(a1, a2, b, anonymous));
+        assertThat(grammar.getNamedRules("A"), containsInAnyOrder(a1, a2));
+        assertThat(grammar.getNamedRules("B"), containsInAnyOrder(b));
+        assertThat(grammar.getNamedRules(Expression.EPSILON_REFERENCE_NAME), containsInAnyOrder((Rule) ImplicitRule.EPSILON_RULE));
+        assertThat(grammar.getRuleNames(), containsInAnyOrder("A", "B", Expression.EPSILON_REFERENCE_NAME));
+
+        assertThat(grammar.explicitRulesCount("A"), is(2));
+        assertThat(grammar.explicitRulesCount("x@A"), is(1));
+        assertThat(grammar.explicitRulesCount(Expression.EPSILON_REFERENCE_NAME), is(0));
+    }
+
+    @Test(expected = RecexpRuleNotFoundException.class)
+    public void ruleNotFoundTest() {
+        new GrammarModel(Arrays.asList(new NamedRule("A", "a"))).getNamedRules("B");
+    }
+
+    @Test
+    public void nullableTest() {
+        Rule rule = new Rule("a?(@this)b|c*");
+        GrammarModel grammar = new GrammarModel(Arrays.asList(rule));
+
+        ExpressionTree.Node root = rule.getExpression().getRoot();
+
+        assertThat(grammar.isNullable(root), is(true));
+        assertThat(grammar.isNullable(root.getSubNodes().get(0)), is(false));
+        assertThat(grammar.isNullable(root.getSubNodes().get(0).getSubNodes().get(0)), is(true));
+        assertThat(grammar.isNullable(root.getSubNodes().get(1)), is(true));
+        assertThat(grammar.isNullable(ExpressionTree.Node.parseNode("x")), is(false));
+    }
+}
@@ -1,5 +1,8 @@
 package cz.net21.ttulka.recexp;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -8,6 +11,7 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.junit.Test;
 
@@ -68,6 +72,52 @@ public class GrammarTest {
         assertThat(grammar.rules.size(), is(2 + 1));
     }
 
+    @Test
+    public void builderOptionsTest() {
+        Recexp.RecexpBuilder builder = Recexp.builder().rule("a(@this)b|@eps").engine(RecexpEngine.EARLEY).flags(Pattern.CASE_INSENSITIVE);
+        Recexp grammar = builder.build();
+
+        // the builder doesn't share its options with the built grammar
+        builder.rule("x").engine(RecexpEngine.GLL).flags(0).build();
+
+        assertThat(grammar.engine, is(RecexpEngine.EARLEY));
+        assertThat(grammar.flags, is(Pattern.CASE_INSENSITIVE));
+        assertThat(grammar.matches("AaBb"), is(true));
+    }
+
+    @Test
+    public void lazyStructuresTest() {
+        Recexp grammar = Recexp.builder().rule("a(@this)b|@eps").build();
+
+        // the derivation engine builds no structures before matching
+        assertThat(grammar.isPrepared(), is(false));
+
+        assertThat(grammar.matches("aabb"), is(true));
+        assertThat(grammar.isPrepared(), is(true));
+    }
+
+    @Test
+    public void snapshotLoadTest() throws IOException {
+        Recexp grammar = Recexp.builder()
+                .rule("E", "@T(±@T)*")
+                .rule("T", "@F(×@F)*")
+                .rule("F", "\\(@E\\)|X|Y")
+                .build();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        grammar.save(output);
+
+        RecexpCacheStatistics before = Recexp.cacheStatistics();
+        Recexp loaded = Recexp.load(new ByteArrayInputStream(output.toByteArray()));
+        RecexpCacheStatistics after = Recexp.cacheStatistics();
+
+        // loading neither parses nor compiles an expression, the analysis is built by the first match
+        assertThat(after.getHits() + after.getMisses(), is(before.getHits() + before.getMisses()));
+        assertThat(loaded.isPrepared(), is(false));
+
+        assertThat(loaded.matches("X±Y"), is(true));
+        assertThat(loaded.isPrepared(), is(true));
+    }
+
     @Test
     public void rulesConstructorTest() {
         Recexp grammar1 = Recexp.compile("");
@@ -522,21 +572,21 @@ public class GrammarTest {
         ExpressionTree.Node derivative;
 
         derivative = Recexp.compile("")
-                .deriveTree(ExpressionTree.parseTree("a").getRoot(), "a", new HashSet<String>());
+                .deriveTree(ExpressionTree.parseTree("a").getRoot(), "a");
 
         assertThat(derivative, not(nullValue()));
         assertThat(derivative.getSubNodesConnectionType(), is(ExpressionTree.Node.SubNodesConnectionType.SINGLE));
         assertThat(derivative.getSubNodes().size(), is(0));
 
         derivative = Recexp.compile("")
-                .deriveTree(ExpressionTree.parseTree("a?").getRoot(), "a", new HashSet<String>());
+                .deriveTree(ExpressionTree.parseTree("a?").getRoot(), "a");
 
         assertThat(derivative, not(nullValue()));
         assertThat(derivative.getSubNodesConnectionType(), is(ExpressionTree.Node.SubNodesConnectionType.SINGLE));
         assertThat(derivative.getSubNodes().size(), is(0));
 
         derivative = Recexp.compile("")
-                .deriveTree(ExpressionTree.parseTree("a|b").getRoot(), "a", new HashSet<String>());
+                .deriveTree(ExpressionTree.parseTree("a|b").getRoot(), "a");
 
         assertThat(derivative, not(nullValue()));
         assertThat(derivative.getSubNodesConnectionType(), is(ExpressionTree.Node.SubNodesConnectionType.SINGLE));
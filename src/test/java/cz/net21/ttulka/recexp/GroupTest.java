@@ -27,4 +27,39 @@ public class GroupTest {
         assertThat(group.value(), is(value));
         assertThat(Arrays.asList(group.groups()), containsInAnyOrder(groups));
     }
+
+    @Test
+    public void offsetsTest() {
+        String input = "xabcx";
+        RecexpGroup[] groups = new RecexpGroup[]{new RecexpGroup(
+                "b", input, 2, 3, new RecexpGroup[]{}
+        )};
+
+        RecexpGroup group = new RecexpGroup("abc", input, 1, 4, groups);
+
+        assertThat(group.value(), is("abc"));
+        assertThat(group.start(), is(1));
+        assertThat(group.end(), is(4));
+        assertThat(group.group(1).value(), is("b"));
+        assertThat(group.group(1).start(), is(2));
+        assertThat(group.group(1).end(), is(3));
+    }
+
+    @Test
+    public void matcherOffsetsTest() {
+        RecexpMatcher matcher = Recexp.builder()
+                .rule("S", "@A@S?@B")
+                .rule("A", "a")
+                .rule("B", "b")
+                .build()
+                .matcher("aabb");
+
+        assertThat(matcher.start(), is(0));
+        assertThat(matcher.end(), is(4));
+        assertThat(matcher.group(2).value(), is("ab"));
+        assertThat(matcher.group(2).start(), is(1));
+        assertThat(matcher.group(2).end(), is(3));
+        assertThat(matcher.group(3).start(), is(3));
+        assertThat(matcher.group(3).end(), is(4));
+    }
 }
@@ -0,0 +1,85 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class LengthBoundsTest {
+
+    @Test
+    public void ruleTest() {
+        Rule start = new Rule("x@A{2}@B?");
+        LengthBounds lengths = lengths(start, new NamedRule("A", "[0-9]|yy"), new NamedRule("B", "b@B?"));
+
+        assertThat(admits(lengths, start, 2), is(false));
+        assertThat(admits(lengths, start, 3), is(true));
+        assertThat(admits(lengths, start, 100), is(true));
+    }
+
+    @Test
+    public void finiteRuleTest() {
+        Rule start = new Rule("x@A{2}@B?");
+        LengthBounds lengths = lengths(start, new NamedRule("A", "[0-9]|yy"), new NamedRule("B", "b|c{2}"));
+
+        assertThat(admits(lengths, start, 3), is(true));
+        assertThat(admits(lengths, start, 7), is(true));
+        assertThat(admits(lengths, start, 8), is(false));
+    }
+
+    @Test
+    public void selfReferenceTest() {
+        Rule start = new Rule("a@this?b");
+        LengthBounds lengths = lengths(start);
+
+        assertThat(admits(lengths, start, 1), is(false));
+        assertThat(admits(lengths, start, 2), is(true));
+        assertThat(admits(lengths, start, 1000), is(true));
+    }
+
+    @Test
+    public void candidateTest() {
+        Rule start = new Rule("a@this?b");
+        LengthBounds lengths = lengths(start);
+        ExpressionTree.Node root = start.getExpression().getRoot();
+        ExpressionTree.Node candidate = ExpressionTree.Node.parseNode("aa@this?bb");
+
+        assertThat(lengths.admits(candidate, root, 3, new HashMap<ExpressionTree.Node, int[]>()), is(false));
+        assertThat(lengths.admits(candidate, root, 4, new HashMap<ExpressionTree.Node, int[]>()), is(true));
+    }
+
+    @Test
+    public void selfReferenceInNamedRuleTest() {
+        // the self reference derives the starting rule
+        Rule start = new Rule("x|@A");
+        LengthBounds lengths = lengths(start, new NamedRule("A", "@this?b"));
+
+        assertThat(admits(lengths, start, 1), is(true));
+        assertThat(admits(lengths, start, 2), is(true));
+        assertThat(admits(lengths, start, 10), is(true));
+    }
+
+    @Test
+    public void unboundedTest() {
+        Rule start = new Rule("(?=a)a|@UNDEFINED");
+        LengthBounds lengths = lengths(start);
+
+        assertThat(admits(lengths, start, 0), is(true));
+        assertThat(admits(lengths, start, 10), is(true));
+    }
+
+    private static LengthBounds lengths(Rule... rules) {
+        return new LengthBounds(new GrammarModel(Arrays.asList(rules)), 0);
+    }
+
+    private static boolean admits(LengthBounds lengths, Rule rule, int length) {
+        ExpressionTree.Node root = rule.getExpression().getRoot();
+        return lengths.admits(root, root, length, new HashMap<ExpressionTree.Node, int[]>());
+    }
+}
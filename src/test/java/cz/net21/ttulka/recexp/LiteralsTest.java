@@ -0,0 +1,86 @@
+package cz.net21.ttulka.recexp;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class LiteralsTest {
+
+    @Test
+    public void concatTest() {
+        assertThat(Literals.concat(Literals.of("ab"), Literals.of("cd")), is(Literals.of("abcd")));
+        assertThat(Literals.concat(Literals.of("ab"), Literals.NONE).toString(), is("'ab'..'ab'..''"));
+        assertThat(Literals.concat(Literals.NONE, Literals.of("ab")).toString(), is("''..'ab'..'ab'"));
+        assertThat(Literals.concat(Literals.concat(Literals.NONE, Literals.of("abc")), Literals.NONE).toString(), is("''..'abc'..''"));
+        assertThat(Literals.concat(Literals.EMPTY, Literals.NONE), is(Literals.NONE));
+        assertThat(Literals.concat(Literals.of("a"), null), is(nullValue()));
+    }
+
+    @Test
+    public void joinTest() {
+        assertThat(Literals.join(Literals.of("abc"), Literals.of("abc")), is(Literals.of("abc")));
+        assertThat(Literals.join(Literals.of("abxcd"), Literals.of("abycd")).toString(), is("'ab'..'ab'..'cd'"));
+        assertThat(Literals.join(Literals.of("xabcx"), Literals.of("yabcy")).toString(), is("''..'abc'..''"));
+        assertThat(Literals.join(null, Literals.of("a")), is(Literals.of("a")));
+        assertThat(Literals.join(Literals.of("a"), null), is(Literals.of("a")));
+        assertThat(Literals.join(Literals.of("a"), Literals.EMPTY), is(Literals.NONE));
+    }
+
+    @Test
+    public void maxLengthTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Literals.MAX_LENGTH; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        String literal = sb.toString();
+
+        assertThat(Literals.of(literal).exact, is(literal));
+        Literals longer = Literals.of(literal + "!");
+        assertThat(longer.exact, is(nullValue()));
+        assertThat(longer.prefix, is(literal));
+        assertThat(longer.suffix, is(literal.substring(1) + "!"));
+        assertThat(longer.excludes(literal + "!"), is(false));
+    }
+
+    @Test
+    public void excludesTest() {
+        assertThat(Literals.of("abc").excludes("abc"), is(false));
+        assertThat(Literals.of("abc").excludes("abcd"), is(true));
+        assertThat(Literals.NONE.excludes(""), is(false));
+        assertThat(Literals.EMPTY.excludes(""), is(false));
+        assertThat(Literals.EMPTY.excludes("a"), is(true));
+
+        Literals literals = Literals.concat(Literals.concat(Literals.of("<"), Literals.NONE), Literals.of(">"));
+        assertThat(literals.excludes("<a>"), is(false));
+        assertThat(literals.excludes("<>"), is(false));
+        assertThat(literals.excludes(">"), is(true));
+        assertThat(literals.excludes("<a"), is(true));
+
+        // the prefix and the suffix overlap
+        literals = Literals.join(Literals.of("aba"), Literals.of("abxba"));
+        assertThat(literals.excludes("aba"), is(false));
+        assertThat(literals.excludes("ab"), is(true));
+
+        literals = Literals.concat(Literals.concat(Literals.NONE, Literals.of("needle")), Literals.NONE);
+        assertThat(literals.excludes("haystack with a needle in it"), is(false));
+        assertThat(literals.excludes("haystack with a needl"), is(true));
+    }
+
+    @Test
+    public void indexOfTest() {
+        String[] inputs = {"", "a", "abc", "abcabc", "aaab", "xyzxyzyx", "±×±×", "hello world", "šɡš"};
+        String[] literals = {"a", "ab", "bc", "cab", "aab", "zyx", "×±", "world", "o w", "ɡš", "šš", "missing"};
+
+        for (String input : inputs) {
+            for (String literal : literals) {
+                assertThat(input + " / " + literal, Literals.indexOf(input, literal), is(input.indexOf(literal)));
+            }
+        }
+        assertThat(Literals.indexOf("abc", ""), is(0));
+    }
+}
@@ -0,0 +1,116 @@
+package cz.net21.ttulka.recexp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class MappedInputTest {
+
+    private static final String ASCII = "Hello Recexp!";
+    private static final String UNICODE = "X±Y×X → ∑";
+
+    @Test
+    public void viewTest() {
+        for (String charset : new String[]{"ISO-8859-1", "US-ASCII", "UTF-8", "UTF-16", "UTF-16BE", "UTF-16LE", "windows-1252"}) {
+            assertView(ASCII, Charset.forName(charset));
+        }
+        for (String charset : new String[]{"UTF-8", "UTF-16", "UTF-16BE", "UTF-16LE"}) {
+            assertView(UNICODE, Charset.forName(charset));
+        }
+        assertView("Zürich", Charset.forName("ISO-8859-1"));
+    }
+
+    @Test
+    public void viewWithoutCopyTest() {
+        assertThat(MappedInput.view(ByteBuffer.wrap(ASCII.getBytes(Charset.forName("UTF-8"))), Charset.forName("UTF-8")),
+                   not(instanceOf(String.class)));
+        assertThat(MappedInput.view(ByteBuffer.wrap(UNICODE.getBytes(Charset.forName("UTF-16"))), Charset.forName("UTF-16")),
+                   not(instanceOf(String.class)));
+    }
+
+    @Test
+    public void viewDecodedByWindowsTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            // a supplementary character takes two chars, a window can end before it
+            sb.append(UNICODE).append(i % 7 == 0 ? "\uD834\uDD1E" : "").append('\n');
+        }
+        String input = sb.toString();
+        Charset charset = Charset.forName("UTF-8");
+
+        CharSequence view = MappedInput.view(ByteBuffer.wrap(input.getBytes(charset)), charset);
+
+        assertThat(view, not(instanceOf(CharBuffer.class)));
+        assertThat(view.length(), is(input.length()));
+        for (int i = 0; i < input.length(); i++) {
+            assertThat("char " + i, view.charAt(i), is(input.charAt(i)));
+        }
+        // backwards across the windows
+        for (int i = input.length() - 1; i >= 0; i -= 997) {
+            assertThat("char " + i, view.charAt(i), is(input.charAt(i)));
+        }
+        assertThat(view.subSequence(8000, 9000).toString(), is(input.substring(8000, 9000)));
+        assertThat(view.subSequence(8000, 9000).subSequence(10, 20).toString(), is(input.substring(8010, 8020)));
+        assertThat(view.toString(), is(input));
+    }
+
+    @Test
+    public void viewMalformedTest() {
+        Charset charset = Charset.forName("UTF-8");
+        byte[] bytes = {'a', (byte) 0xC3, 'b', (byte) 0xE2, (byte) 0x82};
+
+        CharSequence view = MappedInput.view(ByteBuffer.wrap(bytes), charset);
+
+        assertThat(view.toString(), is(new String(bytes, charset)));
+    }
+
+    @Test
+    public void viewFromPositionTest() {
+        ByteBuffer buffer = ByteBuffer.wrap(ASCII.getBytes(Charset.forName("US-ASCII")));
+        buffer.position(6);
+
+        CharSequence view = MappedInput.view(buffer, Charset.forName("US-ASCII"));
+
+        assertThat(view.toString(), is("Recexp!"));
+        assertThat(view.subSequence(1, 3).toString(), is("ec"));
+    }
+
+    @Test
+    public void readerTest() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append(UNICODE).append('\n');
+        }
+        Charset charset = Charset.forName("UTF-8");
+        BufferedReader reader = new BufferedReader(MappedInput.reader(ByteBuffer.wrap(sb.toString().getBytes(charset)), charset));
+
+        int lines = 0;
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            assertThat(line, is(UNICODE));
+            lines++;
+        }
+        assertThat(lines, is(5000));
+    }
+
+    private static void assertView(String input, Charset charset) {
+        CharSequence view = MappedInput.view(ByteBuffer.wrap(input.getBytes(charset)), charset);
+
+        assertThat(charset + " length", view.length(), is(input.length()));
+        assertThat(charset + " content", view.toString(), is(input));
+        for (int i = 0; i < input.length(); i++) {
+            assertThat(charset + " char " + i, view.charAt(i), is(input.charAt(i)));
+        }
+    }
+}
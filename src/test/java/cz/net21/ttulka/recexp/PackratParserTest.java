@@ -0,0 +1,156 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static cz.net21.ttulka.recexp.EarleyParserTest.assertSameAcceptance;
+import static cz.net21.ttulka.recexp.EarleyParserTest.assertSameGroup;
+import static cz.net21.ttulka.recexp.EarleyParserTest.assertSameMatches;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class PackratParserTest {
+
+    @Test
+    public void sameMatchesAsDerivationTest() {
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"a"}}, "", "a", "aa");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"a@this?b"}}, "", "ab", "aabb", "aaabbb", "abb", "ba");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"a(@this)?b"}}, "ab", "aabb", "aab");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"a@this?b@this?c"}}, "abc", "ababcc", "aabcbc", "aabcbabcc", "aabc", "cba");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"fi(r)st(@this?)second"}}, "firstsecond", "firstfirstsecondsecond", "first");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"a(b(c)(d))e"}}, "abcde", "abcd");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"(a?)(b?)"}}, "", "a", "b", "ab", "ba");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"a(@this)b|c"}}, "c", "acb", "aacbb", "ab", "accb");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"@A@this?@B"}, {"A", "a"}, {"B", "b"}}, "ab", "aabb", "aab");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"AB", "a(@CD)b|x"}, {"CD", "c(@AB)d"}}, "x", "cxd", "acxdb", "cacxdbd", "acdb");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"R", "a(@R)b"}, {"R", "@X"}, {"R", "@eps"}, {"X", "x"}}, "", "x", "ab", "axb", "xx");
+        assertSameMatches(RecexpEngine.PACKRAT, new String[][]{{"S", "a?@S+|a"}}, "a", "b");
+        assertSameAcceptance(RecexpEngine.PACKRAT, new String[][]{{"S", "(@A){1,3}c"}, {"A", "a"}}, "ac", "aac", "aaac", "c", "aaaac");
+    }
+
+    @Test
+    public void boundedRepetitionTest() {
+        Recexp packrat = Recexp.builder().rule("S", "(@A){1,3}c").rule("A", "a").engine(RecexpEngine.PACKRAT).build();
+        Recexp earley = Recexp.builder().rule("S", "(@A){1,3}c").rule("A", "a").engine(RecexpEngine.EARLEY).build();
+
+        for (String input : new String[]{"ac", "aac", "aaac"}) {
+            assertSameGroup(input, packrat.matcher(input), earley.matcher(input));
+        }
+        assertThat(packrat.matcher("aaac").group(1).groupCount(), is(3));
+    }
+
+    @Test
+    public void orderedChoiceTest() {
+        // the first matching alternative is never reconsidered
+        Recexp recexp = Recexp.builder().rule("a|ab").engine(RecexpEngine.PACKRAT).build();
+
+        assertThat(recexp.matches("a"), is(true));
+        assertThat(recexp.matches("ab"), is(false));
+        assertThat(Recexp.compile("a|ab").matches("ab"), is(true));
+
+        // the palindromes grammar is not a parsing expression grammar
+        Recexp palindromes = Recexp.builder().rule("0(@this)0|1(@this)1|0|1|@eps").engine(RecexpEngine.PACKRAT).build();
+
+        assertThat(palindromes.matches("010"), is(true));
+        assertThat(palindromes.matches("11"), is(false));
+        assertThat(Recexp.compile("0(@this)0|1(@this)1|0|1|@eps").matches("11"), is(true));
+    }
+
+    @Test
+    public void rulesOrderTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("R", "a")
+                .rule("R", "ab")
+                .engine(RecexpEngine.PACKRAT)
+                .build();
+
+        assertThat(recexp.matcher("R", "a").matches(), is(true));
+        assertThat(recexp.matcher("R", "ab").matches(), is(true));
+        assertThat(recexp.matches("x@Rb"), is(false));
+    }
+
+    @Test
+    public void leftRecursionTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("E", "@E±@T|@T")
+                .rule("T", "@T×@F|@F")
+                .rule("F", "\\(@E\\)|X|Y")
+                .engine(RecexpEngine.PACKRAT)
+                .build();
+
+        assertThat(recexp.matcher("E", "X").matches(), is(true));
+        assertThat(recexp.matcher("E", "X±Y").matches(), is(true));
+        assertThat(recexp.matcher("E", "(X±X)×(Y×X)").matches(), is(true));
+        assertThat(recexp.matcher("E", "((X±X)×(Y×X)±Y×Y×(X))±X×(Y±(X×Y±X))").matches(), is(true));
+
+        assertThat(recexp.matcher("E", "").matches(), is(false));
+        assertThat(recexp.matcher("E", "X±").matches(), is(false));
+        assertThat(recexp.matcher("E", "(X×X)(Y×X)").matches(), is(false));
+
+        RecexpMatcher matcher = recexp.matcher("E", "X±Y×X");
+
+        assertThat(matcher.groupCount(), is(3));
+        assertThat(matcher.group(1).value(), is("X"));
+        assertThat(matcher.group(3).name(), is("@T"));
+        assertThat(matcher.group(3).value(), is("Y×X"));
+    }
+
+    @Test
+    public void indirectLeftRecursionTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("A", "(@B)x|y")
+                .rule("B", "(@A)z|w")
+                .engine(RecexpEngine.PACKRAT)
+                .build();
+
+        assertThat(recexp.matcher("A", "y").matches(), is(true));
+        assertThat(recexp.matcher("A", "wx").matches(), is(true));
+        assertThat(recexp.matcher("A", "yzx").matches(), is(true));
+        assertThat(recexp.matcher("A", "wxzxzx").matches(), is(true));
+
+        assertThat(recexp.matcher("A", "yz").matches(), is(false));
+        assertThat(recexp.matcher("A", "wxz").matches(), is(false));
+    }
+
+    @Test
+    public void longInputTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            sb.append('a');
+        }
+        for (int i = 0; i < 300; i++) {
+            sb.append('b');
+        }
+        Recexp recexp = Recexp.builder().rule("a@this?b").engine(RecexpEngine.PACKRAT).build();
+
+        assertThat(recexp.matches(sb.toString()), is(true));
+        assertThat(recexp.matches(sb.append('b').toString()), is(false));
+    }
+
+    @Test(expected = RecexpRuleNotFoundException.class)
+    public void undefinedReferenceTest() {
+        Recexp.builder().rule("a@UNDEFINED").engine(RecexpEngine.PACKRAT).build().matches("ab");
+    }
+
+    @Test
+    public void parseTest() {
+        Rule rule = new Rule("a@this?b");
+        ContextFreeGrammar grammar = ContextFreeGrammar.compile(Collections.singleton(rule), 0);
+        PackratParser parser = new PackratParser(grammar);
+
+        Derivation derivation = parser.parse(grammar.ruleSymbol(rule), "aabb");
+
+        assertThat(derivation, not(nullValue()));
+        assertThat(derivation.getStart(), is(0));
+        assertThat(derivation.getEnd(), is(4));
+        assertThat(derivation.getChildren().length, is(1));
+
+        assertThat(parser.parse(grammar.ruleSymbol(rule), "aab"), is(nullValue()));
+    }
+}
@@ -0,0 +1,109 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class PatternCacheTest {
+
+    @Test
+    public void compileTest() {
+        PatternCache cache = new PatternCache(10);
+
+        Pattern pattern = cache.compile("a@this\\@b", "X", 0);
+
+        assertThat(pattern.pattern(), is("aX\\@b"));
+        assertThat(pattern.flags(), is(0));
+        assertThat(cache.getHits(), is(0L));
+        assertThat(cache.getMisses(), is(1L));
+
+        assertThat(cache.compile("a@this\\@b", "X", 0), sameInstance(pattern));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getMisses(), is(1L));
+    }
+
+    @Test
+    public void keyTest() {
+        PatternCache cache = new PatternCache(10);
+
+        Pattern pattern = cache.compile("a@this", "X", 0);
+
+        assertThat(cache.compile("a@this", "Y", 0), not(sameInstance(pattern)));
+        assertThat(cache.compile("a@this", "X", Pattern.CASE_INSENSITIVE), not(sameInstance(pattern)));
+        assertThat(cache.compile("a@this", "X", Pattern.CASE_INSENSITIVE).flags(), is(Pattern.CASE_INSENSITIVE));
+        assertThat(cache.getMisses(), is(3L));
+        assertThat(cache.size(), is(3));
+    }
+
+    @Test
+    public void evictionTest() {
+        PatternCache cache = new PatternCache(1);
+
+        Pattern a = cache.compile("a", "X", 0);
+        cache.compile("b", "X", 0);
+
+        assertThat(cache.size(), is(1));
+        assertThat(cache.compile("a", "X", 0), not(sameInstance(a)));
+        assertThat(cache.getMisses(), is(3L));
+    }
+
+    @Test
+    public void leastRecentlyUsedTest() {
+        PatternCache cache = new PatternCache(2);
+
+        Pattern a = cache.compile("a", "X", 0);
+        Pattern b = cache.compile("b", "X", 0);
+        cache.compile("a", "X", 0);   // b is the least recently used now
+        cache.compile("c", "X", 0);
+
+        assertThat(cache.compile("a", "X", 0), sameInstance(a));
+        assertThat(cache.compile("b", "X", 0), not(sameInstance(b)));
+    }
+
+    @Test
+    public void clearTest() {
+        PatternCache cache = new PatternCache(10);
+        cache.compile("a", "X", 0);
+        cache.compile("a", "X", 0);
+
+        cache.clear();
+
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getHits(), is(0L));
+        assertThat(cache.getMisses(), is(0L));
+    }
+
+    @Test
+    public void statisticsTest() {
+        PatternCache cache = new PatternCache(10);
+        cache.compile("a", "X", 0);
+        cache.compile("a", "X", 0);
+        cache.compile("b", "X", 0);
+
+        RecexpCacheStatistics statistics = cache.statistics();
+
+        assertThat(statistics.getHits(), is(1L));
+        assertThat(statistics.getMisses(), is(2L));
+        assertThat(statistics.getSize(), is(2));
+        assertThat(statistics.getCapacity(), is(10));
+        assertThat(statistics.getHitRatio(), is(1.0 / 3));
+
+        cache.compile("a", "X", 0);
+
+        assertThat(statistics.getHits(), is(1L));
+        assertThat(cache.statistics().getHits(), is(2L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalCapacityTest() {
+        new PatternCache(0);
+    }
+}
@@ -0,0 +1,106 @@
+package cz.net21.ttulka.recexp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class RegularSubgrammarTest {
+
+    @Test
+    public void regularRulesTest() {
+        assertRegular(new String[][]{{"S", "@A@B"}, {"A", "a"}, {"B", "b"}}, "(?:a)(?:b)");
+        assertRegular(new String[][]{{"S", "@A?@B*"}, {"A", "a|x"}, {"B", "b"}, {"B", "c"}}, "(?:(?:a)|(?:x))?(?:(?:b)|(?:c))*");
+        assertRegular(new String[][]{{"a@this|b"}}, "(?:a)*(?:b)");
+        assertRegular(new String[][]{{"a@this?"}}, "(?:a)*(?:a)");
+        assertRegular(new String[][]{{"S", "x@S|y@S|z"}}, "(?:(?:x)|(?:y))*(?:z)");
+        assertRegular(new String[][]{{"a|@eps"}}, "(?:a)|(?:(?:))");
+    }
+
+    @Test
+    public void notRegularRulesTest() {
+        assertNotRegular(new String[][]{{"a@this?b"}});
+        assertNotRegular(new String[][]{{"0(@this)0|1(@this)1|0|1|@eps"}});
+        assertNotRegular(new String[][]{{"S", "@A"}, {"A", "a@S"}});
+        assertNotRegular(new String[][]{{"S", "a@S"}, {"S", "b"}});
+        assertNotRegular(new String[][]{{"a@this*"}});
+        assertNotRegular(new String[][]{{"@UNDEFINED"}});
+        // not in the syntax of the automaton
+        assertNotRegular(new String[][]{{"(a)\\1"}});
+    }
+
+    @Test
+    public void sameMatchesAsParserTest() {
+        assertSameMatches(new String[][]{{"S", "@A@B"}, {"A", "a"}, {"B", "b"}}, "ab", "a", "ba", "");
+        assertSameMatches(new String[][]{{"a@this|b"}}, "b", "ab", "aaab", "a", "", "ba");
+        assertSameMatches(new String[][]{{"S", "(@A\\s)+@A?[\\.\\!\\?]"}, {"A", "\\w+"}}, "Hello Recexp!", "Hello!", "Hello Recexp", "Hello  !");
+        assertSameMatches(new String[][]{{"S", "@A?@B*"}, {"A", "a|x"}, {"B", "b"}, {"B", "c"}}, "", "a", "x", "xbcb", "ax", "cba");
+        assertSameMatches(new String[][]{{"S", "(x|y)@S?"}}, "x", "xyx", "", "xz");
+    }
+
+    @Test
+    public void candidatesTest() {
+        Set<Rule> ruleSet = rules(new String[][]{{"a@this?b"}, {"c@this|d"}});
+        RegularSubgrammar regular = new RegularSubgrammar(new GrammarModel(ruleSet), 0, true, false);
+        List<Rule> list = new ArrayList<Rule>(ruleSet);
+        Set<Rule> rules = new LinkedHashSet<Rule>(list.subList(0, 2));
+
+        assertThat(regular.decides(rules), is(false));
+        assertThat(regular.candidates(rules, "ccd"), is(rules));
+        assertThat(regular.candidates(rules, "ab"), is(Collections.singleton(list.get(0))));
+        assertThat(regular.decides(Collections.singleton(list.get(1))), is(true));
+        assertThat(new RegularSubgrammar(new GrammarModel(ruleSet), 0, false, false).decides(Collections.singleton(list.get(1))), is(false));
+    }
+
+    private static void assertRegular(String[][] rules, String expression) {
+        Set<Rule> ruleSet = rules(rules);
+        RegularSubgrammar regular = new RegularSubgrammar(new GrammarModel(ruleSet), 0, true, false);
+
+        assertThat(regular.getExpression(ruleSet.iterator().next()), is(expression));
+    }
+
+    private static void assertNotRegular(String[][] rules) {
+        Set<Rule> ruleSet = rules(rules);
+        RegularSubgrammar regular = new RegularSubgrammar(new GrammarModel(ruleSet), 0, true, false);
+
+        assertThat(regular.isRegular(ruleSet.iterator().next()), is(false));
+        assertThat(regular.getExpression(ruleSet.iterator().next()), nullValue());
+    }
+
+    private static void assertSameMatches(String[][] rules, String... inputs) {
+        Set<Rule> ruleSet = rules(rules);
+        Rule start = ruleSet.iterator().next();
+        RegularSubgrammar regular = new RegularSubgrammar(new GrammarModel(ruleSet), 0, true, false);
+        ContextFreeGrammar grammar = ContextFreeGrammar.compile(ruleSet, 0);
+        EarleyParser parser = new EarleyParser(grammar);
+
+        assertThat(regular.isRegular(start), is(true));
+
+        for (String input : inputs) {
+            boolean expected = parser.parse(grammar.ruleSymbol(start), input) != null;
+
+            assertThat("Matches for '" + input + "'", regular.matches(Collections.singleton(start), input), is(expected));
+            assertThat("Candidates for '" + input + "'", regular.candidates(Collections.singleton(start), input).isEmpty(), not(expected));
+        }
+    }
+
+    private static Set<Rule> rules(String[][] rules) {
+        Set<Rule> ruleSet = new LinkedHashSet<Rule>();
+        for (String[] rule : rules) {
+            ruleSet.add(rule.length == 1 ? new Rule(rule[0]) : new NamedRule(rule[0], rule[1]));
+        }
+        ruleSet.add(ImplicitRule.EPSILON_RULE);
+        return ruleSet;
+    }
+}
@@ -0,0 +1,208 @@
+package cz.net21.ttulka.recexp.test;
+
+import org.junit.Test;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpAnalysis;
+import cz.net21.ttulka.recexp.RecexpEngine;
+import cz.net21.ttulka.recexp.RecexpRuleNotFoundException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ttulka
+ */
+public class AnalysisTest {
+
+    @Test
+    public void arithmeticExpressionsTest() {
+        RecexpAnalysis analysis = Recexp.builder()
+                .rule("E", "@E±@T|@T")
+                .rule("T", "@T×@F|@F")
+                .rule("F", "\\(@E\\)|X|Y")
+                .build()
+                .analysis();
+
+        assertThat(analysis.isNullable(), is(false));
+        assertThat(chars(analysis.getFirst()), is("(XY"));
+
+        assertThat(analysis.isNullable("F"), is(false));
+        assertThat(chars(analysis.getFirst("F")), is("(XY"));
+        assertThat(chars(analysis.getFollow("E")), is(")±"));
+        assertThat(chars(analysis.getFollow("T")), is(")±×"));
+    }
+
+    @Test
+    public void nullableTest() {
+        RecexpAnalysis analysis = Recexp.builder()
+                .rule("S", "@A@B")
+                .rule("A", "[a-c]*")
+                .rule("B", "d|@A")
+                .build()
+                .analysis();
+
+        assertThat(analysis.isNullable(), is(true));
+        assertThat(analysis.isNullable("B"), is(true));
+        assertThat(chars(analysis.getFirst("S")), is("abcd"));
+        assertThat(chars(analysis.getFollow("A")), is("abcd"));
+
+        assertThat(Recexp.compile("a@this?b|@eps").analysis().isNullable(), is(true));
+        assertThat(Recexp.compile("a@this?b").analysis().isNullable(), is(false));
+    }
+
+    @Test
+    public void lengthTest() {
+        RecexpAnalysis analysis = Recexp.builder()
+                .rule("S", "@D-@D")
+                .rule("D", "[0-9]{2,4}")
+                .build()
+                .analysis();
+
+        assertThat(analysis.getMinLength(), is(2));
+        assertThat(analysis.getMaxLength(), is(9));
+        assertThat(analysis.getMinLength("S"), is(5));
+        assertThat(analysis.getMinLength("D"), is(2));
+        assertThat(analysis.getMaxLength("D"), is(4));
+
+        analysis = Recexp.compile("a@this?b").analysis();
+
+        assertThat(analysis.getMinLength(), is(2));
+        assertThat(analysis.getMaxLength(), is(-1));
+    }
+
+    /**
+     * The derivation cannot prune the candidates by the input ignoring the references, but by their lengths.
+     */
+    @Test
+    public void lengthPruningTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("S", "\\(@this\\)|\\[@this\\]|@this@this|x")
+                .build();
+
+        assertThat(recexp.matches("(x)x"), is(true));
+        assertThat(recexp.matches("([x])x"), is(true));
+        assertThat(recexp.matches("[x]x)"), is(false));
+    }
+
+    @Test
+    public void literalsTest() {
+        RecexpAnalysis analysis = Recexp.builder()
+                .rule("S", "<doc>@E*</doc>")
+                .rule("E", "<e>[a-z]*</e>")
+                .build()
+                .analysis();
+
+        assertThat(analysis.getPrefix(), is("<"));
+        assertThat(analysis.getPrefix("S"), is("<doc>"));
+        assertThat(analysis.getSuffix("S"), is("</doc>"));
+        assertThat(analysis.getPrefix("E"), is("<e>"));
+        assertThat(analysis.getSuffix("E"), is("</e>"));
+        assertThat(analysis.getRequired("E"), is("</e>"));
+        assertThat(chars(analysis.getAlphabet("E")), is("/<>abcdefghijklmnopqrstuvwxyz"));
+
+        analysis = Recexp.builder()
+                .rule("E", "@E±@T|@T")
+                .rule("T", "@T×@F|@F")
+                .rule("F", "\\(@E\\)|X|Y")
+                .build()
+                .analysis();
+
+        assertThat(analysis.getPrefix(), is(""));
+        assertThat(chars(analysis.getRequiredChars()), is("XY"));
+        assertThat(chars(analysis.getAlphabet()), is("()XY±×"));
+        assertThat(Recexp.compile("a*").analysis().getRequiredChars(), is(nullValue()));
+    }
+
+    @Test
+    public void literalsPrefilterTest() {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder()
+                    .rule("E", "@E±@T|@T")
+                    .rule("T", "@T×@F|@F")
+                    .rule("F", "\\(@E\\)|X|Y")
+                    .engine(engine)
+                    .build();
+
+            assertThat(engine.toString(), recexp.matches("((X±Y)×X)"), is(true));
+            assertThat(engine.toString(), recexp.matches("((((((((((±))))))))))"), is(false));
+            assertThat(engine.toString(), recexp.matches("X±Y×Z"), is(false));
+            assertThat(engine.toString(), recexp.matcher("F", "(X)").matches(), is(true));
+        }
+    }
+
+    @Test
+    public void countConstraintsTest() {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder()
+                    .rule("S", "a(@S)?b|b(@S)?a")
+                    .engine(engine)
+                    .build();
+            Recexp counting = Recexp.builder()
+                    .rule("S", "a(@S)?b|b(@S)?a")
+                    .engine(engine)
+                    .countConstraints()
+                    .build();
+
+            for (String input : new String[]{"ab", "aabb", "abab", "baab", "aaabbb", "aaabbbbaba", "aaabb", "abb", "", "abc"}) {
+                assertThat(engine + " '" + input + "'", counting.matches(input), is(recexp.matches(input)));
+            }
+            assertThat(engine.toString(), counting.matches("aabb"), is(true));
+            assertThat(engine.toString(), counting.matches("aaabb"), is(false));
+            assertThat(engine.toString(), counting.matcher("S", "ba").matches(), is(true));
+        }
+    }
+
+    @Test
+    public void sharedAnalysisTest() {
+        Recexp recexp = Recexp.compile("a@this?b");
+
+        assertThat(recexp.analysis(), sameInstance(recexp.analysis()));
+    }
+
+    @Test
+    public void ruleNotFoundTest() {
+        try {
+            Recexp.compile("a").analysis().getFirst("A");
+            fail("RecexpRuleNotFoundException expected.");
+
+        } catch (RecexpRuleNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void pruningTest() {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder()
+                    .rule("S", "@A|@B|@C")
+                    .rule("A", "a@S?")
+                    .rule("B", "b@S?")
+                    .rule("C", "c?")
+                    .engine(engine)
+                    .build();
+
+            assertThat(engine.toString(), recexp.matches(""), is(true));
+            assertThat(engine.toString(), recexp.matches("abcc"), is(false));
+            assertThat(engine.toString(), recexp.matches("abbac"), is(true));
+            assertThat(engine.toString(), recexp.matcher("S", "aab").matches(), is(true));
+            assertThat(engine.toString(), recexp.matches("d"), is(false));
+            assertThat(engine.toString(), recexp.matches("ad"), is(false));
+        }
+    }
+
+    /**
+     * The characters out of the surrogates.
+     */
+    private static String chars(char[] ranges) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (char ch = ranges[i]; ch <= ranges[i + 1] && ch < Character.MIN_SURROGATE; ch++) {
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,222 @@
+package cz.net21.ttulka.recexp.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpEngine;
+import cz.net21.ttulka.recexp.RecexpRuleNotFoundException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class BatchTest {
+
+    private static final long SMALL_STACK_SIZE = 128 * 1024;
+
+    @Test
+    public void sameMatchesAsSingleTest() {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            assertSameMatches(Recexp.builder().rule("a@this?b").engine(engine).build(),
+                              "", "ab", "aabb", "aaabbb", "abb", "ba", "aab");
+            assertSameMatches(Recexp.builder().rule("(a?)(b?)").engine(engine).build(),
+                              "", "a", "b", "ab", "ba");
+            assertSameMatches(Recexp.builder()
+                                      .rule("WORD", "\\w+")
+                                      .rule("SENTENCE", "(@WORD\\s)+@WORD?[\\.\\!\\?]")
+                                      .engine(engine)
+                                      .build(),
+                              "Hello", "Hello Recexp!", "Hello Recexp", "Hello Recexp!!");
+        }
+        for (RecexpEngine engine : new RecexpEngine[]{RecexpEngine.EARLEY, RecexpEngine.GLL, RecexpEngine.PACKRAT}) {
+            assertSameMatches(Recexp.builder()
+                                      .rule("E", "@E±@T|@T")
+                                      .rule("T", "@T×@F|@F")
+                                      .rule("F", "\\(@E\\)|X|Y")
+                                      .engine(engine)
+                                      .build(),
+                              "((X±X)×(Y×X)±Y×Y×(X))±X×(Y±(X×Y±X))", "X", "(X×X)(Y×X)", "X±", "", "(((Y)))");
+        }
+    }
+
+    @Test
+    public void reusedStateTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append('a');
+        }
+        for (int i = 0; i < 1000; i++) {
+            sb.append('b');
+        }
+        String longInput = sb.toString();
+
+        for (RecexpEngine engine : new RecexpEngine[]{RecexpEngine.EARLEY, RecexpEngine.GLL, RecexpEngine.PACKRAT}) {
+            Recexp recexp = Recexp.builder().rule("a(@this)b|ab").engine(engine).build();
+
+            BitSet results = recexp.matchAll(Arrays.asList("ab", longInput, "aab", "aabb", longInput + "b", "", longInput, "ab"));
+
+            assertThat(engine.toString(), results, is(bits(0, 1, 3, 6, 7)));
+        }
+    }
+
+    @Test
+    public void iteratorTest() {
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            inputs.add(i % 3 == 0 ? "ab" : "ba");
+        }
+        BitSet results = Recexp.compile("a@this?b").matchAll(inputs.iterator());
+
+        assertThat(results.cardinality(), is(34));
+        assertThat(results.nextClearBit(0), is(1));
+        assertThat(results.get(99), is(true));
+    }
+
+    @Test
+    public void emptyBatchTest() {
+        assertThat(Recexp.compile("a").matchAll(Collections.<String>emptyList()).isEmpty(), is(true));
+    }
+
+    @Test
+    public void parallelTest() {
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < 10000; i++) {
+            inputs.add(i % 7 == 0 ? "(X±Y)×X" : i % 2 == 0 ? "((X))±Y×(Y±X)" : "X±×Y");
+        }
+        for (RecexpEngine engine : new RecexpEngine[]{RecexpEngine.EARLEY, RecexpEngine.GLL, RecexpEngine.PACKRAT}) {
+            Recexp recexp = Recexp.builder()
+                    .rule("E", "@T(±@T)*")
+                    .rule("T", "@F(×@F)*")
+                    .rule("F", "\\(@E\\)|X|Y")
+                    .engine(engine)
+                    .build();
+
+            BitSet expected = recexp.matchAll(inputs);
+
+            assertThat(engine.toString(), expected.cardinality(), is(5714));
+            assertThat(engine + " parallel", recexp.matchAllParallel(inputs), is(expected));
+        }
+    }
+
+    @Test
+    public void executorTest() throws InterruptedException {
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            inputs.add(i % 3 == 0 ? "aabb" : "aab");
+        }
+        Recexp recexp = Recexp.compile("a@this?b");
+        BitSet expected = recexp.matchAll(inputs);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertThat(recexp.matchAll(inputs, executor), is(expected));
+        } finally {
+            executor.shutdown();
+        }
+        // running in the caller thread
+        Executor caller = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        assertThat(recexp.matchAll(inputs, caller), is(expected));
+        assertThat(recexp.matchAll(Collections.<String>emptyList(), caller).isEmpty(), is(true));
+    }
+
+    @Test
+    public void bytecodeTest() {
+        List<String> inputs = Arrays.asList("((X±X)×(Y×X)±Y×Y×(X))±X×(Y±(X×Y±X))", "X", "(X×X)(Y×X)", "X±", "", "(((Y)))");
+
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder()
+                    .rule("E", "@T(±@T)*")
+                    .rule("T", "@F(×@F)*")
+                    .rule("F", "\\(@E\\)|X|Y")
+                    .engine(engine)
+                    .bytecode()
+                    .build();
+
+            assertThat(engine.toString(), recexp.matchAll(inputs), is(bits(0, 1, 5)));
+            assertThat(engine.toString(), recexp.matches("(X±Y)×X"), is(true));
+            // rejected before derived
+            assertThat(engine.toString(), recexp.matcher("((X±Y)×(X±Y)×(X±Y)×").matches(), is(false));
+        }
+        // left recursion is recognized by the engine
+        Recexp recexp = Recexp.builder().rule("E", "@E±X|X").engine(RecexpEngine.EARLEY).bytecode().build();
+
+        assertThat(recexp.matchAll(Arrays.asList("X±X±X", "X±")), is(bits(0)));
+    }
+
+    @Test(expected = RecexpRuleNotFoundException.class)
+    public void parallelUndefinedReferenceTest() {
+        Recexp.compile("a@UNDEFINED").matchAllParallel(Arrays.asList("ab"));
+    }
+
+    @Test(expected = RecexpRuleNotFoundException.class)
+    public void undefinedReferenceTest() {
+        Recexp.compile("a@UNDEFINED").matchAll(Arrays.asList("ab"));
+    }
+
+    @Test
+    public void failedItemTest() throws InterruptedException {
+        final Recexp recexp = Recexp.compile("a(@this)b|@eps");
+        final String deep = balanced(300);
+
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recexp.matchAll(Arrays.asList("ab", deep));
+
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }, "small-stack", SMALL_STACK_SIZE);
+
+        thread.start();
+        thread.join();
+
+        // the failure is not reported as a non-match
+        assertThat(failure[0], not(nullValue()));
+    }
+
+    private static void assertSameMatches(Recexp recexp, String... inputs) {
+        BitSet results = recexp.matchAll(Arrays.asList(inputs));
+
+        for (int i = 0; i < inputs.length; i++) {
+            assertThat("Matches for '" + inputs[i] + "'", results.get(i), is(recexp.matches(inputs[i])));
+        }
+    }
+
+    private static String balanced(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.insert(0, 'a').append('b');
+        }
+        return sb.toString();
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet bits = new BitSet();
+        for (int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,215 @@
+package cz.net21.ttulka.recexp.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpBudgetExceededException;
+import cz.net21.ttulka.recexp.RecexpCancellation;
+import cz.net21.ttulka.recexp.RecexpEngine;
+import cz.net21.ttulka.recexp.RecexpMatchOptions;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ttulka
+ */
+public class BudgetTest {
+
+    private static final String HARD_INPUT = "((X))±Y×(Y±X)";
+    private static final long SMALL_STACK_SIZE = 128 * 1024;
+
+    @Test
+    public void withinBudgetTest() {
+        RecexpMatchOptions options = RecexpMatchOptions.builder()
+                .timeout(1, TimeUnit.MINUTES)
+                .maxSteps(1000000)
+                .maxDepth(1000)
+                .cancellation(new RecexpCancellation())
+                .build();
+
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder().rule("a@this?b").engine(engine).build();
+
+            assertThat(engine.toString(), recexp.matches("aaabbb", options), is(true));
+            assertThat(engine.toString(), recexp.matches("aaabb", options), is(false));
+            assertThat(engine.toString(), recexp.matcher("aabb", options).group(2).value(), is("ab"));
+        }
+    }
+
+    @Test
+    public void maxStepsTest() {
+        RecexpMatchOptions options = RecexpMatchOptions.builder().maxSteps(10).build();
+
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder().rule("a@this?b").engine(engine).build();
+
+            assertExceeded(engine.toString(), recexp, "aaaaaaaaaabbbbbbbbbb", options, RecexpBudgetExceededException.Limit.STEPS);
+        }
+    }
+
+    @Test
+    public void timeoutTest() {
+        RecexpMatchOptions options = RecexpMatchOptions.builder().timeout(100, TimeUnit.MILLISECONDS).build();
+        long start = System.nanoTime();
+
+        assertExceeded("derivation", expressions(RecexpEngine.DERIVATION), HARD_INPUT, options, RecexpBudgetExceededException.Limit.TIMEOUT);
+        assertThat(System.nanoTime() - start, lessThan(TimeUnit.SECONDS.toNanos(10)));
+    }
+
+    @Test
+    public void cancellationTest() throws InterruptedException {
+        final RecexpCancellation cancellation = new RecexpCancellation();
+        RecexpMatchOptions options = RecexpMatchOptions.builder().cancellation(cancellation).build();
+
+        Thread canceller = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignore) {
+                }
+                cancellation.cancel();
+            }
+        };
+        canceller.start();
+
+        assertExceeded("derivation", expressions(RecexpEngine.DERIVATION), HARD_INPUT, options, RecexpBudgetExceededException.Limit.CANCELLED);
+        canceller.join();
+
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            assertExceeded(engine.toString(), expressions(engine), "X", options, RecexpBudgetExceededException.Limit.CANCELLED);
+        }
+    }
+
+    @Test
+    public void maxDepthTest() {
+        RecexpMatchOptions options = RecexpMatchOptions.builder().maxDepth(5).build();
+        Recexp recexp = Recexp.compile("a@this?b");
+
+        assertThat(recexp.matches("aabb", options), is(true));
+        assertExceeded("derivation", recexp, "aaaaaaaaaabbbbbbbbbb", options, RecexpBudgetExceededException.Limit.DEPTH);
+
+        // every nesting applies several nonterminals
+        options = RecexpMatchOptions.builder().maxDepth(50).build();
+        recexp = Recexp.builder().rule("a@this?b").engine(RecexpEngine.PACKRAT).build();
+
+        assertThat(recexp.matches("aabb", options), is(true));
+        assertExceeded("packrat", recexp, "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaabbbbbbbbbbbbbbbbbbbbbbbbbbbbbb", options, RecexpBudgetExceededException.Limit.DEPTH);
+    }
+
+    @Test
+    public void stackOverflowTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append('(');
+        }
+        sb.append('X');
+        for (int i = 0; i < 100000; i++) {
+            sb.append(')');
+        }
+        RecexpMatchOptions unlimited = RecexpMatchOptions.builder().build();
+
+        assertExceeded("packrat", expressions(RecexpEngine.PACKRAT), sb.toString(), unlimited, RecexpBudgetExceededException.Limit.DEPTH);
+    }
+
+    @Test
+    public void derivationStackOverflowTest() throws InterruptedException {
+        final Recexp recexp = Recexp.compile("a(@this)b|@eps");
+        final String input = balanced(300);
+
+        Throwable failure = failureOnSmallStack(new Runnable() {
+            @Override
+            public void run() {
+                recexp.matches(input);
+            }
+        });
+        // not reported as a failed match
+        assertThat(failure, not(nullValue()));
+        assertThat(failure instanceof RecexpBudgetExceededException, is(false));
+
+        Throwable exceeded = failureOnSmallStack(new Runnable() {
+            @Override
+            public void run() {
+                recexp.matches(input, RecexpMatchOptions.builder().build());
+            }
+        });
+        assertThat(exceeded instanceof RecexpBudgetExceededException, is(true));
+        assertThat(((RecexpBudgetExceededException) exceeded).getLimit(), is(RecexpBudgetExceededException.Limit.DEPTH));
+    }
+
+    @Test(expected = RecexpBudgetExceededException.class)
+    public void parallelTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("E", "@T(±@T)*|@E")
+                .rule("T", "@F(×@F)*")
+                .rule("F", "\\(@E\\)|X|Y")
+                .parallel()
+                .build();
+
+        recexp.matches(HARD_INPUT, RecexpMatchOptions.builder().maxSteps(100).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeStepsTest() {
+        RecexpMatchOptions.builder().maxSteps(-1);
+    }
+
+    private static Recexp expressions(RecexpEngine engine) {
+        return Recexp.builder()
+                .rule("E", "@T(±@T)*")
+                .rule("T", "@F(×@F)*")
+                .rule("F", "\\(@E\\)|X|Y")
+                .engine(engine)
+                .build();
+    }
+
+    private static String balanced(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.insert(0, 'a').append('b');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Runs the match on a thread with a small stack.
+     *
+     * @return the failure of the match, or <code>null</code>
+     */
+    private static Throwable failureOnSmallStack(final Runnable match) throws InterruptedException {
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    match.run();
+
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }, "small-stack", SMALL_STACK_SIZE);
+
+        thread.start();
+        thread.join();
+        return failure[0];
+    }
+
+    private static void assertExceeded(String reason, Recexp recexp, String input, RecexpMatchOptions options,
+                                       RecexpBudgetExceededException.Limit limit) {
+        try {
+            recexp.matches(input, options);
+            fail(reason + " should exceed " + limit);
+
+        } catch (RecexpBudgetExceededException e) {
+            assertThat(reason, e.getLimit(), is(limit));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package cz.net21.ttulka.recexp.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpCyclicRuleException;
+import cz.net21.ttulka.recexp.RecexpEngine;
+import cz.net21.ttulka.recexp.RecexpMatcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Stress tests of grammars shared by multiple threads.
+ *
+ * @author ttulka
+ */
+public class ConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 50;
+
+    private static final String[] INPUTS = {"", "0", "11", "010", "0110", "10101", "10", "01", "1101", "0010100"};
+
+    @Test
+    public void sharedGrammarTest() throws Exception {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            assertSameResults(Recexp.builder()
+                                      .rule("S", "0(@S)0|1(@S)1|0|1|@eps")
+                                      .engine(engine)
+                                      .build());
+        }
+    }
+
+    @Test
+    public void sharedReferencesGrammarTest() throws Exception {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            final Recexp recexp = Recexp.builder()
+                    .rule("WORD", "\\w+")
+                    .rule("SENTENCE", "(@WORD\\s)+@WORD?[\\.\\!\\?]")
+                    .engine(engine)
+                    .build();
+
+            List<Boolean> results = runConcurrently(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    RecexpMatcher matcher = recexp.matcher("SENTENCE", "Hello Recexp!");
+                    return matcher.matches()
+                           && matcher.groupCount() == 3
+                           && matcher.group("@WORD?").value().equals("Recexp")
+                           && !recexp.matcher("SENTENCE", "Hello Recexp").matches();
+                }
+            });
+            for (Boolean result : results) {
+                assertThat(result, is(true));
+            }
+        }
+    }
+
+    @Test
+    public void sharedCyclicGrammarTest() throws Exception {
+        final Recexp recexp = Recexp.compile("a(@this)b");
+
+        List<Boolean> results = runConcurrently(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                try {
+                    recexp.matches("ab");
+                    return false;
+
+                } catch (RecexpCyclicRuleException expected) {
+                    return true;
+                }
+            }
+        });
+        for (Boolean result : results) {
+            assertThat(result, is(true));
+        }
+    }
+
+    private static void assertSameResults(final Recexp recexp) throws Exception {
+        final List<String> expected = new ArrayList<String>();
+        for (String input : INPUTS) {
+            expected.add(describe(recexp.matcher(input)));
+        }
+
+        List<Boolean> results = runConcurrently(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                for (int i = 0; i < INPUTS.length; i++) {
+                    if (!describe(recexp.matcher(INPUTS[i])).equals(expected.get(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+        for (Boolean result : results) {
+            assertThat(result, is(true));
+        }
+    }
+
+    private static String describe(RecexpMatcher matcher) {
+        StringBuilder sb = new StringBuilder().append(matcher.matches()).append(':');
+        for (int i = 1; i <= matcher.groupCount(); i++) {
+            sb.append(matcher.group(i).name()).append('=').append(matcher.group(i).value()).append(';');
+        }
+        return sb.toString();
+    }
+
+    private static <T> List<T> runConcurrently(final Callable<T> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<T>> futures = new ArrayList<Future<T>>();
+
+            for (int i = 0; i < THREADS * ITERATIONS; i++) {
+                futures.add(executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        start.await();
+                        return task.call();
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<T> results = new ArrayList<T>();
+            for (Future<T> future : futures) {
+                results.add(future.get(60, TimeUnit.SECONDS));
+            }
+            return results;
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
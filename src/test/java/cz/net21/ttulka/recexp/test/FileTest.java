@@ -0,0 +1,107 @@
+package cz.net21.ttulka.recexp.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpEngine;
+import cz.net21.ttulka.recexp.RecexpMatcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class FileTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matcherTest() throws IOException {
+        File file = write("X±Y×X", UTF_8);
+
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder()
+                    .rule("E", "@E±@T|@T")
+                    .rule("T", "@T×@F|@F")
+                    .rule("F", "\\(@E\\)|X|Y")
+                    .engine(engine)
+                    .build();
+
+            if (engine != RecexpEngine.DERIVATION) {
+                RecexpMatcher matcher = recexp.matcher(file, UTF_8);
+
+                assertThat(engine + " matches", matcher.matches(), is(true));
+                assertThat(engine + " value", matcher.value(), is("X±Y×X"));
+                assertThat(engine + " group", matcher.group(3).value(), is("Y×X"));
+            }
+            assertThat(engine + " matches file", recexp.matches(file, UTF_8), is(true));
+        }
+    }
+
+    @Test
+    public void matcherAsciiTest() throws IOException {
+        Recexp recexp = Recexp.compile("a(@this)?b");
+
+        RecexpMatcher matcher = recexp.matcher(write("aaabbb", UTF_8), UTF_8);
+
+        assertThat(matcher.matches(), is(true));
+        assertThat(matcher.group(2).value(), is("aabb"));
+
+        assertThat(recexp.matcher(write("aaabb", Charset.forName("UTF-16")), Charset.forName("UTF-16")).matches(), is(false));
+    }
+
+    @Test
+    public void matchesLargeFileTest() throws IOException {
+        File file = folder.newFile();
+        String line = "2018-10-17 INFO started\n";
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            for (int i = 0; i < 50000; i++) {
+                writer.write(line);
+            }
+        } finally {
+            writer.close();
+        }
+        Recexp recexp = Recexp.builder()
+                .rule("LINE", "\\d{4}-\\d\\d-\\d\\d (INFO|WARN|ERROR) \\w+")
+                .rule("LOG", "(@LINE\\n)*")
+                .build();
+
+        assertThat(recexp.matches(file, UTF_8), is(true));
+        assertThat(recexp.matches(write(line + "DEBUG", UTF_8), UTF_8), is(false));
+    }
+
+    @Test
+    public void emptyFileTest() throws IOException {
+        File file = folder.newFile();
+
+        assertThat(Recexp.compile("a?").matches(file, UTF_8), is(true));
+        assertThat(Recexp.compile("a?").matcher(file, UTF_8).matches(), is(true));
+        assertThat(Recexp.compile("a").matches(file, UTF_8), is(false));
+    }
+
+    private File write(String content, Charset charset) throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(charset));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
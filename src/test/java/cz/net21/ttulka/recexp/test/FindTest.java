@@ -0,0 +1,165 @@
+package cz.net21.ttulka.recexp.test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpEngine;
+import cz.net21.ttulka.recexp.RecexpMatcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+
+/**
+ * @author ttulka
+ */
+public class FindTest {
+
+    @Test
+    public void findTest() {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder().rule("a@this?b").engine(engine).build();
+
+            RecexpMatcher matcher = recexp.find("xxaabbyyabz");
+
+            assertThat(engine + " matches", matcher.matches(), is(true));
+            assertThat(engine + " value", matcher.value(), is("aabb"));
+            assertThat(engine + " start", matcher.start(), is(2));
+            assertThat(engine + " end", matcher.end(), is(6));
+
+            matcher = recexp.find("xxaabbyyabz", 3);
+
+            assertThat(engine + " value from", matcher.value(), is("ab"));
+            assertThat(engine + " start from", matcher.start(), is(3));
+
+            assertThat(engine + " not found", recexp.find("xxaabbyyabz", 9).matches(), is(false));
+            assertThat(engine + " empty", recexp.find("").matches(), is(false));
+        }
+    }
+
+    @Test
+    public void findGroupsTest() {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder().rule("a(b)c").engine(engine).build();
+
+            RecexpMatcher matcher = recexp.find("xxabcxx");
+
+            assertThat(engine + " group count", matcher.groupCount(), is(3));
+            assertThat(engine + " group", matcher.group(2).value(), is("b"));
+            assertThat(engine + " group start", matcher.group(2).start(), is(3));
+            assertThat(engine + " group end", matcher.group(2).end(), is(4));
+        }
+    }
+
+    @Test
+    public void findLeftmostLongestTest() {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder()
+                    .rule("a")
+                    .rule("ab")
+                    .rule("cab")
+                    .engine(engine)
+                    .build();
+
+            RecexpMatcher matcher = recexp.find("xabcab");
+
+            assertThat(engine + " leftmost", matcher.start(), is(1));
+            assertThat(engine + " longest", matcher.value(), is("ab"));
+        }
+        // ordered choice
+        Recexp recexp = Recexp.builder().rule("a|ab").engine(RecexpEngine.PACKRAT).build();
+
+        assertThat(recexp.find("xab").value(), is("a"));
+        assertThat(Recexp.compile("a|ab").find("xab").value(), is("ab"));
+    }
+
+    @Test
+    public void findLeftRecursionTest() {
+        for (RecexpEngine engine : new RecexpEngine[]{RecexpEngine.EARLEY, RecexpEngine.GLL, RecexpEngine.PACKRAT}) {
+            Recexp recexp = Recexp.builder()
+                    .rule("E", "@E±@T|@T")
+                    .rule("T", "@T×@F|@F")
+                    .rule("F", "\\(@E\\)|X|Y")
+                    .engine(engine)
+                    .build();
+
+            RecexpMatcher matcher = recexp.find("E", "= (X±Y)×X ;", 0);
+
+            assertThat(engine + " value", matcher.value(), is("(X±Y)×X"));
+            assertThat(engine + " start", matcher.start(), is(2));
+        }
+    }
+
+    @Test
+    public void findAllTest() {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder().rule("a@this?b").engine(engine).build();
+
+            assertThat(engine.toString(), values(recexp.findAll("ab, aabb, aab, abb, ba")), contains("ab", "aabb", "ab", "ab"));
+            assertThat(engine.toString(), values(recexp.findAll("xyz")), empty());
+        }
+    }
+
+    @Test
+    public void findAllEmptyTest() {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder().rule("a*").engine(engine).build();
+
+            assertThat(engine.toString(), values(recexp.findAll("baa")), contains("", "aa", ""));
+            assertThat(engine.toString(), values(recexp.findAll("")), contains(""));
+        }
+    }
+
+    @Test
+    public void findAllNamedTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("WORD", "\\w+")
+                .rule("SENTENCE", "(@WORD\\s)+@WORD?[\\.\\!\\?]")
+                .build();
+
+        assertThat(values(recexp.findAll("SENTENCE", "Hello Recexp! Bye, see you.")), contains("Hello Recexp!", "see you."));
+        assertThat(values(recexp.findAll("WORD", "Hello Recexp!")), contains("Hello", "Recexp"));
+    }
+
+    @Test
+    public void findAllLongInputTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("xx aaabbb yy ab z");
+        }
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder().rule("a@this?b").engine(engine).build();
+
+            assertThat(engine.toString(), values(recexp.findAll(sb)).size(), is(4000));
+        }
+    }
+
+    @Test
+    public void findAllIteratorTest() {
+        Iterator<RecexpMatcher> iterator = Recexp.compile("a").findAll("aba").iterator();
+
+        assertThat(iterator.hasNext(), is(true));
+        assertThat(iterator.hasNext(), is(true));
+        assertThat(iterator.next().start(), is(0));
+        assertThat(iterator.next().start(), is(2));
+        assertThat(iterator.hasNext(), is(false));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void findOutOfInputTest() {
+        Recexp.compile("a").find("abc", 4);
+    }
+
+    private static List<String> values(Iterable<RecexpMatcher> matchers) {
+        List<String> values = new ArrayList<String>();
+        for (RecexpMatcher matcher : matchers) {
+            values.add(matcher.value());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,163 @@
+package cz.net21.ttulka.recexp.test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpCyclicRuleException;
+import cz.net21.ttulka.recexp.RecexpEngine;
+import cz.net21.ttulka.recexp.RecexpGroup;
+import cz.net21.ttulka.recexp.RecexpMatcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests of the parallel exploration of starting rules and alternatives.
+ *
+ * @author ttulka
+ */
+public class ParallelTest {
+
+    private static final long SMALL_STACK_SIZE = 128 * 1024;
+
+    @Test
+    public void sameResultsAsSequentialTest() {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            assertSameResults(engine, new String[]{"0(@this)0|1(@this)1|0|1|@eps"},
+                              "", "0", "11", "010", "0110", "10101", "10", "1101", "0010100");
+            assertSameResults(engine, new String[]{"a", "ab", "(a)(b)", "a(b)|(a)b", "b"},
+                              "a", "ab", "b", "ba", "");
+            assertSameResults(engine, new String[]{"(x)|(x?)|(x*)", "(x*)(y)"},
+                              "", "x", "xx", "xy", "y");
+            assertSameResults(engine, new String[]{"A((@this)|B)|C|AB"},
+                              "AB", "AAB", "AC", "AAAB", "C", "A");
+        }
+    }
+
+    @Test
+    public void customExecutorTest() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Recexp recexp = Recexp.builder()
+                    .rule("WORD", "\\w+")
+                    .rule("SENTENCE", "(@WORD\\s)+@WORD?[\\.\\!\\?]|@WORD[\\.\\!\\?]")
+                    .parallel(executor)
+                    .build();
+
+            RecexpMatcher matcher = recexp.matcher("SENTENCE", "Hello Recexp!");
+
+            assertThat(matcher.matches(), is(true));
+            assertThat(matcher.group("@WORD?").value(), is("Recexp"));
+            assertThat(recexp.matcher("SENTENCE", "Hello!").matches(), is(true));
+            assertThat(recexp.matcher("SENTENCE", "Hello Recexp").matches(), is(false));
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void singleThreadExecutorTest() {
+        // branches not started yet are run by the calling thread
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Recexp recexp = Recexp.builder()
+                    .rule("a(@this)b|ab|a(@this)|x")
+                    .rule("c")
+                    .parallel(executor)
+                    .build();
+
+            assertThat(recexp.matches("aaabbb"), is(true));
+            assertThat(recexp.matches("aax"), is(true));
+            assertThat(recexp.matches("c"), is(true));
+            assertThat(recexp.matches("aabx"), is(false));
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = RecexpCyclicRuleException.class)
+    public void cyclicRuleTest() {
+        Recexp.builder().rule("a(@this)b").parallel().build().matches("ab");
+    }
+
+    @Test
+    public void failedBranchTest() throws InterruptedException {
+        // the branches run on small stacks too
+        Executor smallStacks = new Executor() {
+            @Override
+            public void execute(Runnable branch) {
+                new Thread(null, branch, "small-stack-branch", SMALL_STACK_SIZE).start();
+            }
+        };
+        final Recexp recexp = Recexp.builder().rule("a(@this)b|@eps").parallel(smallStacks).build();
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            sb.insert(0, 'a').append('b');
+        }
+        final String input = sb.toString();
+
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recexp.matches(input);
+
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }, "small-stack", SMALL_STACK_SIZE);
+        thread.start();
+        thread.join();
+
+        // the overflow of the branch is not a failed alternative
+        assertThat(failure[0], not(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullExecutorTest() {
+        Recexp.builder().parallel(null);
+    }
+
+    private static void assertSameResults(RecexpEngine engine, String[] rules, String... inputs) {
+        Recexp.RecexpBuilder sequential = Recexp.builder().engine(engine);
+        Recexp.RecexpBuilder parallel = Recexp.builder().engine(engine).parallel();
+        for (String rule : rules) {
+            sequential.rule(rule);
+            parallel.rule(rule);
+        }
+        Recexp sequentialRecexp = sequential.build();
+        Recexp parallelRecexp = parallel.build();
+
+        for (String input : inputs) {
+            RecexpMatcher expected = sequentialRecexp.matcher(input);
+            RecexpMatcher actual = parallelRecexp.matcher(input);
+
+            assertThat(engine + " matches '" + input + "'", actual.matches(), is(expected.matches()));
+            assertThat(engine + " name '" + input + "'", actual.name(), is(expected.name()));
+            assertThat(engine + " groups '" + input + "'", toString(actual), is(toString(expected)));
+        }
+    }
+
+    private static String toString(RecexpGroup group) {
+        StringBuilder sb = new StringBuilder()
+                .append(group.name()).append('=').append(String.valueOf(group.value()))
+                .append('[').append(group.start()).append(',').append(group.end()).append(']');
+        if (group.groups() != null) {
+            for (RecexpGroup sub : group.groups()) {
+                sb.append('(').append(toString(sub)).append(')');
+            }
+        }
+        return sb.toString();
+    }
+}
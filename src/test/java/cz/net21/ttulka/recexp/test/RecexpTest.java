@@ -5,6 +5,7 @@ import java.util.regex.Pattern;
 import org.junit.Test;
 
 import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpCacheStatistics;
 import cz.net21.ttulka.recexp.RecexpCyclicRuleException;
 import cz.net21.ttulka.recexp.RecexpMatcher;
 
@@ -29,6 +30,44 @@ public class RecexpTest {
         assertThat(recexp.matches("a"), is(false));
     }
 
+    @Test
+    public void cacheStatisticsTest() {
+        Recexp recexp = Recexp.compile("a(@this)b|@eps");
+        recexp.matches("aabb");
+
+        RecexpCacheStatistics statistics = Recexp.cacheStatistics();
+        recexp.matches("aabb");
+
+        assertThat(Recexp.cacheStatistics().getHits() > statistics.getHits(), is(true));
+        assertThat(Recexp.cacheStatistics().getMisses(), is(statistics.getMisses()));
+        assertThat(statistics.getSize() <= statistics.getCapacity(), is(true));
+    }
+
+    @Test
+    public void characterClassTest() {
+        Recexp recexp = Recexp.compile("x[|@(]@this?y");
+
+        assertThat(recexp.matches("x|y"), is(true));
+        assertThat(recexp.matches("x@x(yy"), is(true));
+        assertThat(recexp.matches("xy"), is(false));
+    }
+
+    @Test
+    public void stringSignaturesTest() throws Exception {
+        // the signatures of the version 1.0.0
+        assertThat(Recexp.class.getMethod("matches", String.class).getReturnType() == boolean.class, is(true));
+        assertThat(Recexp.class.getMethod("matcher", String.class).getReturnType() == RecexpMatcher.class, is(true));
+        assertThat(Recexp.class.getMethod("matcher", String.class, String.class).getReturnType() == RecexpMatcher.class, is(true));
+
+        Recexp recexp = Recexp.builder().rule("A", "a@B").rule("B", "b").build();
+
+        assertThat(recexp.matcher("A", "ab").matches(), is(true));
+        assertThat(recexp.matcher("B", "ab").matches(), is(false));
+        assertThat(recexp.matcher("ab").matches(), is(true));
+        assertThat(recexp.matches("ab"), is(true));
+        assertThat(recexp.matches(new StringBuilder("ab")), is(true));
+    }
+
     @Test
     public void noMatchTest() {
         RecexpMatcher matcher = Recexp.compile("").matcher("xxx");
@@ -689,6 +728,52 @@ public class RecexpTest {
         assertThat(stringWithSameNumberOf0sAnd1sGrammar3.matches("010"), is(false));
     }
 
+    @Test(timeout = 10000)
+    public void sharedSubstitutionTest() {
+        // the grammar from the README
+        Recexp recexp = Recexp.compile("0(@this)1|1(@this)0|@this@this|@eps");
+
+        assertThat(recexp.matches("0110"), is(true));
+        assertThat(recexp.matches("0101"), is(true));
+        assertThat(recexp.matches("1001"), is(true));
+    }
+
+    @Test(timeout = 10000)
+    public void unitCycleTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("S", "@eps@this%|@eps@this|@B%")
+                .rule("B", "#")
+                .build();
+
+        assertThat(recexp.matcher("S", "##").matches(), is(false));
+        assertThat(recexp.matcher("S", "#%").matches(), is(true));
+    }
+
+    @Test
+    public void substitutedAlternationTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("S", "#@B@eps|%#@eps|#")
+                .rule("B", "@eps#|(%%|@eps%)&|#")
+                .build();
+
+        assertThat(recexp.matcher("S", "#%%").matches(), is(false));
+        assertThat(recexp.matcher("S", "#%%&").matches(), is(true));
+        assertThat(recexp.matcher("S", "##").matches(), is(true));
+    }
+
+    @Test
+    public void thisReferenceInReferencedRuleTest() {
+        Recexp recexp = Recexp.builder()
+                .rule("A", "x@B")
+                .rule("B", "y@this|z")
+                .build();
+
+        assertThat(recexp.matches("xyxz"), is(true));
+        assertThat(recexp.matches("xz"), is(true));
+        assertThat(recexp.matches("xyz"), is(false));
+        assertThat(recexp.matcher("A", "xyxz").matches(), is(true));
+    }
+
     @Test
     public void popularGrammars_arithmeticExpressionsTest() {
         Recexp arithmeticExpressionsGrammar = Recexp.builder()
@@ -0,0 +1,166 @@
+package cz.net21.ttulka.recexp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpCompiler;
+import cz.net21.ttulka.recexp.RecexpEngine;
+import cz.net21.ttulka.recexp.RecexpMatcher;
+import cz.net21.ttulka.recexp.RecexpRuleNotFoundException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * @author ttulka
+ */
+public class SnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameMatchesAfterLoadTest() throws IOException {
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder()
+                    .rule("WORD", "\\w+")
+                    .rule("SENTENCE", "(@WORD\\s)+@WORD?[\\.\\!\\?]")
+                    .rule("a(@this)?b")
+                    .engine(engine)
+                    .build();
+
+            Recexp loaded = Recexp.load(new ByteArrayInputStream(save(recexp)));
+
+            for (String input : Arrays.asList("Hello Recexp!", "Hello!", "aabb", "aab", "")) {
+                assertThat(engine + " '" + input + "'", loaded.matches(input), is(recexp.matches(input)));
+            }
+            RecexpMatcher matcher = loaded.matcher("SENTENCE", "Hello Recexp!");
+
+            assertThat(engine.toString(), matcher.matches(), is(true));
+            assertThat(engine.toString(), matcher.group("@WORD?").value(), is("Recexp"));
+            assertThat(engine.toString(), loaded.matcher("aaabbb").groupCount(), is(recexp.matcher("aaabbb").groupCount()));
+        }
+    }
+
+    @Test
+    public void selfReferencesAfterLoadTest() throws IOException {
+        for (RecexpEngine engine : Arrays.asList(RecexpEngine.EARLEY, RecexpEngine.GLL, RecexpEngine.PACKRAT)) {
+            Recexp recexp = Recexp.builder()
+                    .rule("A", "a@this|b")
+                    .rule("B", "c@this|d")
+                    .engine(engine)
+                    .build();
+
+            Recexp loaded = Recexp.load(new ByteArrayInputStream(save(recexp)));
+
+            for (String input : Arrays.asList("ccd", "aab", "cab", "acd")) {
+                assertThat(engine + " B '" + input + "'", loaded.matcher("B", input).matches(), is(recexp.matcher("B", input).matches()));
+                assertThat(engine + " A '" + input + "'", loaded.matcher("A", input).matches(), is(recexp.matcher("A", input).matches()));
+            }
+            assertThat(engine.toString(), loaded.matcher("B", "ccd").matches(), is(true));
+        }
+    }
+
+    @Test
+    public void flagsAndOptionsTest() throws IOException {
+        Recexp recexp = Recexp.builder()
+                .rule("x@this?")
+                .flags(Pattern.CASE_INSENSITIVE)
+                .engine(RecexpEngine.EARLEY)
+                .bytecode()
+                .countConstraints()
+                .build();
+
+        Recexp loaded = Recexp.load(ByteBuffer.wrap(save(recexp)));
+
+        assertThat(loaded.matches("xXx"), is(true));
+        assertThat(loaded.matches("xy"), is(false));
+        // the same snapshot again
+        assertThat(save(loaded), is(save(recexp)));
+    }
+
+    @Test
+    public void previousVersionTest() throws IOException {
+        byte[] snapshot = save(Recexp.compile("a(@this)?b"));
+        // the version 1 without the count constraints option
+        int option = 4 + 2 + 4 + 4 + RecexpEngine.DERIVATION.name().length() + 1;
+        byte[] previous = new byte[snapshot.length - 1];
+        System.arraycopy(snapshot, 0, previous, 0, option);
+        System.arraycopy(snapshot, option + 1, previous, option, snapshot.length - option - 1);
+        previous[5] = 1;
+
+        Recexp loaded = Recexp.load(ByteBuffer.wrap(previous));
+
+        assertThat(loaded.matches("aabb"), is(true));
+        assertThat(loaded.matches("aab"), is(false));
+        assertThat(save(loaded), is(snapshot));
+    }
+
+    @Test(expected = RecexpRuleNotFoundException.class)
+    public void undefinedReferenceTest() throws IOException {
+        Recexp.load(new ByteArrayInputStream(save(Recexp.compile("a@UNDEFINED")))).matches("a");
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidSnapshotTest() throws IOException {
+        Recexp.load(new ByteArrayInputStream("not a snapshot".getBytes("UTF-8")));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedSnapshotTest() throws IOException {
+        byte[] snapshot = save(Recexp.compile("a@this?b"));
+
+        Recexp.load(ByteBuffer.wrap(snapshot, 0, snapshot.length - 1));
+    }
+
+    @Test
+    public void compilerTest() throws IOException {
+        File rules = folder.newFile();
+        File snapshot = folder.newFile();
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(rules), Charset.forName("UTF-8"));
+        try {
+            writer.write("# arithmetic expressions\n");
+            writer.write("E = @E±@T|@T\n");
+            writer.write("T = @T×@F|@F\n");
+            writer.write("\n");
+            writer.write("F = \\(@E\\)|X|Y\n");
+        } finally {
+            writer.close();
+        }
+        RecexpCompiler.main(new String[]{rules.getPath(), snapshot.getPath(), "EARLEY"});
+
+        InputStream input = new FileInputStream(snapshot);
+        try {
+            Recexp recexp = Recexp.load(input);
+
+            assertThat(recexp.matches("(X±Y)×X"), is(true));
+            assertThat(recexp.matcher("E", "X±Y×X").group(3).value(), is("Y×X"));
+            assertThat(recexp.matches("X±"), is(false));
+        } finally {
+            input.close();
+        }
+    }
+
+    private static byte[] save(Recexp recexp) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        recexp.save(output);
+        return output.toByteArray();
+    }
+}
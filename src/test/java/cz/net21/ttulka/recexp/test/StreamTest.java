@@ -0,0 +1,178 @@
+package cz.net21.ttulka.recexp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import cz.net21.ttulka.recexp.Recexp;
+import cz.net21.ttulka.recexp.RecexpEngine;
+import cz.net21.ttulka.recexp.RecexpRejectionListener;
+import cz.net21.ttulka.recexp.RecexpRuleNotFoundException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * @author ttulka
+ */
+public class StreamTest {
+
+    @Test
+    public void sameMatchesAsStringTest() throws IOException {
+        assertSameMatches(Recexp.compile("a@this?b"), "", "ab", "aabb", "aaabbb", "abb", "ba", "aab");
+        assertSameMatches(Recexp.compile("0(@this)0|1(@this)1|0|1|@eps"), "", "0", "11", "010", "0110", "10101", "10");
+        assertSameMatches(Recexp.compile("(a?)(b?)"), "", "a", "b", "ab", "ba");
+        assertSameMatches(Recexp.compile("\\w+\\s\\w+"), "hello world", "hello  world", "hello");
+        assertSameMatches(Recexp.builder()
+                                  .rule("WORD", "\\w+")
+                                  .rule("SENTENCE", "(@WORD\\s)+@WORD?[\\.\\!\\?]")
+                                  .build(), "Hello Recexp!", "Hello Recexp", "Hello Recexp!!");
+
+        for (RecexpEngine engine : RecexpEngine.values()) {
+            Recexp recexp = Recexp.builder()
+                    .rule("E", "@E±@T|@T")
+                    .rule("T", "@T×@F|@F")
+                    .rule("F", "\\(@E\\)|X|Y")
+                    .engine(engine)
+                    .build();
+
+            assertThat(recexp.matches(new StringReader("((X±X)×(Y×X)±Y×Y×(X))±X×(Y±(X×Y±X))")), is(true));
+            assertThat(recexp.matches(new StringReader("(X×X)(Y×X)")), is(false));
+        }
+    }
+
+    @Test
+    public void channelTest() throws IOException {
+        Recexp recexp = Recexp.compile("X(±@this)?");
+        Charset charset = Charset.forName("UTF-8");
+
+        assertThat(recexp.matches(Channels.newChannel(new ByteArrayInputStream("X±X±X".getBytes(charset))), charset), is(true));
+        assertThat(recexp.matches(Channels.newChannel(new ByteArrayInputStream("X±X±".getBytes(charset))), charset), is(false));
+    }
+
+    @Test
+    public void longStreamTest() throws IOException {
+        Recexp recexp = Recexp.builder()
+                .rule("LINE", "\\d{4}-\\d\\d-\\d\\d (INFO|WARN|ERROR) \\w+")
+                .rule("LOG", "(@LINE\\n)*")
+                .build();
+
+        String line = "2018-10-17 INFO started\n";
+        CountingReader reader = new CountingReader("", line, line.length() * 20000L);
+
+        assertThat(recexp.matches(reader), is(true));
+        assertThat(reader.read, is(line.length() * 20000L));
+    }
+
+    @Test
+    public void earlyRejectionTest() throws IOException {
+        Recexp recexp = Recexp.builder()
+                .rule("LINE", "\\d{4}-\\d\\d-\\d\\d (INFO|WARN|ERROR) \\w+")
+                .rule("LOG", "(@LINE\\n)*")
+                .build();
+
+        String line = "2018-10-17 INFO started\n";
+        CountingReader reader = new CountingReader(line + "2018-10-17 DEBUG started\n", line, Long.MAX_VALUE);
+        final int[] rejected = {-1};
+
+        boolean matches = recexp.matches(reader, new RecexpRejectionListener() {
+            @Override
+            public void rejected(int position) {
+                rejected[0] = position;
+            }
+        });
+
+        assertThat(matches, is(false));
+        assertThat(rejected[0], is(35));
+        assertThat(reader.read, lessThan(100000L));
+    }
+
+    @Test
+    public void rejectionAtEndTest() throws IOException {
+        final int[] rejected = {-1};
+
+        boolean matches = Recexp.compile("a@this?b").matches(new StringReader("aab"), new RecexpRejectionListener() {
+            @Override
+            public void rejected(int position) {
+                rejected[0] = position;
+            }
+        });
+
+        assertThat(matches, is(false));
+        assertThat(rejected[0], is(-1));
+    }
+
+    @Test(expected = IOException.class)
+    public void readingFailureTest() throws IOException {
+        Recexp.compile("a+").matches(new Reader() {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                throw new IOException("broken");
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    @Test(expected = RecexpRuleNotFoundException.class)
+    public void undefinedReferenceTest() throws IOException {
+        Recexp.compile("a@UNDEFINED").matches(new StringReader("ab"));
+    }
+
+    private static void assertSameMatches(Recexp recexp, String... inputs) throws IOException {
+        for (String input : inputs) {
+            assertThat("Matches for '" + input + "'", recexp.matches(new StringReader(input)), is(recexp.matches(input)));
+        }
+    }
+
+    /**
+     * Reader of a prefix followed by a repeated part, counting the read characters.
+     */
+    private static class CountingReader extends Reader {
+
+        private final String prefix;
+        private final String repeated;
+        private final long length;
+
+        long read;
+
+        /**
+         * @param prefix   the prefix
+         * @param repeated the part repeated after the prefix
+         * @param length   the length of the whole input
+         */
+        CountingReader(String prefix, String repeated, long length) {
+            this.prefix = prefix;
+            this.repeated = repeated;
+            this.length = length;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (read >= this.length) {
+                return -1;
+            }
+            int count = (int) Math.min(length, this.length - read);
+            for (int i = 0; i < count; i++) {
+                long position = read + i;
+                buffer[offset + i] = position < prefix.length()
+                                     ? prefix.charAt((int) position)
+                                     : repeated.charAt((int) ((position - prefix.length()) % repeated.length()));
+            }
+            read += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}